@@ -10,6 +10,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -31,6 +32,15 @@ public class CertainBookStore implements BookStore, StockManager {
 	/** The mapping of books from ISBN to {@link BookStoreBook}. */
 	private Map<Integer, BookStoreBook> bookMap = null;
 
+	/** The rated books sorted by average rating. */
+	private final TopRatedIndex topRatedIndex = new TopRatedIndex();
+
+	/**
+	 * The ISBNs of the books with sale misses. Only sale misses and restocks
+	 * change it, so purchases of a book in demand do not copy the book.
+	 */
+	private final Set<Integer> booksInDemand = ConcurrentHashMap.newKeySet();
+
 	/**
 	 * Instantiates a new {@link CertainBookStore}.
 	 */
@@ -40,6 +50,21 @@ public class CertainBookStore implements BookStore, StockManager {
 		bookMap = new HashMap<>();
 	}
 
+	/**
+	 * Adds the book to the books in demand if it had sale misses, or removes
+	 * it otherwise. Called with the store lock held after every update.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	private void updateDemand(BookStoreBook book) {
+		if (book.hadSaleMiss()) {
+			booksInDemand.add(book.getISBN());
+		} else {
+			booksInDemand.remove(book.getISBN());
+		}
+	}
+
 	private synchronized void validate(StockBook book) throws BookStoreException {
 		int isbn = book.getISBN();
 		String bookTitle = book.getTitle();
@@ -115,7 +140,15 @@ public class CertainBookStore implements BookStore, StockManager {
 		// Then add these books to the store.
 		for (StockBook book : bookSet) {
 			int isbn = book.getISBN();
-			bookMap.put(isbn, new BookStoreBook(book));
+			BookStoreBook newBook = new BookStoreBook(book);
+			BookStoreBook oldBook = bookMap.put(isbn, newBook);
+
+			if (oldBook != null) {
+				topRatedIndex.remove(oldBook);
+			}
+
+			topRatedIndex.add(newBook);
+			updateDemand(newBook);
 		}
 
 	}
@@ -146,6 +179,7 @@ public class CertainBookStore implements BookStore, StockManager {
 			numCopies = bookCopy.getNumCopies();
 			book = bookMap.get(isbn);
 			book.addCopies(numCopies);
+			updateDemand(book);
 		}
 
 	}
@@ -221,6 +255,7 @@ public class CertainBookStore implements BookStore, StockManager {
 			for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
 				book = bookMap.get(saleMissEntry.getKey());
 				book.addSaleMiss(saleMissEntry.getValue());
+				updateDemand(book);
 			}
 			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
 		}
@@ -316,34 +351,13 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
 	 */
 	@Override
-	public synchronized List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
-		// throw new BookStoreException();
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
 		if (numBooks < 0) {
 			throw new BookStoreException("Number of books requested must be non-negative.");
 		}
 
-		// Get all books in the store
-		Collection<BookStoreBook> allBooks = bookMap.values();
-
-		// Sort books by average rating in descending order
-		List<BookStoreBook> sortedBooks = allBooks.stream()
-				.filter(book -> book.getNumTimesRated() > 0) // Include only rated books
-				.sorted((b1, b2) -> {
-					float avgRating1 = b1.getAverageRating();
-					float avgRating2 = b2.getAverageRating();
-					return Float.compare(avgRating2, avgRating1); // Descending order
-				})
-				.collect(Collectors.toList());
-
-		// Limit the result to numBooks
-		List<BookStoreBook> topRatedBooks = sortedBooks.stream()
-				.limit(numBooks)
-				.collect(Collectors.toList());
-
-		// Convert to ImmutableBook instances for protection
-		return topRatedBooks.stream()
-				.map(BookStoreBook::immutableBook)
-				.collect(Collectors.toList());
+		// The index is kept sorted by rateBooks, so no lock is needed to read it.
+		return topRatedIndex.getTopRatedBooks(numBooks);
 	}
 
 	/*
@@ -353,15 +367,14 @@ public class CertainBookStore implements BookStore, StockManager {
 	 */
 	@Override
 	public synchronized List<StockBook> getBooksInDemand() throws BookStoreException {
-		// throw new BookStoreException();
-		List<StockBook> booksInDemand = new ArrayList<>();
+		List<StockBook> booksInDemandList = new ArrayList<>(booksInDemand.size());
 
-		for (BookStoreBook book : bookMap.values()) {
-			if (book.getNumSaleMisses() > 0) {  // Check for sale misses
-				booksInDemand.add(book.immutableStockBook());  // Convert to ImmutableStockBook
-			}
+		// Only the books in demand are copied, instead of scanning the catalog.
+		for (int isbn : booksInDemand) {
+			booksInDemandList.add(bookMap.get(isbn).immutableStockBook());
 		}
-		return booksInDemand;
+
+		return booksInDemandList;
 	}
 
 	/*
@@ -391,7 +404,9 @@ public class CertainBookStore implements BookStore, StockManager {
 		// Add ratings to the respective books
 		for (BookRating rating : bookRating) {
 			BookStoreBook book = bookMap.get(rating.getISBN());
+			float oldAverageRating = book.getAverageRating();
 			book.addRating(rating.getRating());
+			topRatedIndex.update(book, oldAverageRating);
 		}
 	}
 
@@ -402,6 +417,8 @@ public class CertainBookStore implements BookStore, StockManager {
 	 */
 	public synchronized void removeAllBooks() throws BookStoreException {
 		bookMap.clear();
+		topRatedIndex.clear();
+		booksInDemand.clear();
 	}
 
 	/*
@@ -425,7 +442,8 @@ public class CertainBookStore implements BookStore, StockManager {
 		}
 
 		for (int isbn : isbnSet) {
-			bookMap.remove(isbn);
+			topRatedIndex.remove(bookMap.remove(isbn));
+			booksInDemand.remove(isbn);
 		}
 	}
 }
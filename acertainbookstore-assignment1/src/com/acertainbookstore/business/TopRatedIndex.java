@@ -0,0 +1,176 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * {@link TopRatedIndex} keeps the rated books of the {@link CertainBookStore}
+ * sorted by decreasing average rating, and by ISBN among books with the same
+ * average rating. It is updated by the store whenever a book is added, rated
+ * or removed, so the k best rated books are read from the head of the index
+ * without sorting the catalog.
+ *
+ * The index is a {@link ConcurrentSkipListSet} and can be read without holding
+ * the lock of the store. A rated book is inserted at its new position before
+ * it is removed from the old one, so a concurrent reader may briefly see it
+ * twice but never misses it; {@link #getTopRatedBooks(int)} skips the repeats.
+ */
+public final class TopRatedIndex {
+
+	/** The rated books, best rated first. */
+	private final ConcurrentSkipListSet<RatedBook> ratedBooks = new ConcurrentSkipListSet<>();
+
+	/**
+	 * Adds a book to the index if it has been rated.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	public void add(BookStoreBook book) {
+		if (book.getNumTimesRated() > 0) {
+			ratedBooks.add(new RatedBook(book.getAverageRating(), book.immutableBook()));
+		}
+	}
+
+	/**
+	 * Moves a book to the position of its current average rating.
+	 *
+	 * @param book
+	 *            the book
+	 * @param oldAverageRating
+	 *            the average rating of the book when it was last added or
+	 *            updated, negative if it had not been rated
+	 */
+	public void update(BookStoreBook book, float oldAverageRating) {
+		float averageRating = book.getAverageRating();
+
+		if (Float.compare(averageRating, oldAverageRating) == 0) {
+			return;
+		}
+
+		add(book);
+		ratedBooks.remove(RatedBook.probe(oldAverageRating, book.getISBN()));
+	}
+
+	/**
+	 * Removes a book from the index.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	public void remove(BookStoreBook book) {
+		ratedBooks.remove(RatedBook.probe(book.getAverageRating(), book.getISBN()));
+	}
+
+	/**
+	 * Removes all books from the index.
+	 */
+	public void clear() {
+		ratedBooks.clear();
+	}
+
+	/**
+	 * Gets the best rated books.
+	 *
+	 * @param numBooks
+	 *            the maximum number of books
+	 * @return the books, best rated first
+	 */
+	public List<Book> getTopRatedBooks(int numBooks) {
+		List<Book> topRatedBooks = new ArrayList<>(Math.min(numBooks, 16));
+		Set<Integer> seenISBNs = new HashSet<>();
+		Iterator<RatedBook> iterator = ratedBooks.iterator();
+
+		while (topRatedBooks.size() < numBooks && iterator.hasNext()) {
+			Book book = iterator.next().book;
+
+			if (seenISBNs.add(book.getISBN())) {
+				topRatedBooks.add(book);
+			}
+		}
+
+		return topRatedBooks;
+	}
+
+	/**
+	 * {@link RatedBook} is an entry of the index. Entries are ordered and
+	 * compared by average rating and ISBN only.
+	 */
+	private static final class RatedBook implements Comparable<RatedBook> {
+
+		/** The average rating. */
+		private final float averageRating;
+
+		/** The ISBN. */
+		private final int isbn;
+
+		/** The book returned to the clients, null for probes. */
+		private final ImmutableBook book;
+
+		/**
+		 * Instantiates a new {@link RatedBook}.
+		 *
+		 * @param averageRating
+		 *            the average rating
+		 * @param book
+		 *            the book
+		 */
+		private RatedBook(float averageRating, ImmutableBook book) {
+			this(averageRating, book.getISBN(), book);
+		}
+
+		private RatedBook(float averageRating, int isbn, ImmutableBook book) {
+			this.averageRating = averageRating;
+			this.isbn = isbn;
+			this.book = book;
+		}
+
+		/**
+		 * Creates an entry that only serves to find the entry of a book.
+		 *
+		 * @param averageRating
+		 *            the average rating
+		 * @param isbn
+		 *            the ISBN
+		 * @return the entry
+		 */
+		private static RatedBook probe(float averageRating, int isbn) {
+			return new RatedBook(averageRating, isbn, null);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Comparable#compareTo(java.lang.Object)
+		 */
+		@Override
+		public int compareTo(RatedBook other) {
+			int byRating = Float.compare(other.averageRating, averageRating);
+			return byRating != 0 ? byRating : Integer.compare(isbn, other.isbn);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof RatedBook && compareTo((RatedBook) obj) == 0;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			return 31 * Float.hashCode(averageRating) + isbn;
+		}
+	}
+}
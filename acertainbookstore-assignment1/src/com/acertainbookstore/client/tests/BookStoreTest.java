@@ -2,6 +2,7 @@ package com.acertainbookstore.client.tests;
 
 import static org.junit.Assert.*;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -806,6 +807,41 @@ public class BookStoreTest {
 	    assertTrue(topRatedBooks.isEmpty());  // If no books are in the store, an empty list should be returned
 	}
 
+	/**
+	 * Test: New ratings move a book in the top rated books, and removed books
+	 * leave them.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetTopRatedBooksAfterRating() throws BookStoreException {
+		// avr rate = 4
+		storeManager.addBooks(Collections.singleton(new ImmutableStockBook(TEST_ISBN + 1, "Book 1", "Author 1",
+				(float) 100, NUM_COPIES, 0, 2, 8, false)));
+		// avr rate = 3
+		storeManager.addBooks(Collections.singleton(new ImmutableStockBook(TEST_ISBN + 2, "Book 2", "Author 2",
+				(float) 50, NUM_COPIES, 0, 1, 3, false)));
+
+		assertEquals(TEST_ISBN + 1, client.getTopRatedBooks(1).get(0).getISBN());
+
+		// avr rate = (3 + 5 + 5) / 3 > 4
+		Set<BookRating> ratings = new HashSet<BookRating>();
+		ratings.add(new BookRating(TEST_ISBN + 2, 5));
+		client.rateBooks(ratings);
+		client.rateBooks(ratings);
+
+		List<Book> booksTopRated = client.getTopRatedBooks(3);
+		assertEquals(2, booksTopRated.size());
+		assertEquals(TEST_ISBN + 2, booksTopRated.get(0).getISBN());
+		assertEquals(TEST_ISBN + 1, booksTopRated.get(1).getISBN());
+
+		storeManager.removeBooks(Collections.singleton(TEST_ISBN + 2));
+		booksTopRated = client.getTopRatedBooks(3);
+		assertEquals(1, booksTopRated.size());
+		assertEquals(TEST_ISBN + 1, booksTopRated.get(0).getISBN());
+	}
+
 
 	/**
 	 * Tear down after class.
@@ -475,6 +475,43 @@ public class StockManagerTest {
 		assertTrue(booksInStoreList.size() == 0);
 	}
 
+	/**
+	 * Tests that a book is in demand after a sale miss, shows its latest
+	 * state, and leaves the books in demand when copies are added.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testBooksInDemandAfterRestock() throws BookStoreException {
+		assertTrue(storeManager.getBooksInDemand().isEmpty());
+
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, NUM_COPIES + 1));
+
+		try {
+			client.buyBooks(booksToBuy);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		booksToBuy.clear();
+		booksToBuy.add(new BookCopy(TEST_ISBN, 1));
+		client.buyBooks(booksToBuy);
+
+		List<StockBook> booksInDemand = storeManager.getBooksInDemand();
+		assertEquals(1, booksInDemand.size());
+		assertEquals(1, booksInDemand.get(0).getNumSaleMisses());
+		assertEquals(NUM_COPIES - 1, booksInDemand.get(0).getNumCopies());
+
+		Set<BookCopy> copiesToAdd = new HashSet<BookCopy>();
+		copiesToAdd.add(new BookCopy(TEST_ISBN, NUM_COPIES));
+		storeManager.addCopies(copiesToAdd);
+
+		assertTrue(storeManager.getBooksInDemand().isEmpty());
+	}
+
 	/**
 	 * Tear down after class.
 	 *
@@ -1,5 +1,8 @@
 package com.acertainbookstore.business;
 
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 import com.acertainbookstore.utils.BookStoreUtility;
 
 /**
@@ -13,8 +16,8 @@ import com.acertainbookstore.utils.BookStoreUtility;
  */
 public class BookStoreBook extends ImmutableBook {
 
-	/** The number of copies. */
-	private int numCopies;
+	/** The number of copies, updated with compare-and-set by buyers. */
+	private final AtomicInteger numCopies = new AtomicInteger();
 
 	/** The total rating. */
 	private long totalRating;
@@ -23,10 +26,10 @@ public class BookStoreBook extends ImmutableBook {
 	private long numTimesRated;
 
 	/** The number of sale misses. */
-	private long numSaleMisses;
+	private final AtomicLong numSaleMisses = new AtomicLong();
 
 	/** Whether the book is editor picked. */
-	private boolean editorPick;
+	private volatile boolean editorPick;
 
 	/**
 	 * Instantiates a new {@link BookStoreBook}.
@@ -93,7 +96,7 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the number of copies
 	 */
 	public int getNumCopies() {
-		return numCopies;
+		return numCopies.get();
 	}
 
 	/**
@@ -102,7 +105,7 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the number of sale misses
 	 */
 	public long getNumSaleMisses() {
-		return numSaleMisses;
+		return numSaleMisses.get();
 	}
 
 	/**
@@ -150,7 +153,7 @@ public class BookStoreBook extends ImmutableBook {
 	 *            the new number of copies
 	 */
 	private void setNumCopies(int numCopies) {
-		this.numCopies = numCopies;
+		this.numCopies.set(numCopies);
 	}
 
 	/**
@@ -161,7 +164,7 @@ public class BookStoreBook extends ImmutableBook {
 	 *            the new sale misses
 	 */
 	private void setNumSaleMisses(long numSaleMisses) {
-		this.numSaleMisses = numSaleMisses;
+		this.numSaleMisses.set(numSaleMisses);
 	}
 
 	/**
@@ -183,7 +186,7 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return true, if successful
 	 */
 	public boolean areCopiesInStore(int numCopies) {
-		return this.numCopies >= numCopies;
+		return this.numCopies.get() >= numCopies;
 	}
 
 	/**
@@ -194,12 +197,21 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return true, if successful
 	 */
 	public boolean buyCopies(int numCopies) {
-		if (!BookStoreUtility.isInvalidNoCopies(numCopies) && areCopiesInStore(numCopies)) {
-			this.numCopies -= numCopies;
-			return true;
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) {
+			return false;
 		}
 
-		return false;
+		int currentCopies;
+
+		do {
+			currentCopies = this.numCopies.get();
+
+			if (currentCopies < numCopies) {
+				return false;
+			}
+		} while (!this.numCopies.compareAndSet(currentCopies, currentCopies - numCopies));
+
+		return true;
 	}
 
 	/**
@@ -210,11 +222,18 @@ public class BookStoreBook extends ImmutableBook {
 	 */
 	public void addCopies(int numNewCopies) {
 		if (!BookStoreUtility.isInvalidNoCopies(numNewCopies)) {
-			this.numCopies += numNewCopies;
-			this.numSaleMisses = 0;
+			this.numCopies.addAndGet(numNewCopies);
+			this.numSaleMisses.set(0);
 		}
 	}
 
+	/**
+	 * Clears the sale misses, such as once copies of the book were added.
+	 */
+	public void clearSaleMisses() {
+		this.numSaleMisses.set(0);
+	}
+
 	/**
 	 * Increments the amount of missed sales of the book.
 	 * 
@@ -222,7 +241,7 @@ public class BookStoreBook extends ImmutableBook {
 	 *            the number of sales misses encountered
 	 */
 	public void addSaleMiss(int numSaleMisses) {
-		this.numSaleMisses += numSaleMisses;
+		this.numSaleMisses.addAndGet(numSaleMisses);
 	}
 
 	/**
@@ -245,7 +264,7 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return true, if successful
 	 */
 	public boolean hadSaleMiss() {
-		return this.numSaleMisses > 0;
+		return this.numSaleMisses.get() > 0;
 	}
 
 	/**
@@ -276,7 +295,7 @@ public class BookStoreBook extends ImmutableBook {
 	 */
 	public StockBook immutableStockBook() {
 		return new ImmutableStockBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
-				this.getPrice(), this.numCopies, this.numSaleMisses, this.numTimesRated, this.totalRating,
+				this.getPrice(), this.numCopies.get(), this.numSaleMisses.get(), this.numTimesRated, this.totalRating,
 				this.editorPick);
 	}
 
@@ -287,6 +306,6 @@ public class BookStoreBook extends ImmutableBook {
 	 */
 	public BookStoreBook copy() {
 		return new BookStoreBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
-				this.getPrice(), this.numCopies);
+				this.getPrice(), this.numCopies.get());
 	}
 }
@@ -0,0 +1,524 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/** {@link CopyOnWriteCertainBookStore} implements the {@link BookStore} and
+ * {@link StockManager} functionalities for read-mostly workloads.
+ *
+ * What customers can read about a book (ISBN, title, author, price and whether it is an
+ * editor pick) only changes when the stock manager adds or removes books or updates the
+ * editor picks. This class keeps that part of the store in an immutable {@link Catalog}
+ * of pre-built {@link ImmutableBook}s, published through a single volatile reference and
+ * replaced copy-on-write by those operations. The books of the catalog are kept in a
+ * {@link PersistentIntMap} and the editor picks are updated from the previous ones, so a
+ * new catalog costs the books changed and the editor picks rather than the whole
+ * catalog. {@link #getBooks(Set)} and
+ * {@link #getEditorPicks(int)} read the catalog without locking and return the
+ * pre-built books without copying them.
+ *
+ * The stock of the books changes with every purchase, so it is kept in mutable
+ * {@link BookStoreBook}s guarded by a lock that also serializes all writers.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class CopyOnWriteCertainBookStore implements BookStore, StockManager {
+
+	/** The lock serializing the writers and guarding the stock. */
+	private final Lock lock = new ReentrantLock(true);
+
+	/** The mapping of books from ISBN to {@link BookStoreBook}. */
+	private final Map<Integer, BookStoreBook> bookMap = new HashMap<>();
+
+	/** The catalog read by customers. */
+	private volatile Catalog catalog = new Catalog(PersistentIntMap.empty(), Collections.emptyList());
+
+	/**
+	 * {@link Catalog} is an immutable view of the books in the store, as seen by
+	 * customers.
+	 */
+	private static final class Catalog {
+
+		/** The mapping of books from ISBN to {@link ImmutableBook}. */
+		private final PersistentIntMap<ImmutableBook> books;
+
+		/** The editor picks. */
+		private final List<ImmutableBook> editorPicks;
+
+		/**
+		 * Instantiates a new {@link Catalog}. The editor picks are not copied
+		 * and must not be changed afterwards.
+		 *
+		 * @param books
+		 *            the books
+		 * @param editorPicks
+		 *            the books that are editor picks
+		 */
+		private Catalog(PersistentIntMap<ImmutableBook> books, List<ImmutableBook> editorPicks) {
+			this.books = books;
+			this.editorPicks = Collections.unmodifiableList(editorPicks);
+		}
+	}
+
+	/**
+	 * Instantiates a new {@link CopyOnWriteCertainBookStore}.
+	 */
+	public CopyOnWriteCertainBookStore() {
+		// Constructors are not synchronized
+	}
+
+	/**
+	 * Publishes a new catalog in which the given books replace or are added to
+	 * the current ones, and the books with the given ISBNs are removed. Must be
+	 * called while holding the lock, after {@link #bookMap} has been updated.
+	 *
+	 * @param updatedBooks
+	 *            the books to replace or add
+	 * @param removedISBNs
+	 *            the ISBNs of the books to remove
+	 */
+	private void publishCatalog(Collection<BookStoreBook> updatedBooks, Collection<Integer> removedISBNs) {
+		PersistentIntMap<ImmutableBook> books = catalog.books;
+		Map<Integer, BookStoreBook> changedBooks = new LinkedHashMap<>();
+
+		for (BookStoreBook book : updatedBooks) {
+			changedBooks.put(book.getISBN(), book);
+		}
+
+		Set<Integer> changedISBNs = new HashSet<>(changedBooks.keySet());
+		changedISBNs.addAll(removedISBNs);
+		List<ImmutableBook> newEditorPicks = new ArrayList<>();
+
+		for (BookStoreBook book : changedBooks.values()) {
+			ImmutableBook immutableBook = book.immutableBook();
+			books = books.put(book.getISBN(), immutableBook);
+
+			if (book.isEditorPick()) {
+				newEditorPicks.add(immutableBook);
+			}
+		}
+
+		for (Integer ISBN : removedISBNs) {
+			books = books.remove(ISBN);
+		}
+
+		// Only the changed books can join or leave the editor picks.
+		List<ImmutableBook> editorPicks = new ArrayList<>(catalog.editorPicks.size() + newEditorPicks.size());
+
+		for (ImmutableBook book : catalog.editorPicks) {
+			if (!changedISBNs.contains(book.getISBN())) {
+				editorPicks.add(book);
+			}
+		}
+
+		editorPicks.addAll(newEditorPicks);
+		catalog = new Catalog(books, editorPicks);
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookMap.containsKey(isbn)) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private void validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+	}
+
+	private void validate(BookEditorPick editorPickArg) throws BookStoreException {
+		int isbn = editorPickArg.getISBN();
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+	}
+
+	private void validateISBNInStock(Integer ISBN) throws BookStoreException {
+		validateISBNInStock(ISBN, bookMap.containsKey(ISBN));
+	}
+
+	private static void validateISBNInStock(Integer ISBN, boolean inStock) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+		if (!inStock) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.lock();
+		try {
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			List<BookStoreBook> newBooks = new ArrayList<>(bookSet.size());
+
+			for (StockBook book : bookSet) {
+				BookStoreBook newBook = new BookStoreBook(book);
+				bookMap.put(book.getISBN(), newBook);
+				newBooks.add(newBook);
+			}
+
+			publishCatalog(newBooks, Collections.emptyList());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.lock();
+		try {
+			for (BookCopy bookCopy : bookCopiesSet) {
+				validate(bookCopy);
+			}
+
+			// Update the number of copies
+			for (BookCopy bookCopy : bookCopiesSet) {
+				bookMap.get(bookCopy.getISBN()).addCopies(bookCopy.getNumCopies());
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() {
+		lock.lock();
+		try {
+			Collection<BookStoreBook> bookMapValues = bookMap.values();
+
+			return bookMapValues.stream()
+					.map(book -> book.immutableStockBook())
+					.collect(Collectors.toList());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.lock();
+		try {
+			for (BookEditorPick editorPickArg : editorPicks) {
+				validate(editorPickArg);
+			}
+
+			List<BookStoreBook> updatedBooks = new ArrayList<>(editorPicks.size());
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				BookStoreBook book = bookMap.get(editorPickArg.getISBN());
+				book.setEditorPick(editorPickArg.isEditorPick());
+				updatedBooks.add(book);
+			}
+
+			publishCatalog(updatedBooks, Collections.emptyList());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.lock();
+		try {
+			// Check that all ISBNs that we buy are there first.
+			int isbn;
+			BookStoreBook book;
+			Boolean saleMiss = false;
+
+			Map<Integer, Integer> salesMisses = new HashMap<>();
+
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				isbn = bookCopyToBuy.getISBN();
+
+				validate(bookCopyToBuy);
+
+				book = bookMap.get(isbn);
+
+				if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+					// If we cannot sell the copies of the book, it is a miss.
+					salesMisses.put(isbn, bookCopyToBuy.getNumCopies() - book.getNumCopies());
+					saleMiss = true;
+				}
+			}
+
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand
+			if (saleMiss) {
+				for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+					book = bookMap.get(saleMissEntry.getKey());
+					book.addSaleMiss(saleMissEntry.getValue());
+				}
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			// Then make the purchase.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				book = bookMap.get(bookCopyToBuy.getISBN());
+				book.buyCopies(bookCopyToBuy.getNumCopies());
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.lock();
+		try {
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			return isbnSet.stream()
+					.map(isbn -> bookMap.get(isbn).immutableStockBook())
+					.collect(Collectors.toList());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		PersistentIntMap<ImmutableBook> books = catalog.books;
+
+		// Check that all ISBNs that we rate are there to start with.
+		for (Integer ISBN : isbnSet) {
+			validateISBNInStock(ISBN, books.containsKey(ISBN));
+		}
+
+		List<Book> result = new ArrayList<>(isbnSet.size());
+
+		for (Integer ISBN : isbnSet) {
+			result.add(books.get(ISBN));
+		}
+
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		List<ImmutableBook> listAllEditorPicks = catalog.editorPicks;
+
+		int rangePicks = listAllEditorPicks.size();
+
+		if (rangePicks <= numBooks) {
+
+			// We need to add all books.
+			return new ArrayList<Book>(listAllEditorPicks);
+		}
+
+		// We need to pick randomly the books that need to be returned.
+		Random rand = new Random();
+		Set<Integer> tobePicked = new HashSet<>();
+		int randNum;
+
+		while (tobePicked.size() < numBooks) {
+			randNum = rand.nextInt(rangePicks);
+			tobePicked.add(randNum);
+		}
+
+		// Return all the books by the randomly chosen indices.
+		return tobePicked.stream()
+				.map(index -> (Book) listAllEditorPicks.get(index))
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		lock.lock();
+		try {
+			bookMap.clear();
+			catalog = new Catalog(PersistentIntMap.empty(), Collections.emptyList());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.lock();
+		try {
+			for (Integer ISBN : isbnSet) {
+				if (BookStoreUtility.isInvalidISBN(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+				}
+
+				if (!bookMap.containsKey(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+				}
+			}
+
+			for (int isbn : isbnSet) {
+				bookMap.remove(isbn);
+			}
+
+			publishCatalog(Collections.emptyList(), isbnSet);
+		} finally {
+			lock.unlock();
+		}
+	}
+}
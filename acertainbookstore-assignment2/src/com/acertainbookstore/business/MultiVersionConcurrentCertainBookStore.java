@@ -0,0 +1,774 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/** {@link MultiVersionConcurrentCertainBookStore} implements the {@link BookStore} and
+ * {@link StockManager} functionalities.
+ *
+ * This class keeps several committed versions of every book. Writers take the database
+ * lock in exclusive mode for inserts and deletes, and otherwise in shared mode along
+ * with the exclusive locks of the books they write, taken in stripe order, so writers
+ * of different books run concurrently. Each write operation then commits all its
+ * changes under one new timestamp and publishes that timestamp, holding the commit
+ * lock only for that step. Readers take no lock at all: they read the last published
+ * timestamp and, for every book, the newest version committed at or before it, so
+ * every read operation sees a consistent snapshot of the store.
+ *
+ * Only the newest {@link #NUM_VERSIONS_KEPT} versions of a book are kept, and removed
+ * books are dropped from the store. A reader whose snapshot needs a dropped version
+ * notices it and starts over on a newer snapshot; after {@link #MAX_SNAPSHOT_RETRIES}
+ * attempts, such as a scan of every book under steady writes, it reads while holding
+ * the commit lock, so that no version it needs is dropped.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class MultiVersionConcurrentCertainBookStore implements BookStore, StockManager {
+
+	/** The number of versions kept per book. */
+	private static final int NUM_VERSIONS_KEPT = 4;
+
+	/** The number of snapshots a reader tries before holding the commit lock. */
+	private static final int MAX_SNAPSHOT_RETRIES = 8;
+
+	/** Thrown when a version needed by a snapshot has been dropped. */
+	private static final SnapshotTooOldException SNAPSHOT_TOO_OLD = new SnapshotTooOldException();
+
+	/** The lock taken in exclusive mode by inserts and deletes, in shared mode by other writers. */
+	private final ReadWriteLock dbLock = new ReentrantReadWriteLock(true);
+
+	/** The locks of the books, taken in exclusive mode by their writers. */
+	private final StripedReadWriteLock bookLocks = new StripedReadWriteLock();
+
+	/** The lock ordering the commits, held while new versions are installed and published. */
+	private final Lock commitLock = new ReentrantLock();
+
+	/** The mapping of books from ISBN to their newest {@link BookVersion}. */
+	private final Map<Integer, BookVersion> bookMap = new ConcurrentHashMap<>();
+
+	/** The timestamp of the last committed write. */
+	private volatile long lastCommitted = 0;
+
+	/** Snapshots taken before this timestamp may miss removed books. */
+	private volatile long oldestValidSnapshot = 0;
+
+	/**
+	 * {@link BookVersion} is the state of a book as committed by one write.
+	 */
+	private static final class BookVersion {
+
+		/** The timestamp of the write that committed this version. */
+		private final long commitTimestamp;
+
+		/** The book. */
+		private final ImmutableStockBook book;
+
+		/** Whether there was no version of the book before this one. */
+		private final boolean first;
+
+		/** The previous version, or null if it has been dropped. */
+		private volatile BookVersion previous;
+
+		/**
+		 * Instantiates a new {@link BookVersion}.
+		 *
+		 * @param commitTimestamp
+		 *            the commit timestamp
+		 * @param book
+		 *            the book
+		 * @param previous
+		 *            the previous version, or null if the book is new
+		 */
+		private BookVersion(long commitTimestamp, ImmutableStockBook book, BookVersion previous) {
+			this.commitTimestamp = commitTimestamp;
+			this.book = book;
+			this.first = previous == null;
+			this.previous = previous;
+		}
+	}
+
+	/**
+	 * {@link SnapshotTooOldException} signals that a reader needs a version that
+	 * has been dropped.
+	 */
+	private static final class SnapshotTooOldException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Instantiates a new {@link SnapshotTooOldException} without a stack trace.
+		 */
+		private SnapshotTooOldException() {
+			super(null, null, false, false);
+		}
+	}
+
+	/**
+	 * {@link SnapshotRead} is a read operation run against a snapshot.
+	 *
+	 * @param <T>
+	 *            the result type
+	 */
+	@FunctionalInterface
+	private interface SnapshotRead<T> {
+
+		/**
+		 * Runs the read.
+		 *
+		 * @param snapshot
+		 *            the snapshot timestamp
+		 * @return the result
+		 * @throws BookStoreException
+		 *             the book store exception
+		 */
+		T read(long snapshot) throws BookStoreException;
+	}
+
+	/**
+	 * Instantiates a new {@link MultiVersionConcurrentCertainBookStore}.
+	 */
+	public MultiVersionConcurrentCertainBookStore() {
+		// Constructors are not synchronized
+	}
+
+	/**
+	 * Runs a read against the newest snapshot, starting over if the snapshot
+	 * became too old while it was being read, and holding the commit lock once
+	 * too many snapshots became too old.
+	 *
+	 * @param read
+	 *            the read
+	 * @return the result of the read
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private <T> T readSnapshot(SnapshotRead<T> read) throws BookStoreException {
+		for (int attempt = 0; attempt < MAX_SNAPSHOT_RETRIES; attempt++) {
+			long snapshot = lastCommitted;
+
+			try {
+				T result = read.read(snapshot);
+
+				if (oldestValidSnapshot <= snapshot) {
+					return result;
+				}
+			} catch (SnapshotTooOldException ex) {
+				// Start over on a newer snapshot.
+			} catch (BookStoreException ex) {
+				if (oldestValidSnapshot <= snapshot) {
+					throw ex;
+				}
+			}
+		}
+
+		// No version is dropped while no write commits.
+		commitLock.lock();
+		try {
+			return read.read(lastCommitted);
+		} finally {
+			commitLock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the book as of the snapshot.
+	 *
+	 * @param version
+	 *            the newest version of the book, or null
+	 * @param snapshot
+	 *            the snapshot timestamp
+	 * @return the book, or null if it was not in the store
+	 */
+	private static ImmutableStockBook bookAt(BookVersion version, long snapshot) {
+		while (version != null && version.commitTimestamp > snapshot) {
+			if (version.first) {
+				return null;
+			}
+
+			version = version.previous;
+
+			if (version == null) {
+				throw SNAPSHOT_TOO_OLD;
+			}
+		}
+
+		return (version == null) ? null : version.book;
+	}
+
+	/**
+	 * Gets a book as of the snapshot, checking that it was in the store.
+	 *
+	 * @param ISBN
+	 *            the ISBN
+	 * @param snapshot
+	 *            the snapshot timestamp
+	 * @return the book
+	 * @throws BookStoreException
+	 *             if the ISBN is invalid or the book was not in the store
+	 */
+	private ImmutableStockBook bookInStockAt(Integer ISBN, long snapshot) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+
+		ImmutableStockBook book = bookAt(bookMap.get(ISBN), snapshot);
+
+		if (book == null) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		return book;
+	}
+
+	/**
+	 * Gets all the books as of the snapshot.
+	 *
+	 * @param snapshot
+	 *            the snapshot timestamp
+	 * @return the books
+	 */
+	private List<ImmutableStockBook> allBooksAt(long snapshot) {
+		List<ImmutableStockBook> books = new ArrayList<>();
+
+		for (BookVersion version : bookMap.values()) {
+			ImmutableStockBook book = bookAt(version, snapshot);
+
+			if (book != null) {
+				books.add(book);
+			}
+		}
+
+		return books;
+	}
+
+	/**
+	 * Acquires the exclusive locks of the books in the order given by
+	 * {@link StripedReadWriteLock#getAll(Collection)}.
+	 *
+	 * @param isbns
+	 *            the ISBNs of the books
+	 * @return the acquired locks, to be passed to {@link #unlockBooks(List)}
+	 */
+	private List<ReadWriteLock> lockBooks(Collection<Integer> isbns) {
+		List<ReadWriteLock> locks = bookLocks.getAll(isbns);
+
+		for (ReadWriteLock lock : locks) {
+			lock.writeLock().lock();
+		}
+
+		return locks;
+	}
+
+	/**
+	 * Releases the exclusive locks acquired by {@link #lockBooks(Collection)}.
+	 *
+	 * @param locks
+	 *            the locks
+	 */
+	private void unlockBooks(List<ReadWriteLock> locks) {
+		for (int i = locks.size() - 1; i >= 0; i--) {
+			locks.get(i).writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Gets the newest committed version of a book. Must be called by a writer
+	 * holding the lock of the book.
+	 *
+	 * @param ISBN
+	 *            the ISBN
+	 * @return the book
+	 */
+	private BookStoreBook latestBook(int ISBN) {
+		return new BookStoreBook(bookMap.get(ISBN).book);
+	}
+
+	/**
+	 * Installs new versions of the books and publishes them. Must be called by a
+	 * writer holding the locks of the books.
+	 *
+	 * @param books
+	 *            the new versions of the books
+	 */
+	private void commit(Map<Integer, BookStoreBook> books) {
+		commitLock.lock();
+		try {
+			long commitTimestamp = lastCommitted + 1;
+
+			for (BookStoreBook book : books.values()) {
+				BookVersion version = new BookVersion(commitTimestamp, (ImmutableStockBook) book.immutableStockBook(),
+						bookMap.get(book.getISBN()));
+				bookMap.put(book.getISBN(), version);
+
+				// Drop the versions no recent snapshot needs.
+				for (int i = 1; i < NUM_VERSIONS_KEPT && version != null; i++) {
+					version = version.previous;
+				}
+
+				if (version != null) {
+					version.previous = null;
+				}
+			}
+
+			lastCommitted = commitTimestamp;
+		} finally {
+			commitLock.unlock();
+		}
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookMap.containsKey(isbn)) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private void validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+	}
+
+	private void validate(BookEditorPick editorPickArg) throws BookStoreException {
+		int isbn = editorPickArg.getISBN();
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+	}
+
+	private void validateISBNInStock(Integer ISBN) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+		if (!bookMap.containsKey(ISBN)) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		dbLock.writeLock().lock();
+		try {
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			Map<Integer, BookStoreBook> newBooks = new HashMap<>();
+
+			for (StockBook book : bookSet) {
+				newBooks.put(book.getISBN(), new BookStoreBook(book));
+			}
+
+			commit(newBooks);
+		} finally {
+			dbLock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		dbLock.readLock().lock();
+		try {
+			for (BookCopy bookCopy : bookCopiesSet) {
+				validate(bookCopy);
+			}
+
+			List<ReadWriteLock> locks = lockBooks(bookCopiesSet.stream()
+					.map(bookCopy -> bookCopy.getISBN())
+					.collect(Collectors.toList()));
+			try {
+				Map<Integer, BookStoreBook> updatedBooks = new HashMap<>();
+
+				// Update the number of copies
+				for (BookCopy bookCopy : bookCopiesSet) {
+					updatedBooks.computeIfAbsent(bookCopy.getISBN(), this::latestBook)
+							.addCopies(bookCopy.getNumCopies());
+				}
+
+				commit(updatedBooks);
+			} finally {
+				unlockBooks(locks);
+			}
+		} finally {
+			dbLock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() throws BookStoreException {
+		return readSnapshot(snapshot -> new ArrayList<StockBook>(allBooksAt(snapshot)));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		dbLock.readLock().lock();
+		try {
+			for (BookEditorPick editorPickArg : editorPicks) {
+				validate(editorPickArg);
+			}
+
+			List<ReadWriteLock> locks = lockBooks(editorPicks.stream()
+					.map(editorPickArg -> editorPickArg.getISBN())
+					.collect(Collectors.toList()));
+			try {
+				Map<Integer, BookStoreBook> updatedBooks = new HashMap<>();
+
+				for (BookEditorPick editorPickArg : editorPicks) {
+					updatedBooks.computeIfAbsent(editorPickArg.getISBN(), this::latestBook)
+							.setEditorPick(editorPickArg.isEditorPick());
+				}
+
+				commit(updatedBooks);
+			} finally {
+				unlockBooks(locks);
+			}
+		} finally {
+			dbLock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		dbLock.readLock().lock();
+		try {
+			// Check that all ISBNs that we buy are there first.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				validate(bookCopyToBuy);
+			}
+
+			List<ReadWriteLock> locks = lockBooks(bookCopiesToBuy.stream()
+					.map(bookCopyToBuy -> bookCopyToBuy.getISBN())
+					.collect(Collectors.toList()));
+			try {
+				buyLockedBooks(bookCopiesToBuy);
+			} finally {
+				unlockBooks(locks);
+			}
+		} finally {
+			dbLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Buys the books, or records the sale misses if some books do not have
+	 * enough copies. Must be called holding the locks of the books.
+	 *
+	 * @param bookCopiesToBuy
+	 *            the copies to buy
+	 * @throws BookStoreException
+	 *             if some books do not have enough copies
+	 */
+	private void buyLockedBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		int isbn;
+		BookStoreBook book;
+		Boolean saleMiss = false;
+
+		Map<Integer, Integer> salesMisses = new HashMap<>();
+		Map<Integer, BookStoreBook> updatedBooks = new HashMap<>();
+
+		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+			isbn = bookCopyToBuy.getISBN();
+			book = updatedBooks.computeIfAbsent(isbn, this::latestBook);
+
+			if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+				// If we cannot sell the copies of the book, it is a miss.
+				salesMisses.put(isbn, bookCopyToBuy.getNumCopies() - book.getNumCopies());
+				saleMiss = true;
+			}
+		}
+
+		// We throw exception now since we want to see how many books in the
+		// order incurred misses which is used by books in demand
+		if (saleMiss) {
+			Map<Integer, BookStoreBook> missedBooks = new HashMap<>();
+
+			for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+				book = updatedBooks.get(saleMissEntry.getKey());
+				book.addSaleMiss(saleMissEntry.getValue());
+				missedBooks.put(saleMissEntry.getKey(), book);
+			}
+
+			commit(missedBooks);
+			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		// Then make the purchase.
+		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+			book = updatedBooks.get(bookCopyToBuy.getISBN());
+			book.buyCopies(bookCopyToBuy.getNumCopies());
+		}
+
+		commit(updatedBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		return readSnapshot(snapshot -> {
+			List<StockBook> books = new ArrayList<>(isbnSet.size());
+
+			for (Integer ISBN : isbnSet) {
+				books.add(bookInStockAt(ISBN, snapshot));
+			}
+
+			return books;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		return readSnapshot(snapshot -> {
+			List<Book> books = new ArrayList<>(isbnSet.size());
+
+			for (Integer ISBN : isbnSet) {
+				ImmutableStockBook book = bookInStockAt(ISBN, snapshot);
+				books.add(new ImmutableBook(book.getISBN(), book.getTitle(), book.getAuthor(), book.getPrice()));
+			}
+
+			return books;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		List<ImmutableStockBook> listAllEditorPicks = readSnapshot(snapshot -> allBooksAt(snapshot).stream()
+				.filter(book -> book.isEditorPick())
+				.collect(Collectors.toList()));
+
+		// Find numBooks random indices of books that will be picked.
+		Random rand = new Random();
+		Set<Integer> tobePicked = new HashSet<>();
+		int rangePicks = listAllEditorPicks.size();
+
+		if (rangePicks <= numBooks) {
+
+			// We need to add all books.
+			for (int i = 0; i < listAllEditorPicks.size(); i++) {
+				tobePicked.add(i);
+			}
+		} else {
+
+			// We need to pick randomly the books that need to be returned.
+			int randNum;
+
+			while (tobePicked.size() < numBooks) {
+				randNum = rand.nextInt(rangePicks);
+				tobePicked.add(randNum);
+			}
+		}
+
+		// Return all the books by the randomly chosen indices.
+		return tobePicked.stream()
+				.map(index -> listAllEditorPicks.get(index))
+				.map(book -> new ImmutableBook(book.getISBN(), book.getTitle(), book.getAuthor(), book.getPrice()))
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		dbLock.writeLock().lock();
+		commitLock.lock();
+		try {
+			long commitTimestamp = lastCommitted + 1;
+
+			// Snapshots taken before the removal can no longer be read.
+			oldestValidSnapshot = commitTimestamp;
+			bookMap.clear();
+			lastCommitted = commitTimestamp;
+		} finally {
+			commitLock.unlock();
+			dbLock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		dbLock.writeLock().lock();
+		try {
+			for (Integer ISBN : isbnSet) {
+				if (BookStoreUtility.isInvalidISBN(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+				}
+
+				if (!bookMap.containsKey(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+				}
+			}
+
+			commitLock.lock();
+			try {
+				long commitTimestamp = lastCommitted + 1;
+
+				// Snapshots taken before the removal can no longer be read.
+				oldestValidSnapshot = commitTimestamp;
+
+				for (int isbn : isbnSet) {
+					bookMap.remove(isbn);
+				}
+
+				lastCommitted = commitTimestamp;
+			} finally {
+				commitLock.unlock();
+			}
+		} finally {
+			dbLock.writeLock().unlock();
+		}
+	}
+}
@@ -0,0 +1,522 @@
+package com.acertainbookstore.business;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/** {@link OptimisticConcurrentCertainBookStore} implements the {@link BookStore} and
+ * {@link StockManager} functionalities.
+ *
+ * Inserts and deletes take the database lock in exclusive mode, all other operations
+ * take it in shared mode. There are no per-book locks: the numbers of copies of all
+ * books are kept in one immutable {@link PersistentIntMap}, and {@link #buyBooks(Set)}
+ * checks a purchase of several books against the current map and publishes a new map
+ * with a single compare-and-set. A purchase is thus seen whole or not at all, by
+ * readers and by other buyers alike. If a concurrent writer published another map
+ * first, the purchase is retried. After {@link #MAX_OPTIMISTIC_RETRIES} failed attempts
+ * the purchase falls back to the database lock in exclusive mode, so it always makes
+ * progress.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class OptimisticConcurrentCertainBookStore implements BookStore, StockManager {
+
+	/** The number of optimistic attempts made by a purchase before it takes the exclusive lock. */
+	private static final int MAX_OPTIMISTIC_RETRIES = 16;
+
+	/** The lock protecting the set of books in the store. */
+	private final ReadWriteLock dbLock = new ReentrantReadWriteLock(true);
+
+	/** The mapping of books from ISBN to {@link BookStoreBook}. */
+	private Map<Integer, BookStoreBook> bookMap = null;
+
+	/**
+	 * The number of copies of every book by ISBN, replaced as a whole by every
+	 * change; the copies kept in the {@link BookStoreBook} are not used.
+	 */
+	private final AtomicReference<PersistentIntMap<Integer>> stock = new AtomicReference<>(
+			PersistentIntMap.<Integer>empty());
+
+	/**
+	 * Instantiates a new {@link OptimisticConcurrentCertainBookStore}.
+	 */
+	public OptimisticConcurrentCertainBookStore() {
+		// Constructors are not synchronized
+		bookMap = new HashMap<>();
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookMap.containsKey(isbn)) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private void validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+	}
+
+	private void validate(BookEditorPick editorPickArg) throws BookStoreException {
+		int isbn = editorPickArg.getISBN();
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+	}
+
+	private void validateISBNInStock(Integer ISBN) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+		if (!bookMap.containsKey(ISBN)) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		dbLock.writeLock().lock();
+		try {
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			PersistentIntMap<Integer> newStock = stock.get();
+
+			for (StockBook book : bookSet) {
+				int isbn = book.getISBN();
+				bookMap.put(isbn, new BookStoreBook(book));
+				newStock = newStock.put(isbn, book.getNumCopies());
+			}
+
+			stock.set(newStock);
+		} finally {
+			dbLock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		dbLock.readLock().lock();
+		try {
+			for (BookCopy bookCopy : bookCopiesSet) {
+				validate(bookCopy);
+			}
+
+			PersistentIntMap<Integer> currentStock;
+			PersistentIntMap<Integer> newStock;
+
+			do {
+				currentStock = stock.get();
+				newStock = currentStock;
+
+				for (BookCopy bookCopy : bookCopiesSet) {
+					int isbn = bookCopy.getISBN();
+					newStock = newStock.put(isbn, newStock.get(isbn) + bookCopy.getNumCopies());
+				}
+			} while (!stock.compareAndSet(currentStock, newStock));
+
+			for (BookCopy bookCopy : bookCopiesSet) {
+				bookMap.get(bookCopy.getISBN()).clearSaleMisses();
+			}
+		} finally {
+			dbLock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() {
+		dbLock.readLock().lock();
+		try {
+			Collection<BookStoreBook> bookMapValues = bookMap.values();
+			PersistentIntMap<Integer> currentStock = stock.get();
+
+			return bookMapValues.stream()
+					.map(book -> immutableStockBook(book, currentStock))
+					.collect(Collectors.toList());
+		} finally {
+			dbLock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		dbLock.readLock().lock();
+		try {
+			for (BookEditorPick editorPickArg : editorPicks) {
+				validate(editorPickArg);
+			}
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				bookMap.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
+			}
+		} finally {
+			dbLock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// Copies of the same book are bought together, and books are taken in ISBN order.
+		Map<Integer, Integer> copiesToBuy = new TreeMap<>();
+
+		dbLock.readLock().lock();
+		try {
+			// Check that all ISBNs that we buy are there first.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				validate(bookCopyToBuy);
+				copiesToBuy.merge(bookCopyToBuy.getISBN(), bookCopyToBuy.getNumCopies(), Integer::sum);
+			}
+
+			for (int attempt = 0; attempt < MAX_OPTIMISTIC_RETRIES; attempt++) {
+				if (tryBuyBooks(copiesToBuy)) {
+					return;
+				}
+			}
+		} finally {
+			dbLock.readLock().unlock();
+		}
+
+		// Too much contention, so buy with every other writer locked out.
+		dbLock.writeLock().lock();
+		try {
+			for (Integer ISBN : copiesToBuy.keySet()) {
+				validateISBNInStock(ISBN);
+			}
+
+			tryBuyBooks(copiesToBuy);
+		} finally {
+			dbLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Makes one optimistic attempt to buy the books. The numbers of copies are
+	 * read from the current stock; if some book does not have enough copies,
+	 * the sale misses are only recorded if the stock was not replaced in
+	 * between. Otherwise the stock with every book bought is published with a
+	 * single compare-and-set, which fails if another writer got in between.
+	 *
+	 * @param copiesToBuy
+	 *            the number of copies to buy per ISBN, in ISBN order
+	 * @return true, if the purchase was committed, false if it must be retried
+	 * @throws BookStoreException
+	 *             if some books do not have enough copies
+	 */
+	private boolean tryBuyBooks(Map<Integer, Integer> copiesToBuy) throws BookStoreException {
+		PersistentIntMap<Integer> currentStock = stock.get();
+		PersistentIntMap<Integer> newStock = currentStock;
+		boolean saleMiss = false;
+
+		for (Map.Entry<Integer, Integer> entry : copiesToBuy.entrySet()) {
+			int numCopies = currentStock.get(entry.getKey());
+			saleMiss |= numCopies < entry.getValue();
+			newStock = newStock.put(entry.getKey(), numCopies - entry.getValue());
+		}
+
+		if (saleMiss) {
+			if (stock.get() != currentStock) {
+				return false;
+			}
+
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand
+			for (Map.Entry<Integer, Integer> entry : copiesToBuy.entrySet()) {
+				int numCopies = currentStock.get(entry.getKey());
+
+				if (numCopies < entry.getValue()) {
+					bookMap.get(entry.getKey()).addSaleMiss(entry.getValue() - numCopies);
+				}
+			}
+			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		// Then make the purchase, visible at once for every book.
+		return stock.compareAndSet(currentStock, newStock);
+	}
+
+	/**
+	 * Copies a book with its number of copies in a stock.
+	 *
+	 * @param book
+	 *            the book
+	 * @param currentStock
+	 *            the stock
+	 * @return the copy
+	 */
+	private static StockBook immutableStockBook(BookStoreBook book, PersistentIntMap<Integer> currentStock) {
+		return new ImmutableStockBook(book.getISBN(), book.getTitle(), book.getAuthor(), book.getPrice(),
+				currentStock.get(book.getISBN()), book.getNumSaleMisses(), book.getNumTimesRated(),
+				book.getTotalRating(), book.isEditorPick());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		dbLock.readLock().lock();
+		try {
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			PersistentIntMap<Integer> currentStock = stock.get();
+
+			return isbnSet.stream()
+					.map(isbn -> immutableStockBook(bookMap.get(isbn), currentStock))
+					.collect(Collectors.toList());
+		} finally {
+			dbLock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		dbLock.readLock().lock();
+		try {
+			// Check that all ISBNs that we rate are there to start with.
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			return isbnSet.stream()
+					.map(isbn -> bookMap.get(isbn).immutableBook())
+					.collect(Collectors.toList());
+		} finally {
+			dbLock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		dbLock.readLock().lock();
+		try {
+			List<BookStoreBook> listAllEditorPicks = bookMap.entrySet().stream()
+					.map(pair -> pair.getValue())
+					.filter(book -> book.isEditorPick())
+					.collect(Collectors.toList());
+
+			// Find numBooks random indices of books that will be picked.
+			Random rand = new Random();
+			Set<Integer> tobePicked = new HashSet<>();
+			int rangePicks = listAllEditorPicks.size();
+
+			if (rangePicks <= numBooks) {
+
+				// We need to add all books.
+				for (int i = 0; i < listAllEditorPicks.size(); i++) {
+					tobePicked.add(i);
+				}
+			} else {
+
+				// We need to pick randomly the books that need to be returned.
+				int randNum;
+
+				while (tobePicked.size() < numBooks) {
+					randNum = rand.nextInt(rangePicks);
+					tobePicked.add(randNum);
+				}
+			}
+
+			// Return all the books by the randomly chosen indices.
+			return tobePicked.stream()
+					.map(index -> listAllEditorPicks.get(index).immutableBook())
+					.collect(Collectors.toList());
+		} finally {
+			dbLock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		dbLock.writeLock().lock();
+		try {
+			bookMap.clear();
+			stock.set(PersistentIntMap.<Integer>empty());
+		} finally {
+			dbLock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		dbLock.writeLock().lock();
+		try {
+			for (Integer ISBN : isbnSet) {
+				if (BookStoreUtility.isInvalidISBN(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+				}
+
+				if (!bookMap.containsKey(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+				}
+			}
+
+			PersistentIntMap<Integer> newStock = stock.get();
+
+			for (int isbn : isbnSet) {
+				bookMap.remove(isbn);
+				newStock = newStock.remove(isbn);
+			}
+
+			stock.set(newStock);
+		} finally {
+			dbLock.writeLock().unlock();
+		}
+	}
+}
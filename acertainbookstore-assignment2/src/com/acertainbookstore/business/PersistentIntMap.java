@@ -0,0 +1,355 @@
+package com.acertainbookstore.business;
+
+import java.util.Arrays;
+
+/**
+ * {@link PersistentIntMap} is an immutable map from int keys, such as ISBNs, to
+ * values. {@link #put(int, Object)} and {@link #remove(int)} return a new map
+ * sharing all but the path to the changed key with the old one, so a change
+ * copies a handful of small arrays instead of the whole map, and the old map
+ * can still be read concurrently.
+ *
+ * The map is a hash trie: every node branches on five bits of the hash of the
+ * key, and keeps only the children that exist, found through a bitmap. The
+ * hash is a bijection of the key, so two keys never share a path to the last
+ * level and a leaf holds a single entry.
+ *
+ * @param <V>
+ *            the type of the values, which must not be null
+ */
+public final class PersistentIntMap<V> {
+
+	/** The Constant BITS of the hash used by each level. */
+	private static final int BITS = 5;
+
+	/** The Constant MASK selecting the bits of a level. */
+	private static final int MASK = (1 << BITS) - 1;
+
+	/** The Constant EMPTY_NODE. */
+	private static final Node EMPTY_NODE = new Node(0, new Object[0]);
+
+	/** The Constant EMPTY map. */
+	private static final PersistentIntMap<Object> EMPTY = new PersistentIntMap<>(EMPTY_NODE, 0);
+
+	/** The root of the trie. */
+	private final Node root;
+
+	/** The number of entries. */
+	private final int size;
+
+	/**
+	 * {@link Node} is an inner node of the trie, whose slots hold the existing
+	 * children, either nodes or leaves, in the order of their bits.
+	 */
+	private static final class Node {
+
+		/** The bits of the existing children. */
+		private final int bitmap;
+
+		/** The existing children. */
+		private final Object[] slots;
+
+		/**
+		 * Instantiates a new {@link Node}. The slots are not copied.
+		 *
+		 * @param bitmap
+		 *            the bits of the existing children
+		 * @param slots
+		 *            the existing children
+		 */
+		private Node(int bitmap, Object[] slots) {
+			this.bitmap = bitmap;
+			this.slots = slots;
+		}
+
+		/**
+		 * Gets the slot of the child with the bit, whether it exists or not.
+		 *
+		 * @param bit
+		 *            the bit
+		 * @return the slot index
+		 */
+		private int index(int bit) {
+			return Integer.bitCount(bitmap & (bit - 1));
+		}
+
+		/**
+		 * Copies the node with a child added.
+		 *
+		 * @param bit
+		 *            the bit of the child
+		 * @param child
+		 *            the child
+		 * @return the new node
+		 */
+		private Node insert(int bit, Object child) {
+			int index = index(bit);
+			Object[] newSlots = new Object[slots.length + 1];
+			System.arraycopy(slots, 0, newSlots, 0, index);
+			newSlots[index] = child;
+			System.arraycopy(slots, index, newSlots, index + 1, slots.length - index);
+			return new Node(bitmap | bit, newSlots);
+		}
+
+		/**
+		 * Copies the node with a child replaced.
+		 *
+		 * @param index
+		 *            the slot of the child
+		 * @param child
+		 *            the new child
+		 * @return the new node
+		 */
+		private Node replace(int index, Object child) {
+			Object[] newSlots = Arrays.copyOf(slots, slots.length);
+			newSlots[index] = child;
+			return new Node(bitmap, newSlots);
+		}
+
+		/**
+		 * Copies the node with a child removed.
+		 *
+		 * @param bit
+		 *            the bit of the child
+		 * @return the new node
+		 */
+		private Node delete(int bit) {
+			int index = index(bit);
+			Object[] newSlots = new Object[slots.length - 1];
+			System.arraycopy(slots, 0, newSlots, 0, index);
+			System.arraycopy(slots, index + 1, newSlots, index, newSlots.length - index);
+			return new Node(bitmap & ~bit, newSlots);
+		}
+	}
+
+	/**
+	 * {@link Leaf} is an entry of the map.
+	 */
+	private static final class Leaf {
+
+		/** The key. */
+		private final int key;
+
+		/** The value. */
+		private final Object value;
+
+		/**
+		 * Instantiates a new {@link Leaf}.
+		 *
+		 * @param key
+		 *            the key
+		 * @param value
+		 *            the value
+		 */
+		private Leaf(int key, Object value) {
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * Instantiates a new {@link PersistentIntMap}.
+	 *
+	 * @param root
+	 *            the root of the trie
+	 * @param size
+	 *            the number of entries
+	 */
+	private PersistentIntMap(Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	/**
+	 * Gets the empty map.
+	 *
+	 * @param <V>
+	 *            the type of the values
+	 * @return the empty map
+	 */
+	@SuppressWarnings("unchecked")
+	public static <V> PersistentIntMap<V> empty() {
+		return (PersistentIntMap<V>) EMPTY;
+	}
+
+	/**
+	 * Gets the number of entries.
+	 *
+	 * @return the number of entries
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the value of the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value, or null if the key is not in the map
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		int hash = hash(key);
+		Object child = root;
+
+		for (int shift = 0; child instanceof Node; shift += BITS) {
+			Node node = (Node) child;
+			int bit = bit(hash, shift);
+
+			if ((node.bitmap & bit) == 0) {
+				return null;
+			}
+
+			child = node.slots[node.index(bit)];
+		}
+
+		Leaf leaf = (Leaf) child;
+		return leaf.key == key ? (V) leaf.value : null;
+	}
+
+	/**
+	 * Checks whether the key is in the map.
+	 *
+	 * @param key
+	 *            the key
+	 * @return true, if the key is in the map
+	 */
+	public boolean containsKey(int key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Gets a map in which the key has the value.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value, not null
+	 * @return the new map
+	 */
+	public PersistentIntMap<V> put(int key, V value) {
+		if (value == null) {
+			throw new NullPointerException();
+		}
+
+		int newSize = containsKey(key) ? size : size + 1;
+		return new PersistentIntMap<>(put(root, hash(key), new Leaf(key, value), 0), newSize);
+	}
+
+	/**
+	 * Gets a map without the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the new map, or this map if the key is not in it
+	 */
+	public PersistentIntMap<V> remove(int key) {
+		Node newRoot = remove(root, hash(key), key, 0);
+		return newRoot == root ? this : new PersistentIntMap<>(newRoot, size - 1);
+	}
+
+	/**
+	 * Copies the path to a leaf, adding or replacing it.
+	 *
+	 * @param node
+	 *            the node at the level
+	 * @param hash
+	 *            the hash of the key of the leaf
+	 * @param leaf
+	 *            the leaf
+	 * @param shift
+	 *            the shift of the level
+	 * @return the new node
+	 */
+	private static Node put(Node node, int hash, Leaf leaf, int shift) {
+		int bit = bit(hash, shift);
+
+		if ((node.bitmap & bit) == 0) {
+			return node.insert(bit, leaf);
+		}
+
+		int index = node.index(bit);
+		Object child = node.slots[index];
+
+		if (child instanceof Node) {
+			return node.replace(index, put((Node) child, hash, leaf, shift + BITS));
+		}
+
+		Leaf other = (Leaf) child;
+
+		if (other.key == leaf.key) {
+			return node.replace(index, leaf);
+		}
+
+		// Both keys share the path so far, so push the other one a level down.
+		Node split = put(EMPTY_NODE, hash(other.key), other, shift + BITS);
+		return node.replace(index, put(split, hash, leaf, shift + BITS));
+	}
+
+	/**
+	 * Copies the path to the leaf of a key, removing it.
+	 *
+	 * @param node
+	 *            the node at the level
+	 * @param hash
+	 *            the hash of the key
+	 * @param key
+	 *            the key
+	 * @param shift
+	 *            the shift of the level
+	 * @return the new node, or the node if the key is not under it
+	 */
+	private static Node remove(Node node, int hash, int key, int shift) {
+		int bit = bit(hash, shift);
+
+		if ((node.bitmap & bit) == 0) {
+			return node;
+		}
+
+		int index = node.index(bit);
+		Object child = node.slots[index];
+
+		if (child instanceof Leaf) {
+			return ((Leaf) child).key == key ? node.delete(bit) : node;
+		}
+
+		Node newChild = remove((Node) child, hash, key, shift + BITS);
+
+		if (newChild == child) {
+			return node;
+		} else if (newChild.slots.length == 0) {
+			return node.delete(bit);
+		} else if (newChild.slots.length == 1 && newChild.slots[0] instanceof Leaf) {
+			// A lone leaf moves up, so the trie stays as shallow as when built.
+			return node.replace(index, newChild.slots[0]);
+		}
+
+		return node.replace(index, newChild);
+	}
+
+	/**
+	 * Gets the bit of the child of a level on the path of a hash.
+	 *
+	 * @param hash
+	 *            the hash
+	 * @param shift
+	 *            the shift of the level
+	 * @return the bit
+	 */
+	private static int bit(int hash, int shift) {
+		return 1 << ((hash >>> shift) & MASK);
+	}
+
+	/**
+	 * Spreads the key over all the bits of the hash. Multiplying by an odd
+	 * constant is a bijection, so distinct keys have distinct hashes.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the hash
+	 */
+	private static int hash(int key) {
+		return key * 0x9E3779B9;
+	}
+}
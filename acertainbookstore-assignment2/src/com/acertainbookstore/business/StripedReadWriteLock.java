@@ -0,0 +1,121 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * {@link StripedReadWriteLock} is a fixed-size table of read-write locks shared
+ * by all books. The ISBN of a book is hashed to one of the stripes, so the
+ * memory used by the locks does not grow with the catalog and no lock has to be
+ * created or removed when books are added or removed.
+ *
+ * Operations locking several books must take the stripes returned by
+ * {@link #getAll(Collection)}, which are ordered by stripe index, so that any
+ * two operations lock the stripes they share in the same order.
+ */
+public final class StripedReadWriteLock {
+
+	/** The Constant DEFAULT_NUM_STRIPES. */
+	public static final int DEFAULT_NUM_STRIPES = 1024;
+
+	/** The Constant MAX_NUM_STRIPES. */
+	public static final int MAX_NUM_STRIPES = 1 << 30;
+
+	/** The stripes. */
+	private final ReadWriteLock[] stripes;
+
+	/** The mask selecting a stripe from a hash. */
+	private final int mask;
+
+	/**
+	 * Instantiates a new {@link StripedReadWriteLock} with
+	 * {@link #DEFAULT_NUM_STRIPES} stripes.
+	 */
+	public StripedReadWriteLock() {
+		this(DEFAULT_NUM_STRIPES);
+	}
+
+	/**
+	 * Instantiates a new {@link StripedReadWriteLock}.
+	 *
+	 * @param numStripes
+	 *            the number of stripes, rounded up to a power of two
+	 */
+	public StripedReadWriteLock(int numStripes) {
+		if (numStripes < 1 || numStripes > MAX_NUM_STRIPES) {
+			throw new IllegalArgumentException("numStripes = " + numStripes + ", but it must be between 1 and "
+					+ MAX_NUM_STRIPES);
+		}
+
+		int size = Integer.highestOneBit(numStripes);
+		size = (size == numStripes) ? size : size << 1;
+
+		stripes = new ReadWriteLock[size];
+		mask = size - 1;
+
+		for (int i = 0; i < size; i++) {
+			stripes[i] = new ReentrantReadWriteLock(true);
+		}
+	}
+
+	/**
+	 * Gets the number of stripes.
+	 *
+	 * @return the number of stripes
+	 */
+	public int getNumStripes() {
+		return stripes.length;
+	}
+
+	/**
+	 * Gets the index of the stripe guarding the book.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the stripe index
+	 */
+	public int indexOf(int isbn) {
+		// ISBNs are often consecutive, so spread them over the whole table.
+		int hash = isbn * 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+	/**
+	 * Gets the lock guarding the book.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the lock
+	 */
+	public ReadWriteLock get(int isbn) {
+		return stripes[indexOf(isbn)];
+	}
+
+	/**
+	 * Gets the locks guarding the books, without duplicates and in the order in
+	 * which they must be acquired.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 * @return the locks
+	 */
+	public List<ReadWriteLock> getAll(Collection<Integer> isbns) {
+		BitSet indices = new BitSet(stripes.length);
+
+		for (int isbn : isbns) {
+			indices.set(indexOf(isbn));
+		}
+
+		List<ReadWriteLock> locks = new ArrayList<>(indices.cardinality());
+
+		for (int i = indices.nextSetBit(0); i >= 0; i = indices.nextSetBit(i + 1)) {
+			locks.add(stripes[i]);
+		}
+
+		return locks;
+	}
+}
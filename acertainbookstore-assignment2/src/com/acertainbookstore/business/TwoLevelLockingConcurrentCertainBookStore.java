@@ -28,7 +28,13 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  * and individual read-write locks for each book. The top-level lock is acquired in exclusive
  * mode for operations performing inserts or deletes, and in intention (read) mode for all
  * other operations. Each book in the database has its own read-write lock, acquired in shared
- * mode for read operations and in exclusive mode for write operations.
+ * mode for read operations and in exclusive mode for write operations. The per-book locks
+ * are the stripes of a {@link StripedReadWriteLock}, so several books may share a lock.
+ * 
+ * Operations writing several books ({@link #addCopies(Set)}, {@link #updateEditorPicks(Set)}
+ * and {@link #buyBooks(Set)}) are committed as one batch: they take the exclusive locks of
+ * all the books they touch in stripe order, apply the whole batch and only then release
+ * them. Concurrent batches therefore never deadlock and never see each other half-done.
  * 
  * @see BookStore
  * @see StockManager
@@ -38,15 +44,26 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	/** The mapping of books from ISBN to {@link BookStoreBook}. */
 	private final ReadWriteLock dbLock = new ReentrantReadWriteLock(true);
 	private Map<Integer, BookStoreBook> bookMap = null;
-	private Map<Integer, ReadWriteLock> bookLocks = null;
+	private final StripedReadWriteLock bookLocks;
 
 	/**
 	 * Instantiates a new {@link CertainBookStore}.
 	 */
 	public TwoLevelLockingConcurrentCertainBookStore() {
+		this(StripedReadWriteLock.DEFAULT_NUM_STRIPES);
+	}
+
+	/**
+	 * Instantiates a new {@link CertainBookStore} whose books share
+	 * <code>numLockStripes</code> locks.
+	 *
+	 * @param numLockStripes
+	 *            the number of per-book lock stripes, rounded up to a power of two
+	 */
+	public TwoLevelLockingConcurrentCertainBookStore(int numLockStripes) {
 		// Constructors are not synchronized
 		bookMap = new HashMap<>();
-		bookLocks = new HashMap<>();
+		bookLocks = new StripedReadWriteLock(numLockStripes);
 	}
 	
 	private void validate(StockBook book) throws BookStoreException {
@@ -112,6 +129,36 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 		}
 	}
 	
+	/**
+	 * Acquires the exclusive locks of the books in the order given by
+	 * {@link StripedReadWriteLock#getAll(Collection)}.
+	 *
+	 * @param isbns
+	 *            the ISBNs of the books
+	 * @return the acquired locks, to be passed to {@link #unlockBooks(List)}
+	 */
+	private List<ReadWriteLock> lockBooks(Collection<Integer> isbns) {
+		List<ReadWriteLock> locks = bookLocks.getAll(isbns);
+
+		for (ReadWriteLock lock : locks) {
+			lock.writeLock().lock();
+		}
+
+		return locks;
+	}
+
+	/**
+	 * Releases the exclusive locks acquired by {@link #lockBooks(Collection)}.
+	 *
+	 * @param locks
+	 *            the locks
+	 */
+	private void unlockBooks(List<ReadWriteLock> locks) {
+		for (int i = locks.size() - 1; i >= 0; i--) {
+			locks.get(i).writeLock().unlock();
+		}
+	}
+
 	private void validateISBNInStock(Integer ISBN) throws BookStoreException {
 		dbLock.readLock().lock();
 		try {
@@ -147,7 +194,6 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 			for (StockBook book : bookSet) {
 				int isbn = book.getISBN();
 				bookMap.put(isbn, new BookStoreBook(book));
-				bookLocks.put(isbn, new ReentrantReadWriteLock(true));
 			}
 		} finally {
 			dbLock.writeLock().unlock();
@@ -168,23 +214,23 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		for (BookCopy bookCopy : bookCopiesSet) {
-			validate(bookCopy);
-		}
-
 		dbLock.readLock().lock();
 		try {
 			for (BookCopy bookCopy : bookCopiesSet) {
-				isbn = bookCopy.getISBN();
-				numCopies = bookCopy.getNumCopies();
-				BookStoreBook book = bookMap.get(isbn);
-				ReadWriteLock bookLock = bookLocks.get(isbn);
-				bookLock.writeLock().lock();
-				try {
-					book.addCopies(numCopies);
-				} finally {
-					bookLock.writeLock().unlock();
+				validate(bookCopy);
+			}
+
+			List<ReadWriteLock> locks = lockBooks(bookCopiesSet.stream()
+					.map(bookCopy -> bookCopy.getISBN())
+					.collect(Collectors.toList()));
+			try {
+				for (BookCopy bookCopy : bookCopiesSet) {
+					isbn = bookCopy.getISBN();
+					numCopies = bookCopy.getNumCopies();
+					bookMap.get(isbn).addCopies(numCopies);
 				}
+			} finally {
+				unlockBooks(locks);
 			}
 		} finally {
 			dbLock.readLock().unlock();
@@ -228,16 +274,15 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 				validate(editorPickArg);
 			}
 
-			for (BookEditorPick editorPickArg : editorPicks) {
-				int isbn = editorPickArg.getISBN();
-				BookStoreBook book = bookMap.get(isbn);
-				ReadWriteLock bookLock = bookLocks.get(isbn);
-				bookLock.writeLock().lock();
-				try {
-					book.setEditorPick(editorPickArg.isEditorPick());
-				} finally {
-					bookLock.writeLock().unlock();
+			List<ReadWriteLock> locks = lockBooks(editorPicks.stream()
+					.map(editorPickArg -> editorPickArg.getISBN())
+					.collect(Collectors.toList()));
+			try {
+				for (BookEditorPick editorPickArg : editorPicks) {
+					bookMap.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
 				}
+			} finally {
+				unlockBooks(locks);
 			}
 		} finally {
 			dbLock.readLock().unlock();
@@ -264,51 +309,41 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 		dbLock.readLock().lock();
 		try {
 			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-				isbn = bookCopyToBuy.getISBN();
-
 				validate(bookCopyToBuy);
+			}
+
+			List<ReadWriteLock> locks = lockBooks(bookCopiesToBuy.stream()
+					.map(bookCopyToBuy -> bookCopyToBuy.getISBN())
+					.collect(Collectors.toList()));
+			try {
+				for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+					isbn = bookCopyToBuy.getISBN();
+					book = bookMap.get(isbn);
 
-				book = bookMap.get(isbn);
-				ReadWriteLock bookLock = bookLocks.get(isbn);
-				bookLock.readLock().lock();
-				try {
 					if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
 						// If we cannot sell the copies of the book, it is a miss.
 						salesMisses.put(isbn, bookCopyToBuy.getNumCopies() - book.getNumCopies());
 						saleMiss = true;
 					}
-				} finally {
-					bookLock.readLock().unlock();
 				}
-			}
 
-			// We throw exception now since we want to see how many books in the
-			// order incurred misses which is used by books in demand
-			if (saleMiss) {
-				for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
-					isbn = saleMissEntry.getKey();
-					book = bookMap.get(isbn);
-					ReadWriteLock bookLock = bookLocks.get(isbn);
-					bookLock.writeLock().lock();
-					try {
+				// We throw exception now since we want to see how many books in the
+				// order incurred misses which is used by books in demand
+				if (saleMiss) {
+					for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+						book = bookMap.get(saleMissEntry.getKey());
 						book.addSaleMiss(saleMissEntry.getValue());
-					} finally {
-						bookLock.writeLock().unlock();
 					}
+					throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
 				}
-				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
-			}
 
-			// Then make the purchase.
-			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-				book = bookMap.get(bookCopyToBuy.getISBN());
-				ReadWriteLock bookLock = bookLocks.get(bookCopyToBuy.getISBN());
-				bookLock.writeLock().lock();
-				try {
+				// Then make the purchase.
+				for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+					book = bookMap.get(bookCopyToBuy.getISBN());
 					book.buyCopies(bookCopyToBuy.getNumCopies());
-				} finally {
-					bookLock.writeLock().unlock();
 				}
+			} finally {
+				unlockBooks(locks);
 			}
 		} finally {
 			dbLock.readLock().unlock();
@@ -479,7 +514,6 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 		dbLock.writeLock().lock();
 		try {
 			bookMap.clear();
-			bookLocks.clear();
 		} finally {
 			dbLock.writeLock().unlock();
 		}
@@ -515,7 +549,6 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 		try {
 			for (int isbn : isbnSet) {
 				bookMap.remove(isbn);
-				bookLocks.remove(isbn);
 			}
 		} finally {
 			dbLock.writeLock().unlock();
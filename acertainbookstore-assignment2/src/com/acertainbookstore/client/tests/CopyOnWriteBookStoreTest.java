@@ -0,0 +1,180 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.CopyOnWriteCertainBookStore;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link CopyOnWriteBookStoreTest} tests the catalog of the
+ * {@link CopyOnWriteCertainBookStore}.
+ *
+ * @see CopyOnWriteCertainBookStore
+ */
+public class CopyOnWriteBookStoreTest {
+
+	/** The Constant TEST_ISBN. */
+	private static final int TEST_ISBN = 3044560;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 5;
+
+	/** The store under test. */
+	private CopyOnWriteCertainBookStore store;
+
+	/**
+	 * Adds a book with {@link #NUM_COPIES} copies.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Before
+	public void initializeBooks() throws BookStoreException {
+		store = new CopyOnWriteCertainBookStore();
+
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN, "Harry Potter and JUnit", "JK Unit", (float) 10, NUM_COPIES,
+				0, 0, 0, false));
+		store.addBooks(booksToAdd);
+	}
+
+	/**
+	 * Removes all books.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@After
+	public void cleanupBooks() throws BookStoreException {
+		store.removeAllBooks();
+	}
+
+	/**
+	 * Tests that customers get the same pre-built book until the stock manager
+	 * changes the catalog, and that purchases do not change it.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testCatalogIsSharedUntilChanged() throws BookStoreException {
+		Set<Integer> isbns = new HashSet<Integer>();
+		isbns.add(TEST_ISBN);
+
+		Book book = store.getBooks(isbns).get(0);
+		assertFalse(book instanceof StockBook);
+
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, 1));
+		store.buyBooks(booksToBuy);
+
+		assertSame(book, store.getBooks(isbns).get(0));
+		assertEquals(NUM_COPIES - 1, store.getBooksByISBN(isbns).get(0).getNumCopies());
+
+		store.removeBooks(isbns);
+
+		try {
+			store.getBooks(isbns);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Tests that editor pick updates are published to customers.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testEditorPicksArePublished() throws BookStoreException {
+		assertTrue(store.getEditorPicks(1).isEmpty());
+
+		Set<BookEditorPick> editorPicks = new HashSet<BookEditorPick>();
+		editorPicks.add(new BookEditorPick(TEST_ISBN, true));
+		store.updateEditorPicks(editorPicks);
+
+		List<Book> picks = store.getEditorPicks(1);
+		assertEquals(1, picks.size());
+		assertEquals(TEST_ISBN, picks.get(0).getISBN());
+	}
+
+	/**
+	 * Tests that changes to some books of a large catalog leave the other
+	 * books shared, and that the editor picks follow the additions, updates
+	 * and removals of books.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testLargeCatalogUpdates() throws BookStoreException {
+		int numBooks = 1000;
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		Set<Integer> isbns = new HashSet<Integer>();
+		Set<Integer> expectedPicks = new HashSet<Integer>();
+
+		for (int isbn = 1; isbn <= numBooks; isbn++) {
+			booksToAdd.add(new ImmutableStockBook(isbn, "Title " + isbn, "Author " + isbn, (float) 10, NUM_COPIES, 0,
+					0, 0, isbn % 3 == 0));
+			isbns.add(isbn);
+
+			if (isbn % 3 == 0) {
+				expectedPicks.add(isbn);
+			}
+		}
+
+		store.addBooks(booksToAdd);
+		List<Book> books = store.getBooks(isbns);
+
+		Set<BookEditorPick> editorPicks = new HashSet<BookEditorPick>();
+		editorPicks.add(new BookEditorPick(3, false));
+		editorPicks.add(new BookEditorPick(4, true));
+		store.updateEditorPicks(editorPicks);
+		expectedPicks.remove(3);
+		expectedPicks.add(4);
+
+		Set<Integer> removedISBNs = new HashSet<Integer>();
+		removedISBNs.add(6);
+		removedISBNs.add(7);
+		store.removeBooks(removedISBNs);
+		expectedPicks.remove(6);
+		isbns.removeAll(removedISBNs);
+
+		Set<Integer> picks = new HashSet<Integer>();
+
+		for (Book book : store.getEditorPicks(numBooks)) {
+			assertTrue(picks.add(book.getISBN()));
+		}
+
+		assertEquals(expectedPicks, picks);
+
+		Map<Integer, Book> newBooks = new HashMap<Integer, Book>();
+
+		for (Book book : store.getBooks(isbns)) {
+			newBooks.put(book.getISBN(), book);
+		}
+
+		for (Book book : books) {
+			if (book.getISBN() > 7) {
+				assertSame(book, newBooks.get(book.getISBN()));
+			}
+		}
+	}
+}
@@ -0,0 +1,276 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.MultiVersionConcurrentCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link MultiVersionBookStoreTest} tests the snapshot reads of the
+ * {@link MultiVersionConcurrentCertainBookStore}.
+ *
+ * @see MultiVersionConcurrentCertainBookStore
+ */
+public class MultiVersionBookStoreTest {
+
+	/** The Constant TEST_ISBN. */
+	private static final int TEST_ISBN = 3044560;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 5;
+
+	/** The Constant NUM_ROUNDS. */
+	private static final int NUM_ROUNDS = 2000;
+
+	/** The Constant NUM_SCANNED_BOOKS, added for full scans. */
+	private static final int NUM_SCANNED_BOOKS = 5000;
+
+	/** The Constant NUM_THREADS of writers. */
+	private static final int NUM_THREADS = 4;
+
+	/** The Constant WAIT_MILLIS for the threads. */
+	private static final long WAIT_MILLIS = 60000;
+
+	/** The store under test. */
+	private MultiVersionConcurrentCertainBookStore store;
+
+	/**
+	 * Adds two books with {@link #NUM_COPIES} copies each.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Before
+	public void initializeBooks() throws BookStoreException {
+		store = new MultiVersionConcurrentCertainBookStore();
+
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN, "Harry Potter and JUnit", "JK Unit", (float) 10, NUM_COPIES,
+				0, 0, 0, false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "Test of Thrones", "George RR Testin'", (float) 10,
+				NUM_COPIES, 0, 0, 0, false));
+		store.addBooks(booksToAdd);
+	}
+
+	/**
+	 * Removes all books.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@After
+	public void cleanupBooks() throws BookStoreException {
+		store.removeAllBooks();
+	}
+
+	/**
+	 * Tests that a reader never sees a purchase of two books half-done while a
+	 * writer keeps buying and restocking them.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testReadersSeeConsistentSnapshots() throws Exception {
+		Set<BookCopy> bookCopies = new HashSet<BookCopy>();
+		bookCopies.add(new BookCopy(TEST_ISBN, 1));
+		bookCopies.add(new BookCopy(TEST_ISBN + 1, 1));
+
+		Set<Integer> isbns = new HashSet<Integer>();
+		isbns.add(TEST_ISBN);
+		isbns.add(TEST_ISBN + 1);
+
+		AtomicBoolean consistent = new AtomicBoolean(true);
+
+		Thread writer = new Thread(() -> {
+			try {
+				for (int i = 0; i < NUM_ROUNDS; i++) {
+					store.buyBooks(bookCopies);
+					store.addCopies(bookCopies);
+				}
+			} catch (BookStoreException ex) {
+				consistent.set(false);
+			}
+		});
+
+		Thread reader = new Thread(() -> {
+			try {
+				for (int i = 0; i < NUM_ROUNDS; i++) {
+					List<StockBook> books = store.getBooksByISBN(isbns);
+
+					if (books.get(0).getNumCopies() != books.get(1).getNumCopies()) {
+						consistent.set(false);
+					}
+				}
+			} catch (BookStoreException ex) {
+				consistent.set(false);
+			}
+		});
+
+		writer.start();
+		reader.start();
+		writer.join();
+		reader.join();
+
+		assertTrue(consistent.get());
+	}
+
+	/**
+	 * Tests that removed books can no longer be read and that customers get
+	 * books without stock information.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testRemovedBooksAreNotRead() throws BookStoreException {
+		Set<Integer> isbns = new HashSet<Integer>();
+		isbns.add(TEST_ISBN);
+
+		List<Book> books = store.getBooks(isbns);
+		assertEquals(1, books.size());
+		assertFalse(books.get(0) instanceof StockBook);
+
+		store.removeBooks(isbns);
+		assertEquals(1, store.getBooks().size());
+
+		try {
+			store.getBooks(isbns);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Tests that scans of every book finish and see consistent snapshots
+	 * while writers keep replacing the versions the scans need.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testFullScansFinishUnderWrites() throws Exception {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+
+		for (int i = 2; i < NUM_SCANNED_BOOKS + 2; i++) {
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN + i, "Title " + i, "Author " + i, (float) 10, NUM_COPIES,
+					0, 0, 0, false));
+		}
+
+		store.addBooks(booksToAdd);
+
+		Set<BookCopy> bookCopies = new HashSet<BookCopy>();
+		bookCopies.add(new BookCopy(TEST_ISBN, 1));
+		bookCopies.add(new BookCopy(TEST_ISBN + 1, 1));
+
+		AtomicBoolean done = new AtomicBoolean();
+		AtomicBoolean consistent = new AtomicBoolean(true);
+		List<Thread> writers = new ArrayList<>();
+
+		for (int i = 0; i < NUM_THREADS; i++) {
+			writers.add(new Thread(() -> {
+				try {
+					while (!done.get()) {
+						store.buyBooks(bookCopies);
+						store.addCopies(bookCopies);
+					}
+				} catch (BookStoreException ex) {
+					consistent.set(false);
+				}
+			}));
+		}
+
+		for (Thread writer : writers) {
+			writer.start();
+		}
+
+		try {
+			for (int i = 0; i < 20; i++) {
+				Map<Integer, Integer> copies = new HashMap<>();
+
+				for (StockBook book : store.getBooks()) {
+					copies.put(book.getISBN(), book.getNumCopies());
+				}
+
+				assertEquals(NUM_SCANNED_BOOKS + 2, copies.size());
+				assertEquals(copies.get(TEST_ISBN), copies.get(TEST_ISBN + 1));
+			}
+		} finally {
+			done.set(true);
+
+			for (Thread writer : writers) {
+				writer.join(WAIT_MILLIS);
+			}
+		}
+
+		assertTrue(consistent.get());
+	}
+
+	/**
+	 * Tests that concurrent purchases and restocks of the same and of
+	 * different books neither lose nor invent copies.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testConcurrentWriters() throws Exception {
+		Set<BookCopy> pair = new HashSet<BookCopy>();
+		pair.add(new BookCopy(TEST_ISBN, 1));
+		pair.add(new BookCopy(TEST_ISBN + 1, 1));
+		Set<BookCopy> second = new HashSet<BookCopy>();
+		second.add(new BookCopy(TEST_ISBN + 1, 1));
+
+		AtomicInteger purchases = new AtomicInteger();
+		List<Thread> writers = new ArrayList<>();
+
+		for (int i = 0; i < NUM_THREADS; i++) {
+			Set<BookCopy> bookCopies = i % 2 == 0 ? pair : second;
+
+			writers.add(new Thread(() -> {
+				for (int j = 0; j < NUM_ROUNDS; j++) {
+					try {
+						store.buyBooks(bookCopies);
+						purchases.incrementAndGet();
+						store.addCopies(bookCopies);
+					} catch (BookStoreException ex) {
+						// Sold out for now.
+					}
+				}
+			}));
+		}
+
+		for (Thread writer : writers) {
+			writer.start();
+		}
+
+		for (Thread writer : writers) {
+			writer.join(WAIT_MILLIS);
+			assertFalse(writer.isAlive());
+		}
+
+		assertTrue(purchases.get() > 0);
+
+		for (StockBook book : store.getBooks()) {
+			assertEquals(NUM_COPIES, book.getNumCopies());
+		}
+	}
+}
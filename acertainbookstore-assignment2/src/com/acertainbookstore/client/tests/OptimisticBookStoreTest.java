@@ -0,0 +1,214 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.OptimisticConcurrentCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link OptimisticBookStoreTest} tests the compare-and-set purchases of the
+ * {@link OptimisticConcurrentCertainBookStore}.
+ *
+ * @see OptimisticConcurrentCertainBookStore
+ */
+public class OptimisticBookStoreTest {
+
+	/** The Constant TEST_ISBN. */
+	private static final int TEST_ISBN = 3044560;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 500;
+
+	/** The Constant NUM_THREADS. */
+	private static final int NUM_THREADS = 8;
+
+	/** The store under test. */
+	private OptimisticConcurrentCertainBookStore store;
+
+	/**
+	 * Adds two books with {@link #NUM_COPIES} copies each.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Before
+	public void initializeBooks() throws BookStoreException {
+		store = new OptimisticConcurrentCertainBookStore();
+
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN, "Harry Potter and JUnit", "JK Unit", (float) 10, NUM_COPIES,
+				0, 0, 0, false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "Test of Thrones", "George RR Testin'", (float) 10,
+				NUM_COPIES, 0, 0, 0, false));
+		store.addBooks(booksToAdd);
+	}
+
+	/**
+	 * Removes all books.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@After
+	public void cleanupBooks() throws BookStoreException {
+		store.removeAllBooks();
+	}
+
+	/**
+	 * Tests that concurrent buyers of both books never oversell and that every
+	 * successful purchase takes one copy of each book.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testConcurrentBuyersNeverOversell() throws Exception {
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, 1));
+		booksToBuy.add(new BookCopy(TEST_ISBN + 1, 1));
+
+		AtomicInteger purchases = new AtomicInteger();
+		List<Thread> threads = new ArrayList<>();
+
+		for (int i = 0; i < NUM_THREADS; i++) {
+			threads.add(new Thread(() -> {
+				for (int j = 0; j < NUM_COPIES; j++) {
+					try {
+						store.buyBooks(booksToBuy);
+						purchases.incrementAndGet();
+					} catch (BookStoreException ex) {
+						// Sold out.
+					}
+				}
+			}));
+		}
+
+		for (Thread thread : threads) {
+			thread.start();
+		}
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(NUM_COPIES, purchases.get());
+
+		for (StockBook book : store.getBooks()) {
+			assertEquals(0, book.getNumCopies());
+		}
+	}
+
+	/**
+	 * Tests that a purchase which cannot be satisfied takes no copies and
+	 * records the sale misses.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testBuyIsAllOrNothing() throws BookStoreException {
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, 1));
+		booksToBuy.add(new BookCopy(TEST_ISBN + 1, NUM_COPIES + 3));
+
+		try {
+			store.buyBooks(booksToBuy);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		Set<Integer> isbns = new HashSet<Integer>();
+		isbns.add(TEST_ISBN);
+		isbns.add(TEST_ISBN + 1);
+
+		for (StockBook book : store.getBooksByISBN(isbns)) {
+			assertEquals(NUM_COPIES, book.getNumCopies());
+			assertEquals(book.getISBN() == TEST_ISBN ? 0 : 3, book.getNumSaleMisses());
+		}
+	}
+
+	/**
+	 * Tests that readers and other buyers see a purchase of both books whole
+	 * or not at all: both books always have the same number of copies, and
+	 * no purchase fails while copies are left.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testPurchasesAreSeenWhole() throws Exception {
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, 1));
+		booksToBuy.add(new BookCopy(TEST_ISBN + 1, 1));
+
+		Set<Integer> isbns = new HashSet<Integer>();
+		isbns.add(TEST_ISBN);
+		isbns.add(TEST_ISBN + 1);
+
+		AtomicInteger failedPurchases = new AtomicInteger();
+		AtomicInteger tornReads = new AtomicInteger();
+		AtomicBoolean done = new AtomicBoolean();
+		List<Thread> threads = new ArrayList<>();
+
+		for (int i = 0; i < NUM_THREADS; i++) {
+			threads.add(new Thread(() -> {
+				for (int j = 0; j < NUM_COPIES / NUM_THREADS; j++) {
+					try {
+						store.buyBooks(booksToBuy);
+					} catch (BookStoreException ex) {
+						failedPurchases.incrementAndGet();
+					}
+				}
+			}));
+		}
+
+		Thread reader = new Thread(() -> {
+			while (!done.get()) {
+				try {
+					List<StockBook> books = store.getBooksByISBN(isbns);
+
+					if (books.get(0).getNumCopies() != books.get(1).getNumCopies()) {
+						tornReads.incrementAndGet();
+					}
+				} catch (BookStoreException ex) {
+					tornReads.incrementAndGet();
+				}
+			}
+		});
+		reader.start();
+
+		for (Thread thread : threads) {
+			thread.start();
+		}
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		done.set(true);
+		reader.join();
+
+		assertEquals(0, failedPurchases.get());
+		assertEquals(0, tornReads.get());
+
+		for (StockBook book : store.getBooks()) {
+			assertEquals(NUM_COPIES % NUM_THREADS, book.getNumCopies());
+			assertEquals(0, book.getNumSaleMisses());
+		}
+	}
+}
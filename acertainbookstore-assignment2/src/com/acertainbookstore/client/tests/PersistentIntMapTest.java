@@ -0,0 +1,103 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.acertainbookstore.business.PersistentIntMap;
+
+/**
+ * {@link PersistentIntMapTest} tests that a {@link PersistentIntMap} behaves as
+ * a map and that its older versions are left unchanged by later changes.
+ *
+ * @see PersistentIntMap
+ */
+public class PersistentIntMapTest {
+
+	/** The Constant NUM_OPERATIONS. */
+	private static final int NUM_OPERATIONS = 20000;
+
+	/** The Constant NUM_KEYS drawn from. */
+	private static final int NUM_KEYS = 2000;
+
+	/**
+	 * Asserts that a map holds the same entries as a reference map.
+	 *
+	 * @param expected
+	 *            the reference map
+	 * @param actual
+	 *            the map
+	 */
+	private static void assertSameEntries(Map<Integer, Integer> expected, PersistentIntMap<Integer> actual) {
+		assertEquals(expected.size(), actual.size());
+
+		for (int key = -NUM_KEYS; key <= NUM_KEYS; key++) {
+			assertEquals(expected.get(key), actual.get(key));
+		}
+	}
+
+	/**
+	 * Tests random puts and removes against a {@link HashMap}, checking some
+	 * older versions at the end.
+	 */
+	@Test
+	public void testMatchesHashMap() {
+		Random random = new Random(42);
+		Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+		PersistentIntMap<Integer> actual = PersistentIntMap.empty();
+		List<Map<Integer, Integer>> expectedVersions = new ArrayList<Map<Integer, Integer>>();
+		List<PersistentIntMap<Integer>> versions = new ArrayList<PersistentIntMap<Integer>>();
+
+		for (int i = 0; i < NUM_OPERATIONS; i++) {
+			int key = random.nextInt(2 * NUM_KEYS + 1) - NUM_KEYS;
+
+			if (random.nextInt(3) == 0) {
+				expected.remove(key);
+				actual = actual.remove(key);
+			} else {
+				expected.put(key, i);
+				actual = actual.put(key, i);
+			}
+
+			if (i % (NUM_OPERATIONS / 10) == 0) {
+				expectedVersions.add(new HashMap<Integer, Integer>(expected));
+				versions.add(actual);
+			}
+		}
+
+		assertSameEntries(expected, actual);
+
+		for (int i = 0; i < versions.size(); i++) {
+			assertSameEntries(expectedVersions.get(i), versions.get(i));
+		}
+	}
+
+	/**
+	 * Tests that removing every key leaves an empty map, and that removing a
+	 * missing key returns the same map.
+	 */
+	@Test
+	public void testRemoveAll() {
+		PersistentIntMap<Integer> map = PersistentIntMap.empty();
+
+		for (int key = 0; key < NUM_KEYS; key++) {
+			map = map.put(key, key);
+		}
+
+		assertSame(map, map.remove(NUM_KEYS));
+
+		for (int key = 0; key < NUM_KEYS; key++) {
+			map = map.remove(key);
+			assertNull(map.get(key));
+		}
+
+		assertEquals(0, map.size());
+		assertNull(map.get(0));
+	}
+}
@@ -0,0 +1,97 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.junit.Test;
+
+import com.acertainbookstore.business.StripedReadWriteLock;
+
+/**
+ * {@link StripedReadWriteLockTest} tests the sizing of the
+ * {@link StripedReadWriteLock} and the order of the stripes it hands out.
+ *
+ * @see StripedReadWriteLock
+ */
+public class StripedReadWriteLockTest {
+
+	/**
+	 * Tests that the number of stripes is rounded up to a power of two.
+	 */
+	@Test
+	public void testNumStripesRoundedToPowerOfTwo() {
+		assertEquals(1, new StripedReadWriteLock(1).getNumStripes());
+		assertEquals(4, new StripedReadWriteLock(3).getNumStripes());
+		assertEquals(8, new StripedReadWriteLock(8).getNumStripes());
+		assertEquals(16, new StripedReadWriteLock(9).getNumStripes());
+		assertEquals(StripedReadWriteLock.DEFAULT_NUM_STRIPES, new StripedReadWriteLock().getNumStripes());
+	}
+
+	/**
+	 * Tests that numbers of stripes out of range are rejected.
+	 */
+	@Test
+	public void testInvalidNumStripes() {
+		for (int numStripes : new int[] { 0, -1, StripedReadWriteLock.MAX_NUM_STRIPES + 1 }) {
+			try {
+				new StripedReadWriteLock(numStripes);
+				fail();
+			} catch (IllegalArgumentException ex) {
+				;
+			}
+		}
+	}
+
+	/**
+	 * Tests that the stripes of several books come without duplicates, in
+	 * stripe order whatever the order of the books.
+	 */
+	@Test
+	public void testGetAllOrderedWithoutDuplicates() {
+		StripedReadWriteLock locks = new StripedReadWriteLock(16);
+		List<Integer> isbns = new ArrayList<Integer>();
+
+		// More books than stripes, so some books share a stripe.
+		for (int isbn = 100; isbn < 164; isbn++) {
+			isbns.add(isbn);
+		}
+
+		Set<Integer> indices = new HashSet<Integer>();
+
+		for (int isbn : isbns) {
+			indices.add(locks.indexOf(isbn));
+		}
+
+		List<ReadWriteLock> stripes = locks.getAll(isbns);
+		assertEquals(indices.size(), stripes.size());
+		assertEquals(stripes.size(), new HashSet<ReadWriteLock>(stripes).size());
+
+		int previousIndex = -1;
+
+		for (ReadWriteLock stripe : stripes) {
+			int index = -1;
+
+			for (int isbn : isbns) {
+				if (locks.get(isbn) == stripe) {
+					index = locks.indexOf(isbn);
+					break;
+				}
+			}
+
+			assertTrue(index > previousIndex);
+			previousIndex = index;
+		}
+
+		List<Integer> reversedIsbns = new ArrayList<Integer>(isbns);
+		Collections.reverse(reversedIsbns);
+		assertEquals(stripes, locks.getAll(reversedIsbns));
+		assertEquals(Arrays.asList(locks.get(7)), locks.getAll(Arrays.asList(7, 7, 7)));
+	}
+}
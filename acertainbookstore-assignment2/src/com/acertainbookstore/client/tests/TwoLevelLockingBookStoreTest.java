@@ -0,0 +1,233 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link TwoLevelLockingBookStoreTest} tests that the purchases and restocks
+ * of several books by the {@link TwoLevelLockingConcurrentCertainBookStore}
+ * are all-or-nothing under concurrency, and that batches locking the same
+ * books in opposite orders do not deadlock.
+ *
+ * @see TwoLevelLockingConcurrentCertainBookStore
+ */
+public class TwoLevelLockingBookStoreTest {
+
+	/** The Constant TEST_ISBN. */
+	private static final int TEST_ISBN = 3044560;
+
+	/** The Constant NUM_BOOKS. */
+	private static final int NUM_BOOKS = 3;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 500;
+
+	/** The Constant NUM_THREADS of each kind. */
+	private static final int NUM_THREADS = 4;
+
+	/** The Constant NUM_ITERATIONS of each thread. */
+	private static final int NUM_ITERATIONS = 2000;
+
+	/** The Constant WAIT_SECS for the threads. */
+	private static final long WAIT_SECS = 60;
+
+	/**
+	 * The store under test, new for each test, since a deadlocked test would
+	 * block the removal of its books.
+	 */
+	private TwoLevelLockingConcurrentCertainBookStore store;
+
+	/**
+	 * Adds {@link #NUM_BOOKS} books with {@link #NUM_COPIES} copies each.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Before
+	public void initializeBooks() throws BookStoreException {
+		store = new TwoLevelLockingConcurrentCertainBookStore();
+
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+
+		for (int i = 0; i < NUM_BOOKS; i++) {
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN + i, "Title " + i, "Author " + i, (float) 10, NUM_COPIES,
+					0, 0, 0, false));
+		}
+
+		store.addBooks(booksToAdd);
+	}
+
+	/**
+	 * Creates a batch of one copy of each book, in the order of the ISBNs.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 * @return the batch
+	 */
+	private static Set<BookCopy> newBatch(Integer... isbns) {
+		Set<BookCopy> bookCopies = new LinkedHashSet<BookCopy>();
+
+		for (int isbn : isbns) {
+			bookCopies.add(new BookCopy(isbn, 1));
+		}
+
+		return bookCopies;
+	}
+
+	/**
+	 * Starts the threads and waits for them, failing if any is still running.
+	 *
+	 * @param threads
+	 *            the threads
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 */
+	private static void runAll(List<Thread> threads) throws InterruptedException {
+		for (Thread thread : threads) {
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(WAIT_SECS);
+
+		for (Thread thread : threads) {
+			thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+			assertFalse("Deadlocked", thread.isAlive());
+		}
+	}
+
+	/**
+	 * Tests that concurrent purchases of two books, failing purchases asking
+	 * for too many copies of the second one, and restocks of both books take
+	 * or add copies of both books or of none.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testBatchesAreAllOrNothing() throws Exception {
+		Set<BookCopy> pair = newBatch(TEST_ISBN, TEST_ISBN + 1);
+		Set<BookCopy> tooMany = new LinkedHashSet<BookCopy>();
+		tooMany.add(new BookCopy(TEST_ISBN, 1));
+		tooMany.add(new BookCopy(TEST_ISBN + 1, 2 * NUM_COPIES * NUM_THREADS));
+
+		AtomicInteger purchases = new AtomicInteger();
+		AtomicInteger restocks = new AtomicInteger();
+		AtomicInteger unexpectedSales = new AtomicInteger();
+		List<Thread> threads = new ArrayList<>();
+
+		for (int i = 0; i < NUM_THREADS; i++) {
+			threads.add(new Thread(() -> {
+				for (int j = 0; j < NUM_ITERATIONS; j++) {
+					try {
+						store.buyBooks(pair);
+						purchases.incrementAndGet();
+					} catch (BookStoreException ex) {
+						// Sold out.
+					}
+				}
+			}));
+			threads.add(new Thread(() -> {
+				for (int j = 0; j < NUM_ITERATIONS; j++) {
+					try {
+						store.buyBooks(tooMany);
+						unexpectedSales.incrementAndGet();
+					} catch (BookStoreException ex) {
+						// Never enough copies of the second book.
+					}
+				}
+			}));
+			threads.add(new Thread(() -> {
+				for (int j = 0; j < NUM_ITERATIONS / 10; j++) {
+					try {
+						store.addCopies(pair);
+						restocks.incrementAndGet();
+					} catch (BookStoreException ex) {
+						;
+					}
+				}
+			}));
+		}
+
+		runAll(threads);
+
+		assertEquals(0, unexpectedSales.get());
+		assertEquals(NUM_THREADS * NUM_ITERATIONS / 10, restocks.get());
+
+		Set<Integer> isbns = new HashSet<Integer>(Arrays.asList(TEST_ISBN, TEST_ISBN + 1));
+
+		for (StockBook book : store.getBooksByISBN(isbns)) {
+			assertEquals(NUM_COPIES + restocks.get() - purchases.get(), book.getNumCopies());
+		}
+	}
+
+	/**
+	 * Tests that purchases and restocks of overlapping books, listed in
+	 * opposite ISBN orders, all complete and keep the count of every book.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testOppositeOrdersDoNotDeadlock() throws Exception {
+		Set<BookCopy> ascending = newBatch(TEST_ISBN, TEST_ISBN + 1, TEST_ISBN + 2);
+		Set<BookCopy> descending = newBatch(TEST_ISBN + 2, TEST_ISBN + 1, TEST_ISBN);
+		Set<BookCopy> overlapping = newBatch(TEST_ISBN + 2, TEST_ISBN);
+
+		AtomicInteger purchases = new AtomicInteger();
+		List<Thread> threads = new ArrayList<>();
+
+		for (int i = 0; i < NUM_THREADS; i++) {
+			for (Set<BookCopy> batch : Arrays.asList(ascending, descending)) {
+				threads.add(new Thread(() -> {
+					for (int j = 0; j < NUM_ITERATIONS; j++) {
+						try {
+							store.buyBooks(batch);
+							purchases.incrementAndGet();
+						} catch (BookStoreException ex) {
+							// Sold out.
+						}
+					}
+				}));
+			}
+
+			threads.add(new Thread(() -> {
+				for (int j = 0; j < NUM_ITERATIONS; j++) {
+					try {
+						store.addCopies(j % 2 == 0 ? descending : ascending);
+						store.addCopies(overlapping);
+					} catch (BookStoreException ex) {
+						;
+					}
+				}
+			}));
+		}
+
+		runAll(threads);
+
+		int expectedCopies = NUM_COPIES + NUM_THREADS * NUM_ITERATIONS - purchases.get();
+		Set<Integer> isbns = new HashSet<Integer>(Arrays.asList(TEST_ISBN, TEST_ISBN + 1, TEST_ISBN + 2));
+
+		for (StockBook book : store.getBooksByISBN(isbns)) {
+			int extraCopies = book.getISBN() == TEST_ISBN + 1 ? 0 : NUM_THREADS * NUM_ITERATIONS;
+			assertEquals(expectedCopies + extraCopies, book.getNumCopies());
+		}
+	}
+}
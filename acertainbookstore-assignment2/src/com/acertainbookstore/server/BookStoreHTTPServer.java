@@ -1,6 +1,10 @@
 package com.acertainbookstore.server;
 
+import com.acertainbookstore.business.CopyOnWriteCertainBookStore;
+import com.acertainbookstore.business.MultiVersionConcurrentCertainBookStore;
+import com.acertainbookstore.business.OptimisticConcurrentCertainBookStore;
 import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.StripedReadWriteLock;
 import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
 
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
@@ -17,10 +21,20 @@ public class BookStoreHTTPServer {
 	private static final int MIN_THREADPOOL_SIZE = 10;
 	private static final int MAX_THREADPOOL_SIZE = 100;
 	
-	/** The constant, defining which locking scheme implementation to use
-	 *  true - single lock 
-	 *  false - two-level locking */
-	private static final boolean SINGLE_LOCK = true;
+	/** The Constant SINGLE_LOCK_STORE. */
+	private static final String SINGLE_LOCK_STORE = "singlelock";
+
+	/** The Constant TWO_LEVEL_LOCKING_STORE. */
+	private static final String TWO_LEVEL_LOCKING_STORE = "twolevel";
+
+	/** The Constant OPTIMISTIC_STORE. */
+	private static final String OPTIMISTIC_STORE = "optimistic";
+
+	/** The Constant MULTI_VERSION_STORE. */
+	private static final String MULTI_VERSION_STORE = "multiversion";
+
+	/** The Constant COPY_ON_WRITE_STORE. */
+	private static final String COPY_ON_WRITE_STORE = "copyonwrite";
 
 	/**
 	 * Prevents the instantiation of a new {@link BookStoreHTTPServer}.
@@ -29,6 +43,80 @@ public class BookStoreHTTPServer {
 		// Prevent instances from being created.
 	}
 
+	/**
+	 * Creates the handler of the store named by
+	 * {@link BookStoreConstants#PROPERTY_KEY_STORE}, or of a locking store
+	 * chosen by {@link BookStoreConstants#PROPERTY_KEY_SINGLE_LOCK} if none is
+	 * named.
+	 *
+	 * @return the handler
+	 */
+	private static BookStoreHTTPMessageHandler newHandler() {
+		String store = System.getProperty(BookStoreConstants.PROPERTY_KEY_STORE);
+
+		if (store == null) {
+			boolean singleLock = Boolean
+					.parseBoolean(System.getProperty(BookStoreConstants.PROPERTY_KEY_SINGLE_LOCK, "true"));
+			store = singleLock ? SINGLE_LOCK_STORE : TWO_LEVEL_LOCKING_STORE;
+		}
+
+		/* we pass bookStore to BookStoreHTTPMessageHandler constructor twice, 
+		 * since it implements both interfaces: BookStore and StockManager */
+		switch (store) {
+		case TWO_LEVEL_LOCKING_STORE:
+			TwoLevelLockingConcurrentCertainBookStore twoLevelLockingStore =
+					new TwoLevelLockingConcurrentCertainBookStore(getNumLockStripes());
+			return new BookStoreHTTPMessageHandler(twoLevelLockingStore, twoLevelLockingStore);
+
+		case OPTIMISTIC_STORE:
+			OptimisticConcurrentCertainBookStore optimisticStore = new OptimisticConcurrentCertainBookStore();
+			return new BookStoreHTTPMessageHandler(optimisticStore, optimisticStore);
+
+		case MULTI_VERSION_STORE:
+			MultiVersionConcurrentCertainBookStore multiVersionStore = new MultiVersionConcurrentCertainBookStore();
+			return new BookStoreHTTPMessageHandler(multiVersionStore, multiVersionStore);
+
+		case COPY_ON_WRITE_STORE:
+			CopyOnWriteCertainBookStore copyOnWriteStore = new CopyOnWriteCertainBookStore();
+			return new BookStoreHTTPMessageHandler(copyOnWriteStore, copyOnWriteStore);
+
+		default:
+			if (!SINGLE_LOCK_STORE.equals(store)) {
+				System.err.println("Unsupported store, using the single lock store");
+			}
+
+			SingleLockConcurrentCertainBookStore singleLockStore = new SingleLockConcurrentCertainBookStore();
+			return new BookStoreHTTPMessageHandler(singleLockStore, singleLockStore);
+		}
+	}
+
+	/**
+	 * Gets the number of lock stripes of the two-level locking store from
+	 * {@link BookStoreConstants#PROPERTY_KEY_LOCK_STRIPES}, or the default if
+	 * it is missing or invalid.
+	 *
+	 * @return the number of lock stripes
+	 */
+	private static int getNumLockStripes() {
+		int numLockStripes = StripedReadWriteLock.DEFAULT_NUM_STRIPES;
+		String lockStripesString = System.getProperty(BookStoreConstants.PROPERTY_KEY_LOCK_STRIPES);
+
+		if (lockStripesString != null) {
+			try {
+				numLockStripes = Integer.parseInt(lockStripesString);
+			} catch (NumberFormatException ex) {
+				System.err.println("Unsupported number of lock stripes");
+			}
+
+			if (numLockStripes < 1 || numLockStripes > StripedReadWriteLock.MAX_NUM_STRIPES) {
+				System.err.println("Unsupported number of lock stripes");
+				numLockStripes = StripedReadWriteLock.DEFAULT_NUM_STRIPES;
+			}
+		}
+
+		return numLockStripes;
+	}
+
 	/**
 	 * The main method.
 	 *
@@ -38,18 +126,8 @@ public class BookStoreHTTPServer {
 	public static void main(String[] args) {
 		int listenOnPort = DEFAULT_PORT;
 		
-		BookStoreHTTPMessageHandler handler = null;
-		
-		if (SINGLE_LOCK) {
-			SingleLockConcurrentCertainBookStore bookStore = new SingleLockConcurrentCertainBookStore();
-			/* we pass bookStore to BookStoreHTTPMessageHandler constructor twice, 
-			 * since it implements both interfaces: BookStore and StockManager */
-			handler = new BookStoreHTTPMessageHandler(bookStore, bookStore);
-		} else {
-			TwoLevelLockingConcurrentCertainBookStore bookStore = new TwoLevelLockingConcurrentCertainBookStore();
-			handler = new BookStoreHTTPMessageHandler(bookStore, bookStore);
-		}		
-		
+		BookStoreHTTPMessageHandler handler = newHandler();
+
 		String serverPortString = System.getProperty(BookStoreConstants.PROPERTY_KEY_SERVER_PORT);
 
 		if (serverPortString != null) {
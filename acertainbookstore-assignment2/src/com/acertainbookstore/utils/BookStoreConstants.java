@@ -60,6 +60,16 @@ public final class BookStoreConstants {
 	/** The Constant PROPERTY_KEY_SINGLE_LOCK. */
 	public static final String PROPERTY_KEY_SINGLE_LOCK = "singlelock";
 
+	/**
+	 * The Constant PROPERTY_KEY_STORE naming the store served: singlelock,
+	 * twolevel, optimistic, multiversion or copyonwrite. Without it,
+	 * {@link #PROPERTY_KEY_SINGLE_LOCK} chooses between the locking stores.
+	 */
+	public static final String PROPERTY_KEY_STORE = "store";
+
+	/** The Constant PROPERTY_KEY_LOCK_STRIPES. */
+	public static final String PROPERTY_KEY_LOCK_STRIPES = "lockstripes";
+
 	/** The Constant PROPERTY_KEY_SERVER_PORT. */
 	public static final String PROPERTY_KEY_SERVER_PORT = "port";
 
@@ -215,6 +215,20 @@ public class BookStoreBook extends ImmutableBook {
 		}
 	}
 
+	/**
+	 * Returns <code>numCopies</code> that were reserved for a purchase which
+	 * did not take place. Unlike {@link #addCopies(int)}, the sale misses are
+	 * kept, as no copies were restocked.
+	 *
+	 * @param numCopies
+	 *            the number of copies
+	 */
+	public void returnCopies(int numCopies) {
+		if (!BookStoreUtility.isInvalidNoCopies(numCopies)) {
+			this.numCopies += numCopies;
+		}
+	}
+
 	/**
 	 * Increments the amount of missed sales of the book.
 	 * 
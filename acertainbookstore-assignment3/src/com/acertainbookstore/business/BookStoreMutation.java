@@ -0,0 +1,80 @@
+package com.acertainbookstore.business;
+
+import com.acertainbookstore.utils.BookStoreMessageTag;
+
+/**
+ * {@link BookStoreMutation} is an update applied by a primary store, numbered
+ * in the order it was applied, to be applied by its backups in the same order.
+ * A snapshot mutation instead replaces every book of a backup, which is then
+ * up to date with the primary at the sequence number of the snapshot.
+ */
+public class BookStoreMutation {
+
+	/** The sequence number of the mutation. */
+	private long sequence;
+
+	/** The message tag of the update. */
+	private BookStoreMessageTag messageTag;
+
+	/** The argument of the update. */
+	private Object argument;
+
+	/** True if the mutation is a snapshot of every book. */
+	private boolean snapshot;
+
+	/**
+	 * Instantiates a new {@link BookStoreMutation}.
+	 *
+	 * @param sequence
+	 *            the sequence number
+	 * @param messageTag
+	 *            the message tag of the update
+	 * @param argument
+	 *            the argument of the update
+	 * @param snapshot
+	 *            true if the mutation is a snapshot of every book, loaded with
+	 *            {@link BookStoreMessageTag#LOADBOOKS}
+	 */
+	public BookStoreMutation(long sequence, BookStoreMessageTag messageTag, Object argument, boolean snapshot) {
+		this.sequence = sequence;
+		this.messageTag = messageTag;
+		this.argument = argument;
+		this.snapshot = snapshot;
+	}
+
+	/**
+	 * Gets the sequence number.
+	 *
+	 * @return the sequence number
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Gets the message tag of the update.
+	 *
+	 * @return the message tag
+	 */
+	public BookStoreMessageTag getMessageTag() {
+		return messageTag;
+	}
+
+	/**
+	 * Gets the argument of the update.
+	 *
+	 * @return the argument
+	 */
+	public Object getArgument() {
+		return argument;
+	}
+
+	/**
+	 * Checks if the mutation is a snapshot of every book.
+	 *
+	 * @return true, if it is a snapshot
+	 */
+	public boolean isSnapshot() {
+		return snapshot;
+	}
+}
@@ -0,0 +1,48 @@
+package com.acertainbookstore.business;
+
+import com.acertainbookstore.utils.BookStoreMessageTag;
+
+/**
+ * {@link BookStoreOperation} is a call of the {@link com.acertainbookstore.interfaces.BookStore}
+ * API sent in a batch of operations, which the server executes in order and
+ * answers with the response of each operation.
+ */
+public class BookStoreOperation {
+
+	/** The message tag of the operation. */
+	private BookStoreMessageTag messageTag;
+
+	/** The argument of the operation. */
+	private Object argument;
+
+	/**
+	 * Instantiates a new {@link BookStoreOperation}.
+	 *
+	 * @param messageTag
+	 *            the message tag of the operation
+	 * @param argument
+	 *            the argument of the operation
+	 */
+	public BookStoreOperation(BookStoreMessageTag messageTag, Object argument) {
+		this.messageTag = messageTag;
+		this.argument = argument;
+	}
+
+	/**
+	 * Gets the message tag of the operation.
+	 *
+	 * @return the message tag
+	 */
+	public BookStoreMessageTag getMessageTag() {
+		return messageTag;
+	}
+
+	/**
+	 * Gets the argument of the operation.
+	 *
+	 * @return the argument
+	 */
+	public Object getArgument() {
+		return argument;
+	}
+}
@@ -0,0 +1,69 @@
+package com.acertainbookstore.business;
+
+import java.util.List;
+
+/**
+ * {@link BookStoreReplicationBatch} is used to ship the mutations of a primary
+ * store to a backup, along with the sequence number of the last mutation the
+ * primary applied when the batch was made. An empty batch tells the backup it
+ * is still up to date.
+ *
+ * The batch also carries the incarnation of the primary, drawn anew whenever
+ * a primary starts, since a restarted primary numbers its mutations afresh.
+ */
+public class BookStoreReplicationBatch {
+
+	/** The incarnation of the primary numbering the mutations. */
+	private long primaryIncarnation;
+
+	/** The sequence number of the last mutation applied by the primary. */
+	private long primarySequence;
+
+	/** The mutations, in the order of their sequence numbers. */
+	private List<BookStoreMutation> mutations;
+
+	/**
+	 * Instantiates a new {@link BookStoreReplicationBatch}.
+	 *
+	 * @param primaryIncarnation
+	 *            the incarnation of the primary numbering the mutations
+	 * @param primarySequence
+	 *            the sequence number of the last mutation applied by the
+	 *            primary
+	 * @param mutations
+	 *            the mutations, in the order of their sequence numbers
+	 */
+	public BookStoreReplicationBatch(long primaryIncarnation, long primarySequence,
+			List<BookStoreMutation> mutations) {
+		this.primaryIncarnation = primaryIncarnation;
+		this.primarySequence = primarySequence;
+		this.mutations = mutations;
+	}
+
+	/**
+	 * Gets the incarnation of the primary numbering the mutations.
+	 *
+	 * @return the incarnation
+	 */
+	public long getPrimaryIncarnation() {
+		return primaryIncarnation;
+	}
+
+	/**
+	 * Gets the sequence number of the last mutation applied by the primary.
+	 *
+	 * @return the sequence number
+	 */
+	public long getPrimarySequence() {
+		return primarySequence;
+	}
+
+	/**
+	 * Gets the mutations.
+	 *
+	 * @return the mutations
+	 */
+	public List<BookStoreMutation> getMutations() {
+		return mutations;
+	}
+}
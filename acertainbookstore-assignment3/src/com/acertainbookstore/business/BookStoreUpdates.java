@@ -0,0 +1,100 @@
+package com.acertainbookstore.business;
+
+import java.util.List;
+import java.util.Set;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.BookStoreLoader;
+import com.acertainbookstore.interfaces.BookStoreParticipant;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+
+/**
+ * {@link BookStoreUpdates} applies an update recorded as a message tag and its
+ * argument, such as an update read back from a log or received from a
+ * primary, to a store.
+ */
+final class BookStoreUpdates {
+
+	/**
+	 * Prevents the instantiation of a new {@link BookStoreUpdates}.
+	 */
+	private BookStoreUpdates() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * Applies the update to the store.
+	 *
+	 * @param <T>
+	 *            the type of the store
+	 * @param store
+	 *            the store
+	 * @param messageTag
+	 *            the message tag
+	 * @param argument
+	 *            the argument
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@SuppressWarnings("unchecked")
+	static <T extends BookStore & StockManager & BookStoreLoader & BookStoreParticipant> void apply(T store,
+			BookStoreMessageTag messageTag, Object argument) throws BookStoreException {
+		BuyBooksTransaction transaction = argument instanceof BuyBooksTransaction ? (BuyBooksTransaction) argument
+				: null;
+
+		switch (messageTag) {
+		case ADDBOOKS:
+			store.addBooks((Set<StockBook>) argument);
+			break;
+
+		case ADDCOPIES:
+			store.addCopies((Set<BookCopy>) argument);
+			break;
+
+		case UPDATEEDITORPICKS:
+			store.updateEditorPicks((Set<BookEditorPick>) argument);
+			break;
+
+		case BUYBOOKS:
+			store.buyBooks((Set<BookCopy>) argument);
+			break;
+
+		case RATEBOOKS:
+			store.rateBooks((Set<BookRating>) argument);
+			break;
+
+		case REMOVEBOOKS:
+			store.removeBooks((Set<Integer>) argument);
+			break;
+
+		case REMOVEALLBOOKS:
+			store.removeAllBooks();
+			break;
+
+		case LOADBOOKS:
+			store.loadBooks((List<StockBook>) argument);
+			break;
+
+		case PREPAREBUYBOOKS:
+			store.prepareBuyBooks(transaction.getTransactionId(), transaction.getBookCopies());
+			break;
+
+		case COMMITBUYBOOKS:
+			store.commitBuyBooks(transaction.getTransactionId());
+			break;
+
+		case ABORTBUYBOOKS:
+			store.abortBuyBooks(transaction.getTransactionId(), transaction.isRecordSaleMisses());
+			break;
+
+		case ENDBUYBOOKS:
+			store.endBuyBooks(transaction.getTransactionId());
+			break;
+
+		default:
+			throw new BookStoreException("Unsupported message tag in the update: " + messageTag);
+		}
+	}
+}
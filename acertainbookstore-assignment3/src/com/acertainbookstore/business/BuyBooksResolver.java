@@ -0,0 +1,101 @@
+package com.acertainbookstore.business;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.acertainbookstore.interfaces.BookStoreCoordinator;
+import com.acertainbookstore.interfaces.BookStoreLoader;
+import com.acertainbookstore.interfaces.BookStoreParticipant;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link BuyBooksResolver} resolves the purchases a
+ * {@link BookStoreParticipant} is left in doubt about, such as one whose
+ * prepare arrived after the coordinator aborted and ended it, and which would
+ * otherwise hold its reserved copies forever.
+ *
+ * Periodically, the purchases still holding copies that were already held at
+ * the previous round are looked up on the {@link BookStoreCoordinator}, and
+ * committed or aborted as it decided. A purchase the coordinator has not
+ * decided yet, or that could not be looked up, is looked up again at the next
+ * round. A purchase aborted this way is ended too, since a coordinator that
+ * forgot it never ends it.
+ *
+ * @param <T>
+ *            the type of the participant
+ */
+public class BuyBooksResolver<T extends BookStoreParticipant & BookStoreLoader> {
+
+	/** The participant. */
+	private final T participant;
+
+	/** The coordinator. */
+	private final BookStoreCoordinator coordinator;
+
+	/** The purchases holding copies at the previous round. */
+	private Set<String> reservingPurchases = new HashSet<>();
+
+	/** The thread resolving the purchases. */
+	private final ScheduledExecutorService resolver = Executors.newSingleThreadScheduledExecutor(task -> {
+		Thread thread = new Thread(task, "bookstore-resolver");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Initializes a new {@link BuyBooksResolver} and starts resolving the
+	 * purchases of the participant.
+	 *
+	 * @param participant
+	 *            the participant
+	 * @param coordinator
+	 *            the coordinator of its purchases
+	 * @param periodMillis
+	 *            the time between two rounds
+	 */
+	public BuyBooksResolver(T participant, BookStoreCoordinator coordinator, long periodMillis) {
+		this.participant = participant;
+		this.coordinator = coordinator;
+		resolver.scheduleWithFixedDelay(this::resolve, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Resolves the purchases that held copies for a whole period.
+	 */
+	private void resolve() {
+		Set<String> stillReservingPurchases = new HashSet<>();
+
+		for (BuyBooksTransaction purchase : participant.getReservingPurchases()) {
+			stillReservingPurchases.add(purchase.getTransactionId());
+		}
+
+		for (String transactionId : stillReservingPurchases) {
+			if (!reservingPurchases.contains(transactionId)) {
+				continue;
+			}
+
+			try {
+				if (coordinator.isCommitted(transactionId)) {
+					participant.commitBuyBooks(transactionId);
+				} else {
+					participant.abortBuyBooks(transactionId, false);
+					participant.endBuyBooks(transactionId);
+				}
+			} catch (BookStoreException ex) {
+				// The purchase is looked up again at the next round.
+			}
+		}
+
+		reservingPurchases = stillReservingPurchases;
+	}
+
+	/**
+	 * Stops resolving the purchases of the participant.
+	 */
+	public void stop() {
+		resolver.shutdownNow();
+	}
+}
@@ -0,0 +1,64 @@
+package com.acertainbookstore.business;
+
+import java.util.Set;
+
+/**
+ * {@link BuyBooksTransaction} is used to represent the purchase of a
+ * participant in a purchase spanning several servers, such as the copies to
+ * reserve when it is prepared.
+ */
+public class BuyBooksTransaction {
+
+	/** The transaction identifier, unique for the coordinator. */
+	private String transactionId;
+
+	/** The copies to buy from the participant, or null. */
+	private Set<BookCopy> bookCopies;
+
+	/** True if an aborted purchase records the sale misses of the participant. */
+	private boolean recordSaleMisses;
+
+	/**
+	 * Instantiates a new {@link BuyBooksTransaction}.
+	 *
+	 * @param transactionId
+	 *            the transaction identifier
+	 * @param bookCopies
+	 *            the copies to buy from the participant, or null
+	 * @param recordSaleMisses
+	 *            true if an aborted purchase records the sale misses
+	 */
+	public BuyBooksTransaction(String transactionId, Set<BookCopy> bookCopies, boolean recordSaleMisses) {
+		this.transactionId = transactionId;
+		this.bookCopies = bookCopies;
+		this.recordSaleMisses = recordSaleMisses;
+	}
+
+	/**
+	 * Gets the transaction identifier.
+	 *
+	 * @return the transaction identifier
+	 */
+	public String getTransactionId() {
+		return transactionId;
+	}
+
+	/**
+	 * Gets the copies to buy from the participant.
+	 *
+	 * @return the copies, or null
+	 */
+	public Set<BookCopy> getBookCopies() {
+		return bookCopies;
+	}
+
+	/**
+	 * Checks if an aborted purchase records the sale misses of the
+	 * participant.
+	 *
+	 * @return true, if the sale misses are recorded
+	 */
+	public boolean isRecordSaleMisses() {
+		return recordSaleMisses;
+	}
+}
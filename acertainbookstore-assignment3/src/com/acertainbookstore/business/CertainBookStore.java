@@ -1,18 +1,24 @@
 package com.acertainbookstore.business;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.BookStoreLoader;
+import com.acertainbookstore.interfaces.BookStoreParticipant;
 import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
@@ -24,21 +30,49 @@ import com.acertainbookstore.utils.BookStoreUtility;
  * 
  * @see BookStore
  * @see StockManager
+ * @see BookStoreLoader
+ * @see BookStoreParticipant
  */
-public class CertainBookStore implements BookStore, StockManager {
+public class CertainBookStore implements BookStore, StockManager, BookStoreLoader, BookStoreParticipant {
 
 	/** The mapping of books from ISBN to {@link BookStoreBook}. */
 	private Map<Integer, BookStoreBook> bookMap = null;
 
+	/** The editor picks, kept up to date by every change to them. */
+	private final EditorPickIndex editorPickIndex = new EditorPickIndex();
+
+	/**
+	 * The lock held by every read and update, rather than the monitor of the
+	 * store, so that a virtual thread waiting for it does not pin its carrier.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/** The prepared purchases and the outcomes of the finished ones. */
+	private final PreparedPurchases preparedPurchases;
+
 	/**
 	 * Instantiates a new {@link CertainBookStore}.
 	 */
 	public CertainBookStore() {
+		this(BookStoreConstants.TRANSACTION_TIMEOUT_MILLISECS);
+	}
+
+	/**
+	 * Instantiates a new {@link CertainBookStore} forgetting the purchases
+	 * that found sale misses and were not aborted within
+	 * <code>transactionTimeoutMillis</code>. Purchases that reserved copies
+	 * are kept until they are committed or aborted.
+	 *
+	 * @param transactionTimeoutMillis
+	 *            the transaction timeout in milliseconds
+	 */
+	public CertainBookStore(long transactionTimeoutMillis) {
 
 		// Constructors are not synchronized
 		bookMap = new HashMap<>();
+		preparedPurchases = new PreparedPurchases(transactionTimeoutMillis);
 	}
-	private synchronized void validate(StockBook book) throws BookStoreException {
+	private void validate(StockBook book) throws BookStoreException {
 		int isbn = book.getISBN();
 		String bookTitle = book.getTitle();
 		String bookAuthor = book.getAuthor();
@@ -70,7 +104,7 @@ public class CertainBookStore implements BookStore, StockManager {
 		}
 	}
 
-	private synchronized void validate(BookCopy bookCopy) throws BookStoreException {
+	private void validate(BookCopy bookCopy) throws BookStoreException {
 		int isbn = bookCopy.getISBN();
 		int numCopies = bookCopy.getNumCopies();
 
@@ -81,12 +115,12 @@ public class CertainBookStore implements BookStore, StockManager {
 		}
 	}
 
-	private synchronized void validate(BookEditorPick editorPickArg) throws BookStoreException {
+	private void validate(BookEditorPick editorPickArg) throws BookStoreException {
 		int isbn = editorPickArg.getISBN();
 		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
 	}
 
-	private synchronized void validateISBNInStock(Integer ISBN) throws BookStoreException {
+	private void validateISBNInStock(Integer ISBN) throws BookStoreException {
 		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
 			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
 		}
@@ -100,19 +134,59 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * @see
 	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
 	 */
-	public synchronized void addBooks(Set<StockBook> bookSet) throws BookStoreException {
-		if (bookSet == null) {
-			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
-		}
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		lock.lock();
+
+		try {
+			if (bookSet == null) {
+				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+			}
+
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
 
-		// Check if all are there
-		for (StockBook book : bookSet) {
-			validate(book);
+			for (StockBook book : bookSet) {
+				int isbn = book.getISBN();
+				bookMap.put(isbn, new BookStoreBook(book));
+				editorPickIndex.set(isbn, book.isEditorPick());
+			}
+		} finally {
+			lock.unlock();
 		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreLoader#loadBooks(java.util.
+	 * Collection)
+	 */
+	@Override
+	public void loadBooks(Collection<StockBook> books) throws BookStoreException {
+
+		// Validate and copy the books in parallel before taking the lock.
+		Map<Integer, BookStoreBook> booksToLoad = BookStoreUtility.validateLoadedBooks(books, BookStoreBook::new);
+
+		// Then publish them all at once, unless one is already in stock.
+		lock.lock();
+
+		try {
+			for (Integer isbn : booksToLoad.keySet()) {
+				if (bookMap.containsKey(isbn)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+				}
+			}
+
+			bookMap.putAll(booksToLoad);
 
-		for (StockBook book : bookSet) {
-			int isbn = book.getISBN();
-			bookMap.put(isbn, new BookStoreBook(book));
+			for (BookStoreBook book : booksToLoad.values()) {
+				editorPickIndex.set(book.getISBN(), book.isEditorPick());
+			}
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -122,26 +196,32 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * @see
 	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
 	 */
-	public synchronized void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
-		int isbn;
-		int numCopies;
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		lock.lock();
 
-		if (bookCopiesSet == null) {
-			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
-		}
+		try {
+			int isbn;
+			int numCopies;
 
-		for (BookCopy bookCopy : bookCopiesSet) {
-			validate(bookCopy);
-		}
+			if (bookCopiesSet == null) {
+				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+			}
+
+			for (BookCopy bookCopy : bookCopiesSet) {
+				validate(bookCopy);
+			}
 
-		BookStoreBook book;
+			BookStoreBook book;
 
-		// Update the number of copies
-		for (BookCopy bookCopy : bookCopiesSet) {
-			isbn = bookCopy.getISBN();
-			numCopies = bookCopy.getNumCopies();
-			book = bookMap.get(isbn);
-			book.addCopies(numCopies);
+			// Update the number of copies
+			for (BookCopy bookCopy : bookCopiesSet) {
+				isbn = bookCopy.getISBN();
+				numCopies = bookCopy.getNumCopies();
+				book = bookMap.get(isbn);
+				book.addCopies(numCopies);
+			}
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -150,12 +230,18 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * 
 	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
 	 */
-	public synchronized List<StockBook> getBooks() {
-		Collection<BookStoreBook> bookMapValues = bookMap.values();
+	public List<StockBook> getBooks() {
+		lock.lock();
+
+		try {
+			Collection<BookStoreBook> bookMapValues = bookMap.values();
 
-		return bookMapValues.stream()
-				.map(book -> book.immutableStockBook())
-				.collect(Collectors.toList());
+			return bookMapValues.stream()
+					.map(book -> book.immutableStockBook())
+					.collect(Collectors.toList());
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/*
@@ -165,21 +251,25 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
 	 * .Set)
 	 */
-	public synchronized void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
-
-		// Check that all ISBNs that we add/remove are there first.
-		if (editorPicks == null) {
-			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
-		}
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		lock.lock();
 
-		int isbnValue;
+		try {
+			// Check that all ISBNs that we add/remove are there first.
+			if (editorPicks == null) {
+				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+			}
 
-		for (BookEditorPick editorPickArg : editorPicks) {
-			validate(editorPickArg);
-		}
+			for (BookEditorPick editorPickArg : editorPicks) {
+				validate(editorPickArg);
+			}
 
-		for (BookEditorPick editorPickArg : editorPicks) {
-			bookMap.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
+			for (BookEditorPick editorPickArg : editorPicks) {
+				bookMap.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
+				editorPickIndex.set(editorPickArg.getISBN(), editorPickArg.isEditorPick());
+			}
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -188,46 +278,117 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * 
 	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
 	 */
-	public synchronized void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
-		if (bookCopiesToBuy == null) {
-			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
-		}
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		lock.lock();
 
-		// Check that all ISBNs that we buy are there first.
-		int isbn;
-		BookStoreBook book;
-		Boolean saleMiss = false;
+		try {
+			if (bookCopiesToBuy == null) {
+				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+			}
+
+			// Check that all ISBNs that we buy are there first.
+			int isbn;
+			BookStoreBook book;
+			Boolean saleMiss = false;
 
-		Map<Integer, Integer> salesMisses = new HashMap<>();
+			Map<Integer, Integer> salesMisses = new HashMap<>();
 
-		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-			isbn = bookCopyToBuy.getISBN();
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				isbn = bookCopyToBuy.getISBN();
 			
-			validate(bookCopyToBuy);
+				validate(bookCopyToBuy);
+
+				book = bookMap.get(isbn);
 
-			book = bookMap.get(isbn);
+				if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+					// If we cannot sell the copies of the book, it is a miss.
+					salesMisses.put(isbn, bookCopyToBuy.getNumCopies() - book.getNumCopies());
+					saleMiss = true;
+				}
+			}
+
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand
+			if (saleMiss) {
+				for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+					book = bookMap.get(saleMissEntry.getKey());
+					book.addSaleMiss(saleMissEntry.getValue());
+				}
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			}
 
-			if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
-				// If we cannot sell the copies of the book, it is a miss.
-				salesMisses.put(isbn, bookCopyToBuy.getNumCopies() - book.getNumCopies());
-				saleMiss = true;
+			// Then make the purchase.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				book = bookMap.get(bookCopyToBuy.getISBN());
+				book.buyCopies(bookCopyToBuy.getNumCopies());
 			}
+		} finally {
+			lock.unlock();
 		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreParticipant#prepareBuyBooks(
+	 * java.lang.String, java.util.Set)
+	 */
+	@Override
+	public List<BookCopy> prepareBuyBooks(String transactionId, Set<BookCopy> bookCopiesToBuy)
+			throws BookStoreException {
+		lock.lock();
 
-		// We throw exception now since we want to see how many books in the
-		// order incurred misses which is used by books in demand
-		if (saleMiss) {
-			for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
-				book = bookMap.get(saleMissEntry.getKey());
-				book.addSaleMiss(saleMissEntry.getValue());
+		try {
+			if (transactionId == null || bookCopiesToBuy == null) {
+				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 			}
-			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+
+			preparedPurchases.checkNew(transactionId);
+			List<BookCopy> saleMisses = new ArrayList<>();
+
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				validate(bookCopyToBuy);
+
+				BookStoreBook book = bookMap.get(bookCopyToBuy.getISBN());
+
+				if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+					saleMisses.add(new BookCopy(bookCopyToBuy.getISBN(),
+							bookCopyToBuy.getNumCopies() - book.getNumCopies()));
+				}
+			}
+
+			// Reserve the copies only if the whole purchase can be made.
+			if (saleMisses.isEmpty()) {
+				for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+					bookMap.get(bookCopyToBuy.getISBN()).buyCopies(bookCopyToBuy.getNumCopies());
+				}
+			}
+
+			preparedPurchases.add(transactionId, saleMisses.isEmpty() ? bookCopiesToBuy : Collections.emptySet(),
+					saleMisses);
+			return saleMisses;
+		} finally {
+			lock.unlock();
 		}
+	}
 
-		// Then make the purchase.
-		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-			book = bookMap.get(bookCopyToBuy.getISBN());
-			book.buyCopies(bookCopyToBuy.getNumCopies());
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreParticipant#commitBuyBooks(java
+	 * .lang.String)
+	 */
+	@Override
+	public void commitBuyBooks(String transactionId) throws BookStoreException {
+		lock.lock();
+
+		try {
+			// The reserved copies are sold already.
+			preparedPurchases.commit(transactionId);
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -235,86 +396,235 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * (non-Javadoc)
 	 * 
 	 * @see
-	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
-	 * Set)
+	 * com.acertainbookstore.interfaces.BookStoreParticipant#abortBuyBooks(java.
+	 * lang.String, boolean)
 	 */
-	public synchronized List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
-		if (isbnSet == null) {
-			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+	@Override
+	public void abortBuyBooks(String transactionId, boolean recordSaleMisses)
+			throws BookStoreException {
+		lock.lock();
+
+		try {
+			PreparedPurchases.Purchase purchase = preparedPurchases.abort(transactionId);
+
+			if (purchase == null) {
+				return;
+			}
+
+			// Return the copies to the books still in stock.
+			for (BookCopy reservedCopy : purchase.getReservedCopies()) {
+				BookStoreBook book = bookMap.get(reservedCopy.getISBN());
+
+				if (book != null) {
+					book.returnCopies(reservedCopy.getNumCopies());
+				}
+			}
+
+			if (recordSaleMisses) {
+				for (BookCopy saleMiss : purchase.getSaleMisses()) {
+					BookStoreBook book = bookMap.get(saleMiss.getISBN());
+
+					if (book != null) {
+						book.addSaleMiss(saleMiss.getNumCopies());
+					}
+				}
+			}
+		} finally {
+			lock.unlock();
 		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreParticipant#endBuyBooks(java.
+	 * lang.String)
+	 */
+	@Override
+	public void endBuyBooks(String transactionId) throws BookStoreException {
+		lock.lock();
 
-		for (Integer ISBN : isbnSet) {
-			validateISBNInStock(ISBN);
+		try {
+			preparedPurchases.end(transactionId);
+		} finally {
+			lock.unlock();
 		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreLoader#visitBooks(com.
+	 * acertainbookstore.interfaces.BookStoreLoader.BookVisitor)
+	 */
+	@Override
+	public void visitBooks(BookVisitor visitor) throws IOException {
+		lock.lock();
 
-		// Return the set of books matching isbns in the validated set.
-		return isbnSet.stream()
-				.map(isbn -> bookMap.get(isbn).immutableStockBook())
-				.collect(Collectors.toList());
+		try {
+			for (BookStoreBook book : bookMap.values()) {
+				visitor.visit(book.immutableStockBook());
+			}
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/*
 	 * (non-Javadoc)
 	 * 
-	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreLoader#getReservingPurchases()
 	 */
-	public synchronized List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
-		if (isbnSet == null) {
-			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+	@Override
+	public List<BuyBooksTransaction> getReservingPurchases() {
+		lock.lock();
+
+		try {
+			return preparedPurchases.getReservingPurchases();
+		} finally {
+			lock.unlock();
 		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStoreLoader#getOutcomes()
+	 */
+	@Override
+	public Map<String, Boolean> getOutcomes() {
+		lock.lock();
 
-		// Check that all ISBNs that we rate are there to start with.
-		for (Integer ISBN : isbnSet) {
-			validateISBNInStock(ISBN);
+		try {
+			return preparedPurchases.getOutcomes();
+		} finally {
+			lock.unlock();
 		}
+	}
 
-		return isbnSet.stream()
-				.map(isbn -> bookMap.get(isbn).immutableBook())
-				.collect(Collectors.toList());
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStoreLoader#getLock()
+	 */
+	@Override
+	public Lock getLock() {
+		return lock;
 	}
 
 	/*
 	 * (non-Javadoc)
 	 * 
-	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreLoader#setExpiryCheck(java.util
+	 * .function.Predicate)
 	 */
-	public synchronized List<Book> getEditorPicks(int numBooks) throws BookStoreException {
-		if (numBooks < 0) {
-			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+	@Override
+	public void setExpiryCheck(Predicate<String> expiryCheck) {
+		lock.lock();
+
+		try {
+			preparedPurchases.setExpiryCheck(expiryCheck);
+		} finally {
+			lock.unlock();
 		}
+	}
 
-		// Query for all books with the Editor Pick boolean set.
-		List<BookStoreBook> listAllEditorPicks = bookMap.entrySet().stream()
-				.map(pair -> pair.getValue())
-				.filter(book -> book.isEditorPick())
-				.collect(Collectors.toList());
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		lock.lock();
+
+		try {
+			if (isbnSet == null) {
+				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+			}
 
-		// Find numBooks random indices of books that will be picked.
-		Random rand = new Random();
-		Set<Integer> tobePicked = new HashSet<>();
-		int rangePicks = listAllEditorPicks.size();
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			// Return the set of books matching isbns in the validated set.
+			return isbnSet.stream()
+					.map(isbn -> bookMap.get(isbn).immutableStockBook())
+					.collect(Collectors.toList());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		lock.lock();
 
-		if (rangePicks <= numBooks) {
+		try {
+			if (isbnSet == null) {
+				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+			}
 
-			// We need to add all books.
-			for (int i = 0; i < listAllEditorPicks.size(); i++) {
-				tobePicked.add(i);
+			// Check that all ISBNs that we rate are there to start with.
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
 			}
-		} else {
 
-			// We need to pick randomly the books that need to be returned.
-			int randNum;
+			return isbnSet.stream()
+					.map(isbn -> bookMap.get(isbn).immutableBook())
+					.collect(Collectors.toList());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		lock.lock();
 
-			while (tobePicked.size() < numBooks) {
-				randNum = rand.nextInt(rangePicks);
-				tobePicked.add(randNum);
+		try {
+			if (numBooks < 0) {
+				throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
 			}
+
+			// Pick numBooks random editor picks from the index.
+			int[] tobePicked = editorPickIndex.sample(numBooks, ThreadLocalRandom.current());
+
+			return Arrays.stream(tobePicked)
+					.mapToObj(isbn -> bookMap.get(isbn).immutableBook())
+					.collect(Collectors.toList());
+		} finally {
+			lock.unlock();
 		}
+	}
 
-		// Return all the books by the randomly chosen indices.
-		return tobePicked.stream()
-				.map(index -> listAllEditorPicks.get(index).immutableBook())
-				.collect(Collectors.toList());
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.StockManager#getNumEditorPicks()
+	 */
+	@Override
+	public int getNumEditorPicks() throws BookStoreException {
+		lock.lock();
+
+		try {
+			return editorPickIndex.size();
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/*
@@ -323,8 +633,14 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
 	 */
 	@Override
-	public synchronized List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
-		throw new BookStoreException();
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		lock.lock();
+
+		try {
+			throw new BookStoreException();
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/*
@@ -333,8 +649,14 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
 	 */
 	@Override
-	public synchronized List<StockBook> getBooksInDemand() throws BookStoreException {
-		throw new BookStoreException();
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		lock.lock();
+
+		try {
+			throw new BookStoreException();
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/*
@@ -343,8 +665,14 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
 	 */
 	@Override
-	public synchronized void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
-		throw new BookStoreException();
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		lock.lock();
+
+		try {
+			throw new BookStoreException();
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/*
@@ -352,8 +680,15 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * 
 	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
 	 */
-	public synchronized void removeAllBooks() throws BookStoreException {
-		bookMap.clear();
+	public void removeAllBooks() throws BookStoreException {
+		lock.lock();
+
+		try {
+			bookMap.clear();
+			editorPickIndex.clear();
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/*
@@ -362,23 +697,30 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * @see
 	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
 	 */
-	public synchronized void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
-		if (isbnSet == null) {
-			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
-		}
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		lock.lock();
 
-		for (Integer ISBN : isbnSet) {
-			if (BookStoreUtility.isInvalidISBN(ISBN)) {
-				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		try {
+			if (isbnSet == null) {
+				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 			}
 
-			if (!bookMap.containsKey(ISBN)) {
-				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+			for (Integer ISBN : isbnSet) {
+				if (BookStoreUtility.isInvalidISBN(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+				}
+
+				if (!bookMap.containsKey(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+				}
 			}
-		}
 
-		for (int isbn : isbnSet) {
-			bookMap.remove(isbn);
+			for (int isbn : isbnSet) {
+				bookMap.remove(isbn);
+				editorPickIndex.remove(isbn);
+			}
+		} finally {
+			lock.unlock();
 		}
 	}
 }
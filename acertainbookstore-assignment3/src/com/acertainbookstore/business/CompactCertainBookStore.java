@@ -0,0 +1,698 @@
+package com.acertainbookstore.business;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.BookStoreLoader;
+import com.acertainbookstore.interfaces.BookStoreParticipant;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link CompactCertainBookStore} implements the {@link BookStore} and
+ * {@link StockManager} functionalities like the {@link CertainBookStore}, but
+ * keeps the books in an {@link InventoryTable} instead of a map of
+ * {@link BookStoreBook} objects. The ISBNs are not boxed and a book costs no
+ * objects of its own, so the heap holds a fixed number of arrays however large
+ * the catalog grows, and the garbage collector has almost nothing to trace.
+ *
+ * @see BookStore
+ * @see StockManager
+ * @see BookStoreLoader
+ * @see BookStoreParticipant
+ * @see InventoryTable
+ */
+public class CompactCertainBookStore implements BookStore, StockManager, BookStoreLoader, BookStoreParticipant {
+
+	/** The table of books. */
+	private final InventoryTable inventory;
+
+	/** The editor picks, kept up to date by every change to them. */
+	private final EditorPickIndex editorPickIndex = new EditorPickIndex();
+
+	/**
+	 * The lock held by every read and update, rather than the monitor of the
+	 * store, so that a virtual thread waiting for it does not pin its carrier.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/** The prepared purchases and the outcomes of the finished ones. */
+	private final PreparedPurchases preparedPurchases = new PreparedPurchases(
+			BookStoreConstants.TRANSACTION_TIMEOUT_MILLISECS);
+
+	/**
+	 * Instantiates a new {@link CompactCertainBookStore}.
+	 */
+	public CompactCertainBookStore() {
+		this(InventoryTable.DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new {@link CompactCertainBookStore} sized for the expected
+	 * number of books, so that loading the catalog does not grow the table.
+	 *
+	 * @param expectedNumBooks
+	 *            the expected number of books
+	 */
+	public CompactCertainBookStore(int expectedNumBooks) {
+
+		// Constructors are not synchronized
+		inventory = new InventoryTable(expectedNumBooks);
+	}
+
+	private void validate(StockBook book, Set<Integer> isbnsToAdd) throws BookStoreException {
+		int isbn = book.getISBN();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(book.getTitle()) || BookStoreUtility.isEmpty(book.getAuthor())
+				|| BookStoreUtility.isInvalidNoCopies(book.getNumCopies()) || book.getPrice() < 0.0) {
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (inventory.contains(isbn) || !isbnsToAdd.add(isbn)) { // Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private int validate(BookCopy bookCopy) throws BookStoreException {
+		int numCopies = bookCopy.getNumCopies();
+		int slot = validateISBNInStock(bookCopy.getISBN()); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+
+		return slot;
+	}
+
+	private int validateISBNInStock(Integer ISBN) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+
+		int slot = inventory.find(ISBN);
+
+		if (slot < 0) { // Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		return slot;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		lock.lock();
+
+		try {
+			if (bookSet == null) {
+				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+			}
+
+			// Check if all are there
+			Set<Integer> isbnsToAdd = new HashSet<>();
+
+			for (StockBook book : bookSet) {
+				validate(book, isbnsToAdd);
+			}
+
+			for (StockBook book : bookSet) {
+				inventory.insert(book);
+				editorPickIndex.set(book.getISBN(), book.isEditorPick());
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreLoader#loadBooks(java.util.
+	 * Collection)
+	 */
+	@Override
+	public void loadBooks(Collection<StockBook> books) throws BookStoreException {
+
+		// Validate the books in parallel before taking the lock.
+		Map<Integer, StockBook> booksToLoad = BookStoreUtility.validateLoadedBooks(books, book -> book);
+
+		// Then publish them all at once, unless one is already in stock.
+		lock.lock();
+
+		try {
+			for (Integer isbn : booksToLoad.keySet()) {
+				if (inventory.contains(isbn)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+				}
+			}
+
+			inventory.reserve(booksToLoad.size());
+
+			for (StockBook book : booksToLoad.values()) {
+				inventory.insert(book);
+				editorPickIndex.set(book.getISBN(), book.isEditorPick());
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		lock.lock();
+
+		try {
+			if (bookCopiesSet == null) {
+				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+			}
+
+			for (BookCopy bookCopy : bookCopiesSet) {
+				validate(bookCopy);
+			}
+
+			// Update the number of copies
+			for (BookCopy bookCopy : bookCopiesSet) {
+				inventory.addCopies(inventory.find(bookCopy.getISBN()), bookCopy.getNumCopies());
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() {
+		lock.lock();
+
+		try {
+			List<StockBook> books = new ArrayList<>(inventory.size());
+
+			for (int slot = 0; slot < inventory.capacity(); slot++) {
+				if (inventory.isOccupied(slot)) {
+					books.add(inventory.immutableStockBook(slot));
+				}
+			}
+
+			return books;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		lock.lock();
+
+		try {
+			// Check that all ISBNs that we add/remove are there first.
+			if (editorPicks == null) {
+				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+			}
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				validateISBNInStock(editorPickArg.getISBN());
+			}
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				inventory.setEditorPick(inventory.find(editorPickArg.getISBN()), editorPickArg.isEditorPick());
+				editorPickIndex.set(editorPickArg.getISBN(), editorPickArg.isEditorPick());
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		lock.lock();
+
+		try {
+			if (bookCopiesToBuy == null) {
+				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+			}
+
+			// Check that all ISBNs that we buy are there first.
+			Map<Integer, Integer> salesMisses = new HashMap<>();
+
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				int slot = validate(bookCopyToBuy);
+				int numCopies = inventory.getNumCopies(slot);
+
+				if (numCopies < bookCopyToBuy.getNumCopies()) {
+					// If we cannot sell the copies of the book, it is a miss.
+					salesMisses.put(bookCopyToBuy.getISBN(), bookCopyToBuy.getNumCopies() - numCopies);
+				}
+			}
+
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand
+			if (!salesMisses.isEmpty()) {
+				for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+					inventory.addSaleMiss(inventory.find(saleMissEntry.getKey()), saleMissEntry.getValue());
+				}
+
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			// Then make the purchase.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				inventory.buyCopies(inventory.find(bookCopyToBuy.getISBN()), bookCopyToBuy.getNumCopies());
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreParticipant#prepareBuyBooks(
+	 * java.lang.String, java.util.Set)
+	 */
+	@Override
+	public List<BookCopy> prepareBuyBooks(String transactionId, Set<BookCopy> bookCopiesToBuy)
+			throws BookStoreException {
+		lock.lock();
+
+		try {
+			if (transactionId == null || bookCopiesToBuy == null) {
+				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+			}
+
+			preparedPurchases.checkNew(transactionId);
+			List<BookCopy> saleMisses = new ArrayList<>();
+
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				int numCopies = inventory.getNumCopies(validate(bookCopyToBuy));
+
+				if (numCopies < bookCopyToBuy.getNumCopies()) {
+					saleMisses.add(new BookCopy(bookCopyToBuy.getISBN(), bookCopyToBuy.getNumCopies() - numCopies));
+				}
+			}
+
+			// Reserve the copies only if the whole purchase can be made.
+			if (saleMisses.isEmpty()) {
+				for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+					inventory.buyCopies(inventory.find(bookCopyToBuy.getISBN()), bookCopyToBuy.getNumCopies());
+				}
+			}
+
+			preparedPurchases.add(transactionId, saleMisses.isEmpty() ? bookCopiesToBuy : Collections.emptySet(),
+					saleMisses);
+			return saleMisses;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreParticipant#commitBuyBooks(java
+	 * .lang.String)
+	 */
+	@Override
+	public void commitBuyBooks(String transactionId) throws BookStoreException {
+		lock.lock();
+
+		try {
+			// The reserved copies are sold already.
+			preparedPurchases.commit(transactionId);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreParticipant#abortBuyBooks(java.
+	 * lang.String, boolean)
+	 */
+	@Override
+	public void abortBuyBooks(String transactionId, boolean recordSaleMisses)
+			throws BookStoreException {
+		lock.lock();
+
+		try {
+			PreparedPurchases.Purchase purchase = preparedPurchases.abort(transactionId);
+
+			if (purchase == null) {
+				return;
+			}
+
+			// Return the copies to the books still in stock.
+			for (BookCopy reservedCopy : purchase.getReservedCopies()) {
+				int slot = inventory.find(reservedCopy.getISBN());
+
+				if (slot >= 0) {
+					inventory.returnCopies(slot, reservedCopy.getNumCopies());
+				}
+			}
+
+			if (recordSaleMisses) {
+				for (BookCopy saleMiss : purchase.getSaleMisses()) {
+					int slot = inventory.find(saleMiss.getISBN());
+
+					if (slot >= 0) {
+						inventory.addSaleMiss(slot, saleMiss.getNumCopies());
+					}
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreParticipant#endBuyBooks(java.
+	 * lang.String)
+	 */
+	@Override
+	public void endBuyBooks(String transactionId) throws BookStoreException {
+		lock.lock();
+
+		try {
+			preparedPurchases.end(transactionId);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreLoader#visitBooks(com.
+	 * acertainbookstore.interfaces.BookStoreLoader.BookVisitor)
+	 */
+	@Override
+	public void visitBooks(BookVisitor visitor) throws IOException {
+		lock.lock();
+
+		try {
+			for (int slot = 0; slot < inventory.capacity(); slot++) {
+				if (inventory.isOccupied(slot)) {
+					visitor.visit(inventory.immutableStockBook(slot));
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreLoader#getReservingPurchases()
+	 */
+	@Override
+	public List<BuyBooksTransaction> getReservingPurchases() {
+		lock.lock();
+
+		try {
+			return preparedPurchases.getReservingPurchases();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStoreLoader#getOutcomes()
+	 */
+	@Override
+	public Map<String, Boolean> getOutcomes() {
+		lock.lock();
+
+		try {
+			return preparedPurchases.getOutcomes();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStoreLoader#getLock()
+	 */
+	@Override
+	public Lock getLock() {
+		return lock;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreLoader#setExpiryCheck(java.util
+	 * .function.Predicate)
+	 */
+	@Override
+	public void setExpiryCheck(Predicate<String> expiryCheck) {
+		lock.lock();
+
+		try {
+			preparedPurchases.setExpiryCheck(expiryCheck);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		lock.lock();
+
+		try {
+			if (isbnSet == null) {
+				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+			}
+
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			// Return the set of books matching isbns in the validated set.
+			return isbnSet.stream()
+					.map(isbn -> inventory.immutableStockBook(inventory.find(isbn)))
+					.collect(Collectors.toList());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		lock.lock();
+
+		try {
+			if (isbnSet == null) {
+				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+			}
+
+			// Check that all ISBNs that we rate are there to start with.
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			return isbnSet.stream()
+					.map(isbn -> inventory.immutableBook(inventory.find(isbn)))
+					.collect(Collectors.toList());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		lock.lock();
+
+		try {
+			if (numBooks < 0) {
+				throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+			}
+
+			// Pick numBooks random editor picks from the index.
+			int[] tobePicked = editorPickIndex.sample(numBooks, ThreadLocalRandom.current());
+
+			return Arrays.stream(tobePicked)
+					.mapToObj(isbn -> inventory.immutableBook(inventory.find(isbn)))
+					.collect(Collectors.toList());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getNumEditorPicks()
+	 */
+	@Override
+	public int getNumEditorPicks() throws BookStoreException {
+		lock.lock();
+
+		try {
+			return editorPickIndex.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		lock.lock();
+
+		try {
+			throw new BookStoreException();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		lock.lock();
+
+		try {
+			throw new BookStoreException();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		lock.lock();
+
+		try {
+			throw new BookStoreException();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		lock.lock();
+
+		try {
+			inventory.clear();
+			editorPickIndex.clear();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		lock.lock();
+
+		try {
+			if (isbnSet == null) {
+				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+			}
+
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			for (int isbn : isbnSet) {
+				inventory.remove(isbn);
+				editorPickIndex.remove(isbn);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,704 @@
+package com.acertainbookstore.business;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.BookStoreLoader;
+import com.acertainbookstore.interfaces.BookStoreParticipant;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreCheckpoint;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreLog;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+
+/**
+ * {@link DurableCertainBookStore} makes the updates of a store, such as the
+ * {@link CertainBookStore} or the {@link CompactCertainBookStore}, survive a
+ * restart by logging them to a {@link BookStoreLog} before returning, and by
+ * replaying the log when the store is created.
+ *
+ * Each update is applied and appended to the log while holding the lock the
+ * wrapped store gives through {@link BookStoreLoader#getLock()}, so the log
+ * has the updates in the order they were applied. The update then waits
+ * for the log to be forced to disk without the lock, so concurrent updates
+ * share one force.
+ *
+ * Given a checkpoint file, the store also writes a {@link BookStoreCheckpoint}
+ * periodically, and a restart loads the latest checkpoint and only replays the
+ * log written after it. A checkpoint streams the books straight from the
+ * wrapped store into the file under the lock of the store, so it neither
+ * copies the catalog nor misses part of an update; the file is then forced to
+ * disk and the records it holds dropped from the log while updates go on. A
+ * bulk load is checkpointed rather than logged, so the log never holds a
+ * whole catalog.
+ *
+ * The store takes part in purchases spanning servers: the prepare, commit,
+ * abort and end of a purchase are logged like any update before the
+ * coordinator is answered, so a participant that restarts still holds the
+ * copies it reserved until the coordinator decides, and still knows the
+ * outcome until the coordinator ends the purchase. A checkpoint keeps the
+ * purchases still holding copies, which are prepared again once it is
+ * loaded, and the outcomes, which are decided again. A purchase the
+ * wrapped store forgets once its transaction timeout expires is logged as an
+ * abort, and the store forgets none on its own while the log is replayed, so
+ * a replay does not decide anew from the clock.
+ *
+ * @see BookStoreLog
+ * @see BookStoreCheckpoint
+ * @see BookStoreParticipant
+ */
+public class DurableCertainBookStore implements BookStore, StockManager, BookStoreLoader, BookStoreParticipant {
+
+	/**
+	 * {@link Update} is an update of the wrapped store.
+	 *
+	 * @param <T>
+	 *            the type of the argument
+	 */
+	@FunctionalInterface
+	private interface Update<T> {
+
+		/**
+		 * Applies the update.
+		 *
+		 * @param argument
+		 *            the argument
+		 * @throws BookStoreException
+		 *             the book store exception
+		 */
+		void apply(T argument) throws BookStoreException;
+	}
+
+	/** The wrapped store, as a book store. */
+	private final BookStore bookStore;
+
+	/** The wrapped store, as a stock manager. */
+	private final StockManager stockManager;
+
+	/** The wrapped store, as a loader of checkpoints. */
+	private final BookStoreLoader loader;
+
+	/** The wrapped store, as a participant in purchases spanning servers. */
+	private final BookStoreParticipant participant;
+
+	/** The lock of the wrapped store, held to apply and log an update. */
+	private final Lock storeLock;
+
+	/** The log. */
+	private final BookStoreLog log;
+
+	/** The checkpoint file, or null if no checkpoints are taken. */
+	private final Path checkpointFile;
+
+	/** The thread taking periodic checkpoints, or null. */
+	private final ScheduledExecutorService checkpointer;
+
+	/** The lock serializing checkpoints. */
+	private final ReentrantLock checkpointLock = new ReentrantLock();
+
+	/**
+	 * The purchases the wrapped store forgot during the update being applied,
+	 * to be logged as aborts, guarded by the lock of the store.
+	 */
+	private final List<String> expiredPurchases = new ArrayList<>();
+
+	/** The check of the expired purchases set on this store, or null. */
+	private volatile Predicate<String> expiryCheck;
+
+	/**
+	 * Instantiates a new {@link DurableCertainBookStore} and restores the
+	 * wrapped store from the log.
+	 *
+	 * @param <T>
+	 *            the type of the wrapped store
+	 * @param store
+	 *            the wrapped store, empty
+	 * @param logFile
+	 *            the log file
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public <T extends BookStore & StockManager & BookStoreLoader & BookStoreParticipant> DurableCertainBookStore(
+			T store, Path logFile) throws IOException {
+		this(store, logFile, null, 0);
+	}
+
+	/**
+	 * Instantiates a new {@link DurableCertainBookStore}, restores the wrapped
+	 * store from the checkpoint and the log written after it, and takes a
+	 * checkpoint at every interval.
+	 *
+	 * @param <T>
+	 *            the type of the wrapped store
+	 * @param store
+	 *            the wrapped store, empty
+	 * @param logFile
+	 *            the log file
+	 * @param checkpointFile
+	 *            the checkpoint file, or null to only use the log
+	 * @param checkpointIntervalSecs
+	 *            the number of seconds between two checkpoints, or 0 to only
+	 *            take checkpoints by calling {@link #checkpoint()}
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public <T extends BookStore & StockManager & BookStoreLoader & BookStoreParticipant> DurableCertainBookStore(
+			T store, Path logFile, Path checkpointFile, long checkpointIntervalSecs) throws IOException {
+		bookStore = store;
+		stockManager = store;
+		loader = store;
+		participant = store;
+		storeLock = store.getLock();
+		this.checkpointFile = checkpointFile;
+		log = new BookStoreLog(logFile);
+
+		BookStoreCheckpoint checkpoint = checkpointFile == null ? null : BookStoreCheckpoint.read(checkpointFile);
+		long logOffset = 0;
+
+		// The log holds the purchases the store forgot; it forgets no other.
+		store.setExpiryCheck(transactionId -> false);
+
+		if (checkpoint != null) {
+			try {
+				load(store, checkpoint);
+			} catch (BookStoreException ex) {
+				throw new IOException("The checkpoint could not be loaded", ex);
+			}
+
+			logOffset = checkpoint.getLogOffset();
+		}
+
+		log.replay((messageTag, argument) -> BookStoreUpdates.apply(store, messageTag, argument), logOffset);
+		store.setExpiryCheck(this::expire);
+
+		if (checkpointFile != null && checkpointIntervalSecs > 0) {
+			checkpointer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "bookstore-checkpointer");
+				thread.setDaemon(true);
+				return thread;
+			});
+			checkpointer.scheduleWithFixedDelay(this::periodicCheckpoint, checkpointIntervalSecs,
+					checkpointIntervalSecs, TimeUnit.SECONDS);
+		} else {
+			checkpointer = null;
+		}
+	}
+
+	/**
+	 * Applies an update to the wrapped store and waits until it is logged.
+	 * Failed purchases are logged too, since they record sale misses, and so
+	 * are the purchase records a replicated store applied without its
+	 * backups.
+	 *
+	 * @param <T>
+	 *            the type of the argument
+	 * @param messageTag
+	 *            the message tag
+	 * @param argument
+	 *            the argument
+	 * @param update
+	 *            the update
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private <T> void logged(BookStoreMessageTag messageTag, T argument, Update<T> update) throws BookStoreException {
+		BookStoreException updateFailure = null;
+		long sequence = 0;
+
+		try {
+			storeLock.lock();
+
+			try {
+				try {
+					update.apply(argument);
+				} catch (BookStoreException ex) {
+					updateFailure = ex;
+				}
+
+				// The store forgot the expired purchases before applying the
+				// update.
+				for (String transactionId : expiredPurchases) {
+					sequence = log.append(BookStoreMessageTag.ABORTBUYBOOKS,
+							new BuyBooksTransaction(transactionId, null, false));
+				}
+
+				expiredPurchases.clear();
+
+				// A replicated store applied a purchase record its backups did
+				// not acknowledge in time.
+				if (updateFailure == null || messageTag == BookStoreMessageTag.BUYBOOKS
+						|| (BookStoreConstants.BACKUP + BookStoreConstants.NOT_REPLICATED)
+								.equals(updateFailure.getMessage())) {
+					sequence = log.append(messageTag, argument);
+				}
+			} finally {
+				storeLock.unlock();
+			}
+
+			log.awaitDurable(sequence);
+		} catch (IOException ex) {
+			throw new BookStoreException("The update could not be logged", ex);
+		}
+
+		if (updateFailure != null) {
+			throw updateFailure;
+		}
+	}
+
+	/**
+	 * Lets the wrapped store forget an expired purchase, and notes it so that
+	 * the abort of the purchase is logged before the update during which the
+	 * store forgot it. Called under the lock of the store.
+	 *
+	 * @param transactionId
+	 *            the transaction identifier
+	 * @return true if the store forgets the purchase
+	 */
+	private boolean expire(String transactionId) {
+		Predicate<String> check = expiryCheck;
+
+		if (check != null && !check.test(transactionId)) {
+			return false;
+		}
+
+		expiredPurchases.add(transactionId);
+		return true;
+	}
+
+	/**
+	 * Copies the argument of an update into a set that can be logged.
+	 *
+	 * @param <E>
+	 *            the type of the elements
+	 * @param set
+	 *            the argument
+	 * @return the copy, or null if the argument is null
+	 */
+	private static <E> Set<E> copyOf(Set<E> set) {
+		return set == null ? null : new HashSet<>(set);
+	}
+
+	/**
+	 * Loads the books of a checkpoint into a store, prepares again the
+	 * purchases that held reserved copies, and decides again the purchases
+	 * that finished but were not ended. A committed purchase is prepared
+	 * without copies, which are sold already, before it is committed.
+	 *
+	 * @param <T>
+	 *            the type of the store
+	 * @param store
+	 *            the store, empty
+	 * @param checkpoint
+	 *            the checkpoint
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private static <T extends BookStoreLoader & BookStoreParticipant> void load(T store,
+			BookStoreCheckpoint checkpoint) throws BookStoreException {
+		store.loadBooks(checkpoint.getBooks());
+
+		for (BuyBooksTransaction purchase : checkpoint.getPurchases()) {
+			store.prepareBuyBooks(purchase.getTransactionId(), purchase.getBookCopies());
+		}
+
+		for (Map.Entry<String, Boolean> outcome : checkpoint.getOutcomes().entrySet()) {
+			if (outcome.getValue()) {
+				store.prepareBuyBooks(outcome.getKey(), Collections.emptySet());
+				store.commitBuyBooks(outcome.getKey());
+			} else {
+				store.abortBuyBooks(outcome.getKey(), false);
+			}
+		}
+	}
+
+	/**
+	 * Writes a checkpoint of the books and of the position in the log they
+	 * correspond to, and truncates the log at that position. The books are
+	 * streamed from the wrapped store under its lock, which is released
+	 * before the checkpoint is forced to disk.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void checkpoint() throws IOException {
+		if (checkpointFile == null) {
+			throw new IOException("No checkpoint file was given");
+		}
+
+		checkpointLock.lock();
+
+		try {
+			long sequence;
+			long logOffset;
+
+			storeLock.lock();
+
+			try {
+				sequence = log.getAppendedSequence();
+				logOffset = log.getAppendedOffset();
+				BookStoreCheckpoint.write(checkpointFile, loader, logOffset);
+			} finally {
+				storeLock.unlock();
+			}
+
+			publishCheckpoint(sequence, logOffset);
+		} finally {
+			checkpointLock.unlock();
+		}
+	}
+
+	/**
+	 * Publishes the checkpoint written at a position in the log once the
+	 * records before it are forced to disk, and truncates the log there. The
+	 * caller holds the checkpoint lock.
+	 *
+	 * @param sequence
+	 *            the sequence number of the last record before the checkpoint
+	 * @param logOffset
+	 *            the offset in the log of the first update after the
+	 *            checkpoint
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void publishCheckpoint(long sequence, long logOffset) throws IOException {
+		log.awaitDurable(sequence);
+		BookStoreCheckpoint.publish(checkpointFile);
+		log.truncate(logOffset);
+	}
+
+	/**
+	 * Takes a periodic checkpoint. A failed checkpoint is reported and the
+	 * next one retried, since the log still holds every update.
+	 */
+	private void periodicCheckpoint() {
+		try {
+			checkpoint();
+		} catch (IOException ex) {
+			System.err.println("The checkpoint failed: " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Stops the periodic checkpoints, forces the log to disk and closes it.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void close() throws IOException {
+		if (checkpointer != null) {
+			checkpointer.shutdownNow();
+		}
+
+		checkpointLock.lock();
+
+		try {
+			log.close();
+		} finally {
+			checkpointLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		logged(BookStoreMessageTag.ADDBOOKS, copyOf(bookSet), stockManager::addBooks);
+	}
+
+	/**
+	 * Loads the books into the wrapped store, and takes a checkpoint with the
+	 * lock of the store held, so that the books are durable without being
+	 * logged. Without a checkpoint file, the books are logged instead.
+	 *
+	 * @param books
+	 *            the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @see com.acertainbookstore.interfaces.BookStoreLoader#loadBooks(java.util.Collection)
+	 */
+	public void loadBooks(Collection<StockBook> books) throws BookStoreException {
+		if (checkpointFile == null) {
+			logged(BookStoreMessageTag.LOADBOOKS, books == null ? null : new ArrayList<>(books), loader::loadBooks);
+			return;
+		}
+
+		checkpointLock.lock();
+
+		try {
+			storeLock.lock();
+
+			try {
+				loader.loadBooks(books);
+
+				try {
+					// No update can slip in before the books are durable.
+					long logOffset = log.getAppendedOffset();
+					BookStoreCheckpoint.write(checkpointFile, loader, logOffset);
+					publishCheckpoint(log.getAppendedSequence(), logOffset);
+				} catch (IOException ex) {
+					throw new BookStoreException("The loaded books could not be checkpointed", ex);
+				}
+			} finally {
+				storeLock.unlock();
+			}
+		} finally {
+			checkpointLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreLoader#visitBooks(com.
+	 * acertainbookstore.interfaces.BookStoreLoader.BookVisitor)
+	 */
+	@Override
+	public void visitBooks(BookVisitor visitor) throws IOException {
+		loader.visitBooks(visitor);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreLoader#getReservingPurchases()
+	 */
+	@Override
+	public List<BuyBooksTransaction> getReservingPurchases() {
+		return loader.getReservingPurchases();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStoreLoader#getOutcomes()
+	 */
+	@Override
+	public Map<String, Boolean> getOutcomes() {
+		return loader.getOutcomes();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStoreLoader#getLock()
+	 */
+	@Override
+	public Lock getLock() {
+		return storeLock;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreLoader#setExpiryCheck(java.util
+	 * .function.Predicate)
+	 */
+	@Override
+	public void setExpiryCheck(Predicate<String> expiryCheck) {
+		this.expiryCheck = expiryCheck;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		logged(BookStoreMessageTag.ADDCOPIES, copyOf(bookCopiesSet), stockManager::addCopies);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() throws BookStoreException {
+		return stockManager.getBooks();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		logged(BookStoreMessageTag.UPDATEEDITORPICKS, copyOf(editorPicks), stockManager::updateEditorPicks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		logged(BookStoreMessageTag.BUYBOOKS, copyOf(bookCopiesToBuy), bookStore::buyBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreParticipant#prepareBuyBooks(
+	 * java.lang.String, java.util.Set)
+	 */
+	@Override
+	public List<BookCopy> prepareBuyBooks(String transactionId, Set<BookCopy> bookCopies) throws BookStoreException {
+		List<BookCopy> saleMisses = new ArrayList<>();
+		logged(BookStoreMessageTag.PREPAREBUYBOOKS, new BuyBooksTransaction(transactionId, copyOf(bookCopies), false),
+				transaction -> saleMisses.addAll(
+						participant.prepareBuyBooks(transaction.getTransactionId(), transaction.getBookCopies())));
+		return saleMisses;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreParticipant#commitBuyBooks(java
+	 * .lang.String)
+	 */
+	@Override
+	public void commitBuyBooks(String transactionId) throws BookStoreException {
+		logged(BookStoreMessageTag.COMMITBUYBOOKS, new BuyBooksTransaction(transactionId, null, false),
+				transaction -> participant.commitBuyBooks(transaction.getTransactionId()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreParticipant#abortBuyBooks(java.
+	 * lang.String, boolean)
+	 */
+	@Override
+	public void abortBuyBooks(String transactionId, boolean recordSaleMisses) throws BookStoreException {
+		logged(BookStoreMessageTag.ABORTBUYBOOKS, new BuyBooksTransaction(transactionId, null, recordSaleMisses),
+				transaction -> participant.abortBuyBooks(transaction.getTransactionId(),
+						transaction.isRecordSaleMisses()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreParticipant#endBuyBooks(java.
+	 * lang.String)
+	 */
+	@Override
+	public void endBuyBooks(String transactionId) throws BookStoreException {
+		logged(BookStoreMessageTag.ENDBUYBOOKS, new BuyBooksTransaction(transactionId, null, false),
+				transaction -> participant.endBuyBooks(transaction.getTransactionId()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		return stockManager.getBooksByISBN(isbnSet);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		return bookStore.getBooks(isbnSet);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		return bookStore.getEditorPicks(numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		return bookStore.getTopRatedBooks(numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getNumEditorPicks()
+	 */
+	@Override
+	public int getNumEditorPicks() throws BookStoreException {
+		return stockManager.getNumEditorPicks();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		return stockManager.getBooksInDemand();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		logged(BookStoreMessageTag.RATEBOOKS, copyOf(bookRating), bookStore::rateBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		logged(BookStoreMessageTag.REMOVEALLBOOKS, null, argument -> stockManager.removeAllBooks());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		logged(BookStoreMessageTag.REMOVEBOOKS, copyOf(isbnSet), stockManager::removeBooks);
+	}
+}
@@ -0,0 +1,147 @@
+package com.acertainbookstore.business;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * {@link EditorPickIndex} keeps the ISBNs of the editor picks of a store in
+ * a dense array, together with the position of each ISBN in the array. An
+ * ISBN is added by appending it and removed by moving the last ISBN into its
+ * place, and k picks are sampled by a partial Fisher-Yates shuffle of the
+ * array, so no operation depends on the size of the catalog.
+ *
+ * The index is not thread-safe; the store calls it with its lock held.
+ */
+public final class EditorPickIndex {
+
+	/** The Constant INITIAL_CAPACITY. */
+	private static final int INITIAL_CAPACITY = 64;
+
+	/** The ISBNs of the editor picks. */
+	private int[] isbns = new int[INITIAL_CAPACITY];
+
+	/** The number of editor picks. */
+	private int size = 0;
+
+	/** The position of each editor pick in {@link #isbns}. */
+	private final Map<Integer, Integer> positions = new HashMap<>();
+
+	/**
+	 * Gets the number of editor picks.
+	 *
+	 * @return the number of editor picks
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Adds or removes a book from the editor picks.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param editorPick
+	 *            true, if the book is an editor pick
+	 */
+	public void set(int isbn, boolean editorPick) {
+		if (editorPick) {
+			add(isbn);
+		} else {
+			remove(isbn);
+		}
+	}
+
+	/**
+	 * Adds a book to the editor picks, if it is not one already.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 */
+	public void add(int isbn) {
+		if (positions.containsKey(isbn)) {
+			return;
+		}
+
+		if (size == isbns.length) {
+			isbns = Arrays.copyOf(isbns, size << 1);
+		}
+
+		isbns[size] = isbn;
+		positions.put(isbn, size);
+		size++;
+	}
+
+	/**
+	 * Removes a book from the editor picks, if it is one.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 */
+	public void remove(int isbn) {
+		Integer position = positions.remove(isbn);
+
+		if (position == null) {
+			return;
+		}
+
+		size--;
+
+		if (position != size) {
+			isbns[position] = isbns[size];
+			positions.put(isbns[position], position);
+		}
+	}
+
+	/**
+	 * Removes all editor picks.
+	 */
+	public void clear() {
+		isbns = new int[INITIAL_CAPACITY];
+		size = 0;
+		positions.clear();
+	}
+
+	/**
+	 * Picks distinct editor picks uniformly at random. The first picks of the
+	 * array are swapped with random later ones, which leaves a uniform sample
+	 * at the front of the array.
+	 *
+	 * @param numBooks
+	 *            the number of books to pick
+	 * @param random
+	 *            the source of randomness
+	 * @return the ISBNs of the picked books, all editor picks if there are no
+	 *         more than <code>numBooks</code>
+	 */
+	public int[] sample(int numBooks, Random random) {
+		int numPicks = Math.min(numBooks, size);
+
+		for (int i = 0; i < numPicks && numPicks < size; i++) {
+			swap(i, i + random.nextInt(size - i));
+		}
+
+		return Arrays.copyOf(isbns, numPicks);
+	}
+
+	/**
+	 * Swaps two editor picks in the array.
+	 *
+	 * @param i
+	 *            the first position
+	 * @param j
+	 *            the second position
+	 */
+	private void swap(int i, int j) {
+		if (i == j) {
+			return;
+		}
+
+		int isbn = isbns[i];
+		isbns[i] = isbns[j];
+		isbns[j] = isbn;
+		positions.put(isbns[i], i);
+		positions.put(isbns[j], j);
+	}
+}
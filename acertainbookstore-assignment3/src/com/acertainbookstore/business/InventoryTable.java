@@ -0,0 +1,477 @@
+package com.acertainbookstore.business;
+
+/**
+ * {@link InventoryTable} is an open-addressing hash table keyed by the ISBN
+ * that keeps every field of a book in parallel primitive arrays, indexed by
+ * the slot of the book. The title and the author are kept in a
+ * {@link StringArena} and referred to by their offset.
+ *
+ * Collisions are resolved by linear probing, and removals shift the following
+ * entries back instead of leaving tombstones. Slot numbers are therefore only
+ * valid until the next insertion or removal. The table is not thread-safe.
+ *
+ * @see StringArena
+ */
+final class InventoryTable {
+
+	/** The ISBN marking an empty slot, which is never a valid ISBN. */
+	private static final int EMPTY = 0;
+
+	/** The Constant DEFAULT_CAPACITY. */
+	static final int DEFAULT_CAPACITY = 1024;
+
+	/** The Constant MAX_LOAD_FACTOR. */
+	private static final float MAX_LOAD_FACTOR = 0.7f;
+
+	/** The ISBN of the book in each slot. */
+	private int[] isbns;
+
+	/** The number of copies. */
+	private int[] numCopies;
+
+	/** The price. */
+	private float[] prices;
+
+	/** The number of sale misses. */
+	private long[] numSaleMisses;
+
+	/** The number of times rated. */
+	private long[] numTimesRated;
+
+	/** The total rating. */
+	private long[] totalRatings;
+
+	/** The editor pick flags. */
+	private boolean[] editorPicks;
+
+	/** The offset of the title in the arena. */
+	private int[] titles;
+
+	/** The offset of the author in the arena. */
+	private int[] authors;
+
+	/** The titles and authors. */
+	private StringArena arena;
+
+	/** The number of books. */
+	private int size;
+
+	/** The mask mapping hashes to slots. */
+	private int mask;
+
+	/**
+	 * Instantiates a new {@link InventoryTable}.
+	 */
+	InventoryTable() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new {@link InventoryTable} sized for the expected number
+	 * of books.
+	 *
+	 * @param expectedSize
+	 *            the expected number of books
+	 */
+	InventoryTable(int expectedSize) {
+		allocate(capacityFor(expectedSize));
+		arena = new StringArena();
+	}
+
+	/**
+	 * Gets the number of books.
+	 *
+	 * @return the number of books
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the number of slots. Slots range from 0 to the capacity minus one.
+	 *
+	 * @return the capacity
+	 */
+	int capacity() {
+		return isbns.length;
+	}
+
+	/**
+	 * Checks if the slot holds a book.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return true, if the slot holds a book
+	 */
+	boolean isOccupied(int slot) {
+		return isbns[slot] != EMPTY;
+	}
+
+	/**
+	 * Finds the slot of the book.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the slot, or -1 if the book is not in the table
+	 */
+	int find(int isbn) {
+		int slot = slotOf(isbn);
+
+		while (isbns[slot] != EMPTY) {
+			if (isbns[slot] == isbn) {
+				return slot;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Checks if the table contains the book.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return true, if the table contains the book
+	 */
+	boolean contains(int isbn) {
+		return find(isbn) >= 0;
+	}
+
+	/**
+	 * Grows the table once so that it holds more books without rehashing, such
+	 * as before a bulk load.
+	 *
+	 * @param numBooks
+	 *            the number of books about to be inserted
+	 */
+	void reserve(int numBooks) {
+		int capacity = capacityFor(size + numBooks);
+
+		if (capacity > isbns.length) {
+			rehash(capacity);
+		}
+	}
+
+	/**
+	 * Inserts a book that is not in the table yet.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	void insert(StockBook book) {
+		if (size + 1 > (int) (isbns.length * MAX_LOAD_FACTOR)) {
+			rehash(isbns.length << 1);
+		}
+
+		int slot = slotOf(book.getISBN());
+
+		while (isbns[slot] != EMPTY) {
+			slot = (slot + 1) & mask;
+		}
+
+		isbns[slot] = book.getISBN();
+		titles[slot] = arena.add(book.getTitle());
+		authors[slot] = arena.add(book.getAuthor());
+		prices[slot] = book.getPrice();
+		numCopies[slot] = book.getNumCopies();
+		numSaleMisses[slot] = book.getNumSaleMisses();
+		numTimesRated[slot] = book.getNumTimesRated();
+		totalRatings[slot] = book.getTotalRating();
+		editorPicks[slot] = book.isEditorPick();
+		size++;
+	}
+
+	/**
+	 * Removes a book from the table.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 */
+	void remove(int isbn) {
+		int slot = find(isbn);
+
+		if (slot < 0) {
+			return;
+		}
+
+		arena.release(titles[slot]);
+		arena.release(authors[slot]);
+
+		// Shift back the entries that probed past the freed slot.
+		int free = slot;
+		int next = (free + 1) & mask;
+
+		while (isbns[next] != EMPTY) {
+			int home = slotOf(isbns[next]);
+
+			if (((next - home) & mask) >= ((next - free) & mask)) {
+				move(next, free);
+				free = next;
+			}
+
+			next = (next + 1) & mask;
+		}
+
+		isbns[free] = EMPTY;
+		size--;
+
+		if (arena.releasedBytes() > arena.liveBytes()) {
+			compactArena();
+		}
+	}
+
+	/**
+	 * Removes all books and releases the memory they used.
+	 */
+	void clear() {
+		allocate(capacityFor(DEFAULT_CAPACITY));
+		arena = new StringArena();
+		size = 0;
+	}
+
+	/**
+	 * Gets the ISBN of the book in the slot.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return the ISBN
+	 */
+	int getISBN(int slot) {
+		return isbns[slot];
+	}
+
+	/**
+	 * Gets the number of copies of the book in the slot.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return the number of copies
+	 */
+	int getNumCopies(int slot) {
+		return numCopies[slot];
+	}
+
+	/**
+	 * Checks if the book in the slot is an editor pick.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return true, if the book is an editor pick
+	 */
+	boolean isEditorPick(int slot) {
+		return editorPicks[slot];
+	}
+
+	/**
+	 * Sets the editor pick flag of the book in the slot.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @param editorPick
+	 *            the editor pick flag
+	 */
+	void setEditorPick(int slot, boolean editorPick) {
+		editorPicks[slot] = editorPick;
+	}
+
+	/**
+	 * Adds copies to the book in the slot and resets its sale misses.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @param copies
+	 *            the number of copies
+	 */
+	void addCopies(int slot, int copies) {
+		numCopies[slot] += copies;
+		numSaleMisses[slot] = 0;
+	}
+
+	/**
+	 * Takes copies of the book in the slot.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @param copies
+	 *            the number of copies
+	 */
+	void buyCopies(int slot, int copies) {
+		numCopies[slot] -= copies;
+	}
+
+	/**
+	 * Returns copies reserved for a purchase that did not take place to the
+	 * book in the slot, keeping its sale misses.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @param copies
+	 *            the number of copies
+	 */
+	void returnCopies(int slot, int copies) {
+		numCopies[slot] += copies;
+	}
+
+	/**
+	 * Adds sale misses to the book in the slot.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @param misses
+	 *            the number of sale misses
+	 */
+	void addSaleMiss(int slot, int misses) {
+		numSaleMisses[slot] += misses;
+	}
+
+	/**
+	 * Builds the customer view of the book in the slot.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return the book
+	 */
+	ImmutableBook immutableBook(int slot) {
+		return new ImmutableBook(isbns[slot], arena.get(titles[slot]), arena.get(authors[slot]), prices[slot]);
+	}
+
+	/**
+	 * Builds the stock manager view of the book in the slot.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return the stock book
+	 */
+	ImmutableStockBook immutableStockBook(int slot) {
+		return new ImmutableStockBook(isbns[slot], arena.get(titles[slot]), arena.get(authors[slot]), prices[slot],
+				numCopies[slot], numSaleMisses[slot], numTimesRated[slot], totalRatings[slot], editorPicks[slot]);
+	}
+
+	/**
+	 * Gets the home slot of the ISBN.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the slot
+	 */
+	private int slotOf(int isbn) {
+		int hash = isbn * 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+	/**
+	 * Moves the book in one slot to another slot.
+	 *
+	 * @param from
+	 *            the slot to move from
+	 * @param to
+	 *            the slot to move to
+	 */
+	private void move(int from, int to) {
+		isbns[to] = isbns[from];
+		titles[to] = titles[from];
+		authors[to] = authors[from];
+		prices[to] = prices[from];
+		numCopies[to] = numCopies[from];
+		numSaleMisses[to] = numSaleMisses[from];
+		numTimesRated[to] = numTimesRated[from];
+		totalRatings[to] = totalRatings[from];
+		editorPicks[to] = editorPicks[from];
+	}
+
+	/**
+	 * Grows the table and reinserts every book.
+	 *
+	 * @param newCapacity
+	 *            the new capacity
+	 */
+	private void rehash(int newCapacity) {
+		if (newCapacity <= 0) {
+			throw new IllegalStateException("The inventory table is full");
+		}
+
+		int[] oldISBNs = isbns;
+		int[] oldTitles = titles;
+		int[] oldAuthors = authors;
+		float[] oldPrices = prices;
+		int[] oldNumCopies = numCopies;
+		long[] oldNumSaleMisses = numSaleMisses;
+		long[] oldNumTimesRated = numTimesRated;
+		long[] oldTotalRatings = totalRatings;
+		boolean[] oldEditorPicks = editorPicks;
+
+		allocate(newCapacity);
+
+		for (int from = 0; from < oldISBNs.length; from++) {
+			if (oldISBNs[from] == EMPTY) {
+				continue;
+			}
+
+			int slot = slotOf(oldISBNs[from]);
+
+			while (isbns[slot] != EMPTY) {
+				slot = (slot + 1) & mask;
+			}
+
+			isbns[slot] = oldISBNs[from];
+			titles[slot] = oldTitles[from];
+			authors[slot] = oldAuthors[from];
+			prices[slot] = oldPrices[from];
+			numCopies[slot] = oldNumCopies[from];
+			numSaleMisses[slot] = oldNumSaleMisses[from];
+			numTimesRated[slot] = oldNumTimesRated[from];
+			totalRatings[slot] = oldTotalRatings[from];
+			editorPicks[slot] = oldEditorPicks[from];
+		}
+	}
+
+	/**
+	 * Copies the titles and authors of the books still in the table into a
+	 * fresh arena, dropping the strings of removed books.
+	 */
+	private void compactArena() {
+		StringArena oldArena = arena;
+		arena = new StringArena(oldArena.liveBytes());
+
+		for (int slot = 0; slot < isbns.length; slot++) {
+			if (isbns[slot] != EMPTY) {
+				titles[slot] = arena.add(oldArena.get(titles[slot]));
+				authors[slot] = arena.add(oldArena.get(authors[slot]));
+			}
+		}
+	}
+
+	/**
+	 * Allocates empty arrays for the capacity.
+	 *
+	 * @param capacity
+	 *            the capacity, a power of two
+	 */
+	private void allocate(int capacity) {
+		isbns = new int[capacity];
+		titles = new int[capacity];
+		authors = new int[capacity];
+		prices = new float[capacity];
+		numCopies = new int[capacity];
+		numSaleMisses = new long[capacity];
+		numTimesRated = new long[capacity];
+		totalRatings = new long[capacity];
+		editorPicks = new boolean[capacity];
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Gets the smallest power of two capacity that holds the number of books
+	 * below the maximum load factor.
+	 *
+	 * @param expectedSize
+	 *            the expected number of books
+	 * @return the capacity
+	 */
+	private static int capacityFor(int expectedSize) {
+		int needed = (int) Math.ceil(Math.max(expectedSize, 1) / MAX_LOAD_FACTOR);
+		return Math.max(16, Integer.highestOneBit(needed - 1) << 1);
+	}
+}
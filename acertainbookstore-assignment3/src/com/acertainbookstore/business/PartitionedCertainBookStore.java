@@ -0,0 +1,1302 @@
+package com.acertainbookstore.business;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.BookStoreLoader;
+import com.acertainbookstore.interfaces.BookStoreParticipant;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link PartitionedCertainBookStore} implements the {@link BookStore} and
+ * {@link StockManager} functionalities like the {@link CertainBookStore}, but
+ * hashes the ISBNs to partitions that are each owned by one thread. Only the
+ * owner of a partition reads or writes its books, so the partitions need no
+ * locks and operations on different partitions run on different cores.
+ *
+ * An operation on the books of one partition runs on its owner. An operation
+ * on several partitions runs in two steps on each of their owners: every
+ * owner first checks its part of the operation without changing anything, and
+ * once all of them have, they all apply it or none does. Operations on several
+ * partitions are queued to their owners in the same order, so that two of them
+ * never wait for each other.
+ *
+ * Reads take neither step: each owner reads its partition as soon as it gets to
+ * the read, and the caller combines what they return. A read of several
+ * partitions is queued to their owners in the same order as the updates of
+ * several partitions, so that it sees each of them on all its partitions or
+ * on none, but no owner waits for the others to read.
+ *
+ * A purchase spanning servers is prepared like a purchase of several
+ * partitions, but reserves the copies; the prepared purchases are kept apart
+ * from the partitions, under their own lock, which is only held while they
+ * are looked up or changed.
+ *
+ * @see BookStore
+ * @see StockManager
+ * @see BookStoreLoader
+ * @see BookStoreParticipant
+ */
+public class PartitionedCertainBookStore implements BookStore, StockManager, BookStoreLoader, BookStoreParticipant {
+
+	/**
+	 * {@link Partition} holds the books of a partition and the thread owning
+	 * them.
+	 */
+	private static final class Partition {
+
+		/** The mapping of books from ISBN to {@link BookStoreBook}. */
+		private final Map<Integer, BookStoreBook> bookMap = new HashMap<>();
+
+		/** The editor picks of the partition. */
+		private final EditorPickIndex editorPickIndex = new EditorPickIndex();
+
+		/** The owner of the partition. */
+		private final ExecutorService owner;
+
+		/**
+		 * Instantiates a new {@link Partition}.
+		 *
+		 * @param id
+		 *            the number of the partition
+		 */
+		private Partition(int id) {
+			owner = Executors.newSingleThreadExecutor(task -> {
+				Thread thread = new Thread(task, "bookstore-partition-" + id);
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+
+		/**
+		 * Checks that the book is in the partition.
+		 *
+		 * @param isbn
+		 *            the ISBN
+		 * @return the book
+		 * @throws BookStoreException
+		 *             if the book is not in stock
+		 */
+		private BookStoreBook getInStock(int isbn) throws BookStoreException {
+			BookStoreBook book = bookMap.get(isbn);
+
+			if (book == null) {
+				throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			return book;
+		}
+
+		/**
+		 * Checks that none of the books is in the partition yet.
+		 *
+		 * @param isbns
+		 *            the ISBNs
+		 * @throws BookStoreException
+		 *             if a book is in stock already
+		 */
+		private void checkNotInStock(Collection<Integer> isbns) throws BookStoreException {
+			for (int isbn : isbns) {
+				if (bookMap.containsKey(isbn)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+				}
+			}
+		}
+	}
+
+	/**
+	 * {@link Step} is the step of an operation that an owner runs on its
+	 * partition.
+	 *
+	 * @param <R>
+	 *            the type of the result
+	 */
+	@FunctionalInterface
+	private interface Step<R> {
+
+		/**
+		 * Runs the step.
+		 *
+		 * @param partition
+		 *            the partition
+		 * @return the result
+		 * @throws BookStoreException
+		 *             the book store exception
+		 */
+		R run(Partition partition) throws BookStoreException;
+	}
+
+	/**
+	 * {@link Decision} combines the checks of every partition of an operation.
+	 *
+	 * @param <P>
+	 *            the type of the checks
+	 * @param <D>
+	 *            the type of the decision
+	 */
+	@FunctionalInterface
+	private interface Decision<P, D> {
+
+		/**
+		 * Decides the outcome of the operation, or rejects it.
+		 *
+		 * @param checks
+		 *            the checks, in the order of the partitions
+		 * @return the decision
+		 * @throws BookStoreException
+		 *             if the operation is rejected
+		 */
+		D decide(List<P> checks) throws BookStoreException;
+	}
+
+	/**
+	 * {@link Apply} applies the decision of an operation to a partition.
+	 *
+	 * @param <D>
+	 *            the type of the decision
+	 */
+	@FunctionalInterface
+	private interface Apply<D> {
+
+		/**
+		 * Applies the decision. It must not fail, since the other partitions
+		 * apply it too.
+		 *
+		 * @param partition
+		 *            the partition
+		 * @param decision
+		 *            the decision
+		 */
+		void apply(Partition partition, D decision);
+	}
+
+	/**
+	 * {@link Round} runs an operation on its partitions, waiting for all of
+	 * them to be checked before applying it.
+	 *
+	 * @param <P>
+	 *            the type of the checks
+	 * @param <D>
+	 *            the type of the decision
+	 */
+	private static final class Round<P, D> {
+
+		/** The checks, in the order of the partitions. */
+		private final List<P> checks;
+
+		/** The barrier deciding once every partition is checked. */
+		private final CyclicBarrier barrier;
+
+		/** The failures of the checks, in the order of the partitions. */
+		private final BookStoreException[] failures;
+
+		/** The decision. */
+		private D decision = null;
+
+		/** The failure rejecting the operation. */
+		private BookStoreException failure = null;
+
+		/**
+		 * Instantiates a new {@link Round}.
+		 *
+		 * @param numPartitions
+		 *            the number of partitions of the operation
+		 * @param decision
+		 *            the decision
+		 */
+		private Round(int numPartitions, Decision<P, D> decision) {
+			checks = new ArrayList<>(Collections.nCopies(numPartitions, null));
+			failures = new BookStoreException[numPartitions];
+			barrier = new CyclicBarrier(numPartitions, () -> decide(decision));
+		}
+
+		/**
+		 * Decides once every partition is checked. The barrier makes the
+		 * decision visible to every owner.
+		 *
+		 * @param decision
+		 *            the decision
+		 */
+		private void decide(Decision<P, D> decision) {
+			for (BookStoreException checkFailure : failures) {
+				if (checkFailure != null) {
+					failure = checkFailure;
+					return;
+				}
+			}
+
+			try {
+				this.decision = decision.decide(checks);
+			} catch (BookStoreException ex) {
+				failure = ex;
+			} catch (RuntimeException ex) {
+				failure = new BookStoreException(ex);
+			}
+		}
+
+		/**
+		 * Checks and applies the operation on a partition.
+		 *
+		 * @param index
+		 *            the index of the partition in the operation
+		 * @param partition
+		 *            the partition
+		 * @param check
+		 *            the check
+		 * @param apply
+		 *            the application
+		 * @return the task
+		 */
+		private Callable<Void> task(int index, Partition partition, Step<P> check, Apply<D> apply) {
+			return () -> {
+				try {
+					checks.set(index, check.run(partition));
+				} catch (BookStoreException ex) {
+					failures[index] = ex;
+				} catch (RuntimeException ex) {
+					failures[index] = new BookStoreException(ex);
+				}
+
+				barrier.await();
+
+				if (failure == null) {
+					apply.apply(partition, decision);
+				}
+
+				return null;
+			};
+		}
+	}
+
+	/**
+	 * {@link Picks} is a sample of the editor picks of a partition.
+	 */
+	private static final class Picks {
+
+		/** The number of editor picks of the partition. */
+		private final int numPicks;
+
+		/** The sample, in random order. */
+		private final List<Book> sample;
+
+		/**
+		 * Instantiates a new {@link Picks}.
+		 *
+		 * @param numPicks
+		 *            the number of editor picks of the partition
+		 * @param sample
+		 *            the sample
+		 */
+		private Picks(int numPicks, List<Book> sample) {
+			this.numPicks = numPicks;
+			this.sample = sample;
+		}
+	}
+
+	/** The partitions. */
+	private final Partition[] partitions;
+
+	/** The lock queuing operations on several partitions in one order. */
+	private final ReentrantLock coordinatorLock = new ReentrantLock();
+
+	/**
+	 * The prepared purchases and the outcomes of the finished ones, locked by
+	 * {@link #purchasesLock}.
+	 */
+	private final PreparedPurchases preparedPurchases = new PreparedPurchases(
+			BookStoreConstants.TRANSACTION_TIMEOUT_MILLISECS);
+
+	/** The lock held by the operations on the prepared purchases. */
+	private final ReentrantLock purchasesLock = new ReentrantLock();
+
+	/**
+	 * The lock a store wrapping this one holds to record its updates. The
+	 * operations of the store only lock the partitions they touch, so none of
+	 * them holds it.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * Instantiates a new {@link PartitionedCertainBookStore} with one partition
+	 * per processor.
+	 */
+	public PartitionedCertainBookStore() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Instantiates a new {@link PartitionedCertainBookStore}.
+	 *
+	 * @param numPartitions
+	 *            the number of partitions
+	 */
+	public PartitionedCertainBookStore(int numPartitions) {
+		if (numPartitions < 1) {
+			throw new IllegalArgumentException("numPartitions = " + numPartitions + ", but it must be positive");
+		}
+
+		partitions = new Partition[numPartitions];
+
+		for (int i = 0; i < numPartitions; i++) {
+			partitions[i] = new Partition(i);
+		}
+	}
+
+	/**
+	 * Gets the number of partitions.
+	 *
+	 * @return the number of partitions
+	 */
+	public int getNumPartitions() {
+		return partitions.length;
+	}
+
+	/**
+	 * Stops the owners of the partitions.
+	 */
+	public void shutdown() {
+		for (Partition partition : partitions) {
+			partition.owner.shutdown();
+		}
+	}
+
+	/**
+	 * Gets the partition of a book.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the partition
+	 */
+	private Partition partitionOf(int isbn) {
+		return partitions[BookStoreUtility.slotOf(isbn, partitions.length)];
+	}
+
+	/**
+	 * Groups the elements of an operation by the partition of their books.
+	 *
+	 * @param <E>
+	 *            the type of the elements
+	 * @param elements
+	 *            the elements
+	 * @param isbnOf
+	 *            the function giving the ISBN of an element
+	 * @return the elements of each partition
+	 */
+	private <E> Map<Partition, List<E>> byPartition(Collection<E> elements, ToIntFunction<E> isbnOf) {
+		Map<Partition, List<E>> elementsByPartition = new LinkedHashMap<>();
+
+		for (E element : elements) {
+			elementsByPartition.computeIfAbsent(partitionOf(isbnOf.applyAsInt(element)), key -> new ArrayList<>())
+					.add(element);
+		}
+
+		return elementsByPartition;
+	}
+
+	/**
+	 * Runs an operation on partitions: each owner checks its partition, the
+	 * checks are combined into a decision, and each owner applies it unless
+	 * the operation was rejected.
+	 *
+	 * @param <P>
+	 *            the type of the checks
+	 * @param <D>
+	 *            the type of the decision
+	 * @param operationPartitions
+	 *            the partitions of the operation
+	 * @param check
+	 *            the check of a partition, which must not change it
+	 * @param decision
+	 *            the decision
+	 * @param apply
+	 *            the application of the decision to a partition
+	 * @return the decision
+	 * @throws BookStoreException
+	 *             if the operation is rejected
+	 */
+	private <P, D> D run(Collection<Partition> operationPartitions, Step<P> check, Decision<P, D> decision,
+			Apply<D> apply) throws BookStoreException {
+		if (operationPartitions.isEmpty()) {
+			return decision.decide(Collections.emptyList());
+		}
+
+		Round<P, D> round = new Round<>(operationPartitions.size(), decision);
+		List<Future<Void>> futures = new ArrayList<>(operationPartitions.size());
+		int index = 0;
+
+		if (operationPartitions.size() == 1) {
+			Partition partition = operationPartitions.iterator().next();
+			futures.add(partition.owner.submit(round.task(index, partition, check, apply)));
+		} else {
+			coordinatorLock.lock();
+
+			try {
+				for (Partition partition : operationPartitions) {
+					futures.add(partition.owner.submit(round.task(index++, partition, check, apply)));
+				}
+			} finally {
+				coordinatorLock.unlock();
+			}
+		}
+
+		for (Future<Void> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new BookStoreException("Interrupted while waiting for the partitions", ex);
+			} catch (ExecutionException ex) {
+				if (ex.getCause() instanceof BrokenBarrierException) {
+					throw new BookStoreException("A partition failed during the operation", ex.getCause());
+				}
+
+				throw new BookStoreException(ex.getCause());
+			}
+		}
+
+		if (round.failure != null) {
+			throw round.failure;
+		}
+
+		return round.decision;
+	}
+
+	/**
+	 * Runs an operation on partitions, applying it once every partition is
+	 * checked.
+	 *
+	 * @param operationPartitions
+	 *            the partitions of the operation
+	 * @param check
+	 *            the check of a partition, which must not change it
+	 * @param apply
+	 *            the application to a partition
+	 * @throws BookStoreException
+	 *             if the operation is rejected
+	 */
+	private void update(Collection<Partition> operationPartitions, Step<?> check, Apply<Void> apply)
+			throws BookStoreException {
+		run(operationPartitions, check, checks -> null, apply);
+	}
+
+	/**
+	 * Reads from partitions independently, and combines what they return on
+	 * the caller. A read of several partitions is queued to their owners in
+	 * the order of the operations on several partitions, which is a cut
+	 * through all of them.
+	 *
+	 * @param <P>
+	 *            the type of the results of the partitions
+	 * @param <D>
+	 *            the type of the result
+	 * @param operationPartitions
+	 *            the partitions to read
+	 * @param read
+	 *            the read of a partition
+	 * @param combine
+	 *            the combination of the results
+	 * @return the result
+	 * @throws BookStoreException
+	 *             if a read fails
+	 */
+	private <P, D> D read(Collection<Partition> operationPartitions, Step<P> read, Decision<P, D> combine)
+			throws BookStoreException {
+		List<Future<P>> futures = new ArrayList<>(operationPartitions.size());
+
+		if (operationPartitions.size() == 1) {
+			Partition partition = operationPartitions.iterator().next();
+			futures.add(partition.owner.submit(() -> read.run(partition)));
+		} else {
+			coordinatorLock.lock();
+
+			try {
+				for (Partition partition : operationPartitions) {
+					futures.add(partition.owner.submit(() -> read.run(partition)));
+				}
+			} finally {
+				coordinatorLock.unlock();
+			}
+		}
+
+		List<P> results = new ArrayList<>(futures.size());
+
+		for (Future<P> future : futures) {
+			try {
+				results.add(future.get());
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new BookStoreException("Interrupted while waiting for the partitions", ex);
+			} catch (ExecutionException ex) {
+				throw ex.getCause() instanceof BookStoreException ? (BookStoreException) ex.getCause()
+						: new BookStoreException(ex.getCause());
+			}
+		}
+
+		return combine.decide(results);
+	}
+
+	/**
+	 * Checks that an ISBN is valid.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @throws BookStoreException
+	 *             if the ISBN is invalid
+	 */
+	private static void validateISBN(Integer isbn) throws BookStoreException {
+		if (isbn == null || BookStoreUtility.isInvalidISBN(isbn)) {
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+	}
+
+	/**
+	 * Checks that a book to add is valid, without looking at the stock.
+	 *
+	 * @param book
+	 *            the book
+	 * @throws BookStoreException
+	 *             if the book is invalid
+	 */
+	private static void validate(StockBook book) throws BookStoreException {
+		validateISBN(book.getISBN());
+
+		if (BookStoreUtility.isEmpty(book.getTitle()) || BookStoreUtility.isEmpty(book.getAuthor())
+				|| BookStoreUtility.isInvalidNoCopies(book.getNumCopies()) || book.getPrice() < 0.0) {
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+	}
+
+	/**
+	 * Checks that a number of copies is valid, without looking at the stock.
+	 *
+	 * @param bookCopy
+	 *            the book copy
+	 * @throws BookStoreException
+	 *             if the ISBN or number of copies is invalid
+	 */
+	private static void validate(BookCopy bookCopy) throws BookStoreException {
+		validateISBN(bookCopy.getISBN());
+
+		if (BookStoreUtility.isInvalidNoCopies(bookCopy.getNumCopies())) {
+			throw new BookStoreException(
+					BookStoreConstants.NUM_COPIES + bookCopy.getNumCopies() + BookStoreConstants.INVALID);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		for (StockBook book : bookSet) {
+			validate(book);
+		}
+
+		Map<Partition, List<StockBook>> booksByPartition = byPartition(bookSet, StockBook::getISBN);
+
+		update(booksByPartition.keySet(), partition -> {
+			partition.checkNotInStock(booksByPartition.get(partition).stream().map(StockBook::getISBN)
+					.collect(Collectors.toList()));
+			return null;
+		}, (partition, decision) -> {
+			for (StockBook book : booksByPartition.get(partition)) {
+				partition.bookMap.put(book.getISBN(), new BookStoreBook(book));
+				partition.editorPickIndex.set(book.getISBN(), book.isEditorPick());
+			}
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreLoader#loadBooks(java.util.
+	 * Collection)
+	 */
+	@Override
+	public void loadBooks(Collection<StockBook> books) throws BookStoreException {
+
+		// Validate and copy the books in parallel before the partitions check them.
+		Map<Integer, BookStoreBook> booksToLoad = BookStoreUtility.validateLoadedBooks(books, BookStoreBook::new);
+		Map<Partition, List<BookStoreBook>> booksByPartition = byPartition(booksToLoad.values(),
+				BookStoreBook::getISBN);
+
+		update(booksByPartition.keySet(), partition -> {
+			partition.checkNotInStock(booksByPartition.get(partition).stream().map(BookStoreBook::getISBN)
+					.collect(Collectors.toList()));
+			return null;
+		}, (partition, decision) -> {
+			for (BookStoreBook book : booksByPartition.get(partition)) {
+				partition.bookMap.put(book.getISBN(), book);
+				partition.editorPickIndex.set(book.getISBN(), book.isEditorPick());
+			}
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		for (BookCopy bookCopy : bookCopiesSet) {
+			validate(bookCopy);
+		}
+
+		Map<Partition, List<BookCopy>> copiesByPartition = byPartition(bookCopiesSet, BookCopy::getISBN);
+
+		update(copiesByPartition.keySet(), partition -> {
+			for (BookCopy bookCopy : copiesByPartition.get(partition)) {
+				partition.getInStock(bookCopy.getISBN());
+			}
+
+			return null;
+		}, (partition, decision) -> {
+			for (BookCopy bookCopy : copiesByPartition.get(partition)) {
+				partition.bookMap.get(bookCopy.getISBN()).addCopies(bookCopy.getNumCopies());
+			}
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() throws BookStoreException {
+		return read(Arrays.asList(partitions), partition -> partition.bookMap.values().stream()
+				.map(BookStoreBook::immutableStockBook)
+				.collect(Collectors.toList()), PartitionedCertainBookStore::concat);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		for (BookEditorPick editorPickArg : editorPicks) {
+			validateISBN(editorPickArg.getISBN());
+		}
+
+		Map<Partition, List<BookEditorPick>> picksByPartition = byPartition(editorPicks, BookEditorPick::getISBN);
+
+		update(picksByPartition.keySet(), partition -> {
+			for (BookEditorPick editorPickArg : picksByPartition.get(partition)) {
+				partition.getInStock(editorPickArg.getISBN());
+			}
+
+			return null;
+		}, (partition, decision) -> {
+			for (BookEditorPick editorPickArg : picksByPartition.get(partition)) {
+				partition.bookMap.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
+				partition.editorPickIndex.set(editorPickArg.getISBN(), editorPickArg.isEditorPick());
+			}
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+			validate(bookCopyToBuy);
+		}
+
+		Map<Partition, List<BookCopy>> copiesByPartition = byPartition(bookCopiesToBuy, BookCopy::getISBN);
+
+		// Each partition finds its sale misses; if there is any, no copy is sold.
+		Map<Integer, Integer> salesMisses = run(copiesByPartition.keySet(), partition -> {
+			Map<Integer, Integer> partitionSalesMisses = new HashMap<>();
+
+			for (BookCopy bookCopyToBuy : copiesByPartition.get(partition)) {
+				BookStoreBook book = partition.getInStock(bookCopyToBuy.getISBN());
+
+				if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+					partitionSalesMisses.put(book.getISBN(), bookCopyToBuy.getNumCopies() - book.getNumCopies());
+				}
+			}
+
+			return partitionSalesMisses;
+		}, checks -> {
+			Map<Integer, Integer> allSalesMisses = new HashMap<>();
+			checks.forEach(allSalesMisses::putAll);
+			return allSalesMisses;
+		}, (partition, allSalesMisses) -> {
+			for (BookCopy bookCopyToBuy : copiesByPartition.get(partition)) {
+				BookStoreBook book = partition.bookMap.get(bookCopyToBuy.getISBN());
+
+				if (allSalesMisses.isEmpty()) {
+					book.buyCopies(bookCopyToBuy.getNumCopies());
+				} else if (allSalesMisses.containsKey(book.getISBN())) {
+					book.addSaleMiss(allSalesMisses.get(book.getISBN()));
+				}
+			}
+		});
+
+		if (!salesMisses.isEmpty()) {
+			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreParticipant#prepareBuyBooks(
+	 * java.lang.String, java.util.Set)
+	 */
+	@Override
+	public List<BookCopy> prepareBuyBooks(String transactionId, Set<BookCopy> bookCopiesToBuy)
+			throws BookStoreException {
+		if (transactionId == null || bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+			validate(bookCopyToBuy);
+		}
+
+		Map<Partition, List<BookCopy>> copiesByPartition = byPartition(bookCopiesToBuy, BookCopy::getISBN);
+
+		purchasesLock.lock();
+
+		try {
+			preparedPurchases.begin(transactionId);
+		} finally {
+			purchasesLock.unlock();
+		}
+
+		List<BookCopy> saleMisses;
+
+		try {
+			// Each partition finds its sale misses; if there is any, no copy is
+			// reserved.
+			saleMisses = run(copiesByPartition.keySet(), partition -> {
+				List<BookCopy> partitionSaleMisses = new ArrayList<>();
+
+				for (BookCopy bookCopyToBuy : copiesByPartition.get(partition)) {
+					BookStoreBook book = partition.getInStock(bookCopyToBuy.getISBN());
+
+					if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+						partitionSaleMisses.add(new BookCopy(book.getISBN(),
+								bookCopyToBuy.getNumCopies() - book.getNumCopies()));
+					}
+				}
+
+				return partitionSaleMisses;
+			}, PartitionedCertainBookStore::concat, (partition, allSaleMisses) -> {
+				if (allSaleMisses.isEmpty()) {
+					for (BookCopy bookCopyToBuy : copiesByPartition.get(partition)) {
+						partition.bookMap.get(bookCopyToBuy.getISBN()).buyCopies(bookCopyToBuy.getNumCopies());
+					}
+				}
+			});
+		} catch (BookStoreException ex) {
+			purchasesLock.lock();
+
+			try {
+				preparedPurchases.cancel(transactionId);
+			} finally {
+				purchasesLock.unlock();
+			}
+
+			throw ex;
+		}
+
+		Set<BookCopy> reservedCopies = saleMisses.isEmpty() ? bookCopiesToBuy : Collections.emptySet();
+		boolean added;
+
+		purchasesLock.lock();
+
+		try {
+			added = preparedPurchases.add(transactionId, reservedCopies, saleMisses);
+		} finally {
+			purchasesLock.unlock();
+		}
+
+		if (!added) {
+			// The coordinator aborted the purchase while it was prepared.
+			returnCopies(reservedCopies, Collections.emptyList());
+			throw new BookStoreException(BookStoreConstants.TRANSACTION + transactionId + BookStoreConstants.ABORTED);
+		}
+
+		return saleMisses;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreParticipant#commitBuyBooks(java
+	 * .lang.String)
+	 */
+	@Override
+	public void commitBuyBooks(String transactionId) throws BookStoreException {
+		// The reserved copies are sold already.
+		purchasesLock.lock();
+
+		try {
+			preparedPurchases.commit(transactionId);
+		} finally {
+			purchasesLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreParticipant#abortBuyBooks(java.
+	 * lang.String, boolean)
+	 */
+	@Override
+	public void abortBuyBooks(String transactionId, boolean recordSaleMisses) throws BookStoreException {
+		PreparedPurchases.Purchase purchase;
+
+		purchasesLock.lock();
+
+		try {
+			purchase = preparedPurchases.abort(transactionId);
+		} finally {
+			purchasesLock.unlock();
+		}
+
+		if (purchase != null) {
+			returnCopies(purchase.getReservedCopies(),
+					recordSaleMisses ? purchase.getSaleMisses() : Collections.emptyList());
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreParticipant#endBuyBooks(java.
+	 * lang.String)
+	 */
+	@Override
+	public void endBuyBooks(String transactionId) throws BookStoreException {
+		purchasesLock.lock();
+
+		try {
+			preparedPurchases.end(transactionId);
+		} finally {
+			purchasesLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the copies a purchase reserved to the books still in stock, and
+	 * records the sale misses it found.
+	 *
+	 * @param reservedCopies
+	 *            the copies reserved
+	 * @param saleMisses
+	 *            the sale misses to record
+	 * @throws BookStoreException
+	 *             if a partition failed
+	 */
+	private void returnCopies(Collection<BookCopy> reservedCopies, List<BookCopy> saleMisses)
+			throws BookStoreException {
+		Map<Partition, List<BookCopy>> copiesByPartition = byPartition(reservedCopies, BookCopy::getISBN);
+		Map<Partition, List<BookCopy>> missesByPartition = byPartition(saleMisses, BookCopy::getISBN);
+		Set<Partition> abortPartitions = new HashSet<>(copiesByPartition.keySet());
+		abortPartitions.addAll(missesByPartition.keySet());
+
+		update(abortPartitions, partition -> null, (partition, decision) -> {
+			for (BookCopy reservedCopy : copiesByPartition.getOrDefault(partition, Collections.emptyList())) {
+				BookStoreBook book = partition.bookMap.get(reservedCopy.getISBN());
+
+				if (book != null) {
+					book.returnCopies(reservedCopy.getNumCopies());
+				}
+			}
+
+			for (BookCopy saleMiss : missesByPartition.getOrDefault(partition, Collections.emptyList())) {
+				BookStoreBook book = partition.bookMap.get(saleMiss.getISBN());
+
+				if (book != null) {
+					book.addSaleMiss(saleMiss.getNumCopies());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Passes every book to the visitor, one partition after the other, so
+	 * that only the books of one partition are copied out of it at a time.
+	 *
+	 * @param visitor
+	 *            the visitor
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @see BookStoreLoader#visitBooks(BookVisitor)
+	 */
+	@Override
+	public void visitBooks(BookVisitor visitor) throws IOException {
+		for (Partition partition : partitions) {
+			List<StockBook> books;
+
+			try {
+				books = read(Collections.singletonList(partition), owned -> owned.bookMap.values().stream()
+						.map(BookStoreBook::immutableStockBook)
+						.collect(Collectors.toList()), PartitionedCertainBookStore::concat);
+			} catch (BookStoreException ex) {
+				throw new IOException("The books could not be read", ex);
+			}
+
+			for (StockBook book : books) {
+				visitor.visit(book);
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreLoader#getReservingPurchases()
+	 */
+	@Override
+	public List<BuyBooksTransaction> getReservingPurchases() {
+		purchasesLock.lock();
+
+		try {
+			return preparedPurchases.getReservingPurchases();
+		} finally {
+			purchasesLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStoreLoader#getOutcomes()
+	 */
+	@Override
+	public Map<String, Boolean> getOutcomes() {
+		purchasesLock.lock();
+
+		try {
+			return preparedPurchases.getOutcomes();
+		} finally {
+			purchasesLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStoreLoader#getLock()
+	 */
+	@Override
+	public Lock getLock() {
+		return lock;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreLoader#setExpiryCheck(java.util
+	 * .function.Predicate)
+	 */
+	@Override
+	public void setExpiryCheck(Predicate<String> expiryCheck) {
+		purchasesLock.lock();
+
+		try {
+			preparedPurchases.setExpiryCheck(expiryCheck);
+		} finally {
+			purchasesLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		return getBooks(isbnSet, BookStoreBook::immutableStockBook);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		return getBooks(isbnSet, BookStoreBook::immutableBook);
+	}
+
+	/**
+	 * Gets copies of the books in the order of the ISBNs.
+	 *
+	 * @param <B>
+	 *            the type of the copies
+	 * @param isbnSet
+	 *            the ISBNs
+	 * @param copy
+	 *            the function copying a book
+	 * @return the copies
+	 * @throws BookStoreException
+	 *             if an ISBN is invalid or not in stock
+	 */
+	private <B> List<B> getBooks(Set<Integer> isbnSet, Function<BookStoreBook, B> copy)
+			throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		for (Integer isbn : isbnSet) {
+			validateISBN(isbn);
+		}
+
+		Map<Partition, List<Integer>> isbnsByPartition = byPartition(isbnSet, Integer::intValue);
+
+		Map<Integer, B> booksByISBN = read(isbnsByPartition.keySet(), partition -> {
+			Map<Integer, B> partitionBooks = new HashMap<>();
+
+			for (int isbn : isbnsByPartition.get(partition)) {
+				partitionBooks.put(isbn, copy.apply(partition.getInStock(isbn)));
+			}
+
+			return partitionBooks;
+		}, checks -> {
+			Map<Integer, B> allBooks = new HashMap<>();
+			checks.forEach(allBooks::putAll);
+			return allBooks;
+		});
+
+		return isbnSet.stream().map(booksByISBN::get).collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		// Each partition samples up to numBooks of its picks, and the number
+		// kept from each is drawn so that every pick is equally likely.
+		return read(Arrays.asList(partitions), partition -> {
+			int[] isbns = partition.editorPickIndex.sample(numBooks, ThreadLocalRandom.current());
+			List<Book> picks = Arrays.stream(isbns)
+					.mapToObj(isbn -> partition.bookMap.get(isbn).immutableBook())
+					.collect(Collectors.toList());
+
+			// A partition with no more picks than numBooks gives them all, in
+			// the order of its index, so they are shuffled to keep any prefix
+			// a uniform sample.
+			Collections.shuffle(picks, ThreadLocalRandom.current());
+			return new Picks(partition.editorPickIndex.size(), picks);
+		}, checks -> samplePicks(checks, numBooks));
+	}
+
+	/**
+	 * Samples editor picks from the samples of the partitions. Positions among
+	 * all picks are drawn without replacement, and each partition contributes
+	 * as many picks from its own sample as positions fell into it.
+	 *
+	 * @param partitionPicks
+	 *            the samples of the partitions
+	 * @param numBooks
+	 *            the number of editor picks to sample
+	 * @return the editor picks
+	 */
+	private static List<Book> samplePicks(List<Picks> partitionPicks, int numBooks) {
+		int totalPicks = partitionPicks.stream().mapToInt(picks -> picks.numPicks).sum();
+		List<Book> sampledPicks = new ArrayList<>();
+
+		if (numBooks >= totalPicks) {
+			partitionPicks.forEach(picks -> sampledPicks.addAll(picks.sample));
+			return sampledPicks;
+		}
+
+		// Floyd's algorithm draws numBooks distinct positions.
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		Set<Integer> positions = new HashSet<>();
+
+		for (int bound = totalPicks - numBooks; bound < totalPicks; bound++) {
+			int position = random.nextInt(bound + 1);
+			positions.add(positions.contains(position) ? bound : position);
+		}
+
+		int[] counts = new int[partitionPicks.size()];
+
+		for (int position : positions) {
+			int index = 0;
+
+			while (position >= partitionPicks.get(index).numPicks) {
+				position -= partitionPicks.get(index).numPicks;
+				index++;
+			}
+
+			counts[index]++;
+		}
+
+		for (int index = 0; index < counts.length; index++) {
+			sampledPicks.addAll(partitionPicks.get(index).sample.subList(0, counts[index]));
+		}
+
+		Collections.shuffle(sampledPicks, random);
+		return sampledPicks;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getNumEditorPicks()
+	 */
+	@Override
+	public int getNumEditorPicks() throws BookStoreException {
+		return read(Arrays.asList(partitions), partition -> partition.editorPickIndex.size(),
+				sizes -> sizes.stream().mapToInt(Integer::intValue).sum());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		update(Arrays.asList(partitions), partition -> null, (partition, decision) -> {
+			partition.bookMap.clear();
+			partition.editorPickIndex.clear();
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		for (Integer isbn : isbnSet) {
+			validateISBN(isbn);
+		}
+
+		Map<Partition, List<Integer>> isbnsByPartition = byPartition(isbnSet, Integer::intValue);
+
+		update(isbnsByPartition.keySet(), partition -> {
+			for (int isbn : isbnsByPartition.get(partition)) {
+				partition.getInStock(isbn);
+			}
+
+			return null;
+		}, (partition, decision) -> {
+			for (int isbn : isbnsByPartition.get(partition)) {
+				partition.bookMap.remove(isbn);
+				partition.editorPickIndex.remove(isbn);
+			}
+		});
+	}
+
+	/**
+	 * Concatenates the books of the partitions.
+	 *
+	 * @param <B>
+	 *            the type of the books
+	 * @param partitionBooks
+	 *            the books of each partition
+	 * @return the books
+	 */
+	private static <B> List<B> concat(List<List<B>> partitionBooks) {
+		List<B> books = new ArrayList<>();
+		partitionBooks.forEach(books::addAll);
+		return books;
+	}
+}
@@ -0,0 +1,381 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import com.acertainbookstore.interfaces.BookStoreParticipant;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link PreparedPurchases} keeps the purchases a {@link BookStoreParticipant}
+ * prepared and the outcomes of those it finished, leaving the copies to the
+ * store. It is not thread-safe: the store calls it under the lock guarding
+ * its books.
+ *
+ * A purchase that reserved copies is kept until the coordinator commits or
+ * aborts it, however long that takes, since the coordinator may have decided
+ * to commit it. A purchase that found sale misses reserved nothing and can
+ * only be aborted, so it is forgotten after the transaction timeout; an abort
+ * arriving later no longer records its sale misses. A store logging its
+ * updates checks each purchase before it is forgotten, so that the log holds
+ * the decision rather than a replay taking it anew from the clock.
+ *
+ * The outcome of a finished purchase is kept until the coordinator ends the
+ * purchase once every participant acknowledged the decision, so that a
+ * decision sent again is acknowledged rather than found unknown, and a prepare
+ * arriving after the abort is rejected however many purchases finished since.
+ */
+final class PreparedPurchases {
+
+	/** The prepared purchases, in the order they were prepared. */
+	private final Map<String, Purchase> purchases = new LinkedHashMap<>();
+
+	/**
+	 * The purchases whose copies are being reserved without the lock of the
+	 * store held, such as by a store whose partitions reserve them.
+	 */
+	private final Set<String> preparing = new HashSet<>();
+
+	/**
+	 * Whether the finished purchases that were not ended yet were committed,
+	 * to answer a coordinator resending its decision.
+	 */
+	private final Map<String, Boolean> outcomes = new LinkedHashMap<>();
+
+	/** The time after which a purchase that reserved nothing is forgotten. */
+	private final long transactionTimeoutMillis;
+
+	/** The check an expired purchase must pass to be forgotten, or null. */
+	private Predicate<String> expiryCheck;
+
+	/**
+	 * {@link Purchase} is a prepared purchase, with the copies it reserved or
+	 * the sale misses it found.
+	 */
+	static final class Purchase {
+
+		/** The copies reserved, empty if there were sale misses. */
+		private final List<BookCopy> reservedCopies;
+
+		/** The sale misses, empty if the copies were reserved. */
+		private final List<BookCopy> saleMisses;
+
+		/** The time at which the purchase is forgotten if it reserved nothing. */
+		private final long deadline;
+
+		/**
+		 * Instantiates a new {@link Purchase}.
+		 *
+		 * @param reservedCopies
+		 *            the copies reserved
+		 * @param saleMisses
+		 *            the sale misses
+		 * @param deadline
+		 *            the time at which the purchase is forgotten if it
+		 *            reserved nothing
+		 */
+		private Purchase(List<BookCopy> reservedCopies, List<BookCopy> saleMisses, long deadline) {
+			this.reservedCopies = reservedCopies;
+			this.saleMisses = saleMisses;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Gets the copies reserved, at most one per book.
+		 *
+		 * @return the copies reserved, empty if there were sale misses
+		 */
+		List<BookCopy> getReservedCopies() {
+			return reservedCopies;
+		}
+
+		/**
+		 * Gets the sale misses.
+		 *
+		 * @return the sale misses, empty if the copies were reserved
+		 */
+		List<BookCopy> getSaleMisses() {
+			return saleMisses;
+		}
+	}
+
+	/**
+	 * Instantiates a new {@link PreparedPurchases}.
+	 *
+	 * @param transactionTimeoutMillis
+	 *            the time after which a purchase that reserved nothing is
+	 *            forgotten
+	 */
+	PreparedPurchases(long transactionTimeoutMillis) {
+		this.transactionTimeoutMillis = transactionTimeoutMillis;
+	}
+
+	/**
+	 * Sets the check an expired purchase must pass to be forgotten.
+	 *
+	 * @param expiryCheck
+	 *            the check, given the transaction identifier, or null to
+	 *            forget every expired purchase
+	 */
+	void setExpiryCheck(Predicate<String> expiryCheck) {
+		this.expiryCheck = expiryCheck;
+	}
+
+	/**
+	 * Checks that a purchase can be prepared, that is that it was neither
+	 * prepared nor finished yet.
+	 *
+	 * @param transactionId
+	 *            the transaction identifier
+	 * @throws BookStoreException
+	 *             if the purchase is known already
+	 */
+	void checkNew(String transactionId) throws BookStoreException {
+		forgetExpiredPurchases();
+
+		if (purchases.containsKey(transactionId) || preparing.contains(transactionId)
+				|| outcomes.containsKey(transactionId)) {
+			throw new BookStoreException(
+					BookStoreConstants.TRANSACTION + transactionId + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	/**
+	 * Starts preparing a purchase whose copies the store reserves without its
+	 * lock held. Until the purchase is added or cancelled, preparing it again
+	 * is rejected, and aborting it keeps it from being added.
+	 *
+	 * @param transactionId
+	 *            the transaction identifier
+	 * @throws BookStoreException
+	 *             if the purchase is known already
+	 */
+	void begin(String transactionId) throws BookStoreException {
+		checkNew(transactionId);
+		preparing.add(transactionId);
+	}
+
+	/**
+	 * Gives up preparing a purchase started with {@link #begin(String)} that
+	 * failed without reserving copies.
+	 *
+	 * @param transactionId
+	 *            the transaction identifier
+	 */
+	void cancel(String transactionId) {
+		preparing.remove(transactionId);
+	}
+
+	/**
+	 * Adds a purchase the store prepared, once it reserved the copies or found
+	 * sale misses. A purchase started with {@link #begin(String)} and aborted
+	 * since is not added, and the store returns the copies it reserved.
+	 *
+	 * @param transactionId
+	 *            the transaction identifier
+	 * @param reservedCopies
+	 *            the copies reserved, empty if there were sale misses
+	 * @param saleMisses
+	 *            the sale misses, empty if the copies were reserved
+	 * @return false if the purchase was aborted while it was prepared
+	 */
+	boolean add(String transactionId, Set<BookCopy> reservedCopies, List<BookCopy> saleMisses) {
+		if (preparing.remove(transactionId) && outcomes.containsKey(transactionId)) {
+			return false;
+		}
+
+		Map<Integer, Integer> copiesByISBN = new LinkedHashMap<>();
+
+		for (BookCopy reservedCopy : reservedCopies) {
+			copiesByISBN.merge(reservedCopy.getISBN(), reservedCopy.getNumCopies(), Integer::sum);
+		}
+
+		List<BookCopy> mergedCopies = new ArrayList<>(copiesByISBN.size());
+
+		for (Entry<Integer, Integer> copies : copiesByISBN.entrySet()) {
+			mergedCopies.add(new BookCopy(copies.getKey(), copies.getValue()));
+		}
+
+		purchases.put(transactionId, new Purchase(mergedCopies, new ArrayList<>(saleMisses),
+				System.currentTimeMillis() + transactionTimeoutMillis));
+		return true;
+	}
+
+	/**
+	 * Commits a prepared purchase, whose reserved copies are sold already.
+	 * Committing a purchase again has no effect.
+	 *
+	 * @param transactionId
+	 *            the transaction identifier
+	 * @throws BookStoreException
+	 *             if the purchase is unknown, found sale misses, or was
+	 *             aborted
+	 */
+	void commit(String transactionId) throws BookStoreException {
+		Purchase purchase = purchases.get(transactionId);
+
+		if (purchase == null) {
+			Boolean committed = outcomes.get(transactionId);
+
+			if (committed == null) {
+				throw new BookStoreException(
+						BookStoreConstants.TRANSACTION + transactionId + BookStoreConstants.NOT_PREPARED);
+			} else if (!committed) {
+				throw new BookStoreException(
+						BookStoreConstants.TRANSACTION + transactionId + BookStoreConstants.ABORTED);
+			}
+
+			return;
+		}
+
+		if (!purchase.saleMisses.isEmpty()) {
+			throw new BookStoreException(
+					BookStoreConstants.TRANSACTION + transactionId + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		purchases.remove(transactionId);
+		outcomes.put(transactionId, true);
+	}
+
+	/**
+	 * Aborts a purchase. The store returns the copies it reserved, and
+	 * records the sale misses it found if asked to.
+	 *
+	 * @param transactionId
+	 *            the transaction identifier
+	 * @return the prepared purchase, or null if it was unknown or aborted
+	 *         already
+	 * @throws BookStoreException
+	 *             if the purchase was committed
+	 */
+	Purchase abort(String transactionId) throws BookStoreException {
+		forgetExpiredPurchases();
+
+		if (Boolean.TRUE.equals(outcomes.get(transactionId))) {
+			throw new BookStoreException(BookStoreConstants.TRANSACTION + transactionId + BookStoreConstants.COMMITTED);
+		}
+
+		// An unknown purchase was never prepared, or was aborted already;
+		// remember it so that a prepare arriving late is rejected.
+		outcomes.put(transactionId, false);
+		return purchases.remove(transactionId);
+	}
+
+	/**
+	 * Ends a finished purchase, forgetting its outcome.
+	 *
+	 * @param transactionId
+	 *            the transaction identifier
+	 * @throws BookStoreException
+	 *             if the purchase is still prepared
+	 */
+	void end(String transactionId) throws BookStoreException {
+		if (purchases.containsKey(transactionId) || preparing.contains(transactionId)) {
+			throw new BookStoreException(
+					BookStoreConstants.TRANSACTION + transactionId + BookStoreConstants.NOT_DECIDED);
+		}
+
+		outcomes.remove(transactionId);
+	}
+
+	/**
+	 * Gets the outcomes of the finished purchases that were not ended yet,
+	 * such as to save them with the books in a checkpoint.
+	 *
+	 * @return whether each purchase was committed, by transaction identifier
+	 */
+	Map<String, Boolean> getOutcomes() {
+		return new LinkedHashMap<>(outcomes);
+	}
+
+	/**
+	 * Gets the purchases holding reserved copies, in the order they were
+	 * prepared, such as to save them with the books in a checkpoint.
+	 *
+	 * @return the purchases, with their reserved copies
+	 */
+	List<BuyBooksTransaction> getReservingPurchases() {
+		List<BuyBooksTransaction> reservingPurchases = new ArrayList<>();
+
+		for (Entry<String, Purchase> entry : purchases.entrySet()) {
+			List<BookCopy> reservedCopies = entry.getValue().reservedCopies;
+
+			if (!reservedCopies.isEmpty()) {
+				reservingPurchases.add(new BuyBooksTransaction(entry.getKey(),
+						Collections.unmodifiableSet(new HashSet<>(reservedCopies)), false));
+			}
+		}
+
+		return reservingPurchases;
+	}
+
+	/**
+	 * Adds the copies reserved by prepared purchases back to the books.
+	 *
+	 * @param books
+	 *            the books
+	 * @param purchases
+	 *            the prepared purchases holding reserved copies
+	 * @return the books with the reserved copies
+	 */
+	static List<StockBook> withReservedCopies(List<StockBook> books, Collection<BuyBooksTransaction> purchases) {
+		if (purchases.isEmpty()) {
+			return books;
+		}
+
+		Map<Integer, Integer> reservedCopies = new HashMap<>();
+
+		for (BuyBooksTransaction purchase : purchases) {
+			for (BookCopy reservedCopy : purchase.getBookCopies()) {
+				reservedCopies.merge(reservedCopy.getISBN(), reservedCopy.getNumCopies(), Integer::sum);
+			}
+		}
+
+		List<StockBook> booksWithReservedCopies = new ArrayList<>(books.size());
+
+		for (StockBook book : books) {
+			Integer numReservedCopies = reservedCopies.get(book.getISBN());
+
+			booksWithReservedCopies.add(numReservedCopies == null ? book
+					: new ImmutableStockBook(book.getISBN(), book.getTitle(), book.getAuthor(), book.getPrice(),
+							book.getNumCopies() + numReservedCopies, book.getNumSaleMisses(),
+							book.getNumTimesRated(), book.getTotalRating(), book.isEditorPick()));
+		}
+
+		return booksWithReservedCopies;
+	}
+
+	/**
+	 * Forgets the purchases that reserved nothing and whose coordinator did
+	 * not abort them in time and that pass the expiry check. Purchases holding
+	 * copies never expire.
+	 */
+	private void forgetExpiredPurchases() {
+		long now = System.currentTimeMillis();
+
+		// Purchases are kept in the order they were prepared, and so expire.
+		for (Iterator<Entry<String, Purchase>> it = purchases.entrySet().iterator(); it.hasNext();) {
+			Entry<String, Purchase> entry = it.next();
+
+			if (entry.getValue().deadline > now) {
+				break;
+			} else if (entry.getValue().reservedCopies.isEmpty()
+					&& (expiryCheck == null || expiryCheck.test(entry.getKey()))) {
+				// The coordinator never commits a purchase with sale misses, so
+				// its outcome is only recorded once the abort arrives.
+				it.remove();
+			}
+		}
+	}
+}
@@ -0,0 +1,1102 @@
+package com.acertainbookstore.business;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.BookStoreLoader;
+import com.acertainbookstore.interfaces.BookStoreParticipant;
+import com.acertainbookstore.interfaces.BookStoreReplica;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreLog;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+
+/**
+ * {@link ReplicatedCertainBookStore} replicates a store, such as the
+ * {@link CertainBookStore}, from a primary to its backups.
+ *
+ * The primary numbers its updates in the order they are applied, holding the
+ * lock the wrapped store gives through {@link BookStoreLoader#getLock()},
+ * and one thread per backup ships them in batches without delaying the
+ * updates. An idle backup is sent an empty batch every
+ * {@link BookStoreConstants#REPLICATION_HEARTBEAT_MILLISECS}, so that it knows
+ * it is up to date. The primary keeps the updates until every backup has
+ * applied them; a backup too far behind, or restarted empty, is sent a
+ * snapshot of every book instead.
+ *
+ * A primary draws a new incarnation whenever it starts or is promoted, since
+ * it numbers its updates afresh, such as after a restart without its log. A
+ * backup that followed another incarnation, or is ahead of the primary, may
+ * have diverged from it, so it only takes a snapshot before following the new
+ * one, and is not up to date meanwhile.
+ *
+ * A backup serves reads and rejects updates until it is promoted to take over
+ * from a failed primary. Its staleness is the time since it was last up to
+ * date with the primary.
+ *
+ * The purchases spanning servers are replicated as they are prepared, decided
+ * and ended, so that a promoted backup answers the coordinator. Unlike other
+ * updates, these are acknowledged only once every backup applied them, or
+ * failed after {@link BookStoreConstants#REPLICATION_SYNC_TIMEOUT_MILLISECS},
+ * so that no backup misses a reservation or a decision the coordinator was
+ * told of; the coordinator then aborts the purchase, or sends the decision
+ * again. A snapshot carries the purchases still holding reserved copies and
+ * the outcomes not ended yet: the backup keeps the purchases it holds
+ * already, prepares the others on the books restored with their copies, and
+ * takes the outcomes of the primary.
+ *
+ * @see BookStoreReplica
+ * @see BookStoreMutation
+ */
+public class ReplicatedCertainBookStore
+		implements BookStore, StockManager, BookStoreLoader, BookStoreParticipant, BookStoreReplica {
+
+	/** The Constant MAX_BATCH_SIZE in mutations. */
+	private static final int MAX_BATCH_SIZE = 1024;
+
+	/** The Constant MAX_RETAINED_MUTATIONS kept for backups behind. */
+	private static final int MAX_RETAINED_MUTATIONS = 64 * 1024;
+
+	/** The Constant RETRY_DELAY_MILLISECS after a backup failed. */
+	private static final long RETRY_DELAY_MILLISECS = 1000;
+
+	/** The Constant SNAPSHOT_NEEDED returned by a backup that diverged. */
+	private static final long SNAPSHOT_NEEDED = -1;
+
+	/**
+	 * {@link Update} is an update of the wrapped store.
+	 *
+	 * @param <T>
+	 *            the type of the argument
+	 */
+	@FunctionalInterface
+	private interface Update<T> {
+
+		/**
+		 * Applies the update.
+		 *
+		 * @param argument
+		 *            the argument
+		 * @throws BookStoreException
+		 *             the book store exception
+		 */
+		void apply(T argument) throws BookStoreException;
+	}
+
+	/** The wrapped store, as a book store. */
+	private final BookStore bookStore;
+
+	/** The wrapped store, as a stock manager. */
+	private final StockManager stockManager;
+
+	/** The wrapped store, as a loader of snapshots. */
+	private final BookStoreLoader loader;
+
+	/** The wrapped store, as a participant in purchases spanning servers. */
+	private final BookStoreParticipant participant;
+
+	/**
+	 * The lock of the wrapped store, held to apply and number an update, or to
+	 * read a snapshot.
+	 */
+	private final Lock storeLock;
+
+	/**
+	 * The lock a store wrapping this one holds to record its updates. It is
+	 * not the lock of the wrapped store, since the updates of purchases wait
+	 * for the backups with it held, while the backups may need a snapshot.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * The copies reserved by each prepared purchase, in the order they were
+	 * prepared, which a snapshot carries. Guarded by the lock of the wrapped
+	 * store.
+	 */
+	private final Map<String, Set<BookCopy>> reservingPurchases = new LinkedHashMap<>();
+
+	/** Applies the mutations received from the primary to the wrapped store. */
+	private final BookStoreLog.Replayer mutationApplier;
+
+	/** The backups, empty on a backup. */
+	private final List<BookStoreReplica> backups;
+
+	/** The threads shipping the mutations to each backup. */
+	private final List<Thread> shippers = new ArrayList<>();
+
+	/** The lock guarding the sequence numbers and retained mutations. */
+	private final ReentrantLock mutationLock = new ReentrantLock();
+
+	/** Signalled when mutations are retained for the backups. */
+	private final Condition mutationsAdded = mutationLock.newCondition();
+
+	/** Signalled when a backup applied mutations. */
+	private final Condition mutationsApplied = mutationLock.newCondition();
+
+	/**
+	 * The sequence number of the last mutation, applied by the primary or
+	 * received by the backup.
+	 */
+	private long lastSequence = 0;
+
+	/** The mutations not yet applied by every backup. */
+	private final ArrayDeque<BookStoreMutation> retainedMutations = new ArrayDeque<>();
+
+	/** The sequence number of the last mutation applied by each backup. */
+	private final long[] appliedSequences;
+
+	/** True if the store accepts updates. */
+	private volatile boolean primary;
+
+	/**
+	 * The incarnation of the primary, or of the primary the backup follows, 0
+	 * if none yet. Guarded by the lock of the wrapped store on a backup.
+	 */
+	private volatile long incarnation;
+
+	/** The time the backup was last up to date, or -1 if never. */
+	private volatile long lastUpToDateMillis = -1;
+
+	/** True once the shipping threads are asked to stop. */
+	private volatile boolean stopped = false;
+
+	/**
+	 * Instantiates a new primary {@link ReplicatedCertainBookStore} and starts
+	 * shipping its updates to the backups.
+	 *
+	 * @param <T>
+	 *            the type of the wrapped store
+	 * @param store
+	 *            the wrapped store
+	 * @param backups
+	 *            the backups
+	 */
+	public <T extends BookStore & StockManager & BookStoreLoader & BookStoreParticipant> ReplicatedCertainBookStore(
+			T store, List<? extends BookStoreReplica> backups) {
+		bookStore = store;
+		stockManager = store;
+		loader = store;
+		participant = store;
+		storeLock = store.getLock();
+		mutationApplier = (messageTag, argument) -> BookStoreUpdates.apply(store, messageTag, argument);
+		this.backups = new ArrayList<>(backups);
+		appliedSequences = new long[backups.size()];
+		primary = true;
+		incarnation = newIncarnation();
+
+		for (int i = 0; i < backups.size(); i++) {
+			int index = i;
+			Thread shipper = new Thread(() -> ship(index), "bookstore-replicator-" + i);
+			shipper.setDaemon(true);
+			shippers.add(shipper);
+			shipper.start();
+		}
+	}
+
+	/**
+	 * Instantiates a new backup {@link ReplicatedCertainBookStore}.
+	 *
+	 * @param <T>
+	 *            the type of the wrapped store
+	 * @param store
+	 *            the wrapped store, empty
+	 */
+	public <T extends BookStore & StockManager & BookStoreLoader & BookStoreParticipant> ReplicatedCertainBookStore(
+			T store) {
+		this(store, Collections.<BookStoreReplica>emptyList());
+		primary = false;
+		incarnation = 0;
+	}
+
+	/**
+	 * Draws a new incarnation of a primary.
+	 *
+	 * @return the incarnation, never 0
+	 */
+	private static long newIncarnation() {
+		return ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Checks if the store is a primary accepting updates.
+	 *
+	 * @return true, if it is a primary
+	 */
+	public boolean isPrimary() {
+		return primary;
+	}
+
+	/**
+	 * Gets the time since the backup was last up to date with the primary. A
+	 * primary is always up to date.
+	 *
+	 * @return the staleness in milliseconds, or {@link Long#MAX_VALUE} if the
+	 *         backup was never up to date
+	 */
+	public long getStalenessMillis() {
+		if (primary) {
+			return 0;
+		}
+
+		long upToDateMillis = lastUpToDateMillis;
+		return upToDateMillis < 0 ? Long.MAX_VALUE : System.currentTimeMillis() - upToDateMillis;
+	}
+
+	/**
+	 * Stops shipping updates to the backups.
+	 */
+	public void shutdown() {
+		stopped = true;
+
+		for (Thread shipper : shippers) {
+			shipper.interrupt();
+		}
+	}
+
+	/**
+	 * Ships the mutations to a backup until the store is shut down.
+	 *
+	 * @param index
+	 *            the index of the backup
+	 */
+	private void ship(int index) {
+		BookStoreReplica backup = backups.get(index);
+
+		while (!stopped) {
+			try {
+				BookStoreReplicationBatch batch = nextBatch(index);
+				long appliedSequence = backup.replicate(batch);
+
+				mutationLock.lock();
+
+				try {
+					appliedSequences[index] = appliedSequence;
+					releaseMutations();
+					mutationsApplied.signalAll();
+				} finally {
+					mutationLock.unlock();
+				}
+			} catch (BookStoreException ex) {
+				try {
+					Thread.sleep(RETRY_DELAY_MILLISECS);
+				} catch (InterruptedException interrupted) {
+					return;
+				}
+			} catch (InterruptedException ex) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Waits for mutations the backup has not applied, or for the heartbeat,
+	 * and makes the next batch for it.
+	 *
+	 * @param index
+	 *            the index of the backup
+	 * @return the batch
+	 * @throws InterruptedException
+	 *             if the store is shut down
+	 * @throws BookStoreException
+	 *             if the snapshot could not be read
+	 */
+	private BookStoreReplicationBatch nextBatch(int index) throws InterruptedException, BookStoreException {
+		long heartbeatMillis = System.currentTimeMillis() + BookStoreConstants.REPLICATION_HEARTBEAT_MILLISECS;
+
+		mutationLock.lock();
+
+		try {
+			while (lastSequence == appliedSequences[index]) {
+				long waitMillis = heartbeatMillis - System.currentTimeMillis();
+
+				if (waitMillis <= 0) {
+					break;
+				}
+
+				mutationsAdded.await(waitMillis, TimeUnit.MILLISECONDS);
+			}
+
+			long appliedSequence = appliedSequences[index];
+			BookStoreMutation oldest = retainedMutations.peekFirst();
+
+			// A backup ahead of the primary or asking for a snapshot gets one.
+			if (appliedSequence >= 0 && (appliedSequence == lastSequence || (appliedSequence < lastSequence
+					&& oldest != null && oldest.getSequence() <= appliedSequence + 1))) {
+				List<BookStoreMutation> mutations = new ArrayList<>();
+
+				for (BookStoreMutation mutation : retainedMutations) {
+					if (mutations.size() == MAX_BATCH_SIZE) {
+						break;
+					}
+
+					if (mutation.getSequence() > appliedSequence) {
+						mutations.add(mutation);
+					}
+				}
+
+				return new BookStoreReplicationBatch(incarnation, lastSequence, mutations);
+			}
+		} finally {
+			mutationLock.unlock();
+		}
+
+		// The mutations the backup needs were released, or it diverged, so it
+		// is sent every book, reserving purchase and outcome instead, as of the
+		// last mutation applied.
+		storeLock.lock();
+
+		try {
+			List<StockBook> books = new ArrayList<>(stockManager.getBooks());
+
+			mutationLock.lock();
+
+			try {
+				List<BookStoreMutation> snapshot = new ArrayList<>();
+				snapshot.add(new BookStoreMutation(lastSequence, BookStoreMessageTag.LOADBOOKS, books, true));
+
+				for (Entry<String, Set<BookCopy>> purchase : reservingPurchases.entrySet()) {
+					snapshot.add(new BookStoreMutation(lastSequence, BookStoreMessageTag.PREPAREBUYBOOKS,
+							new BuyBooksTransaction(purchase.getKey(), purchase.getValue(), false), true));
+				}
+
+				for (Entry<String, Boolean> outcome : loader.getOutcomes().entrySet()) {
+					snapshot.add(new BookStoreMutation(lastSequence,
+							outcome.getValue() ? BookStoreMessageTag.COMMITBUYBOOKS
+									: BookStoreMessageTag.ABORTBUYBOOKS,
+							new BuyBooksTransaction(outcome.getKey(), null, false), true));
+				}
+
+				releaseLoadedCatalogs();
+				return new BookStoreReplicationBatch(incarnation, lastSequence, snapshot);
+			} finally {
+				mutationLock.unlock();
+			}
+		} finally {
+			storeLock.unlock();
+		}
+	}
+
+	/**
+	 * Releases the retained catalog loads, which a snapshot covers once made,
+	 * with the mutations before them, so that a backup behind them is sent a
+	 * snapshot too rather than the primary keeping a copy of every catalog
+	 * loaded. Must be called with the mutation lock held.
+	 */
+	private void releaseLoadedCatalogs() {
+		long loadSequence = -1;
+
+		for (BookStoreMutation mutation : retainedMutations) {
+			if (mutation.getMessageTag() == BookStoreMessageTag.LOADBOOKS) {
+				loadSequence = mutation.getSequence();
+			}
+		}
+
+		while (!retainedMutations.isEmpty() && retainedMutations.peekFirst().getSequence() <= loadSequence) {
+			retainedMutations.removeFirst();
+		}
+	}
+
+	/**
+	 * Releases the mutations applied by every backup. Must be called with the
+	 * mutation lock held.
+	 */
+	private void releaseMutations() {
+		long appliedByAll = appliedByAll();
+
+		while (!retainedMutations.isEmpty() && retainedMutations.peekFirst().getSequence() <= appliedByAll) {
+			retainedMutations.removeFirst();
+		}
+	}
+
+	/**
+	 * Gets the sequence number of the last mutation applied by every backup.
+	 * Must be called with the mutation lock held.
+	 *
+	 * @return the sequence number, {@link Long#MAX_VALUE} without backups
+	 */
+	private long appliedByAll() {
+		long appliedByAll = Long.MAX_VALUE;
+
+		for (long appliedSequence : appliedSequences) {
+			appliedByAll = Math.min(appliedByAll, appliedSequence);
+		}
+
+		return appliedByAll;
+	}
+
+	/**
+	 * Waits until every backup applied a mutation.
+	 *
+	 * @param sequence
+	 *            the sequence number of the mutation
+	 * @throws BookStoreException
+	 *             if a backup did not apply it in time
+	 */
+	private void awaitBackups(long sequence) throws BookStoreException {
+		long deadline = System.currentTimeMillis() + BookStoreConstants.REPLICATION_SYNC_TIMEOUT_MILLISECS;
+
+		mutationLock.lock();
+
+		try {
+			while (appliedByAll() < sequence) {
+				long waitMillis = deadline - System.currentTimeMillis();
+
+				if (waitMillis <= 0) {
+					throw new BookStoreException(BookStoreConstants.BACKUP + BookStoreConstants.NOT_REPLICATED);
+				}
+
+				try {
+					mutationsApplied.await(waitMillis, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new BookStoreException(BookStoreConstants.BACKUP + BookStoreConstants.NOT_REPLICATED, ex);
+				}
+			}
+		} finally {
+			mutationLock.unlock();
+		}
+	}
+
+	/**
+	 * Checks if an update belongs to a purchase spanning servers, which is
+	 * acknowledged only once every backup applied it.
+	 *
+	 * @param messageTag
+	 *            the message tag
+	 * @return true, if the update is shipped synchronously
+	 */
+	private static boolean isSynchronous(BookStoreMessageTag messageTag) {
+		switch (messageTag) {
+		case PREPAREBUYBOOKS:
+		case COMMITBUYBOOKS:
+		case ABORTBUYBOOKS:
+		case ENDBUYBOOKS:
+			return true;
+
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Applies an update to the wrapped store and numbers it for the backups.
+	 * Failed purchases are replicated too, since they record sale misses.
+	 * The updates of purchases spanning servers return once every backup
+	 * applied them.
+	 *
+	 * @param <T>
+	 *            the type of the argument
+	 * @param messageTag
+	 *            the message tag
+	 * @param argument
+	 *            the argument
+	 * @param update
+	 *            the update
+	 * @throws BookStoreException
+	 *             the book store exception, or if the store is a backup, or
+	 *             a backup did not apply the update of a purchase in time
+	 */
+	private <T> void replicated(BookStoreMessageTag messageTag, T argument, Update<T> update)
+			throws BookStoreException {
+		BookStoreException updateFailure = null;
+		long sequence = 0;
+
+		storeLock.lock();
+
+		try {
+			if (!primary) {
+				throw new BookStoreException(BookStoreConstants.BACKUP + BookStoreConstants.READ_ONLY);
+			}
+
+			try {
+				update.apply(argument);
+			} catch (BookStoreException ex) {
+				updateFailure = ex;
+			}
+
+			if (updateFailure == null || messageTag == BookStoreMessageTag.BUYBOOKS) {
+				mutationLock.lock();
+
+				try {
+					sequence = ++lastSequence;
+
+					if (!backups.isEmpty()) {
+						retainedMutations.addLast(new BookStoreMutation(lastSequence, messageTag, argument, false));
+
+						// A backup this far behind is sent a snapshot instead.
+						if (retainedMutations.size() > MAX_RETAINED_MUTATIONS) {
+							retainedMutations.removeFirst();
+						}
+
+						mutationsAdded.signalAll();
+					}
+				} finally {
+					mutationLock.unlock();
+				}
+			}
+		} finally {
+			storeLock.unlock();
+		}
+
+		if (updateFailure != null) {
+			throw updateFailure;
+		}
+
+		if (!backups.isEmpty() && isSynchronous(messageTag)) {
+			awaitBackups(sequence);
+		}
+	}
+
+	/**
+	 * Copies the argument of an update into a set that can be shipped.
+	 *
+	 * @param <E>
+	 *            the type of the elements
+	 * @param set
+	 *            the argument
+	 * @return the copy, or null if the argument is null
+	 */
+	private static <E> Set<E> copyOf(Set<E> set) {
+		return set == null ? null : new HashSet<>(set);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreReplica#replicate(com.
+	 * acertainbookstore.business.BookStoreReplicationBatch)
+	 */
+	@Override
+	public long replicate(BookStoreReplicationBatch batch) throws BookStoreException {
+		if (batch == null || batch.getMutations() == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		storeLock.lock();
+
+		try {
+			if (primary) {
+				throw new BookStoreException(BookStoreConstants.BACKUP + BookStoreConstants.PROMOTED);
+			}
+
+			long appliedSequence;
+
+			mutationLock.lock();
+
+			try {
+				appliedSequence = lastSequence;
+			} finally {
+				mutationLock.unlock();
+			}
+
+			List<BookStoreMutation> mutations = batch.getMutations();
+			boolean snapshot = !mutations.isEmpty() && mutations.get(0).isSnapshot();
+
+			if (batch.getPrimaryIncarnation() != incarnation) {
+				// Only an empty backup has the state of any primary numbering
+				// from scratch; one that followed another primary may have
+				// diverged from this one.
+				if (!snapshot && (incarnation != 0 || appliedSequence != 0)) {
+					return SNAPSHOT_NEEDED;
+				}
+
+				incarnation = batch.getPrimaryIncarnation();
+			}
+
+			if (snapshot) {
+				loadSnapshot(mutations);
+				appliedSequence = mutations.get(0).getSequence();
+			}
+
+			for (BookStoreMutation mutation : mutations) {
+				if (mutation.isSnapshot()) {
+					continue;
+				} else if (mutation.getSequence() == appliedSequence + 1) {
+					try {
+						apply(mutation);
+					} catch (BookStoreException ex) {
+						// The update failed the same way on the primary.
+					}
+
+					appliedSequence = mutation.getSequence();
+				} else if (mutation.getSequence() > appliedSequence + 1) {
+					break;
+				}
+			}
+
+			mutationLock.lock();
+
+			try {
+				lastSequence = appliedSequence;
+			} finally {
+				mutationLock.unlock();
+			}
+
+			if (appliedSequence == batch.getPrimarySequence()) {
+				lastUpToDateMillis = System.currentTimeMillis();
+			}
+
+			return appliedSequence;
+		} finally {
+			storeLock.unlock();
+		}
+	}
+
+	/**
+	 * Applies a mutation received from the primary to the wrapped store,
+	 * keeping track of the purchases holding reserved copies. Must be called
+	 * with the lock of the wrapped store held.
+	 *
+	 * @param mutation
+	 *            the mutation
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private void apply(BookStoreMutation mutation) throws BookStoreException {
+		Object argument = mutation.getArgument();
+
+		switch (mutation.getMessageTag()) {
+		case PREPAREBUYBOOKS:
+			prepare((BuyBooksTransaction) argument);
+			break;
+
+		case COMMITBUYBOOKS:
+			commit((BuyBooksTransaction) argument);
+			break;
+
+		case ABORTBUYBOOKS:
+			abort((BuyBooksTransaction) argument);
+			break;
+
+		default:
+			mutationApplier.apply(mutation.getMessageTag(), argument);
+			break;
+		}
+	}
+
+	/**
+	 * Replaces the state of the wrapped store with a snapshot from the
+	 * primary. The purchases the backup holds and the primary no longer does
+	 * were decided meanwhile, so they are committed or aborted as the primary
+	 * did before their books are removed; those the backup does not hold yet
+	 * are prepared on the books restored with their copies. The outcomes the
+	 * primary ended are ended, and those the backup missed are recorded, so
+	 * that a promoted backup answers the coordinator as the primary would.
+	 * Must be called with the lock of the wrapped store held.
+	 *
+	 * @param snapshot
+	 *            the books, then the purchases holding reserved copies, then
+	 *            the outcomes
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@SuppressWarnings("unchecked")
+	private void loadSnapshot(List<BookStoreMutation> snapshot) throws BookStoreException {
+		List<StockBook> books = new ArrayList<>();
+		Map<String, BuyBooksTransaction> newPurchases = new LinkedHashMap<>();
+		Map<String, Boolean> outcomes = new LinkedHashMap<>();
+
+		for (BookStoreMutation mutation : snapshot) {
+			switch (mutation.getMessageTag()) {
+			case PREPAREBUYBOOKS:
+				BuyBooksTransaction purchase = (BuyBooksTransaction) mutation.getArgument();
+				newPurchases.put(purchase.getTransactionId(), purchase);
+				break;
+
+			case COMMITBUYBOOKS:
+			case ABORTBUYBOOKS:
+				outcomes.put(((BuyBooksTransaction) mutation.getArgument()).getTransactionId(),
+						mutation.getMessageTag() == BookStoreMessageTag.COMMITBUYBOOKS);
+				break;
+
+			default:
+				books.addAll((Collection<StockBook>) mutation.getArgument());
+				break;
+			}
+		}
+
+		for (String transactionId : new ArrayList<>(reservingPurchases.keySet())) {
+			if (newPurchases.remove(transactionId) != null) {
+				continue;
+			} else if (Boolean.TRUE.equals(outcomes.get(transactionId))) {
+				commit(new BuyBooksTransaction(transactionId, null, false));
+			} else {
+				abort(new BuyBooksTransaction(transactionId, null, false));
+			}
+		}
+
+		stockManager.removeAllBooks();
+		loader.loadBooks(PreparedPurchases.withReservedCopies(books, newPurchases.values()));
+
+		for (BuyBooksTransaction purchase : newPurchases.values()) {
+			prepare(purchase);
+		}
+
+		Map<String, Boolean> backupOutcomes = loader.getOutcomes();
+
+		for (Entry<String, Boolean> backupOutcome : backupOutcomes.entrySet()) {
+			if (!backupOutcome.getValue().equals(outcomes.get(backupOutcome.getKey()))) {
+				participant.endBuyBooks(backupOutcome.getKey());
+			}
+		}
+
+		for (Entry<String, Boolean> outcome : outcomes.entrySet()) {
+			String transactionId = outcome.getKey();
+
+			if (outcome.getValue().equals(backupOutcomes.get(transactionId))) {
+				continue;
+			} else if (outcome.getValue()) {
+				// The purchase sold its copies before the snapshot was taken.
+				participant.prepareBuyBooks(transactionId, Collections.emptySet());
+				participant.commitBuyBooks(transactionId);
+			} else {
+				participant.abortBuyBooks(transactionId, false);
+			}
+		}
+	}
+
+	/**
+	 * Prepares a purchase in the wrapped store, keeping track of it if it
+	 * reserved copies. Must be called with the lock of the wrapped store held.
+	 *
+	 * @param transaction
+	 *            the purchase
+	 * @return the number of copies missing for each book, empty if the copies
+	 *         were reserved
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private List<BookCopy> prepare(BuyBooksTransaction transaction) throws BookStoreException {
+		List<BookCopy> saleMisses = participant.prepareBuyBooks(transaction.getTransactionId(),
+				transaction.getBookCopies());
+
+		if (saleMisses.isEmpty()) {
+			reservingPurchases.put(transaction.getTransactionId(), transaction.getBookCopies());
+		}
+
+		return saleMisses;
+	}
+
+	/**
+	 * Commits a purchase in the wrapped store. Must be called with the lock of
+	 * the wrapped store held.
+	 *
+	 * @param transaction
+	 *            the purchase
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private void commit(BuyBooksTransaction transaction) throws BookStoreException {
+		participant.commitBuyBooks(transaction.getTransactionId());
+		reservingPurchases.remove(transaction.getTransactionId());
+	}
+
+	/**
+	 * Aborts a purchase in the wrapped store. Must be called with the lock of
+	 * the wrapped store held.
+	 *
+	 * @param transaction
+	 *            the purchase
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private void abort(BuyBooksTransaction transaction) throws BookStoreException {
+		participant.abortBuyBooks(transaction.getTransactionId(), transaction.isRecordSaleMisses());
+		reservingPurchases.remove(transaction.getTransactionId());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStoreReplica#promote()
+	 */
+	@Override
+	public void promote() throws BookStoreException {
+		storeLock.lock();
+
+		try {
+			if (!primary) {
+				primary = true;
+				incarnation = newIncarnation();
+			}
+		} finally {
+			storeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		replicated(BookStoreMessageTag.ADDBOOKS, copyOf(bookSet), stockManager::addBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreLoader#loadBooks(java.util.
+	 * Collection)
+	 */
+	public void loadBooks(Collection<StockBook> books) throws BookStoreException {
+		replicated(BookStoreMessageTag.LOADBOOKS, books == null ? null : new ArrayList<>(books), loader::loadBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreLoader#visitBooks(com.
+	 * acertainbookstore.interfaces.BookStoreLoader.BookVisitor)
+	 */
+	@Override
+	public void visitBooks(BookVisitor visitor) throws IOException {
+		loader.visitBooks(visitor);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreLoader#getReservingPurchases()
+	 */
+	@Override
+	public List<BuyBooksTransaction> getReservingPurchases() {
+		return loader.getReservingPurchases();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStoreLoader#getOutcomes()
+	 */
+	@Override
+	public Map<String, Boolean> getOutcomes() {
+		return loader.getOutcomes();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStoreLoader#getLock()
+	 */
+	@Override
+	public Lock getLock() {
+		return lock;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreLoader#setExpiryCheck(java.util
+	 * .function.Predicate)
+	 */
+	@Override
+	public void setExpiryCheck(Predicate<String> expiryCheck) {
+		loader.setExpiryCheck(expiryCheck);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		replicated(BookStoreMessageTag.ADDCOPIES, copyOf(bookCopiesSet), stockManager::addCopies);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() throws BookStoreException {
+		return stockManager.getBooks();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		replicated(BookStoreMessageTag.UPDATEEDITORPICKS, copyOf(editorPicks), stockManager::updateEditorPicks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		replicated(BookStoreMessageTag.BUYBOOKS, copyOf(bookCopiesToBuy), bookStore::buyBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreParticipant#prepareBuyBooks(
+	 * java.lang.String, java.util.Set)
+	 */
+	@Override
+	public List<BookCopy> prepareBuyBooks(String transactionId, Set<BookCopy> bookCopies) throws BookStoreException {
+		List<BookCopy> saleMisses = new ArrayList<>();
+		replicated(BookStoreMessageTag.PREPAREBUYBOOKS,
+				new BuyBooksTransaction(transactionId, copyOf(bookCopies), false),
+				transaction -> saleMisses.addAll(prepare(transaction)));
+		return saleMisses;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreParticipant#commitBuyBooks(java
+	 * .lang.String)
+	 */
+	@Override
+	public void commitBuyBooks(String transactionId) throws BookStoreException {
+		replicated(BookStoreMessageTag.COMMITBUYBOOKS, new BuyBooksTransaction(transactionId, null, false),
+				this::commit);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreParticipant#abortBuyBooks(java.
+	 * lang.String, boolean)
+	 */
+	@Override
+	public void abortBuyBooks(String transactionId, boolean recordSaleMisses) throws BookStoreException {
+		replicated(BookStoreMessageTag.ABORTBUYBOOKS, new BuyBooksTransaction(transactionId, null, recordSaleMisses),
+				this::abort);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreParticipant#endBuyBooks(java.
+	 * lang.String)
+	 */
+	@Override
+	public void endBuyBooks(String transactionId) throws BookStoreException {
+		replicated(BookStoreMessageTag.ENDBUYBOOKS, new BuyBooksTransaction(transactionId, null, false),
+				transaction -> participant.endBuyBooks(transaction.getTransactionId()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		return stockManager.getBooksByISBN(isbnSet);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		return bookStore.getBooks(isbnSet);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		return bookStore.getEditorPicks(numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		return bookStore.getTopRatedBooks(numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getNumEditorPicks()
+	 */
+	@Override
+	public int getNumEditorPicks() throws BookStoreException {
+		return stockManager.getNumEditorPicks();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		return stockManager.getBooksInDemand();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		replicated(BookStoreMessageTag.RATEBOOKS, copyOf(bookRating), bookStore::rateBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		replicated(BookStoreMessageTag.REMOVEALLBOOKS, null, argument -> stockManager.removeAllBooks());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		replicated(BookStoreMessageTag.REMOVEBOOKS, copyOf(isbnSet), stockManager::removeBooks);
+	}
+}
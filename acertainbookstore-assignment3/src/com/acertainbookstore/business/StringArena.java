@@ -0,0 +1,133 @@
+package com.acertainbookstore.business;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * {@link StringArena} stores strings back to back as UTF-8 in a single byte
+ * array, each prefixed by its length. A string is referred to by its offset in
+ * the arena, so storing millions of titles and authors costs no objects on the
+ * heap besides the array itself.
+ *
+ * Strings are never moved; released strings are only counted, and the owner
+ * of the references decides when to copy the live strings into a fresh arena.
+ */
+final class StringArena {
+
+	/** The Constant INITIAL_CAPACITY. */
+	private static final int INITIAL_CAPACITY = 4096;
+
+	/** The bytes. */
+	private byte[] bytes;
+
+	/** The number of bytes used. */
+	private int used;
+
+	/** The number of bytes used by released strings. */
+	private int released;
+
+	/**
+	 * Instantiates a new {@link StringArena}.
+	 */
+	StringArena() {
+		this(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new {@link StringArena}.
+	 *
+	 * @param capacity
+	 *            the initial capacity in bytes
+	 */
+	StringArena(int capacity) {
+		bytes = new byte[Math.max(capacity, 16)];
+		used = 0;
+		released = 0;
+	}
+
+	/**
+	 * Adds a string to the arena.
+	 *
+	 * @param str
+	 *            the string
+	 * @return the offset of the string
+	 */
+	int add(String str) {
+		byte[] encoded = str.getBytes(StandardCharsets.UTF_8);
+		int offset = used;
+
+		ensureCapacity(used + Integer.BYTES + encoded.length);
+		writeInt(offset, encoded.length);
+		System.arraycopy(encoded, 0, bytes, offset + Integer.BYTES, encoded.length);
+		used += Integer.BYTES + encoded.length;
+		return offset;
+	}
+
+	/**
+	 * Gets the string at the offset.
+	 *
+	 * @param offset
+	 *            the offset
+	 * @return the string
+	 */
+	String get(int offset) {
+		return new String(bytes, offset + Integer.BYTES, readInt(offset), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Marks the string at the offset as no longer used.
+	 *
+	 * @param offset
+	 *            the offset
+	 */
+	void release(int offset) {
+		released += Integer.BYTES + readInt(offset);
+	}
+
+	/**
+	 * Gets the number of bytes used by live strings.
+	 *
+	 * @return the number of bytes
+	 */
+	int liveBytes() {
+		return used - released;
+	}
+
+	/**
+	 * Gets the number of bytes used by released strings.
+	 *
+	 * @return the number of bytes
+	 */
+	int releasedBytes() {
+		return released;
+	}
+
+	/**
+	 * Grows the arena so that it holds at least <code>capacity</code> bytes.
+	 *
+	 * @param capacity
+	 *            the capacity
+	 */
+	private void ensureCapacity(int capacity) {
+		if (capacity < 0) {
+			throw new IllegalStateException("The string arena is full");
+		}
+
+		if (capacity > bytes.length) {
+			int newCapacity = Math.max(capacity, bytes.length + (bytes.length >> 1));
+			bytes = Arrays.copyOf(bytes, newCapacity < 0 ? Integer.MAX_VALUE - 8 : newCapacity);
+		}
+	}
+
+	private int readInt(int offset) {
+		return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16)
+				| ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+	}
+
+	private void writeInt(int offset, int value) {
+		bytes[offset] = (byte) (value >>> 24);
+		bytes[offset + 1] = (byte) (value >>> 16);
+		bytes[offset + 2] = (byte) (value >>> 8);
+		bytes[offset + 3] = (byte) value;
+	}
+}
@@ -0,0 +1,273 @@
+package com.acertainbookstore.client;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.eclipse.jetty.client.HttpClient;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.AsyncStockManager;
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreHTTP2Client;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreRequest;
+import com.acertainbookstore.utils.BookStoreResponse;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.BookStoreWireFormat;
+
+/**
+ * {@link AsyncStockManagerHTTPProxy} implements the client level asynchronous
+ * {@link CertainBookStore} API declared in the {@link AsyncStockManager}
+ * class. Requests are sent without waiting for their responses, so that a few
+ * threads can keep many requests in flight, up to the requests queued for a
+ * connection to the server.
+ *
+ * The futures are completed by the threads of the client, which run the
+ * actions chained to them without an executor; such actions must not block.
+ *
+ * @see AsyncStockManager
+ * @see StockManagerHTTPProxy
+ */
+public class AsyncStockManagerHTTPProxy implements AsyncStockManager {
+
+	/** The client. */
+	protected HttpClient client;
+
+	/** The HTTP/2 client, if the requests are multiplexed over HTTP/2. */
+	protected BookStoreHTTP2Client http2Client;
+
+	/** The server address. */
+	protected String serverAddress;
+
+	/** The serializer of each thread. */
+	private ThreadLocal<BookStoreSerializer> serializer;
+
+	/**
+	 * Initializes a new {@link AsyncStockManagerHTTPProxy}.
+	 *
+	 * @param serverAddress
+	 *            the server address
+	 * @throws Exception
+	 *             the exception
+	 */
+	public AsyncStockManagerHTTPProxy(String serverAddress) throws Exception {
+		this(serverAddress, BookStoreWireFormat.getDefault());
+	}
+
+	/**
+	 * Initializes a new {@link AsyncStockManagerHTTPProxy} sending its messages in the wire
+	 * format.
+	 *
+	 * @param serverAddress
+	 *            the server address
+	 * @param wireFormat
+	 *            the wire format
+	 * @throws Exception
+	 *             the exception
+	 */
+	public AsyncStockManagerHTTPProxy(String serverAddress, BookStoreWireFormat wireFormat) throws Exception {
+
+		// Setup the type of serializer.
+		serializer = wireFormat.getSerializers();
+
+		setServerAddress(serverAddress);
+
+		// Multiplex the requests over HTTP/2 connections, if asked to.
+		if (Boolean.getBoolean(BookStoreConstants.PROPERTY_KEY_HTTP2)) {
+			http2Client = new BookStoreHTTP2Client();
+			http2Client.start();
+			return;
+		}
+
+		client = new HttpClient();
+
+		// Max concurrent connections to every address.
+		client.setMaxConnectionsPerDestination(BookStoreClientConstants.CLIENT_MAX_CONNECTION_ADDRESS);
+
+		// Requests beyond the connections wait for one instead of failing.
+		client.setMaxRequestsQueuedPerDestination(BookStoreClientConstants.CLIENT_MAX_QUEUED_REQUESTS);
+
+		// Max number of threads, unless requests run on virtual threads.
+		client.setExecutor(BookStoreUtility.newThreadPool(BookStoreClientConstants.CLIENT_MAX_THREADSPOOL_THREADS,
+				BookStoreClientConstants.CLIENT_MIN_THREADSPOOL_THREADS));
+
+		// Seconds timeout; if no server reply, the request expires.
+		client.setConnectTimeout(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS);
+
+		// Close idle connections before the server does.
+		client.setIdleTimeout(BookStoreClientConstants.CLIENT_IDLE_TIMEOUT_MILLISECS);
+
+		client.start();
+	}
+
+	/**
+	 * Gets the server address.
+	 *
+	 * @return the server address
+	 */
+	public String getServerAddress() {
+		return serverAddress;
+	}
+
+	/**
+	 * Sets the server address.
+	 *
+	 * @param serverAddress
+	 *            the new server address
+	 */
+	public void setServerAddress(String serverAddress) {
+		this.serverAddress = serverAddress;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.AsyncStockManager#addBooks(java.util.Set)
+	 */
+	public CompletableFuture<Void> addBooks(Set<StockBook> bookSet) {
+		return post(BookStoreMessageTag.ADDBOOKS, bookSet).thenAccept(bookStoreResponse -> {
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.AsyncStockManager#addCopies(java.util.
+	 * Set)
+	 */
+	public CompletableFuture<Void> addCopies(Set<BookCopy> bookCopiesSet) {
+		return post(BookStoreMessageTag.ADDCOPIES, bookCopiesSet).thenAccept(bookStoreResponse -> {
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.AsyncStockManager#getBooks()
+	 */
+	@SuppressWarnings("unchecked")
+	public CompletableFuture<List<StockBook>> getBooks() {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.LISTBOOKS;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		return performHttpExchangeAsync(bookStoreRequest, serializer)
+				.thenApply(bookStoreResponse -> (List<StockBook>) bookStoreResponse.getList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.AsyncStockManager#updateEditorPicks(
+	 * java.util.Set)
+	 */
+	public CompletableFuture<Void> updateEditorPicks(Set<BookEditorPick> editorPicksValues) {
+		return post(BookStoreMessageTag.UPDATEEDITORPICKS, editorPicksValues).thenAccept(bookStoreResponse -> {
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.AsyncStockManager#getBooksInDemand()
+	 */
+	@Override
+	public CompletableFuture<List<StockBook>> getBooksInDemand() {
+		CompletableFuture<List<StockBook>> future = new CompletableFuture<>();
+		future.completeExceptionally(new BookStoreException("Not implemented"));
+		return future;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.AsyncStockManager#removeAllBooks()
+	 */
+	public CompletableFuture<Void> removeAllBooks() {
+		// An empty body, since the request is just a signal to remove all books.
+		return post(BookStoreMessageTag.REMOVEALLBOOKS, "").thenAccept(bookStoreResponse -> {
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.AsyncStockManager#removeBooks(java.util.
+	 * Set)
+	 */
+	public CompletableFuture<Void> removeBooks(Set<Integer> isbnSet) {
+		return post(BookStoreMessageTag.REMOVEBOOKS, isbnSet).thenAccept(bookStoreResponse -> {
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.AsyncStockManager#getBooksByISBN(java.
+	 * util.Set)
+	 */
+	@SuppressWarnings("unchecked")
+	public CompletableFuture<List<StockBook>> getBooksByISBN(Set<Integer> isbns) {
+		return post(BookStoreMessageTag.GETSTOCKBOOKSBYISBN, isbns)
+				.thenApply(bookStoreResponse -> (List<StockBook>) bookStoreResponse.getList());
+	}
+
+	/**
+	 * Posts a request to the server.
+	 *
+	 * @param messageTag
+	 *            the message tag
+	 * @param inputValue
+	 *            the input value
+	 * @return the future response
+	 */
+	private CompletableFuture<BookStoreResponse> post(BookStoreMessageTag messageTag, Object inputValue) {
+		String urlString = serverAddress + "/" + messageTag;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, inputValue);
+		return performHttpExchangeAsync(bookStoreRequest, serializer);
+	}
+
+	/**
+	 * Perform HTTP exchange without blocking over HTTP/2 or HTTP/1.1, whichever
+	 * the proxy uses.
+	 *
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @param serializer
+	 *            the serializer of the calling thread
+	 * @return the future book store response, failing with the book store
+	 *         exception
+	 */
+	private CompletableFuture<BookStoreResponse> performHttpExchangeAsync(BookStoreRequest bookStoreRequest,
+			ThreadLocal<BookStoreSerializer> serializer) {
+		if (http2Client != null) {
+			return BookStoreUtility.performHttpExchangeAsync(http2Client, bookStoreRequest, serializer);
+		}
+
+		return BookStoreUtility.performHttpExchangeAsync(client, bookStoreRequest, serializer);
+	}
+
+	/**
+	 * Stops the proxy. Requests in flight fail.
+	 */
+	public void stop() {
+		try {
+			if (http2Client != null) {
+				http2Client.stop();
+			} else {
+				client.stop();
+			}
+		} catch (Exception ex) {
+			System.err.println(ex.getStackTrace());
+		}
+	}
+}
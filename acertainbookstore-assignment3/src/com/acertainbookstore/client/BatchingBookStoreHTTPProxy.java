@@ -0,0 +1,343 @@
+package com.acertainbookstore.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookStoreOperation;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreRequest;
+import com.acertainbookstore.utils.BookStoreResponse;
+import com.acertainbookstore.utils.BookStoreWireFormat;
+
+/**
+ * {@link BatchingBookStoreHTTPProxy} is a {@link BookStoreHTTPProxy} that
+ * coalesces the purchases and reads called concurrently into batches, each
+ * sent to the server in a single {@link BookStoreMessageTag#BATCH} request. A
+ * batch is sent when it holds the maximum number of operations, or when the
+ * window opened by its first operation closes, so that a call waits at most
+ * the window longer than it would alone.
+ *
+ * A call waits at most the window and the client timeout for its response. A
+ * batch failing as a whole, or answered with fewer responses than operations,
+ * fails every call of the batch.
+ *
+ * The server executes the operations of a batch in order, each on its own, so
+ * a failed operation fails its call only. Batched reads are sent to the
+ * primary server.
+ *
+ * @see BookStoreHTTPProxy
+ * @see BookStoreOperation
+ */
+public class BatchingBookStoreHTTPProxy extends BookStoreHTTPProxy {
+
+	/** The time the first operation of a batch waits for more operations. */
+	private final long windowMicros;
+
+	/** The maximum number of operations of a batch. */
+	private final int maxOperations;
+
+	/** The operations waiting to be sent, guarded by itself. */
+	private List<PendingOperation> pending = new ArrayList<>();
+
+	/** The thread sending the batches whose window closed. */
+	private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+		Thread thread = new Thread(task, "bookstore-batcher");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * {@link PendingOperation} is an operation waiting for its response.
+	 */
+	private static final class PendingOperation {
+
+		/** The operation. */
+		private final BookStoreOperation operation;
+
+		/** The future response of the operation. */
+		private final CompletableFuture<BookStoreResponse> response = new CompletableFuture<>();
+
+		/**
+		 * Instantiates a new {@link PendingOperation}.
+		 *
+		 * @param operation
+		 *            the operation
+		 */
+		private PendingOperation(BookStoreOperation operation) {
+			this.operation = operation;
+		}
+	}
+
+	/**
+	 * Initializes a new {@link BatchingBookStoreHTTPProxy} with the default
+	 * window and batch size.
+	 *
+	 * @param serverAddress
+	 *            the server address
+	 * @throws Exception
+	 *             the exception
+	 */
+	public BatchingBookStoreHTTPProxy(String serverAddress) throws Exception {
+		this(serverAddress, BookStoreClientConstants.BATCH_WINDOW_MICROSECS,
+				BookStoreClientConstants.BATCH_MAX_OPERATIONS);
+	}
+
+	/**
+	 * Initializes a new {@link BatchingBookStoreHTTPProxy}.
+	 *
+	 * @param serverAddress
+	 *            the server address
+	 * @param windowMicros
+	 *            the time the first operation of a batch waits for more
+	 *            operations
+	 * @param maxOperations
+	 *            the maximum number of operations of a batch
+	 * @throws Exception
+	 *             the exception
+	 */
+	public BatchingBookStoreHTTPProxy(String serverAddress, long windowMicros, int maxOperations) throws Exception {
+		this(serverAddress, BookStoreWireFormat.getDefault(), windowMicros, maxOperations);
+	}
+
+	/**
+	 * Initializes a new {@link BatchingBookStoreHTTPProxy} sending its batches
+	 * in the wire format.
+	 *
+	 * @param serverAddress
+	 *            the server address
+	 * @param wireFormat
+	 *            the wire format
+	 * @param windowMicros
+	 *            the time the first operation of a batch waits for more
+	 *            operations
+	 * @param maxOperations
+	 *            the maximum number of operations of a batch
+	 * @throws Exception
+	 *             the exception
+	 */
+	public BatchingBookStoreHTTPProxy(String serverAddress, BookStoreWireFormat wireFormat, long windowMicros,
+			int maxOperations) throws Exception {
+		super(serverAddress, wireFormat);
+		this.windowMicros = windowMicros;
+		this.maxOperations = maxOperations;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.client.BookStoreHTTPProxy#buyBooks(java.util.Set)
+	 */
+	@Override
+	public void buyBooks(Set<BookCopy> isbnSet) throws BookStoreException {
+		perform(new BookStoreOperation(BookStoreMessageTag.BUYBOOKS, isbnSet));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.client.BookStoreHTTPProxy#getBooks(java.util.Set)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		return (List<Book>) perform(new BookStoreOperation(BookStoreMessageTag.GETBOOKS, isbnSet)).getList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.client.BookStoreHTTPProxy#getEditorPicks(int)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		return (List<Book>) perform(new BookStoreOperation(BookStoreMessageTag.GETEDITORPICKS, numBooks))
+				.getList();
+	}
+
+	/**
+	 * Adds an operation to the current batch and waits for its response. The
+	 * operation filling the batch sends it; otherwise the first operation of
+	 * the batch has it sent when its window closes.
+	 *
+	 * @param operation
+	 *            the operation
+	 * @return the response of the operation
+	 * @throws BookStoreException
+	 *             the exception of the operation or of its batch
+	 */
+	private BookStoreResponse perform(BookStoreOperation operation) throws BookStoreException {
+		PendingOperation pendingOperation = new PendingOperation(operation);
+		List<PendingOperation> fullBatch = null;
+
+		synchronized (this) {
+			List<PendingOperation> batch = pending;
+			batch.add(pendingOperation);
+
+			if (batch.size() >= maxOperations) {
+				fullBatch = batch;
+				pending = new ArrayList<>();
+			} else if (batch.size() == 1) {
+				flusher.schedule(() -> flush(batch), windowMicros, TimeUnit.MICROSECONDS);
+			}
+		}
+
+		if (fullBatch != null) {
+			send(fullBatch);
+		}
+
+		BookStoreResponse bookStoreResponse;
+
+		try {
+			bookStoreResponse = pendingOperation.response.get(
+					TimeUnit.MICROSECONDS.toMillis(windowMicros) + BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS,
+					TimeUnit.MILLISECONDS);
+		} catch (TimeoutException ex) {
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_TIMEOUT, ex);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_SENDING, ex);
+		} catch (ExecutionException ex) {
+			throw ex.getCause() instanceof BookStoreException ? (BookStoreException) ex.getCause()
+					: new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION, ex);
+		}
+
+		if (bookStoreResponse.getException() != null) {
+			throw bookStoreResponse.getException();
+		}
+
+		return bookStoreResponse;
+	}
+
+	/**
+	 * Sends a batch whose window closed, unless it was filled and sent before.
+	 *
+	 * @param batch
+	 *            the batch
+	 */
+	private void flush(List<PendingOperation> batch) {
+		synchronized (this) {
+			if (pending != batch) {
+				return;
+			}
+
+			pending = new ArrayList<>();
+		}
+
+		send(batch);
+	}
+
+	/**
+	 * Sends a batch without waiting for its response, which completes the
+	 * response of each operation.
+	 *
+	 * @param batch
+	 *            the batch
+	 */
+	private void send(List<PendingOperation> batch) {
+		List<BookStoreOperation> operations = new ArrayList<>(batch.size());
+
+		for (PendingOperation pendingOperation : batch) {
+			operations.add(pendingOperation.operation);
+		}
+
+		String urlString = serverAddress + "/" + BookStoreMessageTag.BATCH;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, operations);
+
+		performHttpExchangeAsync(bookStoreRequest, serializer)
+				.whenComplete((bookStoreResponse, failure) -> {
+					try {
+						complete(batch, bookStoreResponse, failure);
+					} catch (RuntimeException ex) {
+						fail(batch, ex);
+					}
+				});
+	}
+
+	/**
+	 * Completes the response of each operation of a batch from the response
+	 * of the batch, or fails them all if the batch failed as a whole.
+	 *
+	 * @param batch
+	 *            the batch
+	 * @param bookStoreResponse
+	 *            the response of the batch, or null if it failed
+	 * @param failure
+	 *            the failure of the batch, or null if it succeeded
+	 */
+	private static void complete(List<PendingOperation> batch, BookStoreResponse bookStoreResponse,
+			Throwable failure) {
+		if (failure != null) {
+			fail(batch, failure);
+			return;
+		}
+
+		if (bookStoreResponse.getException() != null) {
+			fail(batch, bookStoreResponse.getException());
+			return;
+		}
+
+		List<?> responses = bookStoreResponse.getList();
+
+		if (responses == null || responses.size() != batch.size()) {
+			fail(batch, new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_RESPONSE_DECODING));
+			return;
+		}
+
+		for (int i = 0; i < batch.size(); i++) {
+			Object response = responses.get(i);
+
+			if (response instanceof BookStoreResponse) {
+				batch.get(i).response.complete((BookStoreResponse) response);
+			} else {
+				batch.get(i).response.completeExceptionally(
+						new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_RESPONSE_DECODING));
+			}
+		}
+	}
+
+	/**
+	 * Fails the response of every operation of a batch not completed yet.
+	 *
+	 * @param batch
+	 *            the batch
+	 * @param failure
+	 *            the failure
+	 */
+	private static void fail(List<PendingOperation> batch, Throwable failure) {
+		for (PendingOperation pendingOperation : batch) {
+			pendingOperation.response.completeExceptionally(failure);
+		}
+	}
+
+	/**
+	 * Stops the proxy. Calls still waiting for their batch fail.
+	 */
+	@Override
+	public void stop() {
+		flusher.shutdownNow();
+
+		synchronized (this) {
+			for (PendingOperation pendingOperation : pending) {
+				pendingOperation.response.completeExceptionally(
+						new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_SENDING));
+			}
+
+			pending = new ArrayList<>();
+		}
+
+		super.stop();
+	}
+}
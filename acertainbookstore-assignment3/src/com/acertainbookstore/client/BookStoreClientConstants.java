@@ -14,9 +14,67 @@ public final class BookStoreClientConstants {
 	/** The Constant CLIENT_MAX_THREADSPOOL_THREADS. */
 	public static final int CLIENT_MAX_THREADSPOOL_THREADS = 250;
 
+	/** The Constant CLIENT_MIN_THREADSPOOL_THREADS. */
+	public static final int CLIENT_MIN_THREADSPOOL_THREADS = 8;
+
 	/** The Constant CLIENT_MAX_TIMEOUT_MILLISECS. */
 	public static final int CLIENT_MAX_TIMEOUT_MILLISECS = 30000;
 
+	/**
+	 * The Constant CLIENT_IDLE_TIMEOUT_MILLISECS after which an idle connection
+	 * is closed, shorter than the idle timeout of the server so that a request
+	 * is never sent on a connection the server is closing.
+	 */
+	public static final int CLIENT_IDLE_TIMEOUT_MILLISECS = 20000;
+
+	/**
+	 * The Constant CLIENT_MAX_HTTP2_STREAMS in flight on an HTTP/2 connection,
+	 * within the 128 streams a server accepts at once by default.
+	 */
+	public static final int CLIENT_MAX_HTTP2_STREAMS = 100;
+
+	/**
+	 * The Constant CLIENT_MAX_QUEUED_REQUESTS waiting for a connection to an
+	 * address, which bounds the requests an asynchronous proxy has in flight.
+	 */
+	public static final int CLIENT_MAX_QUEUED_REQUESTS = 65536;
+
+	/** The Constant CLIENT_MAX_RESPONSE_BYTES buffered by asynchronous proxies. */
+	public static final int CLIENT_MAX_RESPONSE_BYTES = 64 * 1024 * 1024;
+
+	/**
+	 * The Constant BATCH_WINDOW_MICROSECS for which a batching proxy waits for
+	 * more calls to send along with the first one.
+	 */
+	public static final long BATCH_WINDOW_MICROSECS = 200;
+
+	/** The Constant BATCH_MAX_OPERATIONS sent at once by a batching proxy. */
+	public static final int BATCH_MAX_OPERATIONS = 64;
+
+	/**
+	 * The Constant COORDINATOR_PREPARE_TIMEOUT_MILLISECS within which every
+	 * participant must prepare a purchase spanning servers.
+	 */
+	public static final int COORDINATOR_PREPARE_TIMEOUT_MILLISECS = 10000;
+
+	/**
+	 * The Constant COORDINATOR_RETRY_MILLISECS after which a decision is sent
+	 * again to the participants that did not acknowledge it.
+	 */
+	public static final int COORDINATOR_RETRY_MILLISECS = 1000;
+
+	/**
+	 * The Constant COORDINATOR_LOG_TRUNCATE_BYTES of records of finished
+	 * purchases after which the coordinator log is truncated.
+	 */
+	public static final int COORDINATOR_LOG_TRUNCATE_BYTES = 1024 * 1024;
+
+	/**
+	 * The Constant RESOLVER_PERIOD_MILLISECS after which a participant asks
+	 * the coordinator for the decision on a purchase still holding copies.
+	 */
+	public static final int RESOLVER_PERIOD_MILLISECS = 10000;
+
 	/** The Constant strERR_CLIENT_REQUEST_SENDING. */
 	public static final String STR_ERR_CLIENT_REQUEST_SENDING = "ERR_CLIENT_REQUEST_SENDING";
 
@@ -3,20 +3,26 @@ package com.acertainbookstore.client;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import org.eclipse.jetty.client.HttpClient;
-import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.BuyBooksTransaction;
 import com.acertainbookstore.interfaces.BookStore;
-import com.acertainbookstore.utils.BookStoreKryoSerializer;
+import com.acertainbookstore.interfaces.BookStoreParticipant;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
-import com.acertainbookstore.utils.BookStoreXStreamSerializer;
+import com.acertainbookstore.utils.BookStoreWireFormat;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreHTTP2Client;
 import com.acertainbookstore.utils.BookStoreMessageTag;
 import com.acertainbookstore.utils.BookStoreRequest;
 import com.acertainbookstore.utils.BookStoreResponse;
@@ -24,21 +30,42 @@ import com.acertainbookstore.utils.BookStoreUtility;
 
 /**
  * {@link BookStoreHTTPProxy} implements the client level synchronous
- * {@link CertainBookStore} API declared in the {@link BookStore} class.
+ * {@link CertainBookStore} API declared in the {@link BookStore} class, and
+ * takes part in purchases spanning several servers as a
+ * {@link BookStoreParticipant}.
+ * 
+ * Given the addresses of backup servers, reads are sent to the backups in
+ * turn, bounding how far behind the primary a backup may be, and updates are
+ * sent to the primary server. A read is sent to the primary instead if the
+ * backup cannot be reached or refuses it as too stale, but not if the backup
+ * answers with any other error, which the primary would answer too.
  * 
  * @see BookStore
+ * @see BookStoreParticipant
  * @see CertainBookStore
  */
-public class BookStoreHTTPProxy implements BookStore {
+public class BookStoreHTTPProxy implements BookStore, BookStoreParticipant {
 
 	/** The client. */
 	protected HttpClient client;
 
+	/** The HTTP/2 client, if the requests are multiplexed over HTTP/2. */
+	protected BookStoreHTTP2Client http2Client;
+
 	/** The server address. */
 	protected String serverAddress;
 
-	/** The serializer. */
-	private static ThreadLocal<BookStoreSerializer> serializer;
+	/** The serializer of each thread. */
+	protected ThreadLocal<BookStoreSerializer> serializer;
+
+	/** The addresses of the backup servers serving reads. */
+	private List<String> replicaAddresses = Collections.emptyList();
+
+	/** The time a backup serving a read may be behind the primary. */
+	private long maxStalenessMillis = 0;
+
+	/** The number of reads sent to the backups, to pick the next backup. */
+	private final AtomicInteger numReplicaReads = new AtomicInteger();
 
 	/**
 	 * Initializes a new {@link BookStoreHTTPProxy}.
@@ -49,29 +76,72 @@ public class BookStoreHTTPProxy implements BookStore {
 	 *             the exception
 	 */
 	public BookStoreHTTPProxy(String serverAddress) throws Exception {
+		this(serverAddress, BookStoreWireFormat.getDefault());
+	}
+
+	/**
+	 * Initializes a new {@link BookStoreHTTPProxy} sending its messages in the wire
+	 * format.
+	 *
+	 * @param serverAddress
+	 *            the server address
+	 * @param wireFormat
+	 *            the wire format
+	 * @throws Exception
+	 *             the exception
+	 */
+	public BookStoreHTTPProxy(String serverAddress, BookStoreWireFormat wireFormat) throws Exception {
 
 		// Setup the type of serializer.
-		if (BookStoreConstants.BINARY_SERIALIZATION) {
-			serializer = ThreadLocal.withInitial(BookStoreKryoSerializer::new);
-		} else {
-			serializer = ThreadLocal.withInitial(BookStoreXStreamSerializer::new);
-		}
+		serializer = wireFormat.getSerializers();
 
 		setServerAddress(serverAddress);
+
+		// Multiplex the requests over HTTP/2 connections, if asked to.
+		if (Boolean.getBoolean(BookStoreConstants.PROPERTY_KEY_HTTP2)) {
+			http2Client = new BookStoreHTTP2Client();
+			http2Client.start();
+			return;
+		}
+
 		client = new HttpClient();
 
 		// Max concurrent connections to every address.
 		client.setMaxConnectionsPerDestination(BookStoreClientConstants.CLIENT_MAX_CONNECTION_ADDRESS);
 
-		// Max number of threads.
-		client.setExecutor(new QueuedThreadPool(BookStoreClientConstants.CLIENT_MAX_THREADSPOOL_THREADS));
+		// Max number of threads, unless requests run on virtual threads.
+		client.setExecutor(BookStoreUtility.newThreadPool(BookStoreClientConstants.CLIENT_MAX_THREADSPOOL_THREADS,
+				BookStoreClientConstants.CLIENT_MIN_THREADSPOOL_THREADS));
 
 		// Seconds timeout; if no server reply, the request expires.
 		client.setConnectTimeout(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS);
 
+		// Close idle connections before the server does.
+		client.setIdleTimeout(BookStoreClientConstants.CLIENT_IDLE_TIMEOUT_MILLISECS);
+
 		client.start();
 	}
 
+	/**
+	 * Initializes a new {@link BookStoreHTTPProxy} reading from the backups of
+	 * the server.
+	 *
+	 * @param serverAddress
+	 *            the address of the primary server
+	 * @param replicaAddresses
+	 *            the addresses of the backup servers
+	 * @param maxStalenessMillis
+	 *            the time a backup serving a read may be behind the primary
+	 * @throws Exception
+	 *             the exception
+	 */
+	public BookStoreHTTPProxy(String serverAddress, List<String> replicaAddresses, long maxStalenessMillis)
+			throws Exception {
+		this(serverAddress);
+		this.replicaAddresses = new ArrayList<>(replicaAddresses);
+		this.maxStalenessMillis = maxStalenessMillis;
+	}
+
 	/**
 	 * Gets the server address.
 	 *
@@ -99,7 +169,65 @@ public class BookStoreHTTPProxy implements BookStore {
 	public void buyBooks(Set<BookCopy> isbnSet) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.BUYBOOKS;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbnSet);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		performHttpExchange(bookStoreRequest, serializer.get());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreParticipant#prepareBuyBooks(
+	 * java.lang.String, java.util.Set)
+	 */
+	@SuppressWarnings("unchecked")
+	public List<BookCopy> prepareBuyBooks(String transactionId, Set<BookCopy> bookCopies) throws BookStoreException {
+		BuyBooksTransaction transaction = new BuyBooksTransaction(transactionId, bookCopies, false);
+		String urlString = serverAddress + "/" + BookStoreMessageTag.PREPAREBUYBOOKS;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, transaction);
+		BookStoreResponse bookStoreResponse = performHttpExchange(bookStoreRequest, serializer.get());
+		return (List<BookCopy>) bookStoreResponse.getList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreParticipant#commitBuyBooks(java
+	 * .lang.String)
+	 */
+	public void commitBuyBooks(String transactionId) throws BookStoreException {
+		BuyBooksTransaction transaction = new BuyBooksTransaction(transactionId, null, false);
+		String urlString = serverAddress + "/" + BookStoreMessageTag.COMMITBUYBOOKS;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, transaction);
+		performHttpExchange(bookStoreRequest, serializer.get());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreParticipant#abortBuyBooks(java.
+	 * lang.String, boolean)
+	 */
+	public void abortBuyBooks(String transactionId, boolean recordSaleMisses) throws BookStoreException {
+		BuyBooksTransaction transaction = new BuyBooksTransaction(transactionId, null, recordSaleMisses);
+		String urlString = serverAddress + "/" + BookStoreMessageTag.ABORTBUYBOOKS;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, transaction);
+		performHttpExchange(bookStoreRequest, serializer.get());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreParticipant#endBuyBooks(java.
+	 * lang.String)
+	 */
+	public void endBuyBooks(String transactionId) throws BookStoreException {
+		BuyBooksTransaction transaction = new BuyBooksTransaction(transactionId, null, false);
+		String urlString = serverAddress + "/" + BookStoreMessageTag.ENDBUYBOOKS;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, transaction);
+		performHttpExchange(bookStoreRequest, serializer.get());
 	}
 
 	/*
@@ -109,10 +237,8 @@ public class BookStoreHTTPProxy implements BookStore {
 	 */
 	@SuppressWarnings("unchecked")
 	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
-		String urlString = serverAddress + "/" + BookStoreMessageTag.GETBOOKS;
-		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbnSet);
-		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+		BookStoreResponse bookStoreResponse = read("/" + BookStoreMessageTag.GETBOOKS,
+				urlString -> BookStoreRequest.newPostRequest(urlString, isbnSet));
 		return (List<Book>) bookStoreResponse.getList();
 	}
 
@@ -127,21 +253,115 @@ public class BookStoreHTTPProxy implements BookStore {
 
 		urlEncodedNumBooks = URLEncoder.encode(Integer.toString(numBooks), StandardCharsets.UTF_8);
 
-		String urlString = serverAddress + "/" + BookStoreMessageTag.GETEDITORPICKS + "?"
-				+ BookStoreConstants.BOOK_NUM_PARAM + "=" + urlEncodedNumBooks;
+		String path = "/" + BookStoreMessageTag.GETEDITORPICKS + "?" + BookStoreConstants.BOOK_NUM_PARAM + "="
+				+ urlEncodedNumBooks;
 
-		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
-		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+		BookStoreResponse bookStoreResponse = read(path, BookStoreRequest::newGetRequest);
 		return (List<Book>) bookStoreResponse.getList();
 	}
 
+	/**
+	 * Sends a read to the next backup, bounding its staleness, or to the
+	 * primary if there are no backups, or the backup cannot be reached or is
+	 * too stale.
+	 *
+	 * @param path
+	 *            the path of the request, with its parameters
+	 * @param newRequest
+	 *            the function creating the request for a URL
+	 * @return the response
+	 * @throws BookStoreException
+	 *             the failure of the backup or of the primary
+	 */
+	private BookStoreResponse read(String path, Function<String, BookStoreRequest> newRequest)
+			throws BookStoreException {
+		if (!replicaAddresses.isEmpty()) {
+			String replicaAddress = replicaAddresses
+					.get(Math.floorMod(numReplicaReads.getAndIncrement(), replicaAddresses.size()));
+			String separator = path.contains("?") ? "&" : "?";
+			String urlString = replicaAddress + path + separator + BookStoreConstants.STALENESS_PARAM + "="
+					+ maxStalenessMillis;
+
+			try {
+				return performHttpExchange(newRequest.apply(urlString), serializer.get());
+			} catch (BookStoreException ex) {
+				// A stale or unreachable backup leaves the read to the primary.
+				if (!isLeftToPrimary(ex)) {
+					throw ex;
+				}
+			}
+		}
+
+		return performHttpExchange(newRequest.apply(serverAddress + path), serializer.get());
+	}
+
+	/**
+	 * Checks if a backup failed a read because it could not be reached or is
+	 * too stale, rather than because the read itself failed.
+	 *
+	 * @param ex
+	 *            the failure of the backup
+	 * @return true, if the read is sent to the primary
+	 */
+	private static boolean isLeftToPrimary(BookStoreException ex) {
+		String message = ex.getMessage();
+
+		return BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_SENDING.equals(message)
+				|| BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_TIMEOUT.equals(message)
+				|| BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION.equals(message)
+				|| (BookStoreConstants.BACKUP + BookStoreConstants.STALE).equals(message);
+	}
+
+	/**
+	 * Perform HTTP exchange over HTTP/2 or HTTP/1.1, whichever the proxy uses.
+	 *
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @param serializer
+	 *            the serializer
+	 * @return the book store response
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	protected BookStoreResponse performHttpExchange(BookStoreRequest bookStoreRequest,
+			BookStoreSerializer serializer) throws BookStoreException {
+		if (http2Client != null) {
+			return BookStoreUtility.performHttpExchange(http2Client, bookStoreRequest, serializer);
+		}
+
+		return BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer);
+	}
+
+	/**
+	 * Perform HTTP exchange without blocking over HTTP/2 or HTTP/1.1, whichever
+	 * the proxy uses.
+	 *
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @param serializer
+	 *            the serializer of the calling thread
+	 * @return the future book store response, failing with the book store
+	 *         exception
+	 */
+	protected CompletableFuture<BookStoreResponse> performHttpExchangeAsync(BookStoreRequest bookStoreRequest,
+			ThreadLocal<BookStoreSerializer> serializer) {
+		if (http2Client != null) {
+			return BookStoreUtility.performHttpExchangeAsync(http2Client, bookStoreRequest, serializer);
+		}
+
+		return BookStoreUtility.performHttpExchangeAsync(client, bookStoreRequest, serializer);
+	}
+
 	/**
 	 * Stops the proxy.
 	 */
 	public void stop() {
 		try {
-			client.stop();
+			if (http2Client != null) {
+				http2Client.stop();
+			} else {
+				client.stop();
+			}
 		} catch (Exception ex) {
 			System.err.println(ex.getStackTrace());
 		}
@@ -0,0 +1,671 @@
+package com.acertainbookstore.client;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.interfaces.BookStoreCoordinator;
+import com.acertainbookstore.interfaces.BookStoreParticipant;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreLog;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+
+/**
+ * {@link BuyBooksCoordinator} buys books from several
+ * {@link BookStoreParticipant} atomically with a two-phase commit: every
+ * participant reserves its copies, and the purchase is committed only if all
+ * of them could, or aborted on all of them otherwise.
+ *
+ * A participant keeps the copies it reserved until it is told the decision,
+ * so the coordinator sends it again until every participant acknowledges it.
+ * A participant that commits a purchase again acknowledges it only if it
+ * committed it before, so one that lost the purchase is sent the decision
+ * again rather than counted. Once every participant acknowledged, the end of
+ * the purchase is logged and sent to them, so that they forget its outcome.
+ *
+ * A purchase is forced to the coordinator log with its participants before
+ * any of them prepares it, and the decision to commit and the end before any
+ * participant is told, so that a coordinator restarting after a crash
+ * finishes the purchases it decided to commit, aborts the other purchases
+ * that were not acknowledged, and ends again those that were. The abort
+ * record need not be forced, since a purchase without a commit record is
+ * aborted again.
+ *
+ * A participant left in doubt, such as by a prepare arriving after the abort
+ * ended, asks the coordinator for the decision as a
+ * {@link BookStoreCoordinator}: a purchase the coordinator no longer tracks
+ * was aborted or ended, and one still preparing is not decided yet.
+ *
+ * @see BookStoreParticipant
+ * @see BookStoreCoordinator
+ * @see BookStoreLog
+ */
+public class BuyBooksCoordinator implements BookStoreCoordinator {
+
+	/** The participants, by index. */
+	private final List<BookStoreParticipant> participants;
+
+	/** The coordinator log file. */
+	private final Path logFile;
+
+	/** The coordinator log. */
+	private BookStoreLog log = null;
+
+	/** The lock guarding the unfinished purchases and the decisions. */
+	private final ReentrantLock purchasesLock = new ReentrantLock();
+
+	/**
+	 * The purchases that did not end yet, with the offset of their first
+	 * record, in the order of the offsets.
+	 */
+	private final Map<String, Long> unfinishedPurchases = new LinkedHashMap<>();
+
+	/** Whether each decided purchase that did not end yet is committed. */
+	private final Map<String, Boolean> decisions = new HashMap<>();
+
+	/** The offset before which the log was last truncated. */
+	private volatile long truncatedOffset = 0;
+
+	/** Whether the purchases found in the log are being finished. */
+	private volatile boolean recovering = false;
+
+	/** The time within which every participant must prepare a purchase. */
+	private final long prepareTimeoutMillis;
+
+	/** The prefix of the transaction identifiers of this coordinator. */
+	private final String coordinatorId = UUID.randomUUID().toString();
+
+	/** The number of purchases started by this coordinator. */
+	private final AtomicLong numTransactions = new AtomicLong();
+
+	/** The threads sending the requests of a purchase to the participants. */
+	private final ExecutorService fanOut = Executors.newCachedThreadPool(task -> {
+		Thread thread = new Thread(task, "bookstore-coordinator");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * The thread sending decisions and ends again to the participants that did
+	 * not acknowledge them, and truncating the log.
+	 */
+	private final ScheduledExecutorService retries = Executors.newSingleThreadScheduledExecutor(task -> {
+		Thread thread = new Thread(task, "bookstore-coordinator-retry");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Initializes a new {@link BuyBooksCoordinator} logging its decisions to
+	 * the log file, and finishes the purchases found in the log.
+	 *
+	 * @param participants
+	 *            the participants
+	 * @param logFile
+	 *            the log file
+	 * @param prepareTimeoutMillis
+	 *            the time within which every participant must prepare a
+	 *            purchase
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public BuyBooksCoordinator(List<? extends BookStoreParticipant> participants, Path logFile,
+			long prepareTimeoutMillis) throws IOException {
+		if (logFile == null) {
+			throw new IllegalArgumentException("A coordinator needs a log to finish its purchases after a crash");
+		}
+
+		this.participants = new ArrayList<>(participants);
+		this.logFile = logFile;
+		this.prepareTimeoutMillis = prepareTimeoutMillis;
+		recover();
+	}
+
+	/**
+	 * Finishes the purchases of the log that did not end: those with a commit
+	 * record are committed again and all others aborted, on the participants
+	 * logged with them, and those every participant acknowledged are ended
+	 * again. The log is emptied once all participants acknowledged, and
+	 * otherwise kept while the decisions are sent again.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void recover() throws IOException {
+		Map<String, BookStoreMessageTag> records = new LinkedHashMap<>();
+		Map<String, List<Integer>> purchaseParticipants = new HashMap<>();
+		Set<String> committedPurchases = new HashSet<>();
+		log = new BookStoreLog(logFile);
+		long startOffset = log.getAppendedOffset();
+
+		try {
+			log.replay((messageTag, argument) -> {
+				if (messageTag == BookStoreMessageTag.PREPAREBUYBOOKS) {
+					List<?> record = (List<?>) argument;
+					List<Integer> indexes = new ArrayList<>();
+
+					for (Object index : record.subList(1, record.size())) {
+						indexes.add((Integer) index);
+					}
+
+					purchaseParticipants.put((String) record.get(0), indexes);
+					records.put((String) record.get(0), messageTag);
+				} else {
+					if (messageTag == BookStoreMessageTag.COMMITBUYBOOKS) {
+						committedPurchases.add((String) argument);
+					}
+
+					records.put((String) argument, messageTag);
+				}
+			});
+		} catch (IOException ex) {
+			log.close();
+			throw ex;
+		}
+
+		recovering = true;
+		truncatedOffset = startOffset;
+
+		for (Entry<String, BookStoreMessageTag> record : records.entrySet()) {
+			String transactionId = record.getKey();
+			List<Integer> indexes = purchaseParticipants.get(transactionId);
+			boolean commit = committedPurchases.contains(transactionId);
+
+			if (indexes == null) {
+				// The log was truncated after the purchase ended.
+				continue;
+			}
+
+			purchasesLock.lock();
+
+			try {
+				unfinishedPurchases.put(transactionId, startOffset);
+				decisions.put(transactionId, commit);
+			} finally {
+				purchasesLock.unlock();
+			}
+
+			if (record.getValue() == BookStoreMessageTag.ENDBUYBOOKS) {
+				end(transactionId, indexes);
+			} else {
+				finish(transactionId, indexes, indexes, commit, false);
+			}
+		}
+
+		recovering = false;
+
+		purchasesLock.lock();
+
+		try {
+			if (!unfinishedPurchases.isEmpty()) {
+				return;
+			}
+		} finally {
+			purchasesLock.unlock();
+		}
+
+		log.close();
+		Files.deleteIfExists(logFile);
+		log = new BookStoreLog(logFile);
+		truncatedOffset = log.getAppendedOffset();
+	}
+
+	/**
+	 * Gets the number of participants.
+	 *
+	 * @return the number of participants
+	 */
+	public int getNumParticipants() {
+		return participants.size();
+	}
+
+	/**
+	 * Buys the copies from the participants atomically.
+	 *
+	 * @param copiesByParticipant
+	 *            the copies to buy from each participant, by index
+	 * @throws BookStoreException
+	 *             if the purchase was aborted, in which case no participant
+	 *             sold any copy
+	 */
+	public void buyBooks(Map<Integer, Set<BookCopy>> copiesByParticipant) throws BookStoreException {
+		String transactionId = coordinatorId + "-" + numTransactions.incrementAndGet();
+		List<Integer> indexes = new ArrayList<>(copiesByParticipant.keySet());
+
+		begin(transactionId, indexes);
+
+		List<Future<List<BookCopy>>> prepares = new ArrayList<>(indexes.size());
+
+		for (int index : indexes) {
+			prepares.add(fanOut.submit(
+					() -> participants.get(index).prepareBuyBooks(transactionId, copiesByParticipant.get(index))));
+		}
+
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(prepareTimeoutMillis);
+		BookStoreException failure = null;
+		boolean saleMiss = false;
+
+		for (Future<List<BookCopy>> prepare : prepares) {
+			try {
+				List<BookCopy> saleMisses = prepare.get(Math.max(0, deadline - System.nanoTime()),
+						TimeUnit.NANOSECONDS);
+				saleMiss |= !saleMisses.isEmpty();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+
+				if (failure == null) {
+					failure = new BookStoreException(
+							BookStoreConstants.TRANSACTION + transactionId + BookStoreConstants.TIMED_OUT, ex);
+				}
+			} catch (TimeoutException ex) {
+				prepare.cancel(true);
+
+				if (failure == null) {
+					failure = new BookStoreException(
+							BookStoreConstants.TRANSACTION + transactionId + BookStoreConstants.TIMED_OUT);
+				}
+			} catch (ExecutionException ex) {
+				if (failure == null) {
+					failure = ex.getCause() instanceof BookStoreException ? (BookStoreException) ex.getCause()
+							: new BookStoreException(ex.getCause());
+				}
+			}
+		}
+
+		if (failure == null && !saleMiss) {
+			try {
+				logRecord(BookStoreMessageTag.COMMITBUYBOOKS, transactionId, true);
+				decide(transactionId, true);
+			} catch (BookStoreException ex) {
+				failure = ex;
+			}
+		}
+
+		if (failure != null || saleMiss) {
+			// A participant asking is told the purchase is aborted from now
+			// on, whether the abort record is written or not.
+			decide(transactionId, false);
+
+			try {
+				logRecord(BookStoreMessageTag.ABORTBUYBOOKS, transactionId, false);
+			} catch (BookStoreException ex) {
+				// Without a commit record, the purchase is aborted anyway.
+			}
+
+			finish(transactionId, indexes, indexes, false, failure == null);
+
+			if (failure != null) {
+				throw failure;
+			}
+
+			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		// The purchase is committed once logged, even if a participant has
+		// to be told again.
+		finish(transactionId, indexes, indexes, true, false);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreCoordinator#isCommitted(java.
+	 * lang.String)
+	 */
+	@Override
+	public boolean isCommitted(String transactionId) throws BookStoreException {
+		purchasesLock.lock();
+
+		try {
+			if (!unfinishedPurchases.containsKey(transactionId)) {
+				// The purchase ended, or was never begun, and either way was
+				// not committed on a participant still asking.
+				return false;
+			}
+
+			Boolean committed = decisions.get(transactionId);
+
+			if (committed == null) {
+				throw new BookStoreException(
+						BookStoreConstants.TRANSACTION + transactionId + BookStoreConstants.NOT_DECIDED);
+			}
+
+			return committed;
+		} finally {
+			purchasesLock.unlock();
+		}
+	}
+
+	/**
+	 * Forces the first record of a purchase to the log, with the indexes of
+	 * its participants, so that a restarted coordinator aborts it on the
+	 * participants that reserved copies for it.
+	 *
+	 * @param transactionId
+	 *            the transaction identifier
+	 * @param indexes
+	 *            the indexes of the participants
+	 * @throws BookStoreException
+	 *             if the record could not be written, in which case no
+	 *             participant was asked to prepare
+	 */
+	private void begin(String transactionId, List<Integer> indexes) throws BookStoreException {
+		List<Object> record = new ArrayList<>(indexes.size() + 1);
+		record.add(transactionId);
+		record.addAll(indexes);
+
+		long sequence;
+
+		purchasesLock.lock();
+
+		try {
+			try {
+				long offset = log.getAppendedOffset();
+				sequence = log.append(BookStoreMessageTag.PREPAREBUYBOOKS, record);
+				unfinishedPurchases.put(transactionId, offset);
+			} catch (IOException ex) {
+				throw new BookStoreException(BookStoreConstants.TRANSACTION + transactionId, ex);
+			}
+		} finally {
+			purchasesLock.unlock();
+		}
+
+		try {
+			log.awaitDurable(sequence);
+		} catch (IOException ex) {
+			throw new BookStoreException(BookStoreConstants.TRANSACTION + transactionId, ex);
+		}
+	}
+
+	/**
+	 * Records the decision on a purchase, to answer the participants asking.
+	 *
+	 * @param transactionId
+	 *            the transaction identifier
+	 * @param commit
+	 *            true if the purchase is committed
+	 */
+	private void decide(String transactionId, boolean commit) {
+		purchasesLock.lock();
+
+		try {
+			decisions.put(transactionId, commit);
+		} finally {
+			purchasesLock.unlock();
+		}
+	}
+
+	/**
+	 * Sends the decision on a purchase to participants, and sends it again
+	 * later to those that did not acknowledge it until all of them have. The
+	 * end of the purchase is then forced to the log and sent to all of them.
+	 *
+	 * @param transactionId
+	 *            the transaction identifier
+	 * @param indexes
+	 *            the indexes of all participants of the purchase
+	 * @param unacknowledged
+	 *            the indexes of the participants to send the decision to
+	 * @param commit
+	 *            true to commit the purchase, false to abort it
+	 * @param recordSaleMisses
+	 *            true if the participants record their sale misses on abort
+	 */
+	private void finish(String transactionId, List<Integer> indexes, List<Integer> unacknowledged, boolean commit,
+			boolean recordSaleMisses) {
+		List<Integer> failedIndexes = sendDecision(transactionId, unacknowledged, commit, recordSaleMisses);
+
+		if (!failedIndexes.isEmpty()) {
+			retry(() -> finish(transactionId, indexes, failedIndexes, commit, recordSaleMisses));
+			return;
+		}
+
+		// Once ended, a participant forgets the outcome, and so the decision
+		// must never be sent again.
+		try {
+			logRecord(BookStoreMessageTag.ENDBUYBOOKS, transactionId, true);
+		} catch (BookStoreException ex) {
+			// The purchase is finished again by a restarted coordinator.
+			return;
+		}
+
+		end(transactionId, indexes);
+	}
+
+	/**
+	 * Sends the end of a purchase to participants, and sends it again later
+	 * to those that did not acknowledge it until all of them have. The
+	 * purchase is then forgotten.
+	 *
+	 * @param transactionId
+	 *            the transaction identifier
+	 * @param indexes
+	 *            the indexes of the participants to send the end to
+	 */
+	private void end(String transactionId, List<Integer> indexes) {
+		List<Integer> failedIndexes = onParticipants(indexes,
+				index -> participants.get(index).endBuyBooks(transactionId));
+
+		if (!failedIndexes.isEmpty()) {
+			retry(() -> end(transactionId, failedIndexes));
+			return;
+		}
+
+		forget(transactionId);
+	}
+
+	/**
+	 * Runs a step of a purchase again later.
+	 *
+	 * @param step
+	 *            the step
+	 */
+	private void retry(Runnable step) {
+		try {
+			retries.schedule(step, BookStoreClientConstants.COORDINATOR_RETRY_MILLISECS, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException ex) {
+			// The coordinator stopped; it finishes the purchase once restarted.
+		}
+	}
+
+	/**
+	 * Sends the decision on a purchase to participants in parallel. A
+	 * participant that does not know the purchase fails like any other, and
+	 * is sent the decision again: since participants keep outcomes until the
+	 * purchase is ended, one that committed the purchase acknowledges the
+	 * commit again, and one that lost it is not counted as if it had.
+	 *
+	 * @param transactionId
+	 *            the transaction identifier
+	 * @param indexes
+	 *            the indexes of the participants
+	 * @param commit
+	 *            true to commit the purchase, false to abort it
+	 * @param recordSaleMisses
+	 *            true if the participants record their sale misses on abort
+	 * @return the indexes of the participants that did not acknowledge it
+	 */
+	private List<Integer> sendDecision(String transactionId, List<Integer> indexes, boolean commit,
+			boolean recordSaleMisses) {
+		return onParticipants(indexes, index -> {
+			if (commit) {
+				participants.get(index).commitBuyBooks(transactionId);
+			} else {
+				participants.get(index).abortBuyBooks(transactionId, recordSaleMisses);
+			}
+		});
+	}
+
+	/**
+	 * Forgets a purchase every participant ended, and truncates the log once
+	 * enough of it holds only ended purchases.
+	 *
+	 * @param transactionId
+	 *            the transaction identifier
+	 */
+	private void forget(String transactionId) {
+		long endOffset;
+
+		// The records before the first record of the oldest unfinished
+		// purchase all belong to ended ones.
+		purchasesLock.lock();
+
+		try {
+			unfinishedPurchases.remove(transactionId);
+			decisions.remove(transactionId);
+			endOffset = unfinishedPurchases.isEmpty() ? log.getAppendedOffset()
+					: unfinishedPurchases.values().iterator().next();
+		} finally {
+			purchasesLock.unlock();
+		}
+
+		// The purchases found in the log all start at the offset of the
+		// replay, which is truncated once they are all ended.
+		if (recovering || endOffset - truncatedOffset < BookStoreClientConstants.COORDINATOR_LOG_TRUNCATE_BYTES) {
+			return;
+		}
+
+		try {
+			retries.execute(() -> truncate(endOffset));
+		} catch (RejectedExecutionException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Drops the records before an offset from the log, unless a later offset
+	 * was truncated already.
+	 *
+	 * @param offset
+	 *            the offset of the first record to keep
+	 */
+	private void truncate(long offset) {
+		if (offset <= truncatedOffset) {
+			return;
+		}
+
+		try {
+			log.force();
+			log.truncate(offset);
+			truncatedOffset = offset;
+		} catch (IOException ex) {
+			// The log is truncated again after the next purchases end.
+		}
+	}
+
+	/**
+	 * Appends a record to the log.
+	 *
+	 * @param messageTag
+	 *            the message tag of the record
+	 * @param transactionId
+	 *            the transaction identifier
+	 * @param force
+	 *            true to wait until the record is on disk
+	 * @throws BookStoreException
+	 *             if the record could not be written
+	 */
+	private void logRecord(BookStoreMessageTag messageTag, String transactionId, boolean force)
+			throws BookStoreException {
+		try {
+			long sequence = log.append(messageTag, transactionId);
+
+			if (force) {
+				log.awaitDurable(sequence);
+			}
+		} catch (IOException ex) {
+			throw new BookStoreException(BookStoreConstants.TRANSACTION + transactionId, ex);
+		}
+	}
+
+	/**
+	 * {@link ParticipantCall} is a request sent to one participant.
+	 */
+	@FunctionalInterface
+	private interface ParticipantCall {
+
+		/**
+		 * Sends the request.
+		 *
+		 * @param index
+		 *            the index of the participant
+		 * @throws BookStoreException
+		 *             the book store exception
+		 */
+		void call(int index) throws BookStoreException;
+	}
+
+	/**
+	 * Sends a request to participants in parallel and waits for all of them.
+	 *
+	 * @param indexes
+	 *            the indexes of the participants
+	 * @param call
+	 *            the request
+	 * @return the indexes of the participants that failed
+	 */
+	private List<Integer> onParticipants(List<Integer> indexes, ParticipantCall call) {
+		List<Future<?>> futures = new ArrayList<>(indexes.size());
+
+		for (int index : indexes) {
+			futures.add(fanOut.submit(() -> {
+				call.call(index);
+				return null;
+			}));
+		}
+
+		List<Integer> failedIndexes = new ArrayList<>();
+
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				futures.get(i).get();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				failedIndexes.add(indexes.get(i));
+			} catch (ExecutionException ex) {
+				failedIndexes.add(indexes.get(i));
+			}
+		}
+
+		return failedIndexes;
+	}
+
+	/**
+	 * Stops the coordinator and closes its log. Records that are not on disk
+	 * yet are only abort records, which need not be, and the
+	 * decisions still to be sent again are sent by the coordinator restarted
+	 * on the same log.
+	 */
+	public void stop() {
+		retries.shutdownNow();
+		fanOut.shutdown();
+
+		try {
+			log.close();
+		} catch (IOException ex) {
+			;
+		}
+	}
+}
@@ -0,0 +1,744 @@
+package com.acertainbookstore.client;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.BuyBooksResolver;
+import com.acertainbookstore.business.ImmutableBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.BookStoreLoader;
+import com.acertainbookstore.interfaces.BookStoreParticipant;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link ShardedBookStoreRouter} implements the client level {@link BookStore}
+ * and {@link StockManager} APIs over several bookstore servers, the shards,
+ * each of which owns the books whose ISBN hashes to its slot.
+ *
+ * Requests about given books are split by shard and sent to the shards in
+ * parallel. Requests about the whole catalog are sent to every shard and
+ * their results merged. A purchase spanning several shards is committed
+ * atomically by a {@link BuyBooksCoordinator} when every shard is a
+ * {@link BookStoreParticipant}. Any other update spanning several shards is
+ * applied by each shard on its own, so some shards may apply it while others
+ * reject it.
+ *
+ * @see BookStoreHTTPProxy
+ * @see BuyBooksCoordinator
+ * @see StockManagerHTTPProxy
+ */
+public class ShardedBookStoreRouter implements BookStore, StockManager {
+
+	/**
+	 * {@link ShardCall} is a request sent to one shard.
+	 *
+	 * @param <R>
+	 *            the type of the result
+	 */
+	@FunctionalInterface
+	private interface ShardCall<R> {
+
+		/**
+		 * Sends the request.
+		 *
+		 * @param shard
+		 *            the shard
+		 * @return the result
+		 * @throws BookStoreException
+		 *             the book store exception
+		 */
+		R call(int shard) throws BookStoreException;
+	}
+
+	/**
+	 * {@link BooksCall} gets books from one shard.
+	 *
+	 * @param <B>
+	 *            the type of the books
+	 */
+	@FunctionalInterface
+	private interface BooksCall<B> {
+
+		/**
+		 * Gets the books.
+		 *
+		 * @param shard
+		 *            the shard
+		 * @param isbns
+		 *            the ISBNs of the books, all owned by the shard
+		 * @return the books
+		 * @throws BookStoreException
+		 *             the book store exception
+		 */
+		List<B> call(int shard, Set<Integer> isbns) throws BookStoreException;
+	}
+
+	/**
+	 * {@link Picks} is a sample of the editor picks of a shard.
+	 */
+	private static final class Picks {
+
+		/** The number of editor picks of the shard. */
+		private final int numPicks;
+
+		/** The sample, in random order. */
+		private final List<Book> sample;
+
+		/**
+		 * Instantiates a new {@link Picks}.
+		 *
+		 * @param numPicks
+		 *            the number of editor picks of the shard
+		 * @param sample
+		 *            the sample
+		 */
+		private Picks(int numPicks, List<Book> sample) {
+			this.numPicks = numPicks;
+			this.sample = sample;
+		}
+	}
+
+	/**
+	 * {@link ProxyFactory} creates the proxy of a server.
+	 *
+	 * @param <T>
+	 *            the type of the proxy
+	 */
+	@FunctionalInterface
+	private interface ProxyFactory<T> {
+
+		/**
+		 * Creates the proxy.
+		 *
+		 * @param serverAddress
+		 *            the server address
+		 * @return the proxy
+		 * @throws Exception
+		 *             the exception
+		 */
+		T create(String serverAddress) throws Exception;
+	}
+
+	/** The book stores of the shards, by slot. */
+	private final List<BookStore> bookStores;
+
+	/** The stock managers of the shards, by slot. */
+	private final List<StockManager> stockManagers;
+
+	/** The threads sending requests to several shards at once. */
+	private final ExecutorService fanOut;
+
+	/** The coordinator of purchases spanning shards, or null. */
+	private final BuyBooksCoordinator coordinator;
+
+	/** The resolvers of the shards in this process. */
+	private final List<BuyBooksResolver<?>> resolvers = new ArrayList<>();
+
+	/**
+	 * Initializes a new {@link ShardedBookStoreRouter} over the servers, the
+	 * first owning slot 0, logging the decisions on purchases spanning shards
+	 * to the coordinator log file.
+	 *
+	 * @param serverAddresses
+	 *            the server addresses
+	 * @param coordinatorLogFile
+	 *            the coordinator log file
+	 * @throws Exception
+	 *             the exception
+	 */
+	public ShardedBookStoreRouter(List<String> serverAddresses, Path coordinatorLogFile) throws Exception {
+		this(proxies(serverAddresses, BookStoreHTTPProxy::new), proxies(serverAddresses,
+				serverAddress -> new StockManagerHTTPProxy(serverAddress + "/stock")), coordinatorLogFile);
+	}
+
+	/**
+	 * Initializes a new {@link ShardedBookStoreRouter} over the shards, the
+	 * first owning slot 0, logging the decisions on purchases spanning shards
+	 * to the coordinator log file. The shards in this process resolve the
+	 * purchases they are left in doubt about with the coordinator.
+	 *
+	 * @param bookStores
+	 *            the book stores of the shards
+	 * @param stockManagers
+	 *            the stock managers of the same shards
+	 * @param coordinatorLogFile
+	 *            the coordinator log file
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public ShardedBookStoreRouter(List<? extends BookStore> bookStores, List<? extends StockManager> stockManagers,
+			Path coordinatorLogFile) throws IOException {
+		this(bookStores, stockManagers, coordinator(bookStores, coordinatorLogFile));
+	}
+
+	/**
+	 * Initializes a new {@link ShardedBookStoreRouter} over the shards, the
+	 * first owning slot 0.
+	 *
+	 * @param bookStores
+	 *            the book stores of the shards
+	 * @param stockManagers
+	 *            the stock managers of the same shards
+	 * @param coordinator
+	 *            the coordinator of purchases spanning shards, or null
+	 */
+	private ShardedBookStoreRouter(List<? extends BookStore> bookStores, List<? extends StockManager> stockManagers,
+			BuyBooksCoordinator coordinator) {
+		if (bookStores.isEmpty() || bookStores.size() != stockManagers.size()) {
+			throw new IllegalArgumentException("Every shard needs one book store and one stock manager");
+		}
+
+		this.bookStores = new ArrayList<>(bookStores);
+		this.stockManagers = new ArrayList<>(stockManagers);
+		this.coordinator = coordinator;
+		fanOut = Executors.newCachedThreadPool(task -> {
+			Thread thread = new Thread(task, "bookstore-router");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		if (coordinator == null) {
+			return;
+		}
+
+		for (BookStore bookStore : bookStores) {
+			if (bookStore instanceof BookStoreLoader) {
+				resolvers.add(new BuyBooksResolver<>((BookStoreParticipant & BookStoreLoader) bookStore, coordinator,
+						BookStoreClientConstants.RESOLVER_PERIOD_MILLISECS));
+			}
+		}
+	}
+
+	/**
+	 * Creates the coordinator of purchases spanning shards.
+	 *
+	 * @param bookStores
+	 *            the book stores of the shards
+	 * @param coordinatorLogFile
+	 *            the coordinator log file
+	 * @return the coordinator, or null if a book store is not a participant
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static BuyBooksCoordinator coordinator(List<? extends BookStore> bookStores, Path coordinatorLogFile)
+			throws IOException {
+		if (coordinatorLogFile == null) {
+			throw new IllegalArgumentException("A router needs a coordinator log to finish its purchases");
+		}
+
+		List<BookStoreParticipant> participants = participants(bookStores);
+
+		return participants == null ? null
+				: new BuyBooksCoordinator(participants, coordinatorLogFile,
+						BookStoreClientConstants.COORDINATOR_PREPARE_TIMEOUT_MILLISECS);
+	}
+
+	/**
+	 * Creates the proxies of the servers.
+	 *
+	 * @param <T>
+	 *            the type of the proxies
+	 * @param serverAddresses
+	 *            the server addresses
+	 * @param factory
+	 *            the factory of the proxies
+	 * @return the proxies
+	 * @throws Exception
+	 *             the exception
+	 */
+	private static <T> List<T> proxies(List<String> serverAddresses, ProxyFactory<T> factory) throws Exception {
+		List<T> proxies = new ArrayList<>(serverAddresses.size());
+
+		for (String serverAddress : serverAddresses) {
+			proxies.add(factory.create(serverAddress));
+		}
+
+		return proxies;
+	}
+
+	/**
+	 * Gets the book stores of the shards as participants in purchases
+	 * spanning shards.
+	 *
+	 * @param bookStores
+	 *            the book stores of the shards
+	 * @return the participants, or null if a book store is not one
+	 */
+	private static List<BookStoreParticipant> participants(List<? extends BookStore> bookStores) {
+		List<BookStoreParticipant> participants = new ArrayList<>(bookStores.size());
+
+		for (BookStore bookStore : bookStores) {
+			if (!(bookStore instanceof BookStoreParticipant)) {
+				return null;
+			}
+
+			participants.add((BookStoreParticipant) bookStore);
+		}
+
+		return participants;
+	}
+
+	/**
+	 * Gets the number of shards.
+	 *
+	 * @return the number of shards
+	 */
+	public int getNumShards() {
+		return bookStores.size();
+	}
+
+	/**
+	 * Gets the shard owning a book.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the shard
+	 */
+	public int shardOf(int isbn) {
+		return BookStoreUtility.slotOf(isbn, bookStores.size());
+	}
+
+	/**
+	 * Stops the router and the HTTP proxies of the shards.
+	 */
+	public void stop() {
+		fanOut.shutdown();
+
+		for (BuyBooksResolver<?> resolver : resolvers) {
+			resolver.stop();
+		}
+
+		if (coordinator != null) {
+			coordinator.stop();
+		}
+
+		for (BookStore bookStore : bookStores) {
+			if (bookStore instanceof BookStoreHTTPProxy) {
+				((BookStoreHTTPProxy) bookStore).stop();
+			}
+		}
+
+		for (StockManager stockManager : stockManagers) {
+			if (stockManager instanceof StockManagerHTTPProxy) {
+				((StockManagerHTTPProxy) stockManager).stop();
+			}
+		}
+	}
+
+	/**
+	 * Splits the elements of a request by the shard owning their books.
+	 *
+	 * @param <E>
+	 *            the type of the elements
+	 * @param elements
+	 *            the elements
+	 * @param isbnOf
+	 *            the function giving the ISBN of an element
+	 * @return the elements of each shard
+	 * @throws BookStoreException
+	 *             if the elements are null
+	 */
+	private <E> Map<Integer, Set<E>> byShard(Collection<E> elements, ToIntFunction<E> isbnOf)
+			throws BookStoreException {
+		if (elements == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		Map<Integer, Set<E>> elementsByShard = new LinkedHashMap<>();
+
+		for (E element : elements) {
+			if (element == null) {
+				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+			}
+
+			elementsByShard.computeIfAbsent(shardOf(isbnOf.applyAsInt(element)), shard -> new HashSet<>())
+					.add(element);
+		}
+
+		return elementsByShard;
+	}
+
+	/**
+	 * Gets every shard.
+	 *
+	 * @return the shards
+	 */
+	private List<Integer> allShards() {
+		return IntStream.range(0, bookStores.size()).boxed().collect(Collectors.toList());
+	}
+
+	/**
+	 * Sends a request to shards in parallel and waits for all of them.
+	 *
+	 * @param <R>
+	 *            the type of the results
+	 * @param shards
+	 *            the shards
+	 * @param call
+	 *            the request
+	 * @return the results, in the order of the shards
+	 * @throws BookStoreException
+	 *             the failure of the first shard that failed
+	 */
+	private <R> List<R> onShards(Collection<Integer> shards, ShardCall<R> call) throws BookStoreException {
+		if (shards.size() == 1) {
+			return Collections.singletonList(call.call(shards.iterator().next()));
+		}
+
+		List<Future<R>> futures = new ArrayList<>(shards.size());
+
+		for (int shard : shards) {
+			futures.add(fanOut.submit(() -> call.call(shard)));
+		}
+
+		List<R> results = new ArrayList<>(shards.size());
+		BookStoreException failure = null;
+
+		for (Future<R> future : futures) {
+			try {
+				results.add(future.get());
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new BookStoreException("Interrupted while waiting for the shards", ex);
+			} catch (ExecutionException ex) {
+				if (failure == null) {
+					failure = ex.getCause() instanceof BookStoreException ? (BookStoreException) ex.getCause()
+							: new BookStoreException(ex.getCause());
+				}
+			}
+		}
+
+		if (failure != null) {
+			throw failure;
+		}
+
+		return results;
+	}
+
+	/**
+	 * Concatenates the results of the shards.
+	 *
+	 * @param <B>
+	 *            the type of the books
+	 * @param shardBooks
+	 *            the books of each shard
+	 * @return the books
+	 */
+	private static <B> List<B> concat(List<List<B>> shardBooks) {
+		List<B> books = new ArrayList<>();
+		shardBooks.forEach(books::addAll);
+		return books;
+	}
+
+	/**
+	 * Gets books from the shards owning them, in the order of the ISBNs.
+	 *
+	 * @param <B>
+	 *            the type of the books
+	 * @param isbnSet
+	 *            the ISBNs
+	 * @param call
+	 *            the request getting the books of a shard
+	 * @return the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private <B extends Book> List<B> getFromShards(Set<Integer> isbnSet, BooksCall<B> call)
+			throws BookStoreException {
+		Map<Integer, Set<Integer>> isbnsByShard = byShard(isbnSet, Integer::intValue);
+		Map<Integer, B> booksByISBN = new HashMap<>();
+
+		for (List<B> books : onShards(isbnsByShard.keySet(), shard -> call.call(shard, isbnsByShard.get(shard)))) {
+			for (B book : books) {
+				booksByISBN.put(book.getISBN(), book);
+			}
+		}
+
+		return isbnSet.stream().map(booksByISBN::get).collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		Map<Integer, Set<StockBook>> booksByShard = byShard(bookSet, StockBook::getISBN);
+
+		onShards(booksByShard.keySet(), shard -> {
+			stockManagers.get(shard).addBooks(booksByShard.get(shard));
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		Map<Integer, Set<BookCopy>> copiesByShard = byShard(bookCopiesSet, BookCopy::getISBN);
+
+		onShards(copiesByShard.keySet(), shard -> {
+			stockManagers.get(shard).addCopies(copiesByShard.get(shard));
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() throws BookStoreException {
+		return concat(onShards(allShards(), shard -> stockManagers.get(shard).getBooks()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		Map<Integer, Set<BookEditorPick>> picksByShard = byShard(editorPicks, BookEditorPick::getISBN);
+
+		onShards(picksByShard.keySet(), shard -> {
+			stockManagers.get(shard).updateEditorPicks(picksByShard.get(shard));
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		Map<Integer, Set<BookCopy>> copiesByShard = byShard(bookCopiesToBuy, BookCopy::getISBN);
+
+		if (copiesByShard.size() > 1 && coordinator != null) {
+			coordinator.buyBooks(copiesByShard);
+			return;
+		}
+
+		onShards(copiesByShard.keySet(), shard -> {
+			bookStores.get(shard).buyBooks(copiesByShard.get(shard));
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		return getFromShards(isbnSet, (shard, isbns) -> stockManagers.get(shard).getBooksByISBN(isbns));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		return getFromShards(isbnSet, (shard, isbns) -> bookStores.get(shard).getBooks(isbns));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getNumEditorPicks()
+	 */
+	@Override
+	public int getNumEditorPicks() throws BookStoreException {
+		return onShards(allShards(), shard -> stockManagers.get(shard).getNumEditorPicks()).stream()
+				.mapToInt(Integer::intValue)
+				.sum();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		// Each shard samples up to numBooks of its picks and tells how many it
+		// has, and the number kept from each is drawn so that every pick is
+		// equally likely.
+		return samplePicks(onShards(allShards(), shard -> {
+			int numPicks = stockManagers.get(shard).getNumEditorPicks();
+			List<Book> sample = new ArrayList<>(bookStores.get(shard).getEditorPicks(numBooks));
+			Collections.shuffle(sample, ThreadLocalRandom.current());
+
+			// The picks may have changed between the two requests.
+			return new Picks(sample.size() < numBooks ? sample.size() : Math.max(numPicks, numBooks), sample);
+		}), numBooks);
+	}
+
+	/**
+	 * Samples editor picks from the samples of the shards. Positions among all
+	 * picks are drawn without replacement, and each shard contributes as many
+	 * picks from its own sample as positions fell into it.
+	 *
+	 * @param shardPicks
+	 *            the samples of the shards
+	 * @param numBooks
+	 *            the number of editor picks to sample
+	 * @return the editor picks
+	 */
+	private static List<Book> samplePicks(List<Picks> shardPicks, int numBooks) {
+		int totalPicks = shardPicks.stream().mapToInt(picks -> picks.numPicks).sum();
+		List<Book> sampledPicks = new ArrayList<>();
+
+		if (numBooks >= totalPicks) {
+			shardPicks.forEach(picks -> sampledPicks.addAll(picks.sample));
+			return sampledPicks;
+		}
+
+		// Floyd's algorithm draws numBooks distinct positions.
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		Set<Integer> positions = new HashSet<>();
+
+		for (int bound = totalPicks - numBooks; bound < totalPicks; bound++) {
+			int position = random.nextInt(bound + 1);
+			positions.add(positions.contains(position) ? bound : position);
+		}
+
+		int[] counts = new int[shardPicks.size()];
+
+		for (int position : positions) {
+			int index = 0;
+
+			while (position >= shardPicks.get(index).numPicks) {
+				position -= shardPicks.get(index).numPicks;
+				index++;
+			}
+
+			counts[index]++;
+		}
+
+		for (int index = 0; index < counts.length; index++) {
+			sampledPicks.addAll(shardPicks.get(index).sample.subList(0, counts[index]));
+		}
+
+		Collections.shuffle(sampledPicks, random);
+		return sampledPicks;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		// The top rated books of the store are among the top rated books of
+		// the shards; their ratings are read from the shards to merge them.
+		List<StockBook> topRatedBooks = concat(onShards(allShards(), shard -> {
+			Set<Integer> isbns = bookStores.get(shard).getTopRatedBooks(numBooks).stream()
+					.map(Book::getISBN)
+					.collect(Collectors.toSet());
+			return isbns.isEmpty() ? Collections.<StockBook>emptyList()
+					: stockManagers.get(shard).getBooksByISBN(isbns);
+		}));
+
+		return topRatedBooks.stream()
+				.sorted(Comparator.comparing(StockBook::getAverageRating).reversed())
+				.limit(numBooks)
+				.map(book -> new ImmutableBook(book.getISBN(), book.getTitle(), book.getAuthor(), book.getPrice()))
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		return concat(onShards(allShards(), shard -> stockManagers.get(shard).getBooksInDemand()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		Map<Integer, Set<BookRating>> ratingsByShard = byShard(bookRating, BookRating::getISBN);
+
+		onShards(ratingsByShard.keySet(), shard -> {
+			bookStores.get(shard).rateBooks(ratingsByShard.get(shard));
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		onShards(allShards(), shard -> {
+			stockManagers.get(shard).removeAllBooks();
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		Map<Integer, Set<Integer>> isbnsByShard = byShard(isbnSet, Integer::intValue);
+
+		onShards(isbnsByShard.keySet(), shard -> {
+			stockManagers.get(shard).removeBooks(isbnsByShard.get(shard));
+			return null;
+		});
+	}
+}
@@ -4,17 +4,18 @@ import java.util.List;
 import java.util.Set;
 
 import org.eclipse.jetty.client.HttpClient;
-import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookStoreReplicationBatch;
 import com.acertainbookstore.business.StockBook;
-import com.acertainbookstore.utils.BookStoreKryoSerializer;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
-import com.acertainbookstore.utils.BookStoreXStreamSerializer;
+import com.acertainbookstore.utils.BookStoreWireFormat;
+import com.acertainbookstore.interfaces.BookStoreReplica;
 import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreHTTP2Client;
 import com.acertainbookstore.utils.BookStoreMessageTag;
 import com.acertainbookstore.utils.BookStoreRequest;
 import com.acertainbookstore.utils.BookStoreResponse;
@@ -23,21 +24,27 @@ import com.acertainbookstore.utils.BookStoreUtility;
 /**
  * {@link StockManagerHTTPProxy} implements the client level synchronous
  * {@link CertainBookStore} API declared in the {@link StockManager} class. Uses
- * the HTTP protocol for communication with the server.
+ * the HTTP protocol for communication with the server. A primary server also
+ * ships its mutations to a backup server through it, as a
+ * {@link BookStoreReplica}.
  * 
  * @see CertainBookStore
  * @see StockManager
+ * @see BookStoreReplica
  */
-public class StockManagerHTTPProxy implements StockManager {
+public class StockManagerHTTPProxy implements StockManager, BookStoreReplica {
 
 	/** The client. */
 	protected HttpClient client;
 
+	/** The HTTP/2 client, if the requests are multiplexed over HTTP/2. */
+	protected BookStoreHTTP2Client http2Client;
+
 	/** The server address. */
 	protected String serverAddress;
 
-	/** The serializer. */
-	private static ThreadLocal<BookStoreSerializer> serializer;
+	/** The serializer of each thread. */
+	private ThreadLocal<BookStoreSerializer> serializer;
 
 	/**
 	 * Initializes a new {@link StockManagerHTTPProxy}.
@@ -48,26 +55,49 @@ public class StockManagerHTTPProxy implements StockManager {
 	 *             the exception
 	 */
 	public StockManagerHTTPProxy(String serverAddress) throws Exception {
+		this(serverAddress, BookStoreWireFormat.getDefault());
+	}
+
+	/**
+	 * Initializes a new {@link StockManagerHTTPProxy} sending its messages in the wire
+	 * format.
+	 *
+	 * @param serverAddress
+	 *            the server address
+	 * @param wireFormat
+	 *            the wire format
+	 * @throws Exception
+	 *             the exception
+	 */
+	public StockManagerHTTPProxy(String serverAddress, BookStoreWireFormat wireFormat) throws Exception {
 
 		// Setup the type of serializer.
-		if (BookStoreConstants.BINARY_SERIALIZATION) {
-			serializer = ThreadLocal.withInitial(BookStoreKryoSerializer::new);
-		} else {
-			serializer = ThreadLocal.withInitial(BookStoreXStreamSerializer::new);
-		}
+		serializer = wireFormat.getSerializers();
 
 		setServerAddress(serverAddress);
+
+		// Multiplex the requests over HTTP/2 connections, if asked to.
+		if (Boolean.getBoolean(BookStoreConstants.PROPERTY_KEY_HTTP2)) {
+			http2Client = new BookStoreHTTP2Client();
+			http2Client.start();
+			return;
+		}
+
 		client = new HttpClient();
 
 		// Max concurrent connections to every address.
 		client.setMaxConnectionsPerDestination(BookStoreClientConstants.CLIENT_MAX_CONNECTION_ADDRESS);
 
-		// Max number of threads.
-		client.setExecutor(new QueuedThreadPool(BookStoreClientConstants.CLIENT_MAX_THREADSPOOL_THREADS));
+		// Max number of threads, unless requests run on virtual threads.
+		client.setExecutor(BookStoreUtility.newThreadPool(BookStoreClientConstants.CLIENT_MAX_THREADSPOOL_THREADS,
+				BookStoreClientConstants.CLIENT_MIN_THREADSPOOL_THREADS));
 
 		// Seconds timeout; if no server reply, the request expires.
 		client.setConnectTimeout(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS);
 
+		// Close idle connections before the server does.
+		client.setIdleTimeout(BookStoreClientConstants.CLIENT_IDLE_TIMEOUT_MILLISECS);
+
 		client.start();
 	}
 
@@ -99,7 +129,7 @@ public class StockManagerHTTPProxy implements StockManager {
 	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.ADDBOOKS;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, bookSet);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		performHttpExchange(bookStoreRequest, serializer.get());
 	}
 
 	/*
@@ -111,7 +141,7 @@ public class StockManagerHTTPProxy implements StockManager {
 	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.ADDCOPIES;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, bookCopiesSet);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		performHttpExchange(bookStoreRequest, serializer.get());
 	}
 
 	/*
@@ -123,8 +153,7 @@ public class StockManagerHTTPProxy implements StockManager {
 	public List<StockBook> getBooks() throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.LISTBOOKS;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
-		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+		BookStoreResponse bookStoreResponse = performHttpExchange(bookStoreRequest, serializer.get());
 		return (List<StockBook>) bookStoreResponse.getList();
 	}
 
@@ -138,7 +167,20 @@ public class StockManagerHTTPProxy implements StockManager {
 	public void updateEditorPicks(Set<BookEditorPick> editorPicksValues) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.UPDATEEDITORPICKS + "?";
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, editorPicksValues);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		performHttpExchange(bookStoreRequest, serializer.get());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.StockManager#getNumEditorPicks()
+	 */
+	@Override
+	public int getNumEditorPicks() throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.GETNUMEDITORPICKS;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		BookStoreResponse bookStoreResponse = performHttpExchange(bookStoreRequest, serializer.get());
+		return (Integer) bookStoreResponse.getList().get(0);
 	}
 
 	/*
@@ -163,7 +205,7 @@ public class StockManagerHTTPProxy implements StockManager {
 		// need to send any data; this request is just a signal to remove all
 		// books.
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, "");
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		performHttpExchange(bookStoreRequest, serializer.get());
 	}
 
 	/*
@@ -175,7 +217,7 @@ public class StockManagerHTTPProxy implements StockManager {
 	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.REMOVEBOOKS;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbnSet);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		performHttpExchange(bookStoreRequest, serializer.get());
 	}
 
 	/*
@@ -189,17 +231,65 @@ public class StockManagerHTTPProxy implements StockManager {
 	public List<StockBook> getBooksByISBN(Set<Integer> isbns) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.GETSTOCKBOOKSBYISBN;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbns);
-		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+		BookStoreResponse bookStoreResponse = performHttpExchange(bookStoreRequest, serializer.get());
 		return (List<StockBook>) bookStoreResponse.getList();
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreReplica#replicate(com.
+	 * acertainbookstore.business.BookStoreReplicationBatch)
+	 */
+	public long replicate(BookStoreReplicationBatch batch) throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.REPLICATE;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, batch);
+		BookStoreResponse bookStoreResponse = performHttpExchange(bookStoreRequest, serializer.get());
+		return (Long) bookStoreResponse.getList().get(0);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStoreReplica#promote()
+	 */
+	public void promote() throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.PROMOTE;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, "");
+		performHttpExchange(bookStoreRequest, serializer.get());
+	}
+
+	/**
+	 * Perform HTTP exchange over HTTP/2 or HTTP/1.1, whichever the proxy uses.
+	 *
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @param serializer
+	 *            the serializer
+	 * @return the book store response
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	protected BookStoreResponse performHttpExchange(BookStoreRequest bookStoreRequest,
+			BookStoreSerializer serializer) throws BookStoreException {
+		if (http2Client != null) {
+			return BookStoreUtility.performHttpExchange(http2Client, bookStoreRequest, serializer);
+		}
+
+		return BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer);
+	}
+
 	/**
 	 * Stops the proxy.
 	 */
 	public void stop() {
 		try {
-			client.stop();
+			if (http2Client != null) {
+				http2Client.stop();
+			} else {
+				client.stop();
+			}
 		} catch (Exception ex) {
 			System.err.println(ex.getStackTrace());
 		}
@@ -0,0 +1,180 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.server.Server;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.client.AsyncBookStoreHTTPProxy;
+import com.acertainbookstore.client.AsyncStockManagerHTTPProxy;
+import com.acertainbookstore.server.BookStoreHTTPMessageHandler;
+import com.acertainbookstore.server.BookStoreHTTPServerUtility;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link AsyncClientTest} tests that the asynchronous proxies keep many
+ * requests in flight from a single thread, and fail their futures with the
+ * exceptions of the server.
+ *
+ * @see AsyncBookStoreHTTPProxy
+ * @see AsyncStockManagerHTTPProxy
+ */
+public class AsyncClientTest {
+
+	/** The Constant NUM_BOOKS. */
+	private static final int NUM_BOOKS = 10;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 100;
+
+	/** The Constant NUM_REQUESTS sent before waiting for any response. */
+	private static final int NUM_REQUESTS = 2000;
+
+	/** The Constant WAIT_SECS for the responses. */
+	private static final long WAIT_SECS = 60;
+
+	/** The server. */
+	private Server server;
+
+	/** The client. */
+	private AsyncBookStoreHTTPProxy client;
+
+	/** The store manager. */
+	private AsyncStockManagerHTTPProxy storeManager;
+
+	/**
+	 * Starts a server and adds the books.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		server = BookStoreHTTPServerUtility.startServer(0, new BookStoreHTTPMessageHandler(new CertainBookStore()));
+		String serverAddress = "http://localhost:" + BookStoreHTTPServerUtility.getPort(server);
+		client = new AsyncBookStoreHTTPProxy(serverAddress);
+		storeManager = new AsyncStockManagerHTTPProxy(serverAddress + "/stock");
+
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+
+		for (int isbn = 1; isbn <= NUM_BOOKS; isbn++) {
+			booksToAdd.add(new ImmutableStockBook(isbn, "Title " + isbn, "Author " + isbn, (float) isbn, NUM_COPIES,
+					0, 0, 0, false));
+		}
+
+		storeManager.addBooks(booksToAdd).get(WAIT_SECS, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Stops the proxies and the server.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@After
+	public void tearDown() throws Exception {
+		client.stop();
+		storeManager.stop();
+		server.stop();
+	}
+
+	/**
+	 * Tests that requests sent without waiting all get their own response.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testManyRequestsInFlight() throws Exception {
+		List<CompletableFuture<List<Book>>> futures = new ArrayList<CompletableFuture<List<Book>>>();
+
+		for (int i = 0; i < NUM_REQUESTS; i++) {
+			futures.add(client.getBooks(Collections.singleton(i % NUM_BOOKS + 1)));
+		}
+
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(WAIT_SECS, TimeUnit.SECONDS);
+
+		for (int i = 0; i < NUM_REQUESTS; i++) {
+			List<Book> books = futures.get(i).get();
+			assertEquals(1, books.size());
+			assertEquals(i % NUM_BOOKS + 1, books.get(0).getISBN());
+		}
+	}
+
+	/**
+	 * Tests that concurrent purchases sell every copy once, and that the
+	 * others fail with a book store exception.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testConcurrentPurchases() throws Exception {
+		Set<BookCopy> copy = Collections.singleton(new BookCopy(1, 1));
+		List<CompletableFuture<Void>> purchases = new ArrayList<CompletableFuture<Void>>();
+
+		for (int i = 0; i < 2 * NUM_COPIES; i++) {
+			purchases.add(client.buyBooks(copy));
+		}
+
+		int numSold = 0;
+
+		for (CompletableFuture<Void> purchase : purchases) {
+			try {
+				purchase.get(WAIT_SECS, TimeUnit.SECONDS);
+				numSold++;
+			} catch (ExecutionException ex) {
+				assertTrue(ex.getCause() instanceof BookStoreException);
+			}
+		}
+
+		assertEquals(NUM_COPIES, numSold);
+
+		List<StockBook> books = storeManager.getBooksByISBN(Collections.singleton(1)).get(WAIT_SECS,
+				TimeUnit.SECONDS);
+		assertEquals(0, books.get(0).getNumCopies());
+		assertEquals(NUM_COPIES, books.get(0).getNumSaleMisses());
+	}
+
+	/**
+	 * Tests that invalid and unsupported requests fail their futures.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testFailedRequests() throws Exception {
+		List<CompletableFuture<?>> failures = new ArrayList<CompletableFuture<?>>();
+		failures.add(client.getBooks(Collections.singleton(-1)));
+		failures.add(storeManager.removeBooks(Collections.singleton(NUM_BOOKS + 1)));
+		failures.add(client.rateBooks(Collections.singleton(new BookRating(1, 5))));
+
+		for (CompletableFuture<?> failure : failures) {
+			try {
+				failure.get(WAIT_SECS, TimeUnit.SECONDS);
+				fail();
+			} catch (ExecutionException ex) {
+				assertTrue(ex.getCause() instanceof BookStoreException);
+			}
+		}
+
+		assertEquals(NUM_BOOKS, storeManager.getBooks().get(WAIT_SECS, TimeUnit.SECONDS).size());
+	}
+}
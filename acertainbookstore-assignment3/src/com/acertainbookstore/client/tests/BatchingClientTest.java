@@ -0,0 +1,292 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.client.BatchingBookStoreHTTPProxy;
+import com.acertainbookstore.server.BookStoreHTTPMessageHandler;
+import com.acertainbookstore.server.BookStoreHTTPServerUtility;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreResponse;
+import com.acertainbookstore.utils.BookStoreWireFormat;
+
+/**
+ * {@link BatchingClientTest} tests that the {@link BatchingBookStoreHTTPProxy}
+ * sends concurrent calls in batches, and that each call gets the outcome of its
+ * own operation.
+ *
+ * @see BatchingBookStoreHTTPProxy
+ */
+public class BatchingClientTest {
+
+	/** The Constant NUM_BOOKS. */
+	private static final int NUM_BOOKS = 10;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 100;
+
+	/** The Constant NUM_THREADS calling the proxy concurrently. */
+	private static final int NUM_THREADS = 64;
+
+	/** The Constant WAIT_SECS for the calls. */
+	private static final long WAIT_SECS = 60;
+
+	/** The store. */
+	private CertainBookStore store;
+
+	/** The server. */
+	private Server server;
+
+	/** The server address. */
+	private String serverAddress;
+
+	/** The number of requests received by the server. */
+	private final AtomicInteger numRequests = new AtomicInteger();
+
+	/** The threads calling the proxy. */
+	private ExecutorService callers;
+
+	/**
+	 * Starts a server counting its requests and adds the books.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		store = new CertainBookStore();
+		server = BookStoreHTTPServerUtility.startServer(0, new BookStoreHTTPMessageHandler(store) {
+			@Override
+			public void handle(String target, Request baseRequest, HttpServletRequest request,
+					HttpServletResponse response) throws IOException, ServletException {
+				numRequests.incrementAndGet();
+				super.handle(target, baseRequest, request, response);
+			}
+		});
+		serverAddress = "http://localhost:" + BookStoreHTTPServerUtility.getPort(server);
+		callers = Executors.newFixedThreadPool(NUM_THREADS);
+
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+
+		for (int isbn = 1; isbn <= NUM_BOOKS; isbn++) {
+			booksToAdd.add(new ImmutableStockBook(isbn, "Title " + isbn, "Author " + isbn, (float) isbn, NUM_COPIES,
+					0, 0, 0, isbn % 2 == 0));
+		}
+
+		store.addBooks(booksToAdd);
+	}
+
+	/**
+	 * Stops the callers and the server.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@After
+	public void tearDown() throws Exception {
+		callers.shutdownNow();
+		server.stop();
+	}
+
+	/**
+	 * Runs the calls concurrently.
+	 *
+	 * @param <T>
+	 *            the type of the results
+	 * @param calls
+	 *            the calls
+	 * @return the futures of the calls
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 */
+	private <T> List<Future<T>> callConcurrently(List<Callable<T>> calls) throws InterruptedException {
+		return callers.invokeAll(calls, WAIT_SECS, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Tests that concurrent reads are coalesced into fewer requests, each read
+	 * getting its own books.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testReadsAreCoalesced() throws Exception {
+		BatchingBookStoreHTTPProxy client = new BatchingBookStoreHTTPProxy(serverAddress, 50000, 16);
+
+		try {
+			List<Callable<List<Book>>> calls = new ArrayList<Callable<List<Book>>>();
+
+			for (int i = 0; i < NUM_THREADS; i++) {
+				int isbn = i % NUM_BOOKS + 1;
+				calls.add(() -> client.getBooks(Collections.singleton(isbn)));
+			}
+
+			calls.add(() -> client.getEditorPicks(NUM_BOOKS / 2));
+			List<Future<List<Book>>> results = callConcurrently(calls);
+
+			for (int i = 0; i < NUM_THREADS; i++) {
+				List<Book> books = results.get(i).get();
+				assertEquals(1, books.size());
+				assertEquals(i % NUM_BOOKS + 1, books.get(0).getISBN());
+			}
+
+			assertEquals(NUM_BOOKS / 2, results.get(NUM_THREADS).get().size());
+			assertTrue(numRequests.get() < NUM_THREADS / 2);
+		} finally {
+			client.stop();
+		}
+	}
+
+	/**
+	 * Tests that a failed operation fails its own call only.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testFailureIsPerOperation() throws Exception {
+		// The window never closes, so the batch is sent once both are in it.
+		BatchingBookStoreHTTPProxy client = new BatchingBookStoreHTTPProxy(serverAddress,
+				TimeUnit.SECONDS.toMicros(WAIT_SECS), 2);
+
+		try {
+			List<Callable<Object>> calls = new ArrayList<Callable<Object>>();
+			calls.add(() -> {
+				client.buyBooks(Collections.singleton(new BookCopy(1, NUM_COPIES + 1)));
+				return null;
+			});
+			calls.add(() -> client.getBooks(Collections.singleton(2)));
+			List<Future<Object>> results = callConcurrently(calls);
+
+			try {
+				results.get(0).get();
+				fail();
+			} catch (ExecutionException ex) {
+				assertTrue(ex.getCause() instanceof BookStoreException);
+			}
+
+			assertEquals(1, ((List<?>) results.get(1).get()).size());
+			assertEquals(1, numRequests.get());
+			assertEquals(1, store.getBooksByISBN(Collections.singleton(1)).get(0).getNumSaleMisses());
+		} finally {
+			client.stop();
+		}
+	}
+
+	/**
+	 * Tests that batched purchases sell every copy once.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testBatchedPurchases() throws Exception {
+		BatchingBookStoreHTTPProxy client = new BatchingBookStoreHTTPProxy(serverAddress);
+
+		try {
+			Set<BookCopy> copy = Collections.singleton(new BookCopy(1, 1));
+			List<Callable<Boolean>> calls = new ArrayList<Callable<Boolean>>();
+
+			for (int i = 0; i < 2 * NUM_COPIES; i++) {
+				calls.add(() -> {
+					try {
+						client.buyBooks(copy);
+						return true;
+					} catch (BookStoreException ex) {
+						return false;
+					}
+				});
+			}
+
+			int numSold = 0;
+
+			for (Future<Boolean> result : callConcurrently(calls)) {
+				numSold += result.get() ? 1 : 0;
+			}
+
+			assertEquals(NUM_COPIES, numSold);
+			assertEquals(0, store.getBooksByISBN(Collections.singleton(1)).get(0).getNumCopies());
+		} finally {
+			client.stop();
+		}
+	}
+
+	/**
+	 * Tests that a batch answered with fewer responses than operations fails
+	 * every call of the batch instead of leaving some waiting.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testShortBatchResponseFailsEveryCall() throws Exception {
+		Server shortServer = BookStoreHTTPServerUtility.startServer(0, new BookStoreHTTPMessageHandler(store) {
+			@Override
+			public void handle(String target, Request baseRequest, HttpServletRequest request,
+					HttpServletResponse response) throws IOException, ServletException {
+				if (!target.endsWith(BookStoreMessageTag.BATCH.toString())) {
+					super.handle(target, baseRequest, request, response);
+					return;
+				}
+
+				BookStoreResponse bookStoreResponse = new BookStoreResponse();
+				bookStoreResponse.setList(Collections.singletonList(new BookStoreResponse()));
+				response.setStatus(HttpServletResponse.SC_OK);
+				BookStoreWireFormat.getDefault().getSerializers().get().serialize(bookStoreResponse,
+						response.getOutputStream());
+				baseRequest.setHandled(true);
+			}
+		});
+		BatchingBookStoreHTTPProxy client = new BatchingBookStoreHTTPProxy(
+				"http://localhost:" + BookStoreHTTPServerUtility.getPort(shortServer),
+				TimeUnit.SECONDS.toMicros(WAIT_SECS), 2);
+
+		try {
+			List<Callable<List<Book>>> calls = new ArrayList<Callable<List<Book>>>();
+			calls.add(() -> client.getBooks(Collections.singleton(1)));
+			calls.add(() -> client.getBooks(Collections.singleton(2)));
+
+			for (Future<List<Book>> result : callConcurrently(calls)) {
+				try {
+					result.get();
+					fail();
+				} catch (ExecutionException ex) {
+					assertTrue(ex.getCause() instanceof BookStoreException);
+				}
+			}
+		} finally {
+			client.stop();
+			shortServer.stop();
+		}
+	}
+}
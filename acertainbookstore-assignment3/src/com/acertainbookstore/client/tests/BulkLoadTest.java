@@ -0,0 +1,213 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.CompactCertainBookStore;
+import com.acertainbookstore.business.DurableCertainBookStore;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStoreLoader;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreCatalog;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link BulkLoadTest} tests the catalog files of {@link BookStoreCatalog}
+ * and bulk loading them into the stores through {@link BookStoreLoader}.
+ *
+ * @see BookStoreCatalog
+ * @see BookStoreLoader
+ */
+public class BulkLoadTest {
+
+	/** The Constant NUM_BOOKS. */
+	private static final int NUM_BOOKS = 10000;
+
+	/** The catalog file. */
+	private Path catalogFile;
+
+	/** The books of the catalog. */
+	private List<StockBook> books;
+
+	/**
+	 * Creates the books of the catalog, some sold out, rated or editor picks.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Before
+	public void initializeCatalog() throws IOException {
+		catalogFile = Files.createTempFile("bookstore", ".catalog");
+		books = new ArrayList<StockBook>();
+
+		for (int isbn = 1; isbn <= NUM_BOOKS; isbn++) {
+			books.add(new ImmutableStockBook(isbn, "Title " + isbn + " \u00e6\u00f8\u00e5", "Author " + isbn,
+					isbn / 100f, isbn % 7, isbn % 3, isbn % 5, (isbn % 5) * 4, isbn % 10 == 0));
+		}
+	}
+
+	/**
+	 * Deletes the catalog file.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@After
+	public void cleanupCatalog() throws IOException {
+		Files.deleteIfExists(catalogFile);
+	}
+
+	/**
+	 * Checks that the store has exactly the books of the catalog.
+	 *
+	 * @param store
+	 *            the store
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private void assertLoaded(StockManager store) throws BookStoreException {
+		Map<Integer, StockBook> loadedBooks = new HashMap<Integer, StockBook>();
+
+		for (StockBook book : store.getBooks()) {
+			loadedBooks.put(book.getISBN(), book);
+		}
+
+		assertEquals(books.size(), loadedBooks.size());
+
+		for (StockBook book : books) {
+			StockBook loadedBook = loadedBooks.get(book.getISBN());
+			assertEquals(book, loadedBook);
+			assertEquals(book.getNumCopies(), loadedBook.getNumCopies());
+			assertEquals(book.getNumSaleMisses(), loadedBook.getNumSaleMisses());
+			assertEquals(book.getNumTimesRated(), loadedBook.getNumTimesRated());
+			assertEquals(book.getTotalRating(), loadedBook.getTotalRating());
+			assertEquals(book.isEditorPick(), loadedBook.isEditorPick());
+		}
+	}
+
+	/**
+	 * Tests that a catalog is read back with every field of its books, and
+	 * loaded into both stores.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testCatalogIsLoaded() throws Exception {
+		BookStoreCatalog.write(catalogFile, books);
+
+		CertainBookStore store = new CertainBookStore();
+		store.loadBooks(BookStoreCatalog.read(catalogFile));
+		assertLoaded(store);
+		assertEquals(NUM_BOOKS / 10, store.getEditorPicks(NUM_BOOKS).size());
+
+		CompactCertainBookStore compactStore = new CompactCertainBookStore();
+		compactStore.loadBooks(BookStoreCatalog.read(catalogFile));
+		assertLoaded(compactStore);
+		assertEquals(NUM_BOOKS / 10, compactStore.getEditorPicks(NUM_BOOKS).size());
+	}
+
+	/**
+	 * Tests that a load with an invalid book or a duplicated ISBN loads
+	 * nothing.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testLoadIsAllOrNothing() throws Exception {
+		CertainBookStore store = new CertainBookStore();
+		CompactCertainBookStore compactStore = new CompactCertainBookStore();
+		store.loadBooks(books.subList(0, 1));
+		compactStore.loadBooks(books.subList(0, 1));
+
+		List<StockBook> invalidBooks = new ArrayList<StockBook>(books.subList(1, books.size()));
+		invalidBooks.add(new ImmutableStockBook(NUM_BOOKS + 1, "", "Author", 10, 1, 0, 0, 0, false));
+
+		List<StockBook> duplicatedBooks = new ArrayList<StockBook>(books.subList(1, books.size()));
+		duplicatedBooks.add(books.get(NUM_BOOKS / 2));
+
+		for (BookStoreLoader loader : new BookStoreLoader[] { store, compactStore }) {
+			for (List<StockBook> booksToLoad : Arrays.asList(invalidBooks, duplicatedBooks, books)) {
+				try {
+					loader.loadBooks(booksToLoad);
+					fail();
+				} catch (BookStoreException ex) {
+					;
+				}
+			}
+		}
+
+		assertEquals(1, store.getBooks().size());
+		assertEquals(1, compactStore.getBooks().size());
+	}
+
+	/**
+	 * Tests that a durable store checkpoints a bulk load instead of logging
+	 * the books, and restores them with the updates logged after the load.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testDurableLoadIsCheckpointed() throws Exception {
+		Path logFile = catalogFile.resolveSibling(catalogFile.getFileName() + ".log");
+		Path checkpointFile = catalogFile.resolveSibling(catalogFile.getFileName() + ".checkpoint");
+		DurableCertainBookStore store = new DurableCertainBookStore(new CertainBookStore(), logFile,
+				checkpointFile, 0);
+
+		try {
+			store.loadBooks(books);
+			assertTrue(Files.exists(checkpointFile));
+			assertTrue(Files.size(logFile) < NUM_BOOKS);
+
+			StockBook book = books.get(2);
+			store.buyBooks(Collections.singleton(new BookCopy(book.getISBN(), book.getNumCopies())));
+			store.addCopies(Collections.singleton(new BookCopy(book.getISBN(), book.getNumCopies())));
+			store.close();
+
+			store = new DurableCertainBookStore(new CertainBookStore(), logFile, checkpointFile, 0);
+			assertLoaded(store);
+		} finally {
+			store.close();
+			Files.deleteIfExists(logFile);
+			Files.deleteIfExists(checkpointFile);
+		}
+	}
+
+	/**
+	 * Tests that a damaged catalog is rejected.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test(expected = IOException.class)
+	public void testCorruptCatalog() throws Exception {
+		BookStoreCatalog.write(catalogFile, books);
+
+		try (FileChannel channel = FileChannel.open(catalogFile, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.wrap(new byte[] { 42 }), channel.size() / 2);
+		}
+
+		BookStoreCatalog.read(catalogFile);
+	}
+}
@@ -0,0 +1,194 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.CompactCertainBookStore;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link CompactBookStoreTest} tests the inventory table behind the
+ * {@link CompactCertainBookStore}.
+ *
+ * @see CompactCertainBookStore
+ */
+public class CompactBookStoreTest {
+
+	/** The Constant FIRST_ISBN. */
+	private static final int FIRST_ISBN = 1;
+
+	/** The Constant NUM_BOOKS, enough to grow the table several times. */
+	private static final int NUM_BOOKS = 5000;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 5;
+
+	/** The store under test. */
+	private CompactCertainBookStore store;
+
+	/**
+	 * Adds {@link #NUM_BOOKS} books to a store sized for far fewer books.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Before
+	public void initializeBooks() throws BookStoreException {
+		store = new CompactCertainBookStore(16);
+
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+
+		for (int isbn = FIRST_ISBN; isbn < FIRST_ISBN + NUM_BOOKS; isbn++) {
+			booksToAdd.add(new ImmutableStockBook(isbn, "Title " + isbn, "Author " + isbn, (float) isbn, NUM_COPIES, 0,
+					0, 0, false));
+		}
+
+		store.addBooks(booksToAdd);
+	}
+
+	/**
+	 * Removes all books.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@After
+	public void cleanupBooks() throws BookStoreException {
+		store.removeAllBooks();
+	}
+
+	/**
+	 * Tests that every book keeps its fields after the table grew and after
+	 * the other half of the books was removed.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testBooksSurviveGrowthAndRemoval() throws BookStoreException {
+		Set<Integer> isbnsToRemove = new HashSet<Integer>();
+
+		for (int isbn = FIRST_ISBN; isbn < FIRST_ISBN + NUM_BOOKS; isbn += 2) {
+			isbnsToRemove.add(isbn);
+		}
+
+		store.removeBooks(isbnsToRemove);
+
+		List<StockBook> books = store.getBooks();
+		assertEquals(NUM_BOOKS - isbnsToRemove.size(), books.size());
+
+		for (StockBook book : books) {
+			assertFalse(isbnsToRemove.contains(book.getISBN()));
+			assertEquals("Title " + book.getISBN(), book.getTitle());
+			assertEquals("Author " + book.getISBN(), book.getAuthor());
+			assertEquals((float) book.getISBN(), book.getPrice(), 0.0f);
+			assertEquals(NUM_COPIES, book.getNumCopies());
+		}
+
+		try {
+			store.getBooks(isbnsToRemove);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Tests that a failed purchase records sale misses and buys nothing, and
+	 * that adding copies clears the sale misses.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testSaleMissesAndRestock() throws BookStoreException {
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(FIRST_ISBN, NUM_COPIES));
+		booksToBuy.add(new BookCopy(FIRST_ISBN + 1, NUM_COPIES + 2));
+
+		try {
+			store.buyBooks(booksToBuy);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		Set<Integer> isbns = new HashSet<Integer>();
+		isbns.add(FIRST_ISBN + 1);
+		StockBook book = store.getBooksByISBN(isbns).get(0);
+		assertEquals(NUM_COPIES, book.getNumCopies());
+		assertEquals(2, book.getNumSaleMisses());
+
+		Set<BookCopy> booksToAdd = new HashSet<BookCopy>();
+		booksToAdd.add(new BookCopy(FIRST_ISBN + 1, 2));
+		store.addCopies(booksToAdd);
+		store.buyBooks(booksToBuy);
+
+		book = store.getBooksByISBN(isbns).get(0);
+		assertEquals(0, book.getNumCopies());
+		assertEquals(0, book.getNumSaleMisses());
+	}
+
+	/**
+	 * Tests that a prepared purchase holds its copies until it is committed or
+	 * aborted, and that one finding sale misses reserves nothing and records
+	 * them once aborted.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testPreparedPurchases() throws BookStoreException {
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(FIRST_ISBN, 2));
+		booksToBuy.add(new BookCopy(FIRST_ISBN + 1, 1));
+		assertTrue(store.prepareBuyBooks("reserved", booksToBuy).isEmpty());
+
+		Set<BookCopy> tooMany = new HashSet<BookCopy>();
+		tooMany.add(new BookCopy(FIRST_ISBN + 2, NUM_COPIES + 1));
+		assertEquals(1, store.prepareBuyBooks("missed", tooMany).get(0).getNumCopies());
+
+		Set<Integer> isbns = new HashSet<Integer>();
+		isbns.add(FIRST_ISBN);
+		assertEquals(NUM_COPIES - 2, store.getBooksByISBN(isbns).get(0).getNumCopies());
+
+		try {
+			store.commitBuyBooks("missed");
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		store.abortBuyBooks("missed", true);
+		store.abortBuyBooks("reserved", false);
+
+		try {
+			store.commitBuyBooks("reserved");
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		assertEquals(NUM_COPIES, store.getBooksByISBN(isbns).get(0).getNumCopies());
+		isbns.clear();
+		isbns.add(FIRST_ISBN + 2);
+		assertEquals(1, store.getBooksByISBN(isbns).get(0).getNumSaleMisses());
+
+		assertTrue(store.prepareBuyBooks("sold", booksToBuy).isEmpty());
+		store.commitBuyBooks("sold");
+		store.commitBuyBooks("sold");
+		isbns.clear();
+		isbns.add(FIRST_ISBN);
+		assertEquals(NUM_COPIES - 2, store.getBooksByISBN(isbns).get(0).getNumCopies());
+	}
+}
@@ -0,0 +1,388 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.DurableCertainBookStore;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link DurableBookStoreTest} tests that the {@link DurableCertainBookStore}
+ * restores the updates of the store from its log.
+ *
+ * @see DurableCertainBookStore
+ */
+public class DurableBookStoreTest {
+
+	/** The Constant TEST_ISBN. */
+	private static final int TEST_ISBN = 3044560;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 5;
+
+	/** The Constant NUM_THREADS. */
+	private static final int NUM_THREADS = 8;
+
+	/** The Constant NUM_PURCHASES per thread. */
+	private static final int NUM_PURCHASES = 50;
+
+	/** The log file. */
+	private Path logFile;
+
+	/** The checkpoint file. */
+	private Path checkpointFile;
+
+	/** The store under test. */
+	private DurableCertainBookStore store;
+
+	/**
+	 * Creates a store with an empty log and adds a book.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Before
+	public void initializeBooks() throws Exception {
+		logFile = Files.createTempFile("bookstore", ".log");
+		checkpointFile = logFile.resolveSibling(logFile.getFileName() + ".checkpoint");
+		store = new DurableCertainBookStore(new CertainBookStore(), logFile, checkpointFile, 0);
+
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN, "Harry Potter and JUnit", "JK Unit", (float) 10,
+				NUM_COPIES, 0, 0, 0, false));
+		store.addBooks(booksToAdd);
+	}
+
+	/**
+	 * Closes the store and deletes the log.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@After
+	public void cleanupBooks() throws IOException {
+		store.close();
+		Files.deleteIfExists(logFile);
+		Files.deleteIfExists(checkpointFile);
+	}
+
+	/**
+	 * Reopens the store from the log.
+	 *
+	 * @return the book restored from the log
+	 * @throws Exception
+	 *             the exception
+	 */
+	private StockBook reopen() throws Exception {
+		store.close();
+		store = new DurableCertainBookStore(new CertainBookStore(), logFile, checkpointFile, 0);
+
+		List<StockBook> books = store.getBooks();
+		assertEquals(1, books.size());
+		return books.get(0);
+	}
+
+	/**
+	 * Tests that purchases, sale misses, restocks and editor picks survive a
+	 * restart.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testUpdatesAreReplayed() throws Exception {
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, NUM_COPIES + 1));
+
+		try {
+			store.buyBooks(booksToBuy);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		booksToBuy.clear();
+		booksToBuy.add(new BookCopy(TEST_ISBN, 2));
+		store.buyBooks(booksToBuy);
+
+		Set<BookEditorPick> editorPicks = new HashSet<BookEditorPick>();
+		editorPicks.add(new BookEditorPick(TEST_ISBN, true));
+		store.updateEditorPicks(editorPicks);
+
+		StockBook book = reopen();
+		assertEquals(NUM_COPIES - 2, book.getNumCopies());
+		assertEquals(1, book.getNumSaleMisses());
+		assertTrue(book.isEditorPick());
+
+		Set<BookCopy> copiesToAdd = new HashSet<BookCopy>();
+		copiesToAdd.add(new BookCopy(TEST_ISBN, 2));
+		store.addCopies(copiesToAdd);
+
+		book = reopen();
+		assertEquals(NUM_COPIES, book.getNumCopies());
+		assertEquals(0, book.getNumSaleMisses());
+	}
+
+	/**
+	 * Tests that concurrent purchases sharing forces are all replayed, and that
+	 * a record torn by a crash is dropped from the end of the log.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testConcurrentPurchasesAndTornRecord() throws Exception {
+		Set<BookCopy> copiesToAdd = new HashSet<BookCopy>();
+		copiesToAdd.add(new BookCopy(TEST_ISBN, NUM_THREADS * NUM_PURCHASES));
+		store.addCopies(copiesToAdd);
+
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, 1));
+
+		List<Thread> threads = new ArrayList<Thread>();
+
+		for (int i = 0; i < NUM_THREADS; i++) {
+			threads.add(new Thread(() -> {
+				try {
+					for (int j = 0; j < NUM_PURCHASES; j++) {
+						store.buyBooks(booksToBuy);
+					}
+				} catch (BookStoreException ex) {
+					;
+				}
+			}));
+		}
+
+		for (Thread thread : threads) {
+			thread.start();
+		}
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		store.close();
+
+		// A crash in the middle of a write leaves part of a record behind.
+		try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.APPEND)) {
+			channel.write(ByteBuffer.wrap(new byte[] { 0, 0, 1, 0, 42, 42 }));
+		}
+
+		store = new DurableCertainBookStore(new CertainBookStore(), logFile, checkpointFile, 0);
+		assertEquals(NUM_COPIES, store.getBooks().get(0).getNumCopies());
+
+		// New records follow the last valid one.
+		store.buyBooks(booksToBuy);
+		assertEquals(NUM_COPIES - 1, reopen().getNumCopies());
+	}
+
+	/**
+	 * Tests that a restart loads the checkpoint, including a sold-out book,
+	 * and only replays the log written after it, the records before it being
+	 * dropped from the log.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testCheckpointAndLogTail() throws Exception {
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, NUM_COPIES));
+		store.buyBooks(booksToBuy);
+		long logSize = Files.size(logFile);
+		store.checkpoint();
+		assertTrue(Files.exists(checkpointFile));
+		assertTrue(Files.size(logFile) < logSize);
+
+		Set<BookCopy> copiesToAdd = new HashSet<BookCopy>();
+		copiesToAdd.add(new BookCopy(TEST_ISBN, 3));
+		store.addCopies(copiesToAdd);
+		store.close();
+
+		store = new DurableCertainBookStore(new CertainBookStore(), logFile, checkpointFile, 0);
+		assertEquals(3, store.getBooks().get(0).getNumCopies());
+
+		store.buyBooks(copiesToAdd);
+		store.checkpoint();
+		StockBook book = reopen();
+		assertEquals(0, book.getNumCopies());
+		assertEquals("Harry Potter and JUnit", book.getTitle());
+	}
+
+	/**
+	 * Tests that checkpoints taken while purchases go on hold whole purchases,
+	 * so that a restart from the last one and the log after it finds every
+	 * purchase once.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testCheckpointsDuringPurchases() throws Exception {
+		Set<BookCopy> copiesToAdd = new HashSet<BookCopy>();
+		copiesToAdd.add(new BookCopy(TEST_ISBN, NUM_THREADS * NUM_PURCHASES));
+		store.addCopies(copiesToAdd);
+
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, 1));
+
+		List<Thread> threads = new ArrayList<Thread>();
+
+		for (int i = 0; i < NUM_THREADS; i++) {
+			threads.add(new Thread(() -> {
+				try {
+					for (int j = 0; j < NUM_PURCHASES; j++) {
+						store.buyBooks(booksToBuy);
+					}
+				} catch (BookStoreException ex) {
+					;
+				}
+			}));
+		}
+
+		for (Thread thread : threads) {
+			thread.start();
+		}
+
+		for (Thread thread : threads) {
+			while (thread.isAlive()) {
+				store.checkpoint();
+				thread.join(1);
+			}
+		}
+
+		assertEquals(NUM_COPIES, reopen().getNumCopies());
+	}
+
+	/**
+	 * Tests that the copies reserved by a prepared purchase stay reserved
+	 * after a restart, from the log and from a checkpoint, until the purchase
+	 * is committed or aborted.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testPreparedPurchasesSurviveRestart() throws Exception {
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, 2));
+		assertTrue(store.prepareBuyBooks("aborted", booksToBuy).isEmpty());
+		assertEquals(NUM_COPIES - 2, reopen().getNumCopies());
+
+		store.abortBuyBooks("aborted", false);
+		assertEquals(NUM_COPIES, reopen().getNumCopies());
+
+		assertTrue(store.prepareBuyBooks("committed", booksToBuy).isEmpty());
+		store.checkpoint();
+		assertEquals(NUM_COPIES - 2, reopen().getNumCopies());
+
+		store.checkpoint();
+		assertEquals(NUM_COPIES - 2, reopen().getNumCopies());
+
+		try {
+			store.prepareBuyBooks("committed", booksToBuy);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		store.commitBuyBooks("committed");
+		assertEquals(NUM_COPIES - 2, reopen().getNumCopies());
+
+		try {
+			store.abortBuyBooks("committed", false);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		store.checkpoint();
+		assertEquals(NUM_COPIES - 2, reopen().getNumCopies());
+	}
+
+	/**
+	 * Tests that the outcome of a finished purchase survives a checkpoint and
+	 * a restart until the purchase is ended, so that a commit sent again is
+	 * still acknowledged.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testOutcomesSurviveRestart() throws Exception {
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, 1));
+		assertTrue(store.prepareBuyBooks("committed", booksToBuy).isEmpty());
+		store.commitBuyBooks("committed");
+		store.abortBuyBooks("aborted", false);
+		store.checkpoint();
+
+		assertEquals(NUM_COPIES - 1, reopen().getNumCopies());
+		assertEquals(2, store.getOutcomes().size());
+		store.commitBuyBooks("committed");
+		store.endBuyBooks("committed");
+		store.endBuyBooks("aborted");
+
+		assertEquals(NUM_COPIES - 1, reopen().getNumCopies());
+		assertTrue(store.getOutcomes().isEmpty());
+
+		try {
+			store.commitBuyBooks("committed");
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Tests that a purchase the store forgot once its transaction timeout
+	 * expired is forgotten by the replay too, however fast the replay is, so
+	 * that an abort arriving late records no sale misses after a restart
+	 * either.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testExpiredPurchasesSurviveRestart() throws Exception {
+		store.close();
+		store = new DurableCertainBookStore(new CertainBookStore(50), logFile, checkpointFile, 0);
+
+		Set<BookCopy> tooManyCopies = new HashSet<BookCopy>();
+		tooManyCopies.add(new BookCopy(TEST_ISBN, NUM_COPIES + 1));
+		assertEquals(1, store.prepareBuyBooks("missed", tooManyCopies).size());
+
+		Thread.sleep(100);
+
+		// Preparing another purchase forgets the expired one.
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, 1));
+		assertTrue(store.prepareBuyBooks("reserved", booksToBuy).isEmpty());
+		store.abortBuyBooks("missed", true);
+		store.commitBuyBooks("reserved");
+		assertEquals(0, store.getBooks().get(0).getNumSaleMisses());
+
+		StockBook book = reopen();
+		assertEquals(NUM_COPIES - 1, book.getNumCopies());
+		assertEquals(0, book.getNumSaleMisses());
+	}
+}
@@ -0,0 +1,95 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.EditorPickIndex;
+
+/**
+ * {@link EditorPickIndexTest} tests the {@link EditorPickIndex} used by the
+ * stores to sample editor picks.
+ *
+ * @see EditorPickIndex
+ */
+public class EditorPickIndexTest {
+
+	/** The Constant NUM_PICKS. */
+	private static final int NUM_PICKS = 100;
+
+	/** The index under test. */
+	private EditorPickIndex index;
+
+	/**
+	 * Adds the ISBNs 1 to {@link #NUM_PICKS} to the index.
+	 */
+	@Before
+	public void initializeIndex() {
+		index = new EditorPickIndex();
+
+		for (int isbn = 1; isbn <= NUM_PICKS; isbn++) {
+			index.add(isbn);
+		}
+	}
+
+	/**
+	 * Tests that samples are distinct editor picks, and that every pick is
+	 * returned when fewer picks exist than requested.
+	 */
+	@Test
+	public void testSampleIsDistinct() {
+		Random random = new Random(42);
+
+		for (int round = 0; round < 100; round++) {
+			Set<Integer> picked = new HashSet<Integer>();
+
+			for (int isbn : index.sample(10, random)) {
+				assertTrue(isbn >= 1 && isbn <= NUM_PICKS);
+				assertTrue(picked.add(isbn));
+			}
+
+			assertEquals(10, picked.size());
+		}
+
+		assertEquals(NUM_PICKS, index.sample(NUM_PICKS + 1, random).length);
+		assertEquals(0, index.sample(0, random).length);
+	}
+
+	/**
+	 * Tests that removed books are never sampled again, also after samples
+	 * reordered the index.
+	 */
+	@Test
+	public void testRemovedPicksAreNotSampled() {
+		Random random = new Random(42);
+		index.sample(NUM_PICKS / 2, random);
+
+		for (int isbn = 1; isbn <= NUM_PICKS; isbn += 2) {
+			index.remove(isbn);
+		}
+
+		index.remove(NUM_PICKS + 1);
+		index.add(2);
+		assertEquals(NUM_PICKS / 2, index.size());
+
+		Set<Integer> picked = new HashSet<Integer>();
+
+		for (int round = 0; round < 100; round++) {
+			for (int isbn : index.sample(5, random)) {
+				assertEquals(0, isbn % 2);
+				picked.add(isbn);
+			}
+		}
+
+		// Every remaining pick is eventually sampled.
+		assertEquals(NUM_PICKS / 2, picked.size());
+
+		index.clear();
+		assertEquals(0, index.sample(5, random).length);
+	}
+}
@@ -0,0 +1,236 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.server.Server;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.client.AsyncBookStoreHTTPProxy;
+import com.acertainbookstore.client.BookStoreClientConstants;
+import com.acertainbookstore.client.BookStoreHTTPProxy;
+import com.acertainbookstore.client.StockManagerHTTPProxy;
+import com.acertainbookstore.server.BookStoreHTTPMessageHandler;
+import com.acertainbookstore.server.BookStoreHTTPServerConfiguration;
+import com.acertainbookstore.server.BookStoreHTTPServerUtility;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreHTTP2Client;
+
+/**
+ * {@link HTTP2Test} tests that proxies asked to use HTTP/2 multiplex their
+ * requests over a single cleartext HTTP/2 connection to a server serving it,
+ * and open a new connection once the server closed an idle one.
+ *
+ * @see BookStoreHTTP2Client
+ */
+public class HTTP2Test {
+
+	/** The Constant NUM_BOOKS. */
+	private static final int NUM_BOOKS = 10;
+
+	/** The Constant NUM_CLIENTS calling the server at once. */
+	private static final int NUM_CLIENTS = 50;
+
+	/** The Constant NUM_REQUESTS sent before waiting for any response. */
+	private static final int NUM_REQUESTS = 1000;
+
+	/** The Constant WAIT_SECS for the responses. */
+	private static final long WAIT_SECS = 60;
+
+	/** The property asking for HTTP/2, to restore. */
+	private String http2;
+
+	/** The server. */
+	private Server server;
+
+	/** The store manager. */
+	private StockManagerHTTPProxy storeManager;
+
+	/**
+	 * Asks for HTTP/2.
+	 */
+	@Before
+	public void setUp() {
+		http2 = System.setProperty(BookStoreConstants.PROPERTY_KEY_HTTP2, "true");
+	}
+
+	/**
+	 * Stops the store manager and the server, and restores the property
+	 * asking for HTTP/2.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@After
+	public void tearDown() throws Exception {
+		if (storeManager != null) {
+			storeManager.stop();
+		}
+
+		if (server != null) {
+			server.stop();
+		}
+
+		if (http2 == null) {
+			System.clearProperty(BookStoreConstants.PROPERTY_KEY_HTTP2);
+		} else {
+			System.setProperty(BookStoreConstants.PROPERTY_KEY_HTTP2, http2);
+		}
+	}
+
+	/**
+	 * Starts a server serving HTTP/2 and adds the books.
+	 *
+	 * @param idleTimeoutMillis
+	 *            the idle timeout of the connections of the server
+	 * @throws Exception
+	 *             the exception
+	 */
+	private void startServer(long idleTimeoutMillis) throws Exception {
+		BookStoreHTTPServerConfiguration configuration = new BookStoreHTTPServerConfiguration();
+		configuration.setPort(0);
+		configuration.setHttp2(true);
+		configuration.setIdleTimeoutMillis(idleTimeoutMillis);
+		server = BookStoreHTTPServerUtility.startServer(new BookStoreHTTPMessageHandler(new CertainBookStore()),
+				configuration);
+		storeManager = new StockManagerHTTPProxy(getServerAddress() + "/stock");
+
+		Set<StockBook> books = new HashSet<StockBook>();
+
+		for (int isbn = 1; isbn <= NUM_BOOKS; isbn++) {
+			books.add(new ImmutableStockBook(isbn, "Title " + isbn, "Author " + isbn, 1.0f, NUM_CLIENTS, 0, 0, 0,
+					false));
+		}
+
+		storeManager.addBooks(books);
+	}
+
+	/**
+	 * Gets the address of the server.
+	 *
+	 * @return the address
+	 */
+	private String getServerAddress() {
+		return "http://localhost:" + BookStoreHTTPServerUtility.getPort(server);
+	}
+
+	/**
+	 * Gets the number of connections open to the server.
+	 *
+	 * @return the number of connections
+	 */
+	private int getNumConnections() {
+		return server.getConnectors()[0].getConnectedEndPoints().size();
+	}
+
+	/**
+	 * Tests that the concurrent requests of a proxy, more than a connection
+	 * carries at once, share a single connection.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testRequestsShareConnection() throws Exception {
+		startServer(BookStoreHTTPServerConfiguration.DEFAULT_IDLE_TIMEOUT_MILLISECS);
+		assertEquals(1, getNumConnections());
+
+		BookStoreHTTPProxy client = new BookStoreHTTPProxy(getServerAddress());
+		AsyncBookStoreHTTPProxy asyncClient = new AsyncBookStoreHTTPProxy(getServerAddress());
+		ExecutorService clients = Executors.newFixedThreadPool(NUM_CLIENTS);
+
+		try {
+			List<Future<List<Book>>> reads = new ArrayList<Future<List<Book>>>();
+
+			for (int i = 0; i < NUM_CLIENTS; i++) {
+				int isbn = 1 + i % NUM_BOOKS;
+				reads.add(clients.submit((Callable<List<Book>>) () -> client.getBooks(Collections.singleton(isbn))));
+			}
+
+			assertTrue(NUM_REQUESTS > BookStoreClientConstants.CLIENT_MAX_HTTP2_STREAMS);
+			List<CompletableFuture<List<Book>>> asyncReads = new ArrayList<CompletableFuture<List<Book>>>();
+
+			for (int i = 0; i < NUM_REQUESTS; i++) {
+				asyncReads.add(asyncClient.getBooks(Collections.singleton(1 + i % NUM_BOOKS)));
+			}
+
+			for (int i = 0; i < NUM_CLIENTS; i++) {
+				assertEquals(1 + i % NUM_BOOKS, reads.get(i).get(WAIT_SECS, TimeUnit.SECONDS).get(0).getISBN());
+			}
+
+			for (int i = 0; i < NUM_REQUESTS; i++) {
+				assertEquals(1 + i % NUM_BOOKS,
+						asyncReads.get(i).get(WAIT_SECS, TimeUnit.SECONDS).get(0).getISBN());
+			}
+
+			assertEquals(3, getNumConnections());
+		} finally {
+			clients.shutdownNow();
+			client.stop();
+			asyncClient.stop();
+		}
+	}
+
+	/**
+	 * Tests that a proxy opens a new connection once the server closed an
+	 * idle one.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testIdleConnectionReopened() throws Exception {
+		startServer(200);
+		BookStoreHTTPProxy client = new BookStoreHTTPProxy(getServerAddress());
+
+		try {
+			assertEquals(1, client.getBooks(Collections.singleton(1)).size());
+			long deadline = System.currentTimeMillis() + WAIT_SECS * 1000;
+
+			while (getNumConnections() > 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+
+			assertEquals(0, getNumConnections());
+			assertEquals(1, client.getBooks(Collections.singleton(1)).size());
+		} finally {
+			client.stop();
+		}
+	}
+
+	/**
+	 * Tests that a server serving HTTP/2 still serves proxies using HTTP/1.1.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testHTTP11Proxy() throws Exception {
+		startServer(BookStoreHTTPServerConfiguration.DEFAULT_IDLE_TIMEOUT_MILLISECS);
+		System.clearProperty(BookStoreConstants.PROPERTY_KEY_HTTP2);
+		BookStoreHTTPProxy client = new BookStoreHTTPProxy(getServerAddress());
+
+		try {
+			assertEquals(1, client.getBooks(Collections.singleton(1)).size());
+		} finally {
+			client.stop();
+		}
+	}
+}
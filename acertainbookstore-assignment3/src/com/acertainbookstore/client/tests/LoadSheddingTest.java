@@ -0,0 +1,227 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.server.Server;
+import org.junit.After;
+import org.junit.Test;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.client.AsyncBookStoreHTTPProxy;
+import com.acertainbookstore.server.BookStoreHTTPLoadSheddingHandler;
+import com.acertainbookstore.server.BookStoreHTTPMessageHandler;
+import com.acertainbookstore.server.BookStoreHTTPServerConfiguration;
+import com.acertainbookstore.server.BookStoreHTTPServerUtility;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+
+/**
+ * {@link LoadSheddingTest} tests that a server bounding the requests it
+ * handles at once queues the requests beyond the bound, and rejects at once
+ * with 503 Service Unavailable those finding the queue full or waiting too
+ * long.
+ *
+ * @see BookStoreHTTPLoadSheddingHandler
+ */
+public class LoadSheddingTest {
+
+	/** The Constant NUM_BOOKS. */
+	private static final int NUM_BOOKS = 5;
+
+	/** The Constant WAIT_SECS for the responses. */
+	private static final long WAIT_SECS = 30;
+
+	/** The latch blocking the requests for editor picks. */
+	private final CountDownLatch unblock = new CountDownLatch(1);
+
+	/** The latch counting down once a request for editor picks is handled. */
+	private final CountDownLatch blocked = new CountDownLatch(1);
+
+	/** The server. */
+	private Server server;
+
+	/** The client. */
+	private AsyncBookStoreHTTPProxy client;
+
+	/**
+	 * Starts a server handling one request at once, whose requests for editor
+	 * picks block until released.
+	 *
+	 * @param queueSize
+	 *            the size of the queue
+	 * @param queueTimeoutMillis
+	 *            the time a request waits at most
+	 * @throws Exception
+	 *             the exception
+	 */
+	private void startServer(int queueSize, long queueTimeoutMillis) throws Exception {
+		CertainBookStore store = new CertainBookStore() {
+
+			@Override
+			public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+				blocked.countDown();
+
+				try {
+					unblock.await();
+				} catch (InterruptedException ex) {
+					throw new BookStoreException(ex);
+				}
+
+				return super.getEditorPicks(numBooks);
+			}
+		};
+
+		Set<StockBook> books = new HashSet<StockBook>();
+
+		for (int isbn = 1; isbn <= NUM_BOOKS; isbn++) {
+			books.add(new ImmutableStockBook(isbn, "Title " + isbn, "Author " + isbn, 1.0f, 1, 0, 0, 0, true));
+		}
+
+		store.addBooks(books);
+
+		BookStoreHTTPServerConfiguration configuration = new BookStoreHTTPServerConfiguration();
+		configuration.setPort(0);
+		configuration.setMaxRequests(1);
+		configuration.setQueueSize(queueSize);
+		configuration.setQueueTimeoutMillis(queueTimeoutMillis);
+		server = BookStoreHTTPServerUtility.startServer(new BookStoreHTTPMessageHandler(store), configuration);
+		client = new AsyncBookStoreHTTPProxy(getServerAddress());
+	}
+
+	/**
+	 * Gets the address of the server.
+	 *
+	 * @return the address
+	 */
+	private String getServerAddress() {
+		return "http://localhost:" + BookStoreHTTPServerUtility.getPort(server);
+	}
+
+	/**
+	 * Releases the blocked requests, and stops the proxy and the server.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@After
+	public void tearDown() throws Exception {
+		unblock.countDown();
+
+		if (client != null) {
+			client.stop();
+		}
+
+		if (server != null) {
+			server.stop();
+		}
+	}
+
+	/**
+	 * Asserts that a request failed because the server was overloaded.
+	 *
+	 * @param future
+	 *            the future response of the request
+	 * @throws Exception
+	 *             the exception
+	 */
+	private static void assertOverloaded(CompletableFuture<?> future) throws Exception {
+		try {
+			future.get(WAIT_SECS, TimeUnit.SECONDS);
+			fail();
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof BookStoreException);
+			assertEquals(BookStoreConstants.OVERLOADED, ex.getCause().getMessage());
+		}
+	}
+
+	/**
+	 * Tests that requests are only shed once the maximum number of requests
+	 * or of threads is set, at half the threads unless set.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testSheddingIsConfigured() throws Exception {
+		try {
+			assertEquals(0, BookStoreHTTPServerConfiguration.fromSystemProperties().getMaxRequests());
+
+			System.setProperty(BookStoreConstants.PROPERTY_KEY_MAX_THREADS, "40");
+			assertEquals(20, BookStoreHTTPServerConfiguration.fromSystemProperties().getMaxRequests());
+
+			System.setProperty(BookStoreConstants.PROPERTY_KEY_MAX_REQUESTS, "5");
+			assertEquals(5, BookStoreHTTPServerConfiguration.fromSystemProperties().getMaxRequests());
+		} finally {
+			System.clearProperty(BookStoreConstants.PROPERTY_KEY_MAX_THREADS);
+			System.clearProperty(BookStoreConstants.PROPERTY_KEY_MAX_REQUESTS);
+		}
+	}
+
+	/**
+	 * Tests that a request beyond the bound waits in the queue and is then
+	 * handled, while a request finding the queue full is rejected at once.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testQueueFull() throws Exception {
+		startServer(1, WAIT_SECS * 1000);
+
+		CompletableFuture<List<Book>> handled = client.getEditorPicks(1);
+		assertTrue(blocked.await(WAIT_SECS, TimeUnit.SECONDS));
+		CompletableFuture<List<Book>> first = client.getEditorPicks(1);
+		CompletableFuture<List<Book>> second = client.getEditorPicks(1);
+
+		// Whichever request reaches the server first is queued, the other one
+		// is rejected.
+		CompletableFuture.anyOf(first, second).handle((result, ex) -> null).get(WAIT_SECS, TimeUnit.SECONDS);
+		CompletableFuture<List<Book>> rejected = first.isDone() ? first : second;
+		CompletableFuture<List<Book>> queued = first.isDone() ? second : first;
+		assertOverloaded(rejected);
+		assertFalse(queued.isDone());
+
+		HttpURLConnection connection = (HttpURLConnection) new URL(
+				getServerAddress() + "/" + BookStoreMessageTag.GETEDITORPICKS + "?" + BookStoreConstants.BOOK_NUM_PARAM
+						+ "=1").openConnection();
+		assertEquals(HttpURLConnection.HTTP_UNAVAILABLE, connection.getResponseCode());
+		connection.disconnect();
+
+		unblock.countDown();
+		assertEquals(1, handled.get(WAIT_SECS, TimeUnit.SECONDS).size());
+		assertEquals(1, queued.get(WAIT_SECS, TimeUnit.SECONDS).size());
+	}
+
+	/**
+	 * Tests that a request waiting longer than the queue timeout is rejected.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testQueueTimeout() throws Exception {
+		startServer(10, 100);
+
+		CompletableFuture<List<Book>> handled = client.getEditorPicks(1);
+		assertTrue(blocked.await(WAIT_SECS, TimeUnit.SECONDS));
+		assertOverloaded(client.getEditorPicks(1));
+
+		unblock.countDown();
+		assertEquals(1, handled.get(WAIT_SECS, TimeUnit.SECONDS).size());
+		assertEquals(1, client.getEditorPicks(1).get(WAIT_SECS, TimeUnit.SECONDS).size());
+	}
+}
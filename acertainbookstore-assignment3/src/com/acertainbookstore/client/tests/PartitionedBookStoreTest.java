@@ -0,0 +1,353 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.PartitionedCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link PartitionedBookStoreTest} tests that operations spanning several
+ * partitions of the {@link PartitionedCertainBookStore} are atomic.
+ *
+ * @see PartitionedCertainBookStore
+ */
+public class PartitionedBookStoreTest {
+
+	/** The Constant NUM_PARTITIONS. */
+	private static final int NUM_PARTITIONS = 4;
+
+	/** The Constant NUM_BOOKS, spread over every partition. */
+	private static final int NUM_BOOKS = 64;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 5;
+
+	/** The Constant NUM_THREADS. */
+	private static final int NUM_THREADS = 8;
+
+	/** The store under test. */
+	private PartitionedCertainBookStore store;
+
+	/**
+	 * Adds the books 1 to {@link #NUM_BOOKS}.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Before
+	public void initializeBooks() throws BookStoreException {
+		store = new PartitionedCertainBookStore(NUM_PARTITIONS);
+
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+
+		for (int isbn = 1; isbn <= NUM_BOOKS; isbn++) {
+			booksToAdd.add(new ImmutableStockBook(isbn, "Title " + isbn, "Author " + isbn, (float) isbn, NUM_COPIES,
+					0, 0, 0, false));
+		}
+
+		store.addBooks(booksToAdd);
+	}
+
+	/**
+	 * Stops the partitions.
+	 */
+	@After
+	public void cleanupBooks() {
+		store.shutdown();
+	}
+
+	/**
+	 * Gets the ISBNs 1 to {@link #NUM_BOOKS}.
+	 *
+	 * @return the ISBNs
+	 */
+	private Set<Integer> allISBNs() {
+		Set<Integer> isbns = new HashSet<Integer>();
+
+		for (int isbn = 1; isbn <= NUM_BOOKS; isbn++) {
+			isbns.add(isbn);
+		}
+
+		return isbns;
+	}
+
+	/**
+	 * Tests that a purchase with one sale miss buys nothing in any partition
+	 * and records the miss, and that a purchase with a missing book changes
+	 * nothing.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testPurchaseAcrossPartitionsIsAtomic() throws BookStoreException {
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+
+		for (int isbn = 1; isbn < NUM_BOOKS; isbn++) {
+			booksToBuy.add(new BookCopy(isbn, 1));
+		}
+
+		booksToBuy.add(new BookCopy(NUM_BOOKS, NUM_COPIES + 2));
+
+		try {
+			store.buyBooks(booksToBuy);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		booksToBuy.remove(new BookCopy(NUM_BOOKS, NUM_COPIES + 2));
+		booksToBuy.add(new BookCopy(NUM_BOOKS + 1, 1));
+
+		try {
+			store.buyBooks(booksToBuy);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		for (StockBook book : store.getBooks()) {
+			assertEquals(NUM_COPIES, book.getNumCopies());
+			assertEquals(book.getISBN() == NUM_BOOKS ? 2 : 0, book.getNumSaleMisses());
+		}
+
+		assertEquals(NUM_BOOKS, store.getBooks().size());
+	}
+
+	/**
+	 * Tests that concurrent purchases and restocks of books in every partition
+	 * neither lose nor invent copies.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testConcurrentPurchasesAndRestocks() throws Exception {
+		Set<BookCopy> allBooks = new HashSet<BookCopy>();
+		Set<BookCopy> copiesToAdd = new HashSet<BookCopy>();
+
+		for (int isbn = 1; isbn <= NUM_BOOKS; isbn++) {
+			allBooks.add(new BookCopy(isbn, 1));
+			copiesToAdd.add(new BookCopy(isbn, NUM_THREADS));
+		}
+
+		// Every thread can buy a copy of every book before any restock.
+		store.addCopies(copiesToAdd);
+
+		List<Thread> threads = new ArrayList<Thread>();
+		List<BookStoreException> failures = Collections.synchronizedList(new ArrayList<BookStoreException>());
+
+		for (int i = 0; i < NUM_THREADS; i++) {
+			threads.add(new Thread(() -> {
+				try {
+					for (int j = 0; j < 100; j++) {
+						store.buyBooks(allBooks);
+						store.addCopies(allBooks);
+					}
+				} catch (BookStoreException ex) {
+					failures.add(ex);
+				}
+			}));
+		}
+
+		for (Thread thread : threads) {
+			thread.start();
+		}
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertTrue(failures.isEmpty());
+
+		for (StockBook book : store.getBooksByISBN(allISBNs())) {
+			assertEquals(NUM_COPIES + NUM_THREADS, book.getNumCopies());
+			assertEquals(0, book.getNumSaleMisses());
+		}
+	}
+
+	/**
+	 * Tests that editor picks from several partitions are sampled without
+	 * repetition, and that removing books from every partition removes their
+	 * picks.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testEditorPicksAcrossPartitions() throws BookStoreException {
+		Set<BookEditorPick> editorPicks = new HashSet<BookEditorPick>();
+
+		for (int isbn = 1; isbn <= NUM_BOOKS; isbn += 2) {
+			editorPicks.add(new BookEditorPick(isbn, true));
+		}
+
+		store.updateEditorPicks(editorPicks);
+
+		for (int round = 0; round < 20; round++) {
+			Set<Integer> picked = new HashSet<Integer>();
+
+			for (Book book : store.getEditorPicks(10)) {
+				assertEquals(1, book.getISBN() % 2);
+				assertTrue(picked.add(book.getISBN()));
+			}
+
+			assertEquals(10, picked.size());
+		}
+
+		assertEquals(NUM_BOOKS / 2, store.getEditorPicks(NUM_BOOKS).size());
+
+		Set<Integer> isbnsToRemove = new HashSet<Integer>();
+
+		for (int isbn = 1; isbn <= NUM_BOOKS / 2; isbn++) {
+			isbnsToRemove.add(isbn);
+		}
+
+		store.removeBooks(isbnsToRemove);
+		assertEquals(NUM_BOOKS / 2, store.getBooks().size());
+		assertEquals(NUM_BOOKS / 4, store.getEditorPicks(NUM_BOOKS).size());
+
+		store.removeAllBooks();
+		assertTrue(store.getBooks().isEmpty());
+	}
+
+	/**
+	 * Tests that reads of every partition see each update of several
+	 * partitions on all of them or on none while such updates run, so that
+	 * every book has as many copies as the others, and that a missing book in
+	 * one partition fails the read.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testReadsDuringPurchasesAndRestocks() throws Exception {
+		Set<BookCopy> allBooks = new HashSet<BookCopy>();
+
+		for (int isbn = 1; isbn <= NUM_BOOKS; isbn++) {
+			allBooks.add(new BookCopy(isbn, 1));
+		}
+
+		List<Thread> threads = new ArrayList<Thread>();
+		List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+
+		for (int i = 0; i < NUM_THREADS; i++) {
+			boolean writer = i % 2 == 0;
+			threads.add(new Thread(() -> {
+				try {
+					for (int j = 0; j < 100; j++) {
+						if (writer) {
+							store.buyBooks(allBooks);
+							store.addCopies(allBooks);
+						} else {
+							List<StockBook> books = store.getBooksByISBN(allISBNs());
+							assertEquals(NUM_BOOKS, books.size());
+							int numCopies = books.get(0).getNumCopies();
+
+							for (StockBook book : books) {
+								assertEquals(numCopies, book.getNumCopies());
+							}
+
+							assertTrue(numCopies >= NUM_COPIES - NUM_THREADS / 2);
+							assertTrue(numCopies <= NUM_COPIES);
+
+							books = store.getBooks();
+							assertEquals(NUM_BOOKS, books.size());
+							assertEquals(NUM_BOOKS * books.get(0).getNumCopies(),
+									books.stream().mapToInt(StockBook::getNumCopies).sum());
+						}
+					}
+				} catch (BookStoreException | AssertionError ex) {
+					failures.add(ex);
+				}
+			}));
+		}
+
+		for (Thread thread : threads) {
+			thread.start();
+		}
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertTrue(failures.toString(), failures.isEmpty());
+
+		Set<Integer> isbns = allISBNs();
+		isbns.add(NUM_BOOKS + 1);
+
+		try {
+			store.getBooks(isbns);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Tests that a purchase prepared across partitions reserves a copy of
+	 * every book or, if one book misses copies, none, and that aborting it
+	 * returns the copies or records the sale miss.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testPreparedPurchaseAcrossPartitions() throws BookStoreException {
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+
+		for (int isbn = 1; isbn < NUM_BOOKS; isbn++) {
+			booksToBuy.add(new BookCopy(isbn, 1));
+		}
+
+		assertTrue(store.prepareBuyBooks("reserved", booksToBuy).isEmpty());
+
+		Set<BookCopy> tooMany = new HashSet<BookCopy>(booksToBuy);
+		tooMany.add(new BookCopy(NUM_BOOKS, NUM_COPIES + 2));
+		List<BookCopy> saleMisses = store.prepareBuyBooks("missed", tooMany);
+		assertEquals(1, saleMisses.size());
+		assertEquals(NUM_BOOKS, saleMisses.get(0).getISBN());
+		assertEquals(2, saleMisses.get(0).getNumCopies());
+
+		for (StockBook book : store.getBooks()) {
+			assertEquals(book.getISBN() == NUM_BOOKS ? NUM_COPIES : NUM_COPIES - 1, book.getNumCopies());
+		}
+
+		store.abortBuyBooks("missed", true);
+		store.abortBuyBooks("reserved", false);
+
+		for (StockBook book : store.getBooks()) {
+			assertEquals(NUM_COPIES, book.getNumCopies());
+			assertEquals(book.getISBN() == NUM_BOOKS ? 2 : 0, book.getNumSaleMisses());
+		}
+
+		assertTrue(store.prepareBuyBooks("sold", booksToBuy).isEmpty());
+		store.commitBuyBooks("sold");
+
+		try {
+			store.abortBuyBooks("sold", false);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		for (StockBook book : store.getBooks()) {
+			assertEquals(book.getISBN() == NUM_BOOKS ? NUM_COPIES : NUM_COPIES - 1, book.getNumCopies());
+		}
+	}
+}
@@ -0,0 +1,593 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.jetty.server.Server;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookStoreReplicationBatch;
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.ReplicatedCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.client.BookStoreHTTPProxy;
+import com.acertainbookstore.client.StockManagerHTTPProxy;
+import com.acertainbookstore.interfaces.BookStoreReplica;
+import com.acertainbookstore.server.BookStoreHTTPMessageHandler;
+import com.acertainbookstore.server.BookStoreHTTPServerUtility;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link ReplicationTest} tests that a {@link ReplicatedCertainBookStore}
+ * primary ships its updates to its backups, which serve reads within the
+ * staleness bound and can take over from the primary.
+ *
+ * @see ReplicatedCertainBookStore
+ */
+public class ReplicationTest {
+
+	/** The Constant NUM_BOOKS. */
+	private static final int NUM_BOOKS = 10;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 5;
+
+	/** The Constant WAIT_MILLISECS for a backup to catch up. */
+	private static final long WAIT_MILLISECS = 10000;
+
+	/** The servers. */
+	private List<Server> servers = new ArrayList<Server>();
+
+	/** The proxies to stop. */
+	private List<StockManagerHTTPProxy> stockManagers = new ArrayList<StockManagerHTTPProxy>();
+
+	/** The primary. */
+	private ReplicatedCertainBookStore primary;
+
+	/** The backup. */
+	private ReplicatedCertainBookStore backup;
+
+	/** The address of the primary server. */
+	private String primaryAddress;
+
+	/** The address of the backup server. */
+	private String backupAddress;
+
+	/**
+	 * Starts a backup server and a primary server shipping its updates to it.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		backup = new ReplicatedCertainBookStore(new CertainBookStore());
+		backupAddress = start(backup);
+
+		StockManagerHTTPProxy backupProxy = new StockManagerHTTPProxy(backupAddress + "/stock");
+		stockManagers.add(backupProxy);
+
+		primary = new ReplicatedCertainBookStore(new CertainBookStore(),
+				Collections.<BookStoreReplica>singletonList(backupProxy));
+		primaryAddress = start(primary);
+
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+
+		for (int isbn = 1; isbn <= NUM_BOOKS; isbn++) {
+			booksToAdd.add(new ImmutableStockBook(isbn, "Title " + isbn, "Author " + isbn, (float) isbn, NUM_COPIES,
+					0, 0, 0, isbn % 2 == 0));
+		}
+
+		primary.addBooks(booksToAdd);
+	}
+
+	/**
+	 * Stops the primary and the servers.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@After
+	public void tearDown() throws Exception {
+		primary.shutdown();
+
+		for (StockManagerHTTPProxy stockManager : stockManagers) {
+			stockManager.stop();
+		}
+
+		for (Server server : servers) {
+			server.stop();
+		}
+	}
+
+	/**
+	 * Starts a server for the store on a free port.
+	 *
+	 * @param store
+	 *            the store
+	 * @return the address of the server
+	 * @throws Exception
+	 *             the exception
+	 */
+	private String start(CertainBookStore store) throws Exception {
+		Server server = BookStoreHTTPServerUtility.startServer(0, new BookStoreHTTPMessageHandler(store));
+		servers.add(server);
+		return "http://localhost:" + BookStoreHTTPServerUtility.getPort(server);
+	}
+
+	/**
+	 * Starts a server for the replicated store on a free port.
+	 *
+	 * @param store
+	 *            the store
+	 * @return the address of the server
+	 * @throws Exception
+	 *             the exception
+	 */
+	private String start(ReplicatedCertainBookStore store) throws Exception {
+		Server server = BookStoreHTTPServerUtility.startServer(0, new BookStoreHTTPMessageHandler(store));
+		servers.add(server);
+		return "http://localhost:" + BookStoreHTTPServerUtility.getPort(server);
+	}
+
+	/**
+	 * Waits until the backup has the same books as the primary.
+	 *
+	 * @param replica
+	 *            the backup
+	 * @throws Exception
+	 *             the exception
+	 */
+	private void awaitReplica(ReplicatedCertainBookStore replica) throws Exception {
+		long deadline = System.currentTimeMillis() + WAIT_MILLISECS;
+
+		while (!sameBooks(primary.getBooks(), replica.getBooks())) {
+			assertTrue(System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+	}
+
+	/**
+	 * Checks if two lists have the same books with the same stock.
+	 *
+	 * @param books
+	 *            the books
+	 * @param otherBooks
+	 *            the other books
+	 * @return true, if the books are the same
+	 */
+	private static boolean sameBooks(List<StockBook> books, List<StockBook> otherBooks) {
+		return stockOf(books).equals(stockOf(otherBooks));
+	}
+
+	/**
+	 * Gets the stock of the books, which their equality leaves out.
+	 *
+	 * @param books
+	 *            the books
+	 * @return the stock of each book
+	 */
+	private static Set<String> stockOf(List<StockBook> books) {
+		Set<String> stock = new HashSet<String>();
+
+		for (StockBook book : books) {
+			stock.add(book.getISBN() + ":" + book.getNumCopies() + ":" + book.getNumSaleMisses() + ":"
+					+ book.isEditorPick());
+		}
+
+		return stock;
+	}
+
+	/**
+	 * Tests that updates, including failed purchases, reach the backup, which
+	 * rejects updates of its own.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testUpdatesReachBackup() throws Exception {
+		primary.buyBooks(Collections.singleton(new BookCopy(1, 2)));
+
+		try {
+			primary.buyBooks(Collections.singleton(new BookCopy(2, NUM_COPIES + 1)));
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		primary.removeBooks(Collections.singleton(3));
+		awaitReplica(backup);
+
+		for (StockBook book : backup.getBooks()) {
+			assertEquals(book.getISBN() == 1 ? NUM_COPIES - 2 : NUM_COPIES, book.getNumCopies());
+			assertEquals(book.getISBN() == 2 ? 1 : 0, book.getNumSaleMisses());
+		}
+
+		try {
+			backup.addCopies(Collections.singleton(new BookCopy(1, 1)));
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Tests that the client reads from an up to date backup, and from the
+	 * primary when the backup is stale.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testReadsWithinStalenessBound() throws Exception {
+		awaitReplica(backup);
+
+		// A backup no primary ships to is never up to date.
+		ReplicatedCertainBookStore orphan = new ReplicatedCertainBookStore(new CertainBookStore());
+		String orphanAddress = start(orphan);
+
+		BookStoreHTTPProxy client = new BookStoreHTTPProxy(primaryAddress,
+				Arrays.asList(backupAddress, orphanAddress), 5000);
+
+		try {
+			Set<Integer> isbns = new HashSet<Integer>();
+
+			for (int isbn = 1; isbn <= NUM_BOOKS; isbn++) {
+				isbns.add(isbn);
+			}
+
+			for (int i = 0; i < 4; i++) {
+				assertEquals(NUM_BOOKS, client.getBooks(isbns).size());
+				assertEquals(NUM_BOOKS / 2, client.getEditorPicks(NUM_BOOKS).size());
+			}
+
+			assertTrue(backup.getStalenessMillis() <= 5000);
+			assertEquals(Long.MAX_VALUE, orphan.getStalenessMillis());
+		} finally {
+			client.stop();
+		}
+	}
+
+	/**
+	 * Tests that a backup restarted empty is sent a snapshot, since the
+	 * primary released the updates it had applied.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testRestartedBackupGetsSnapshot() throws Exception {
+		awaitReplica(backup);
+
+		ReplicatedCertainBookStore restarted = new ReplicatedCertainBookStore(new CertainBookStore());
+		List<ReplicatedCertainBookStore> targets = Collections
+				.synchronizedList(new ArrayList<ReplicatedCertainBookStore>());
+		ReplicatedCertainBookStore localBackup = new ReplicatedCertainBookStore(new CertainBookStore());
+		targets.add(localBackup);
+
+		// The backup the primary ships to is replaced by an empty one.
+		BookStoreReplica switching = new BookStoreReplica() {
+			@Override
+			public long replicate(BookStoreReplicationBatch batch) throws BookStoreException {
+				return targets.get(0).replicate(batch);
+			}
+
+			@Override
+			public void promote() throws BookStoreException {
+				targets.get(0).promote();
+			}
+		};
+
+		ReplicatedCertainBookStore localPrimary = new ReplicatedCertainBookStore(new CertainBookStore(),
+				Collections.singletonList(switching));
+		primary.shutdown();
+		primary = localPrimary;
+		primary.addBooks(new HashSet<StockBook>(backup.getBooks()));
+		primary.addCopies(Collections.singleton(new BookCopy(4, 3)));
+		awaitReplica(localBackup);
+
+		targets.set(0, restarted);
+		primary.buyBooks(Collections.singleton(new BookCopy(4, 1)));
+		awaitReplica(restarted);
+
+		assertEquals(NUM_COPIES + 2, restarted.getBooksByISBN(Collections.singleton(4)).get(0).getNumCopies());
+	}
+
+	/**
+	 * Tests that a backup that followed a primary restarted without its log is
+	 * sent a snapshot, rather than taking the updates of the restarted primary
+	 * after those it applied, which share their sequence numbers.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testRestartedPrimaryResetsBackup() throws Exception {
+		awaitReplica(backup);
+
+		ReplicatedCertainBookStore localBackup = new ReplicatedCertainBookStore(new CertainBookStore());
+		ReplicatedCertainBookStore localPrimary = new ReplicatedCertainBookStore(new CertainBookStore(),
+				Collections.singletonList(localBackup));
+		primary.shutdown();
+		primary = localPrimary;
+		primary.addBooks(new HashSet<StockBook>(backup.getBooks()));
+
+		for (int isbn = 1; isbn <= NUM_BOOKS; isbn++) {
+			primary.buyBooks(Collections.singleton(new BookCopy(isbn, 1)));
+		}
+
+		awaitReplica(localBackup);
+
+		// The backup is out of reach until the restarted primary numbered more
+		// updates than the backup applied.
+		AtomicBoolean reachable = new AtomicBoolean();
+		BookStoreReplica unreachable = new BookStoreReplica() {
+			@Override
+			public long replicate(BookStoreReplicationBatch batch) throws BookStoreException {
+				if (!reachable.get()) {
+					throw new BookStoreException();
+				}
+
+				return localBackup.replicate(batch);
+			}
+
+			@Override
+			public void promote() throws BookStoreException {
+				localBackup.promote();
+			}
+		};
+
+		ReplicatedCertainBookStore restartedPrimary = new ReplicatedCertainBookStore(new CertainBookStore(),
+				Collections.singletonList(unreachable));
+		primary.shutdown();
+		primary = restartedPrimary;
+		primary.addBooks(Collections.singleton(backup.getBooks().get(0)));
+
+		for (int i = 0; i <= NUM_BOOKS; i++) {
+			primary.addCopies(Collections.singleton(new BookCopy(backup.getBooks().get(0).getISBN(), 1)));
+		}
+
+		reachable.set(true);
+		awaitReplica(localBackup);
+		assertEquals(1, localBackup.getBooks().size());
+	}
+
+	/**
+	 * Tests that a promoted backup accepts updates and no longer follows the
+	 * primary.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testPromotedBackupTakesOver() throws Exception {
+		awaitReplica(backup);
+		primary.shutdown();
+
+		StockManagerHTTPProxy backupProxy = stockManagers.get(0);
+		backupProxy.promote();
+		backupProxy.addCopies(Collections.singleton(new BookCopy(1, 1)));
+
+		assertEquals(NUM_COPIES + 1, backup.getBooksByISBN(Collections.singleton(1)).get(0).getNumCopies());
+		assertEquals(0, backup.getStalenessMillis());
+
+		try {
+			backup.replicate(new BookStoreReplicationBatch(1, 0, new ArrayList<>()));
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Tests that a snapshot carries the purchases holding reserved copies, so
+	 * that the backup keeps those it holds, drops those decided meanwhile and
+	 * prepares the new ones, and can decide them once promoted.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testSnapshotCarriesPreparedPurchases() throws Exception {
+		awaitReplica(backup);
+
+		Set<StockBook> books = new HashSet<StockBook>(backup.getBooks());
+		ReplicatedCertainBookStore localBackup = new ReplicatedCertainBookStore(new CertainBookStore());
+		ReplicatedCertainBookStore localPrimary = new ReplicatedCertainBookStore(new CertainBookStore(),
+				Collections.singletonList(localBackup));
+		primary.shutdown();
+		primary = localPrimary;
+		primary.addBooks(books);
+		primary.prepareBuyBooks("held", Collections.singleton(new BookCopy(4, 1)));
+		primary.prepareBuyBooks("decided", Collections.singleton(new BookCopy(5, 1)));
+		awaitReplica(localBackup);
+
+		// The backup is out of reach until the restarted primary prepared the
+		// purchases, so that it is sent them in a snapshot.
+		AtomicBoolean reachable = new AtomicBoolean();
+		BookStoreReplica unreachable = new BookStoreReplica() {
+			@Override
+			public long replicate(BookStoreReplicationBatch batch) throws BookStoreException {
+				if (!reachable.get()) {
+					throw new BookStoreException();
+				}
+
+				return localBackup.replicate(batch);
+			}
+
+			@Override
+			public void promote() throws BookStoreException {
+				localBackup.promote();
+			}
+		};
+
+		ReplicatedCertainBookStore restartedPrimary = new ReplicatedCertainBookStore(new CertainBookStore(),
+				Collections.singletonList(unreachable));
+		primary.shutdown();
+		primary = restartedPrimary;
+		primary.addBooks(books);
+
+		// The prepares return only once the backup applied them, which it does
+		// from the snapshot.
+		ExecutorService preparers = Executors.newFixedThreadPool(2);
+		Future<List<BookCopy>> held = preparers
+				.submit(() -> primary.prepareBuyBooks("held", Collections.singleton(new BookCopy(4, 1))));
+		Future<List<BookCopy>> prepared = preparers
+				.submit(() -> primary.prepareBuyBooks("new", Collections.singleton(new BookCopy(6, 2))));
+		preparers.shutdown();
+
+		while (primary.getReservingPurchases().size() < 2) {
+			Thread.sleep(10);
+		}
+
+		assertFalse(held.isDone() || prepared.isDone());
+		reachable.set(true);
+		assertTrue(held.get().isEmpty());
+		assertTrue(prepared.get().isEmpty());
+		awaitReplica(localBackup);
+
+		localBackup.promote();
+		localBackup.abortBuyBooks("new", false);
+		localBackup.commitBuyBooks("held");
+
+		try {
+			localBackup.commitBuyBooks("decided");
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		for (StockBook book : localBackup.getBooks()) {
+			assertEquals(book.getISBN() == 4 ? NUM_COPIES - 1 : NUM_COPIES, book.getNumCopies());
+		}
+	}
+
+	/**
+	 * Tests that the records of a purchase spanning servers are applied by
+	 * the backup by the time the primary acknowledges them.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testPurchaseRecordsAreShippedSynchronously() throws Exception {
+		assertTrue(primary.prepareBuyBooks("synchronous", Collections.singleton(new BookCopy(1, 1))).isEmpty());
+		assertEquals(1, backup.getReservingPurchases().size());
+
+		primary.commitBuyBooks("synchronous");
+		assertTrue(backup.getReservingPurchases().isEmpty());
+		assertEquals(Collections.singletonMap("synchronous", true), backup.getOutcomes());
+
+		primary.endBuyBooks("synchronous");
+		assertTrue(backup.getOutcomes().isEmpty());
+	}
+
+	/**
+	 * Tests that a snapshot carries the outcomes of the purchases not ended
+	 * yet, so that a backup that never saw the purchases acknowledges their
+	 * decisions once promoted.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testSnapshotCarriesOutcomes() throws Exception {
+		awaitReplica(backup);
+
+		ReplicatedCertainBookStore restarted = new ReplicatedCertainBookStore(new CertainBookStore());
+		List<ReplicatedCertainBookStore> targets = Collections
+				.synchronizedList(new ArrayList<ReplicatedCertainBookStore>());
+		targets.add(new ReplicatedCertainBookStore(new CertainBookStore()));
+
+		// The backup the primary ships to is replaced by an empty one.
+		BookStoreReplica switching = new BookStoreReplica() {
+			@Override
+			public long replicate(BookStoreReplicationBatch batch) throws BookStoreException {
+				return targets.get(0).replicate(batch);
+			}
+
+			@Override
+			public void promote() throws BookStoreException {
+				targets.get(0).promote();
+			}
+		};
+
+		ReplicatedCertainBookStore localPrimary = new ReplicatedCertainBookStore(new CertainBookStore(),
+				Collections.singletonList(switching));
+		primary.shutdown();
+		primary = localPrimary;
+		primary.addBooks(new HashSet<StockBook>(backup.getBooks()));
+		primary.prepareBuyBooks("committed", Collections.singleton(new BookCopy(4, 1)));
+		primary.commitBuyBooks("committed");
+		primary.abortBuyBooks("aborted", false);
+
+		targets.set(0, restarted);
+		primary.addCopies(Collections.singleton(new BookCopy(5, 1)));
+		awaitReplica(restarted);
+
+		restarted.promote();
+		restarted.commitBuyBooks("committed");
+		assertEquals(2, restarted.getOutcomes().size());
+
+		try {
+			restarted.prepareBuyBooks("aborted", Collections.singleton(new BookCopy(4, 1)));
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		assertEquals(NUM_COPIES - 1, restarted.getBooksByISBN(Collections.singleton(4)).get(0).getNumCopies());
+	}
+
+	/**
+	 * Tests that the client sends a read to the primary when the backup cannot
+	 * be reached, but not when the backup fails the read itself.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testReadsFallBackOnlyWhenUnreachable() throws Exception {
+		Server stopped = BookStoreHTTPServerUtility.startServer(0,
+				new BookStoreHTTPMessageHandler(new CertainBookStore()));
+		String stoppedAddress = "http://localhost:" + BookStoreHTTPServerUtility.getPort(stopped);
+		stopped.stop();
+
+		// A store that is not a backup has no staleness to refuse reads for.
+		String emptyAddress = start(new CertainBookStore());
+
+		BookStoreHTTPProxy unreachableClient = new BookStoreHTTPProxy(primaryAddress,
+				Collections.singletonList(stoppedAddress), 5000);
+		BookStoreHTTPProxy failingClient = new BookStoreHTTPProxy(primaryAddress,
+				Collections.singletonList(emptyAddress), 5000);
+
+		try {
+			assertEquals(1, unreachableClient.getBooks(Collections.singleton(1)).size());
+
+			try {
+				failingClient.getBooks(Collections.singleton(1));
+				fail();
+			} catch (BookStoreException ex) {
+				;
+			}
+		} finally {
+			unreachableClient.stop();
+			failingClient.stop();
+		}
+	}
+}
@@ -0,0 +1,406 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.eclipse.jetty.server.Server;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.BookStoreMutation;
+import com.acertainbookstore.business.BookStoreOperation;
+import com.acertainbookstore.business.BookStoreReplicationBatch;
+import com.acertainbookstore.business.BuyBooksTransaction;
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.client.BookStoreHTTPProxy;
+import com.acertainbookstore.client.StockManagerHTTPProxy;
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+import com.acertainbookstore.server.BookStoreHTTPMessageHandler;
+import com.acertainbookstore.server.BookStoreHTTPServerUtility;
+import com.acertainbookstore.utils.BookStoreBinarySerializer;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreKryoSerializer;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreResponse;
+import com.acertainbookstore.utils.BookStoreStaxSerializer;
+import com.acertainbookstore.utils.BookStoreWireFormat;
+import com.acertainbookstore.utils.BookStoreXStreamSerializer;
+
+/**
+ * {@link SerializerTest} tests that the serializers decode from a stream what
+ * they encode into an array, and the other way around, reusing their buffers
+ * between objects, and that the server answers each client in its format.
+ *
+ * @see BookStoreSerializer
+ */
+public class SerializerTest {
+
+	/** The Constant NUM_BOOKS of a large response, beyond any buffer. */
+	private static final int NUM_BOOKS = 5000;
+
+	/**
+	 * Creates a response listing books.
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @return the response
+	 */
+	private static BookStoreResponse newResponse(int numBooks) {
+		List<StockBook> books = new ArrayList<StockBook>();
+
+		for (int isbn = 1; isbn <= numBooks; isbn++) {
+			books.add(new ImmutableStockBook(isbn, "Title \u00e6\u00f8\u00e5 " + isbn, "Author " + isbn, (float) isbn,
+					isbn % 7, isbn % 3, isbn, isbn * 2, isbn % 2 == 0));
+		}
+
+		BookStoreResponse response = new BookStoreResponse();
+		response.setList(books);
+		return response;
+	}
+
+	/**
+	 * Checks that a decoded response lists the same books.
+	 *
+	 * @param expected
+	 *            the encoded response
+	 * @param actual
+	 *            the decoded response
+	 */
+	private static void assertSameBooks(BookStoreResponse expected, Object actual) {
+		List<?> expectedBooks = expected.getList();
+		List<?> actualBooks = ((BookStoreResponse) actual).getList();
+		assertEquals(expectedBooks.size(), actualBooks.size());
+
+		for (int i = 0; i < expectedBooks.size(); i++) {
+			StockBook expectedBook = (StockBook) expectedBooks.get(i);
+			StockBook actualBook = (StockBook) actualBooks.get(i);
+			assertEquals(expectedBook, actualBook);
+			assertEquals(expectedBook.getNumCopies(), actualBook.getNumCopies());
+			assertEquals(expectedBook.getNumSaleMisses(), actualBook.getNumSaleMisses());
+		}
+	}
+
+	/**
+	 * Encodes and decodes responses of growing and shrinking sizes through
+	 * arrays and streams.
+	 *
+	 * @param serializer
+	 *            the serializer
+	 * @throws Exception
+	 *             the exception
+	 */
+	private static void testRoundTrips(BookStoreSerializer serializer) throws Exception {
+		for (int numBooks : new int[] { 1, NUM_BOOKS, 3 }) {
+			BookStoreResponse response = newResponse(numBooks);
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			serializer.serialize(response, out);
+			assertSameBooks(response, serializer.deserialize(out.toByteArray()));
+
+			byte[] bytes = serializer.serialize(response);
+			assertArrayEquals(bytes, serializer.serialize(response));
+			assertSameBooks(response, serializer.deserialize(new ByteArrayInputStream(bytes)));
+		}
+
+		BookStoreResponse failure = new BookStoreResponse();
+		failure.setException(new BookStoreException("failure"));
+		failure.setList(Collections.emptyList());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		serializer.serialize(failure, out);
+		BookStoreResponse decoded = (BookStoreResponse) serializer
+				.deserialize(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals("failure", decoded.getException().getMessage());
+	}
+
+	/**
+	 * Tests the Kryo serializer.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testKryoRoundTrips() throws Exception {
+		testRoundTrips(new BookStoreKryoSerializer());
+	}
+
+	/**
+	 * Tests the binary serializer.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testBinaryRoundTrips() throws Exception {
+		testRoundTrips(new BookStoreBinarySerializer());
+	}
+
+	/**
+	 * Encodes and decodes every message of the bookstore.
+	 *
+	 * @param serializer
+	 *            the serializer
+	 * @throws Exception
+	 *             the exception
+	 */
+	private static void testMessages(BookStoreSerializer serializer) throws Exception {
+		testMessages(serializer, serializer);
+	}
+
+	/**
+	 * Encodes every message of the bookstore with a serializer and decodes it
+	 * with another.
+	 *
+	 * @param encoder
+	 *            the serializer encoding
+	 * @param decoder
+	 *            the serializer decoding
+	 * @throws Exception
+	 *             the exception
+	 */
+	@SuppressWarnings("unchecked")
+	private static void testMessages(BookStoreSerializer encoder, BookStoreSerializer decoder) throws Exception {
+		Set<BookCopy> copies = new HashSet<BookCopy>(Arrays.asList(new BookCopy(-1, 0), new BookCopy(1 << 30, 3)));
+		BuyBooksTransaction transaction = (BuyBooksTransaction) decoder
+				.deserialize(encoder.serialize(new BuyBooksTransaction("tx-1", copies, true)));
+		assertEquals("tx-1", transaction.getTransactionId());
+		assertEquals(copies, transaction.getBookCopies());
+		assertTrue(transaction.isRecordSaleMisses());
+
+		List<BookStoreMutation> mutations = new ArrayList<BookStoreMutation>();
+		mutations.add(new BookStoreMutation(Long.MAX_VALUE, BookStoreMessageTag.REMOVEALLBOOKS, null, false));
+		mutations.add(new BookStoreMutation(2, BookStoreMessageTag.UPDATEEDITORPICKS,
+				Collections.singleton(new BookEditorPick(7, true)), false));
+		mutations.add(new BookStoreMutation(3, BookStoreMessageTag.RATEBOOKS,
+				Collections.singleton(new BookRating(7, 5)), false));
+		mutations.add(new BookStoreMutation(4, BookStoreMessageTag.LOADBOOKS, newResponse(2).getList(), true));
+		BookStoreReplicationBatch batch = (BookStoreReplicationBatch) decoder
+				.deserialize(encoder.serialize(new BookStoreReplicationBatch(Long.MIN_VALUE, -5, mutations)));
+		assertEquals(Long.MIN_VALUE, batch.getPrimaryIncarnation());
+		assertEquals(-5, batch.getPrimarySequence());
+		assertEquals(mutations.size(), batch.getMutations().size());
+
+		for (int i = 0; i < mutations.size(); i++) {
+			BookStoreMutation expected = mutations.get(i);
+			BookStoreMutation actual = batch.getMutations().get(i);
+			assertEquals(expected.getSequence(), actual.getSequence());
+			assertEquals(expected.getMessageTag(), actual.getMessageTag());
+			assertEquals(expected.isSnapshot(), actual.isSnapshot());
+		}
+
+		assertNull(batch.getMutations().get(0).getArgument());
+		assertEquals(mutations.get(1).getArgument(), batch.getMutations().get(1).getArgument());
+		assertEquals(mutations.get(2).getArgument(), batch.getMutations().get(2).getArgument());
+
+		List<BookStoreOperation> operations = (List<BookStoreOperation>) decoder.deserialize(encoder.serialize(
+				Arrays.asList(new BookStoreOperation(BookStoreMessageTag.GETEDITORPICKS, 4),
+						new BookStoreOperation(BookStoreMessageTag.GETBOOKS, Collections.singleton(9)))));
+		assertEquals(BookStoreMessageTag.GETEDITORPICKS, operations.get(0).getMessageTag());
+		assertEquals(4, operations.get(0).getArgument());
+		assertEquals(Collections.singleton(9), operations.get(1).getArgument());
+
+		BookStoreResponse replicated = new BookStoreResponse();
+		replicated.setList(Collections.singletonList(42L));
+		BookStoreResponse batched = new BookStoreResponse();
+		batched.setList(Arrays.asList(replicated, newResponse(1)));
+		List<?> responses = ((BookStoreResponse) decoder.deserialize(encoder.serialize(batched))).getList();
+		assertEquals(42L, ((BookStoreResponse) responses.get(0)).getList().get(0));
+		assertSameBooks(newResponse(1), responses.get(1));
+
+		assertEquals("", decoder.deserialize(encoder.serialize("")));
+	}
+
+	/**
+	 * Tests that the binary serializer writes every message of the bookstore,
+	 * in fewer bytes than XML.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testBinaryMessages() throws Exception {
+		BookStoreSerializer serializer = new BookStoreBinarySerializer();
+		testMessages(serializer);
+
+		BookStoreResponse listing = newResponse(NUM_BOOKS);
+		int xmlLength = new BookStoreXStreamSerializer().serialize(listing).length;
+		assertTrue(3 * serializer.serialize(listing).length < xmlLength);
+	}
+
+	/**
+	 * Tests that the binary serializer rejects strings of forged lengths
+	 * without allocating them.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testBinaryForgedStringLength() throws Exception {
+		BookStoreSerializer serializer = new BookStoreBinarySerializer();
+
+		// A string tag, a length of Integer.MAX_VALUE, and three bytes.
+		byte[] truncated = { 3, (byte) 0xFE, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F, 'a', 'b', 'c' };
+
+		// A string tag and a length of -6.
+		byte[] negative = { 3, 9 };
+
+		for (byte[] bytes : Arrays.asList(truncated, negative)) {
+			try {
+				serializer.deserialize(bytes);
+				fail();
+			} catch (IOException ex) {
+				;
+			}
+		}
+
+		assertEquals("abc", serializer.deserialize(new byte[] { 3, 8, 'a', 'b', 'c' }));
+	}
+
+	/**
+	 * Tests that the Kryo serializers, whose classes must all be registered,
+	 * write every message of the bookstore.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testKryoMessages() throws Exception {
+		testMessages(new BookStoreKryoSerializer());
+		testMessages(new BookStoreKryoSerializer(true));
+		testRoundTrips(new BookStoreKryoSerializer(true));
+
+		try {
+			new BookStoreKryoSerializer().serialize(new TreeSet<Integer>());
+			fail();
+		} catch (IOException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Tests that clients using different formats share a server, which
+	 * answers each in its own format.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testFormatsShareServer() throws Exception {
+		Server server = BookStoreHTTPServerUtility.startServer(0,
+				new BookStoreHTTPMessageHandler(new CertainBookStore()));
+		String serverAddress = "http://localhost:" + BookStoreHTTPServerUtility.getPort(server);
+		StockManagerHTTPProxy storeManager = new StockManagerHTTPProxy(serverAddress + "/stock",
+				BookStoreWireFormat.BINARY);
+		BookStoreHTTPProxy binaryClient = new BookStoreHTTPProxy(serverAddress, BookStoreWireFormat.BINARY);
+		BookStoreHTTPProxy xmlClient = new BookStoreHTTPProxy(serverAddress, BookStoreWireFormat.XML);
+
+		try {
+			List<StockBook> books = new ArrayList<StockBook>();
+
+			for (int isbn = 1; isbn <= 50; isbn++) {
+				books.add(new ImmutableStockBook(isbn, "Title \u00e6 " + isbn, "Author " + isbn, 1.5f, 5, 0, 0, 0,
+						isbn % 2 == 0));
+			}
+
+			storeManager.addBooks(new HashSet<StockBook>(books));
+			binaryClient.buyBooks(Collections.singleton(new BookCopy(1, 1)));
+
+			try {
+				xmlClient.buyBooks(Collections.singleton(new BookCopy(-1, 1)));
+				fail();
+			} catch (BookStoreException ex) {
+				;
+			}
+
+			Set<Integer> isbns = new HashSet<Integer>();
+
+			for (StockBook book : books) {
+				isbns.add(book.getISBN());
+			}
+
+			assertEquals(books.size(), binaryClient.getBooks(isbns).size());
+			assertEquals("Title \u00e6 1", xmlClient.getBooks(Collections.singleton(1)).get(0).getTitle());
+			assertEquals(10, binaryClient.getEditorPicks(10).size());
+			assertEquals(10, xmlClient.getEditorPicks(10).size());
+			assertEquals(4,
+					storeManager.getBooksByISBN(Collections.singleton(1)).get(0).getNumCopies());
+		} finally {
+			binaryClient.stop();
+			xmlClient.stop();
+			storeManager.stop();
+			server.stop();
+		}
+	}
+
+	/**
+	 * Tests the XStream serializer.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testXStreamRoundTrips() throws Exception {
+		testRoundTrips(new BookStoreXStreamSerializer());
+	}
+
+	/**
+	 * Tests the StAX serializer.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testStaxRoundTrips() throws Exception {
+		testRoundTrips(new BookStoreStaxSerializer());
+	}
+
+	/**
+	 * Tests that the StAX serializer writes every message of the bookstore as
+	 * XStream does, so each reads what the other writes, including the
+	 * objects XStream shares within a message.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testStaxMessages() throws Exception {
+		BookStoreSerializer stax = new BookStoreStaxSerializer();
+		BookStoreSerializer xstream = new BookStoreXStreamSerializer();
+		testMessages(stax);
+		testMessages(stax, xstream);
+		testMessages(xstream, stax);
+
+		BookCopy copy = new BookCopy(3, 1);
+		Set<BookCopy> copies = Collections.singleton(copy);
+		List<Object> shared = new ArrayList<Object>(Arrays.asList(copy, new ArrayList<Object>(Arrays.asList(copy)),
+				Arrays.asList(new BookStoreOperation(BookStoreMessageTag.BUYBOOKS, copies),
+						new BookStoreOperation(BookStoreMessageTag.BUYBOOKS, copies))));
+		List<Object> decoded = (List<Object>) stax.deserialize(xstream.serialize(shared));
+		List<BookStoreOperation> operations = (List<BookStoreOperation>) decoded.get(2);
+		assertSame(decoded.get(0), ((List<Object>) decoded.get(1)).get(0));
+		assertSame(operations.get(0).getArgument(), operations.get(1).getArgument());
+		assertEquals(copies, operations.get(1).getArgument());
+
+		try {
+			stax.deserialize(xstream.serialize(new TreeSet<Integer>(Collections.reverseOrder())));
+			fail();
+		} catch (IOException ex) {
+			;
+		}
+	}
+}
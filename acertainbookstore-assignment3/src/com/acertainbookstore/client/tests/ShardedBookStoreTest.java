@@ -0,0 +1,207 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.jetty.server.Server;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.client.ShardedBookStoreRouter;
+import com.acertainbookstore.client.StockManagerHTTPProxy;
+import com.acertainbookstore.server.BookStoreHTTPMessageHandler;
+import com.acertainbookstore.server.BookStoreHTTPServerUtility;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link ShardedBookStoreTest} tests the {@link ShardedBookStoreRouter} over
+ * several servers listening on localhost.
+ *
+ * @see ShardedBookStoreRouter
+ */
+public class ShardedBookStoreTest {
+
+	/** The Constant NUM_SHARDS. */
+	private static final int NUM_SHARDS = 3;
+
+	/** The Constant NUM_BOOKS, spread over every shard. */
+	private static final int NUM_BOOKS = 30;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 5;
+
+	/** The servers of the shards. */
+	private static List<Server> servers = new ArrayList<Server>();
+
+	/** The stock managers talking to each shard directly. */
+	private static List<StockManagerHTTPProxy> shards = new ArrayList<StockManagerHTTPProxy>();
+
+	/** The router under test. */
+	private static ShardedBookStoreRouter router;
+
+	/** The coordinator log of the router. */
+	private static Path coordinatorLogFile;
+
+	/**
+	 * Starts a server per shard on a free port and the router over them.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		List<String> serverAddresses = new ArrayList<String>();
+
+		for (int i = 0; i < NUM_SHARDS; i++) {
+			Server server = BookStoreHTTPServerUtility.startServer(0,
+					new BookStoreHTTPMessageHandler(new CertainBookStore()));
+			String serverAddress = "http://localhost:" + BookStoreHTTPServerUtility.getPort(server);
+			servers.add(server);
+			serverAddresses.add(serverAddress);
+			shards.add(new StockManagerHTTPProxy(serverAddress + "/stock"));
+		}
+
+		coordinatorLogFile = Files.createTempFile("coordinator", ".log");
+		router = new ShardedBookStoreRouter(serverAddresses, coordinatorLogFile);
+	}
+
+	/**
+	 * Stops the router and the servers.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception {
+		router.stop();
+
+		for (StockManagerHTTPProxy shard : shards) {
+			shard.stop();
+		}
+
+		for (Server server : servers) {
+			server.stop();
+		}
+
+		Files.deleteIfExists(coordinatorLogFile);
+	}
+
+	/**
+	 * Replaces the books of every shard by the books 1 to {@link #NUM_BOOKS}.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Before
+	public void initializeBooks() throws BookStoreException {
+		router.removeAllBooks();
+
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+
+		for (int isbn = 1; isbn <= NUM_BOOKS; isbn++) {
+			booksToAdd.add(new ImmutableStockBook(isbn, "Title " + isbn, "Author " + isbn, (float) isbn, NUM_COPIES,
+					0, 0, 0, isbn % 3 == 0));
+		}
+
+		router.addBooks(booksToAdd);
+	}
+
+	/**
+	 * Tests that every book is stored by the shard owning it only, and that
+	 * the books of every shard are merged.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testBooksAreSpreadOverShards() throws BookStoreException {
+		int numBooks = 0;
+
+		for (int shard = 0; shard < NUM_SHARDS; shard++) {
+			List<StockBook> shardBooks = shards.get(shard).getBooks();
+			assertFalse(shardBooks.isEmpty());
+
+			for (StockBook book : shardBooks) {
+				assertEquals(shard, router.shardOf(book.getISBN()));
+			}
+
+			numBooks += shardBooks.size();
+		}
+
+		assertEquals(NUM_BOOKS, numBooks);
+		assertEquals(NUM_BOOKS, router.getBooks().size());
+	}
+
+	/**
+	 * Tests that purchases and lookups spanning shards reach every shard.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testRequestsAcrossShards() throws BookStoreException {
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		Set<Integer> isbns = new HashSet<Integer>();
+
+		for (int isbn = 1; isbn <= NUM_BOOKS; isbn += 2) {
+			booksToBuy.add(new BookCopy(isbn, 2));
+			isbns.add(isbn);
+		}
+
+		router.buyBooks(booksToBuy);
+
+		List<StockBook> books = router.getBooksByISBN(isbns);
+		assertEquals(isbns.size(), books.size());
+
+		for (StockBook book : books) {
+			assertEquals(NUM_COPIES - 2, book.getNumCopies());
+		}
+
+		assertEquals(isbns.size(), router.getBooks(isbns).size());
+	}
+
+	/**
+	 * Tests that editor picks are gathered from every shard without exceeding
+	 * the number asked for, and that the shards count their picks.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testEditorPicksAcrossShards() throws BookStoreException {
+		Set<Integer> picked = new HashSet<Integer>();
+
+		for (Book book : router.getEditorPicks(NUM_BOOKS)) {
+			assertEquals(0, book.getISBN() % 3);
+			assertTrue(picked.add(book.getISBN()));
+		}
+
+		assertEquals(NUM_BOOKS / 3, picked.size());
+		assertEquals(NUM_BOOKS / 3, router.getNumEditorPicks());
+		assertEquals(4, router.getEditorPicks(4).size());
+
+		Set<BookEditorPick> editorPicks = new HashSet<BookEditorPick>();
+
+		for (int isbn = 3; isbn <= NUM_BOOKS; isbn += 3) {
+			editorPicks.add(new BookEditorPick(isbn, false));
+		}
+
+		router.updateEditorPicks(editorPicks);
+		assertTrue(router.getEditorPicks(NUM_BOOKS).isEmpty());
+		assertEquals(0, router.getNumEditorPicks());
+	}
+}
@@ -0,0 +1,669 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BuyBooksResolver;
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.client.BookStoreClientConstants;
+import com.acertainbookstore.client.BuyBooksCoordinator;
+import com.acertainbookstore.interfaces.BookStoreParticipant;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreLog;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+
+/**
+ * {@link TwoPhaseCommitTest} tests that the {@link BuyBooksCoordinator} buys
+ * books from several {@link CertainBookStore} participants atomically.
+ *
+ * @see BuyBooksCoordinator
+ * @see BookStoreParticipant
+ */
+public class TwoPhaseCommitTest {
+
+	/** The Constant NUM_PARTICIPANTS. */
+	private static final int NUM_PARTICIPANTS = 3;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 5;
+
+	/** The Constant WAIT_MILLIS for a coordinator to send a decision again. */
+	private static final long WAIT_MILLIS = 20 * BookStoreClientConstants.COORDINATOR_RETRY_MILLISECS;
+
+	/** The participants, participant i owning the book with ISBN i + 1. */
+	private List<CertainBookStore> participants;
+
+	/** The coordinator under test. */
+	private BuyBooksCoordinator coordinator;
+
+	/** The directory of the coordinator log. */
+	private Path directory;
+
+	/**
+	 * Adds one book to every participant.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Before
+	public void initializeBooks() throws Exception {
+		participants = new ArrayList<CertainBookStore>();
+
+		for (int i = 0; i < NUM_PARTICIPANTS; i++) {
+			participants.add(newParticipant(i, 60000));
+		}
+
+		directory = Files.createTempDirectory("coordinator");
+		coordinator = new BuyBooksCoordinator(participants, directory.resolve("coordinator.log"), 5000);
+	}
+
+	/**
+	 * Stops the coordinator and deletes its log.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@After
+	public void cleanupBooks() throws IOException {
+		coordinator.stop();
+		Files.deleteIfExists(directory.resolve("coordinator.log"));
+		Files.deleteIfExists(directory);
+	}
+
+	/**
+	 * Creates a participant owning the book with ISBN <code>index + 1</code>.
+	 *
+	 * @param index
+	 *            the index of the participant
+	 * @param transactionTimeoutMillis
+	 *            the transaction timeout of the participant
+	 * @return the participant
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private static CertainBookStore newParticipant(int index, long transactionTimeoutMillis)
+			throws BookStoreException {
+		CertainBookStore participant = new CertainBookStore(transactionTimeoutMillis);
+		participant.addBooks(Collections.singleton(new ImmutableStockBook(index + 1, "Title " + index,
+				"Author " + index, 10.0f, NUM_COPIES, 0, 0, 0, false)));
+		return participant;
+	}
+
+	/**
+	 * Wraps a participant so that it cannot be told decisions while
+	 * <code>unreachable</code> is set.
+	 *
+	 * @param participant
+	 *            the participant
+	 * @param unreachable
+	 *            true while the participant cannot be told decisions
+	 * @param acknowledged
+	 *            counted down when the participant acknowledges a decision
+	 * @return the wrapped participant
+	 */
+	private static BookStoreParticipant unreachable(BookStoreParticipant participant, AtomicBoolean unreachable,
+			CountDownLatch acknowledged) {
+		return new BookStoreParticipant() {
+			@Override
+			public List<BookCopy> prepareBuyBooks(String transactionId, Set<BookCopy> bookCopies)
+					throws BookStoreException {
+				return participant.prepareBuyBooks(transactionId, bookCopies);
+			}
+
+			@Override
+			public void commitBuyBooks(String transactionId) throws BookStoreException {
+				if (unreachable.get()) {
+					throw new BookStoreException("Unreachable");
+				}
+
+				participant.commitBuyBooks(transactionId);
+				acknowledged.countDown();
+			}
+
+			@Override
+			public void abortBuyBooks(String transactionId, boolean recordSaleMisses) throws BookStoreException {
+				if (unreachable.get()) {
+					throw new BookStoreException("Unreachable");
+				}
+
+				participant.abortBuyBooks(transactionId, recordSaleMisses);
+				acknowledged.countDown();
+			}
+
+			@Override
+			public void endBuyBooks(String transactionId) throws BookStoreException {
+				if (unreachable.get()) {
+					throw new BookStoreException("Unreachable");
+				}
+
+				participant.endBuyBooks(transactionId);
+			}
+		};
+	}
+
+	/**
+	 * Gets the first record of a purchase in the coordinator log.
+	 *
+	 * @param transactionId
+	 *            the transaction identifier
+	 * @return the record, with the indexes of every participant
+	 */
+	private static List<Object> prepareRecord(String transactionId) {
+		List<Object> record = new ArrayList<Object>();
+		record.add(transactionId);
+
+		for (int i = 0; i < NUM_PARTICIPANTS; i++) {
+			record.add(i);
+		}
+
+		return record;
+	}
+
+	/**
+	 * Gets the copies to buy from every participant.
+	 *
+	 * @param numCopies
+	 *            the number of copies of each book
+	 * @return the copies, by participant
+	 */
+	private static Map<Integer, Set<BookCopy>> copiesOfEveryBook(int numCopies) {
+		Map<Integer, Set<BookCopy>> copiesByParticipant = new HashMap<Integer, Set<BookCopy>>();
+
+		for (int i = 0; i < NUM_PARTICIPANTS; i++) {
+			copiesByParticipant.put(i, Collections.singleton(new BookCopy(i + 1, numCopies)));
+		}
+
+		return copiesByParticipant;
+	}
+
+	/**
+	 * Gets the only book of a participant.
+	 *
+	 * @param participant
+	 *            the participant
+	 * @return the book
+	 */
+	private static StockBook bookOf(CertainBookStore participant) {
+		return participant.getBooks().get(0);
+	}
+
+	/**
+	 * Tests that a purchase spanning every participant is sold by all of them.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testPurchaseIsCommitted() throws BookStoreException {
+		coordinator.buyBooks(copiesOfEveryBook(2));
+
+		for (CertainBookStore participant : participants) {
+			assertEquals(NUM_COPIES - 2, bookOf(participant).getNumCopies());
+		}
+	}
+
+	/**
+	 * Tests that a sale miss on one participant aborts the purchase on all of
+	 * them, recording the miss on that participant only.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testSaleMissAbortsPurchase() throws BookStoreException {
+		Map<Integer, Set<BookCopy>> copiesByParticipant = copiesOfEveryBook(1);
+		copiesByParticipant.put(1, Collections.singleton(new BookCopy(2, NUM_COPIES + 3)));
+
+		try {
+			coordinator.buyBooks(copiesByParticipant);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		for (int i = 0; i < NUM_PARTICIPANTS; i++) {
+			StockBook book = bookOf(participants.get(i));
+			assertEquals(NUM_COPIES, book.getNumCopies());
+			assertEquals(i == 1 ? 3 : 0, book.getNumSaleMisses());
+		}
+	}
+
+	/**
+	 * Tests that an invalid book aborts the purchase without recording sale
+	 * misses.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testInvalidBookAbortsPurchase() throws BookStoreException {
+		Map<Integer, Set<BookCopy>> copiesByParticipant = copiesOfEveryBook(1);
+		copiesByParticipant.put(0, Collections.singleton(new BookCopy(1, NUM_COPIES + 1)));
+		copiesByParticipant.put(2, Collections.singleton(new BookCopy(-1, 1)));
+
+		try {
+			coordinator.buyBooks(copiesByParticipant);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		for (CertainBookStore participant : participants) {
+			assertEquals(NUM_COPIES, bookOf(participant).getNumCopies());
+			assertEquals(0, bookOf(participant).getNumSaleMisses());
+		}
+	}
+
+	/**
+	 * Tests that a participant keeps the copies of a prepared purchase past
+	 * its timeout until the coordinator decides, but forgets a purchase that
+	 * found sale misses.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testParticipantTimeoutKeepsReservedCopies() throws Exception {
+		CertainBookStore participant = newParticipant(0, 50);
+		Set<BookCopy> allCopies = Collections.singleton(new BookCopy(1, NUM_COPIES));
+
+		assertTrue(participant.prepareBuyBooks("reserved", allCopies).isEmpty());
+		assertEquals(1, participant.prepareBuyBooks("missed", allCopies).size());
+		assertEquals(0, bookOf(participant).getNumCopies());
+
+		Thread.sleep(100);
+
+		try {
+			participant.buyBooks(Collections.singleton(new BookCopy(1, 1)));
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		try {
+			participant.commitBuyBooks("missed");
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		participant.abortBuyBooks("missed", true);
+		participant.commitBuyBooks("reserved");
+		assertEquals(0, bookOf(participant).getNumCopies());
+		assertEquals(1, bookOf(participant).getNumSaleMisses());
+	}
+
+	/**
+	 * Tests that a participant preparing too slowly aborts the purchase, and
+	 * that it returns the copies its late prepare reserved once it asks the
+	 * coordinator.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testCoordinatorTimeoutAbortsPurchase() throws Exception {
+		CountDownLatch released = new CountDownLatch(1);
+		CountDownLatch prepared = new CountDownLatch(1);
+		CertainBookStore slowStore = participants.get(2);
+		List<BookStoreParticipant> slowParticipants = new ArrayList<BookStoreParticipant>(participants);
+
+		slowParticipants.set(2, new BookStoreParticipant() {
+			@Override
+			public List<BookCopy> prepareBuyBooks(String transactionId, Set<BookCopy> bookCopies)
+					throws BookStoreException {
+				try {
+					// The coordinator interrupts the prepare when it times out,
+					// but the request still reaches the store afterwards.
+					while (released.getCount() > 0) {
+						try {
+							released.await();
+						} catch (InterruptedException ex) {
+							;
+						}
+					}
+
+					return slowStore.prepareBuyBooks(transactionId, bookCopies);
+				} finally {
+					prepared.countDown();
+				}
+			}
+
+			@Override
+			public void commitBuyBooks(String transactionId) throws BookStoreException {
+				slowStore.commitBuyBooks(transactionId);
+			}
+
+			@Override
+			public void abortBuyBooks(String transactionId, boolean recordSaleMisses) throws BookStoreException {
+				slowStore.abortBuyBooks(transactionId, recordSaleMisses);
+			}
+
+			@Override
+			public void endBuyBooks(String transactionId) throws BookStoreException {
+				slowStore.endBuyBooks(transactionId);
+			}
+		});
+
+		Path slowLogFile = directory.resolve("slow.log");
+		BuyBooksCoordinator slowCoordinator = new BuyBooksCoordinator(slowParticipants, slowLogFile, 100);
+		BuyBooksResolver<CertainBookStore> resolver = new BuyBooksResolver<CertainBookStore>(slowStore,
+				slowCoordinator, 50);
+
+		try {
+			slowCoordinator.buyBooks(copiesOfEveryBook(1));
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		} finally {
+			released.countDown();
+			prepared.await();
+		}
+
+		try {
+			// The prepare arrived once the purchase ended, and holds its
+			// copies until the participant asks the coordinator.
+			long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+
+			while (bookOf(slowStore).getNumCopies() < NUM_COPIES && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+
+			for (CertainBookStore participant : participants) {
+				assertEquals(NUM_COPIES, bookOf(participant).getNumCopies());
+			}
+
+			assertTrue(slowStore.getOutcomes().isEmpty());
+		} finally {
+			resolver.stop();
+			slowCoordinator.stop();
+			Files.deleteIfExists(slowLogFile);
+		}
+	}
+
+	/**
+	 * Tests that a restarted coordinator commits the purchases it decided to
+	 * commit and aborts the others.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testCoordinatorRecovery() throws Exception {
+		coordinator.stop();
+		Path logFile = directory.resolve("coordinator.log");
+		Files.delete(logFile);
+
+		for (int i = 0; i < NUM_PARTICIPANTS; i++) {
+			participants.get(i).prepareBuyBooks("undecided", Collections.singleton(new BookCopy(i + 1, 1)));
+			participants.get(i).prepareBuyBooks("decided", Collections.singleton(new BookCopy(i + 1, 2)));
+		}
+
+		// The coordinator crashed after deciding to commit one purchase only.
+		BookStoreLog log = new BookStoreLog(logFile);
+		log.append(BookStoreMessageTag.PREPAREBUYBOOKS, prepareRecord("undecided"));
+		log.append(BookStoreMessageTag.PREPAREBUYBOOKS, prepareRecord("decided"));
+		log.append(BookStoreMessageTag.COMMITBUYBOOKS, "decided");
+		log.close();
+
+		coordinator = new BuyBooksCoordinator(participants, logFile, 5000);
+
+		// Both purchases were ended once every participant acknowledged them.
+		for (CertainBookStore participant : participants) {
+			assertEquals(NUM_COPIES - 2, bookOf(participant).getNumCopies());
+			assertTrue(participant.getOutcomes().isEmpty());
+			assertTrue(participant.getReservingPurchases().isEmpty());
+		}
+
+		assertFalse(coordinator.isCommitted("decided"));
+		assertEquals(0, Files.size(logFile));
+	}
+
+	/**
+	 * Tests that a committed purchase succeeds though a participant cannot be
+	 * told, and that the coordinator commits it there once it can.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testCommitIsSentUntilAcknowledged() throws Exception {
+		AtomicBoolean unreachable = new AtomicBoolean(true);
+		CountDownLatch acknowledged = new CountDownLatch(1);
+		List<BookStoreParticipant> flakyParticipants = new ArrayList<BookStoreParticipant>(participants);
+		flakyParticipants.set(1, unreachable(participants.get(1), unreachable, acknowledged));
+		Path flakyLogFile = directory.resolve("flaky.log");
+		BuyBooksCoordinator flakyCoordinator = new BuyBooksCoordinator(flakyParticipants, flakyLogFile, 5000);
+
+		try {
+			flakyCoordinator.buyBooks(copiesOfEveryBook(2));
+			Thread.sleep(BookStoreClientConstants.COORDINATOR_RETRY_MILLISECS);
+			assertEquals(1, acknowledged.getCount());
+
+			unreachable.set(false);
+			assertTrue(acknowledged.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+		} finally {
+			flakyCoordinator.stop();
+			Files.deleteIfExists(flakyLogFile);
+		}
+
+		// The copies stayed reserved on the participant until it committed.
+		for (CertainBookStore participant : participants) {
+			assertEquals(NUM_COPIES - 2, bookOf(participant).getNumCopies());
+		}
+	}
+
+	/**
+	 * Tests that a restarted coordinator keeps its log while a participant
+	 * cannot be told a decision, and empties it once the participant
+	 * acknowledged it.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testRecoveryKeepsLogUntilAcknowledged() throws Exception {
+		coordinator.stop();
+		Path logFile = directory.resolve("coordinator.log");
+		Files.delete(logFile);
+
+		for (int i = 0; i < NUM_PARTICIPANTS; i++) {
+			participants.get(i).prepareBuyBooks("decided", Collections.singleton(new BookCopy(i + 1, 2)));
+		}
+
+		BookStoreLog log = new BookStoreLog(logFile);
+		log.append(BookStoreMessageTag.PREPAREBUYBOOKS, prepareRecord("decided"));
+		log.append(BookStoreMessageTag.COMMITBUYBOOKS, "decided");
+		log.close();
+
+		AtomicBoolean unreachable = new AtomicBoolean(true);
+		List<BookStoreParticipant> flakyParticipants = new ArrayList<BookStoreParticipant>(participants);
+		flakyParticipants.set(2, unreachable(participants.get(2), unreachable, new CountDownLatch(1)));
+		coordinator = new BuyBooksCoordinator(flakyParticipants, logFile, 5000);
+		coordinator.stop();
+
+		// The coordinator stopped before telling the last participant.
+		assertTrue(Files.size(logFile) > 0);
+		unreachable.set(false);
+		coordinator = new BuyBooksCoordinator(flakyParticipants, logFile, 5000);
+
+		for (CertainBookStore participant : participants) {
+			assertEquals(NUM_COPIES - 2, bookOf(participant).getNumCopies());
+			assertTrue(participant.getOutcomes().isEmpty());
+		}
+
+		assertEquals(0, Files.size(logFile));
+	}
+
+	/**
+	 * Tests that a participant answering that it does not know a committed
+	 * purchase is sent the commit again rather than counted as acknowledging
+	 * it, and that the purchase is ended only once it committed.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testUnknownPurchaseIsNotAcknowledged() throws Exception {
+		AtomicBoolean lost = new AtomicBoolean(true);
+		CountDownLatch committed = new CountDownLatch(1);
+		CertainBookStore store = participants.get(1);
+		List<BookStoreParticipant> lossyParticipants = new ArrayList<BookStoreParticipant>(participants);
+
+		lossyParticipants.set(1, new BookStoreParticipant() {
+			@Override
+			public List<BookCopy> prepareBuyBooks(String transactionId, Set<BookCopy> bookCopies)
+					throws BookStoreException {
+				return store.prepareBuyBooks(transactionId, bookCopies);
+			}
+
+			@Override
+			public void commitBuyBooks(String transactionId) throws BookStoreException {
+				if (lost.get()) {
+					throw new BookStoreException(
+							BookStoreConstants.TRANSACTION + transactionId + BookStoreConstants.NOT_PREPARED);
+				}
+
+				store.commitBuyBooks(transactionId);
+				committed.countDown();
+			}
+
+			@Override
+			public void abortBuyBooks(String transactionId, boolean recordSaleMisses) throws BookStoreException {
+				store.abortBuyBooks(transactionId, recordSaleMisses);
+			}
+
+			@Override
+			public void endBuyBooks(String transactionId) throws BookStoreException {
+				store.endBuyBooks(transactionId);
+			}
+		});
+
+		Path lossyLogFile = directory.resolve("lossy.log");
+		BuyBooksCoordinator lossyCoordinator = new BuyBooksCoordinator(lossyParticipants, lossyLogFile, 5000);
+
+		try {
+			lossyCoordinator.buyBooks(copiesOfEveryBook(2));
+			Thread.sleep(BookStoreClientConstants.COORDINATOR_RETRY_MILLISECS);
+
+			// The other participants keep the outcome while the purchase is
+			// not ended.
+			assertEquals(1, participants.get(0).getOutcomes().size());
+			assertEquals(1, store.getReservingPurchases().size());
+
+			lost.set(false);
+			assertTrue(committed.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+
+			long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+
+			while (!participants.get(0).getOutcomes().isEmpty() && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+		} finally {
+			lossyCoordinator.stop();
+			Files.deleteIfExists(lossyLogFile);
+		}
+
+		for (CertainBookStore participant : participants) {
+			assertEquals(NUM_COPIES - 2, bookOf(participant).getNumCopies());
+			assertTrue(participant.getOutcomes().isEmpty());
+		}
+	}
+
+	/**
+	 * Tests that a participant keeps the outcome of a purchase until it is
+	 * ended, however many purchases finish meanwhile, and refuses to end a
+	 * purchase it still holds copies for.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testOutcomeIsKeptUntilEnded() throws BookStoreException {
+		CertainBookStore participant = participants.get(0);
+		Set<BookCopy> copies = Collections.singleton(new BookCopy(1, 1));
+		participant.prepareBuyBooks("committed", copies);
+
+		try {
+			participant.endBuyBooks("committed");
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		participant.commitBuyBooks("committed");
+
+		for (int i = 0; i < 5000; i++) {
+			participant.abortBuyBooks("aborted " + i, false);
+		}
+
+		participant.commitBuyBooks("committed");
+
+		try {
+			participant.prepareBuyBooks("aborted 0", copies);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		participant.endBuyBooks("committed");
+
+		for (int i = 0; i < 5000; i++) {
+			participant.endBuyBooks("aborted " + i);
+		}
+
+		assertTrue(participant.getOutcomes().isEmpty());
+
+		try {
+			participant.commitBuyBooks("committed");
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Tests that a purchase prepared twice is rejected the second time.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testPrepareTwiceIsRejected() throws BookStoreException {
+		CertainBookStore participant = participants.get(0);
+		Set<BookCopy> copies = Collections.singleton(new BookCopy(1, 1));
+		participant.prepareBuyBooks("twice", copies);
+
+		try {
+			participant.prepareBuyBooks("twice", copies);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		participant.abortBuyBooks("twice", true);
+		participant.abortBuyBooks("twice", true);
+		assertEquals(NUM_COPIES, bookOf(participant).getNumCopies());
+		assertTrue(participant.prepareBuyBooks("again", copies).isEmpty());
+	}
+}
@@ -0,0 +1,167 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.client.BookStoreHTTPProxy;
+import com.acertainbookstore.server.BookStoreHTTPMessageHandler;
+import com.acertainbookstore.server.BookStoreHTTPServerUtility;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.BookStoreVirtualThreadPool;
+
+/**
+ * {@link VirtualThreadTest} tests that servers and clients asked to run on
+ * virtual threads do so where the JVM supports them, and otherwise fall back
+ * to pools of platform threads.
+ *
+ * @see BookStoreVirtualThreadPool
+ */
+public class VirtualThreadTest {
+
+	/** The Constant NUM_BOOKS. */
+	private static final int NUM_BOOKS = 20;
+
+	/** The Constant NUM_CLIENTS calling the server at once. */
+	private static final int NUM_CLIENTS = 200;
+
+	/** The property asking for virtual threads, to restore. */
+	private String virtualThreads;
+
+	/**
+	 * Asks for virtual threads.
+	 */
+	@Before
+	public void setUp() {
+		virtualThreads = System.setProperty(BookStoreConstants.PROPERTY_KEY_VIRTUAL_THREADS, "true");
+	}
+
+	/**
+	 * Restores the property asking for virtual threads.
+	 */
+	@After
+	public void tearDown() {
+		if (virtualThreads == null) {
+			System.clearProperty(BookStoreConstants.PROPERTY_KEY_VIRTUAL_THREADS);
+		} else {
+			System.setProperty(BookStoreConstants.PROPERTY_KEY_VIRTUAL_THREADS, virtualThreads);
+		}
+	}
+
+	/**
+	 * Tests that a server and a client on the thread pools asked for serve
+	 * many concurrent purchases.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testConcurrentClients() throws Exception {
+		ThreadPool threadPool = BookStoreUtility.newThreadPool(10, 2);
+		assertEquals(BookStoreVirtualThreadPool.isSupported(), threadPool instanceof BookStoreVirtualThreadPool);
+		assertEquals(!BookStoreVirtualThreadPool.isSupported(), threadPool instanceof QueuedThreadPool);
+
+		CertainBookStore store = new CertainBookStore();
+		Set<StockBook> books = new HashSet<StockBook>();
+
+		for (int isbn = 1; isbn <= NUM_BOOKS; isbn++) {
+			books.add(new ImmutableStockBook(isbn, "Title " + isbn, "Author " + isbn, 1.0f, NUM_CLIENTS, 0, 0, 0,
+					false));
+		}
+
+		store.addBooks(books);
+
+		Server server = new Server(threadPool);
+		ServerConnector connector = new ServerConnector(server);
+		server.addConnector(connector);
+		server.setHandler(new BookStoreHTTPMessageHandler(store));
+		server.start();
+
+		BookStoreHTTPProxy client = new BookStoreHTTPProxy(
+				"http://localhost:" + BookStoreHTTPServerUtility.getPort(server));
+		ExecutorService clients = Executors.newFixedThreadPool(NUM_CLIENTS);
+
+		try {
+			List<Future<Void>> purchases = new ArrayList<Future<Void>>();
+
+			for (int i = 0; i < NUM_CLIENTS; i++) {
+				int isbn = 1 + i % NUM_BOOKS;
+				purchases.add(clients.submit((Callable<Void>) () -> {
+					client.buyBooks(Collections.singleton(new BookCopy(isbn, 1)));
+					return null;
+				}));
+			}
+
+			for (Future<Void> purchase : purchases) {
+				purchase.get();
+			}
+
+			for (StockBook book : store.getBooks()) {
+				assertEquals(NUM_CLIENTS - NUM_CLIENTS / NUM_BOOKS, book.getNumCopies());
+			}
+		} finally {
+			clients.shutdownNow();
+			client.stop();
+			server.stop();
+		}
+	}
+
+	/**
+	 * Tests that a virtual thread pool only starts where the JVM supports
+	 * virtual threads, and runs its tasks on them.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testVirtualThreadPool() throws Exception {
+		BookStoreVirtualThreadPool threadPool = new BookStoreVirtualThreadPool();
+
+		if (!BookStoreVirtualThreadPool.isSupported()) {
+			try {
+				threadPool.start();
+				fail();
+			} catch (UnsupportedOperationException ex) {
+				;
+			}
+
+			return;
+		}
+
+		threadPool.start();
+
+		try {
+			List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+			threadPool.execute(() -> threads.add(Thread.currentThread().toString()));
+
+			while (threads.isEmpty()) {
+				Thread.sleep(1);
+			}
+
+			assertTrue(threads.get(0).startsWith("VirtualThread"));
+		} finally {
+			threadPool.stop();
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package com.acertainbookstore.client.workloads;
+
+import java.nio.file.Paths;
+import java.util.Set;
+
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.utils.BookStoreCatalog;
+
+/**
+ *
+ * CatalogGenerator writes a catalog file of random books, which the server
+ * bulk loads at startup when it is given with the catalogfile property.
+ *
+ * Usage: CatalogGenerator catalogFile numBooks
+ *
+ */
+public class CatalogGenerator {
+
+	/**
+	 * @param args
+	 *            the catalog file and the number of books
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length != 2) {
+			System.err.println("Usage: CatalogGenerator catalogFile numBooks");
+			return;
+		}
+
+		int numBooks = Integer.parseInt(args[1]);
+
+		// Books with the same random ISBN are only generated once
+		Set<StockBook> books = new BookSetGenerator().nextSetOfStockBooks(numBooks);
+		BookStoreCatalog.write(Paths.get(args[0]), books);
+		System.out.println("Wrote " + books.size() + " books to " + args[0]);
+	}
+}
@@ -5,17 +5,21 @@ package com.acertainbookstore.client.workloads;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.StockBook;
 import com.acertainbookstore.client.BookStoreHTTPProxy;
 import com.acertainbookstore.client.StockManagerHTTPProxy;
 import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.BookStoreLoader;
 import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreVirtualThreadPool;
 
 /**
  * 
@@ -30,7 +34,7 @@ public class CertainWorkload {
 	 * @param args
 	 */
 	public static void main(String[] args) throws Exception {
-		int numConcurrentWorkloadThreads = 10;
+		int numConcurrentWorkloadThreads = Integer.getInteger(BookStoreConstants.PROPERTY_KEY_WORKLOAD_THREADS, 10);
 		String serverAddress = "http://localhost:8081";
 		boolean localTest = true;
 		List<WorkerRunResult> workerRunResults = new ArrayList<WorkerRunResult>();
@@ -57,8 +61,13 @@ public class CertainWorkload {
 		// Generate data in the bookstore before running the workload
 		initializeBookStoreData(bookStore, stockManager);
 
-		ExecutorService exec = Executors
-				.newFixedThreadPool(numConcurrentWorkloadThreads);
+		// Run the workers on virtual threads, like the proxies, if requested
+		boolean virtualThreads = Boolean.getBoolean(BookStoreConstants.PROPERTY_KEY_VIRTUAL_THREADS)
+				&& BookStoreVirtualThreadPool.isSupported();
+		ExecutorService exec = virtualThreads ? BookStoreVirtualThreadPool.newExecutor()
+				: Executors.newFixedThreadPool(numConcurrentWorkloadThreads);
+		System.out.println("Running " + numConcurrentWorkloadThreads + " workers on "
+				+ (virtualThreads ? "virtual" : "platform") + " threads");
 
 		for (int i = 0; i < numConcurrentWorkloadThreads; i++) {
 			WorkloadConfiguration config = new WorkloadConfiguration(bookStore,
@@ -148,7 +157,14 @@ public class CertainWorkload {
 
 		// the number of books in the initial set
 		int n = 1000;
-		// adding n random generated books to the store
-		stockManager.addBooks(config.getBookSetGenerator().nextSetOfStockBooks(n));
+		Set<StockBook> books = config.getBookSetGenerator().nextSetOfStockBooks(n);
+
+		// bulk load the random generated books if the store is local,
+		// otherwise add them to the store
+		if (stockManager instanceof BookStoreLoader) {
+			((BookStoreLoader) stockManager).loadBooks(books);
+		} else {
+			stockManager.addBooks(books);
+		}
     }
 }
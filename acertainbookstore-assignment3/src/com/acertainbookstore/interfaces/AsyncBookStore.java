@@ -0,0 +1,66 @@
+package com.acertainbookstore.interfaces;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookRating;
+
+/**
+ * {@link AsyncBookStore} declares the methods of {@link BookStore} for clients
+ * that do not wait for the bookstore. Every method returns at once, and its
+ * future fails with the {@link com.acertainbookstore.utils.BookStoreException}
+ * the corresponding {@link BookStore} method would throw.
+ *
+ * @see BookStore
+ */
+public interface AsyncBookStore {
+
+	/**
+	 * Buys the sets of books specified.
+	 *
+	 * @param booksToBuy
+	 *            the books to buy
+	 * @return the future completed once the books are bought
+	 */
+	public CompletableFuture<Void> buyBooks(Set<BookCopy> booksToBuy);
+
+	/**
+	 * Applies the BookRatings in the set, i.e. rates each book with their
+	 * respective rating.
+	 *
+	 * @param bookRating
+	 *            the book rating
+	 * @return the future completed once the books are rated
+	 */
+	public CompletableFuture<Void> rateBooks(Set<BookRating> bookRating);
+
+	/**
+	 * Gets the list of books corresponding to the set of ISBNs.
+	 *
+	 * @param ISBNList
+	 *            the ISBN list
+	 * @return the future books
+	 */
+	public CompletableFuture<List<Book>> getBooks(Set<Integer> ISBNList);
+
+	/**
+	 * Gets a list of top rated numBooks books.
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @return the future top rated books
+	 */
+	public CompletableFuture<List<Book>> getTopRatedBooks(int numBooks);
+
+	/**
+	 * Gets the list of books containing numBooks editor picks.
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @return the future editor picks
+	 */
+	public CompletableFuture<List<Book>> getEditorPicks(int numBooks);
+}
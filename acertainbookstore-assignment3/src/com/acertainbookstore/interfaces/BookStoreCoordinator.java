@@ -0,0 +1,31 @@
+package com.acertainbookstore.interfaces;
+
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link BookStoreCoordinator} declares the method a participant calls to
+ * learn the decision on a purchase it prepared but was not told about, such
+ * as when its prepare arrived after the coordinator aborted the purchase and
+ * every participant acknowledged it.
+ *
+ * The coordinator forces a purchase to its log before any participant
+ * prepares it, and keeps it until every participant acknowledged the
+ * decision, so a purchase it no longer knows was either never prepared or
+ * aborted: the participant aborts it.
+ */
+public interface BookStoreCoordinator {
+
+	/**
+	 * Gets whether a purchase started by this coordinator was committed.
+	 *
+	 * @param transactionId
+	 *            the transaction identifier
+	 * @return true if the purchase was committed, false if it was aborted or
+	 *         is unknown
+	 * @throws BookStoreException
+	 *             if the purchase is not decided yet, in which case the message
+	 *             ends with
+	 *             {@link com.acertainbookstore.utils.BookStoreConstants#NOT_DECIDED}
+	 */
+	public boolean isCommitted(String transactionId) throws BookStoreException;
+}
@@ -0,0 +1,108 @@
+package com.acertainbookstore.interfaces;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Predicate;
+
+import com.acertainbookstore.business.BuyBooksTransaction;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link BookStoreLoader} declares the methods used to load books into a book
+ * store together with their whole stock state, such as when the store is
+ * restored from a checkpoint or bulk loaded from a catalog file, and to read
+ * that state back to write the checkpoint.
+ */
+public interface BookStoreLoader {
+
+	/**
+	 * {@link BookVisitor} is given the books of a store one at a time.
+	 */
+	@FunctionalInterface
+	public interface BookVisitor {
+
+		/**
+		 * Visits a book.
+		 *
+		 * @param book
+		 *            the book, with its whole stock state
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 */
+		void visit(StockBook book) throws IOException;
+	}
+
+	/**
+	 * Adds the books to the stock with their number of copies, sale misses,
+	 * ratings and editor pick as given. Unlike
+	 * {@link StockManager#addBooks(java.util.Set)}, sold-out books with no
+	 * copies are accepted. Either all books are added or none is.
+	 *
+	 * The books are validated in parallel before the store is locked, so that
+	 * a large catalog only holds the lock while it is published.
+	 *
+	 * @param books
+	 *            the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public void loadBooks(Collection<StockBook> books) throws BookStoreException;
+
+	/**
+	 * Passes every book of the store to the visitor, without the copies held
+	 * by prepared purchases, so that a checkpoint is written straight from
+	 * the store rather than from a copy of its catalog. The caller keeps
+	 * updates out of the store until the visit returns.
+	 *
+	 * @param visitor
+	 *            the visitor
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void visitBooks(BookVisitor visitor) throws IOException;
+
+	/**
+	 * Gets the prepared purchases holding reserved copies, in the order they
+	 * were prepared, which a checkpoint saves so that they are still reserved
+	 * once the store is restored.
+	 *
+	 * @return the purchases, with their reserved copies
+	 */
+	public List<BuyBooksTransaction> getReservingPurchases();
+
+	/**
+	 * Gets the outcomes of the finished purchases that were not ended yet,
+	 * which a checkpoint saves so that the store restored from it still
+	 * acknowledges a decision its coordinator sends again.
+	 *
+	 * @return whether each purchase was committed, by transaction identifier
+	 */
+	public Map<String, Boolean> getOutcomes();
+
+	/**
+	 * Gets the lock a store wrapping this one holds to apply an update and
+	 * record it as one step, so that the records follow the order the updates
+	 * were applied in. A store locking its own reads and updates returns that
+	 * lock, which it may hold while a wrapping store holds it.
+	 *
+	 * @return the lock
+	 */
+	public Lock getLock();
+
+	/**
+	 * Sets the check a purchase spanning servers must pass before the store
+	 * forgets it on its own, because it found sale misses and its coordinator
+	 * did not abort it within the transaction timeout. The check runs under
+	 * the lock of the store, so that a store logging its updates can log the
+	 * decision among them, and refuse any while it replays the decisions it
+	 * logged. Without a check, expired purchases are forgotten.
+	 *
+	 * @param expiryCheck
+	 *            the check, given the transaction identifier, or null
+	 */
+	public void setExpiryCheck(Predicate<String> expiryCheck);
+}
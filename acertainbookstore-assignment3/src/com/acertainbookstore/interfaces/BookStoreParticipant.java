@@ -0,0 +1,82 @@
+package com.acertainbookstore.interfaces;
+
+import java.util.List;
+import java.util.Set;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link BookStoreParticipant} declares the methods a book store implements to
+ * take part in a purchase spanning several stores, which is committed with
+ * two phases: every participant prepares its part of the purchase, and the
+ * coordinator then commits or aborts it on all of them.
+ *
+ * A participant that reserved the copies of a purchase keeps them until the
+ * coordinator commits or aborts it, since the coordinator may have decided to
+ * commit it already; the coordinator resends its decision until every
+ * participant acknowledges it, and a participant left in doubt can ask the
+ * {@link BookStoreCoordinator}. A participant remembers the outcome of a
+ * purchase until the coordinator ends it, so that a decision sent again is
+ * acknowledged and a prepare arriving late is rejected. A purchase that found
+ * sale misses reserved nothing, and is forgotten if it is not aborted within
+ * the timeout of the participant.
+ */
+public interface BookStoreParticipant {
+
+	/**
+	 * Prepares a purchase. If every copy is in stock, the copies are reserved
+	 * until the purchase is committed or aborted and no sale misses are
+	 * returned. Otherwise nothing is reserved, and the sale misses are
+	 * returned to be recorded if the purchase is aborted for them.
+	 *
+	 * @param transactionId
+	 *            the transaction identifier
+	 * @param bookCopies
+	 *            the copies to buy
+	 * @return the number of copies missing for each book, empty if the copies
+	 *         are reserved
+	 * @throws BookStoreException
+	 *             if a book or number of copies is invalid, in which case
+	 *             nothing is reserved
+	 */
+	public List<BookCopy> prepareBuyBooks(String transactionId, Set<BookCopy> bookCopies) throws BookStoreException;
+
+	/**
+	 * Commits a prepared purchase, selling the reserved copies. Committing a
+	 * purchase again has no effect until it is ended.
+	 *
+	 * @param transactionId
+	 *            the transaction identifier
+	 * @throws BookStoreException
+	 *             if the purchase was not reserved, or was aborted, or is
+	 *             unknown in which case the message ends with
+	 *             {@link com.acertainbookstore.utils.BookStoreConstants#NOT_PREPARED}
+	 */
+	public void commitBuyBooks(String transactionId) throws BookStoreException;
+
+	/**
+	 * Aborts a purchase, releasing the reserved copies. Aborting a purchase
+	 * that is unknown or aborted already has no effect.
+	 *
+	 * @param transactionId
+	 *            the transaction identifier
+	 * @param recordSaleMisses
+	 *            true to record the sale misses found when it was prepared
+	 * @throws BookStoreException
+	 *             if the purchase was committed
+	 */
+	public void abortBuyBooks(String transactionId, boolean recordSaleMisses) throws BookStoreException;
+
+	/**
+	 * Ends a purchase every participant acknowledged the decision on, so that
+	 * the participant forgets its outcome. Ending a purchase that is unknown
+	 * or ended already has no effect.
+	 *
+	 * @param transactionId
+	 *            the transaction identifier
+	 * @throws BookStoreException
+	 *             if the purchase is still prepared
+	 */
+	public void endBuyBooks(String transactionId) throws BookStoreException;
+}
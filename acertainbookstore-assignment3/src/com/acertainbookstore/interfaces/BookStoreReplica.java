@@ -0,0 +1,37 @@
+package com.acertainbookstore.interfaces;
+
+import com.acertainbookstore.business.BookStoreReplicationBatch;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link BookStoreReplica} declares the methods a backup store implements to
+ * follow the mutations of its primary, and to take over from it.
+ */
+public interface BookStoreReplica {
+
+	/**
+	 * Applies the mutations of the batch that follow the last mutation applied
+	 * by the backup, in order. Mutations applied already are skipped, and a
+	 * gap in the sequence numbers stops the batch. A snapshot is always
+	 * applied. A backup that followed another incarnation of the primary
+	 * applies nothing but a snapshot.
+	 *
+	 * @param batch
+	 *            the batch
+	 * @return the sequence number of the last mutation applied by the backup,
+	 *         from which the primary sends the next batch, or -1 if the backup
+	 *         needs a snapshot
+	 * @throws BookStoreException
+	 *             if the backup was promoted and no longer follows a primary
+	 */
+	public long replicate(BookStoreReplicationBatch batch) throws BookStoreException;
+
+	/**
+	 * Promotes the backup to a primary accepting updates, such as when the
+	 * primary failed. Promoting a primary has no effect.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public void promote() throws BookStoreException;
+}
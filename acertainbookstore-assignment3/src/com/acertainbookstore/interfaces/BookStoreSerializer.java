@@ -1,10 +1,14 @@
 package com.acertainbookstore.interfaces;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * {@link BookStoreSerializer} specifies the serialization and de-serialization
- * contracts.
+ * contracts. The stream contracts let the server decode a request from its
+ * input and encode a response into its output, without a copy of either in an
+ * array of bytes.
  */
 public interface BookStoreSerializer {
 
@@ -29,4 +33,37 @@ public interface BookStoreSerializer {
 	 *             Signals that an I/O exception has occurred.
 	 */
 	Object deserialize(byte[] bytes) throws IOException;
+
+	/**
+	 * Serializes an object into an output stream, which is flushed but left
+	 * open.
+	 *
+	 * @param object
+	 *            the object
+	 * @param out
+	 *            the output stream
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	void serialize(Object object, OutputStream out) throws IOException;
+
+	/**
+	 * De-serializes the rest of an input stream into an object. The stream is
+	 * left open.
+	 *
+	 * @param in
+	 *            the input stream
+	 * @return the object
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	Object deserialize(InputStream in) throws IOException;
+
+	/**
+	 * Gets the content type of the serialized objects, naming the serializer
+	 * in the HTTP messages.
+	 *
+	 * @return the content type
+	 */
+	String getContentType();
 }
@@ -60,6 +60,16 @@ public interface StockManager {
 	 */
 	public List<StockBook> getBooksInDemand() throws BookStoreException;
 
+	/**
+	 * Gets the number of editor picks in the stock, which tells how to weigh
+	 * the editor picks of this store against those of other stores.
+	 *
+	 * @return the number of editor picks
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public int getNumEditorPicks() throws BookStoreException;
+
 	/**
 	 * Updates the books by mark/unmark them as editor pick.
 	 *
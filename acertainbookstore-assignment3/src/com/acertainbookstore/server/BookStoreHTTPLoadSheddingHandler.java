@@ -0,0 +1,272 @@
+package com.acertainbookstore.server;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreResponse;
+import com.acertainbookstore.utils.BookStoreWireFormat;
+
+/**
+ * {@link BookStoreHTTPLoadSheddingHandler} bounds the number of requests its
+ * handler serves at once. A request beyond the bound waits in a bounded queue,
+ * suspended without holding a thread, until a request served finishes. A
+ * request finding the queue full, or waiting longer than the queue timeout, is
+ * answered at once with 503 Service Unavailable and a
+ * {@link BookStoreException} in its wire format, so an overloaded server
+ * answers quickly instead of piling up latency until the clients time out.
+ */
+public class BookStoreHTTPLoadSheddingHandler extends HandlerWrapper {
+
+	/** The Constant ADMITTED attribute of a request taken from the queue. */
+	private static final String ADMITTED = BookStoreHTTPLoadSheddingHandler.class.getName() + ".admitted";
+
+	/** The permits of the requests served at once. */
+	private final Semaphore permits;
+
+	/** The requests waiting, or null if none may wait. */
+	private final BlockingQueue<QueuedRequest> queue;
+
+	/** The time a request waits at most. */
+	private final long queueTimeoutMillis;
+
+	/**
+	 * A request suspended in the queue, claimed either to be served or to be
+	 * rejected when it times out.
+	 */
+	private final class QueuedRequest implements AsyncListener {
+
+		/** The context of the suspended request. */
+		private final AsyncContext asyncContext;
+
+		/** Whether the request was claimed. */
+		private final AtomicBoolean claimed = new AtomicBoolean();
+
+		/**
+		 * Instantiates a new {@link QueuedRequest}.
+		 *
+		 * @param asyncContext
+		 *            the context of the suspended request
+		 */
+		private QueuedRequest(AsyncContext asyncContext) {
+			this.asyncContext = asyncContext;
+		}
+
+		/**
+		 * Claims the request, to serve or reject it.
+		 *
+		 * @return true, if the request was not claimed yet
+		 */
+		private boolean claim() {
+			return claimed.compareAndSet(false, true);
+		}
+
+		/**
+		 * Rejects the request unless it was claimed, and completes it.
+		 *
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 */
+		private void reject() throws IOException {
+			if (!claim()) {
+				return;
+			}
+
+			queue.remove(this);
+
+			try {
+				BookStoreHTTPLoadSheddingHandler.reject((HttpServletRequest) asyncContext.getRequest(),
+						(HttpServletResponse) asyncContext.getResponse());
+			} finally {
+				asyncContext.complete();
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see javax.servlet.AsyncListener#onTimeout(javax.servlet.AsyncEvent)
+		 */
+		@Override
+		public void onTimeout(AsyncEvent event) throws IOException {
+			reject();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see javax.servlet.AsyncListener#onComplete(javax.servlet.AsyncEvent)
+		 */
+		@Override
+		public void onComplete(AsyncEvent event) {
+			// Nothing to do.
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see javax.servlet.AsyncListener#onError(javax.servlet.AsyncEvent)
+		 */
+		@Override
+		public void onError(AsyncEvent event) {
+			// Nothing to do.
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see
+		 * javax.servlet.AsyncListener#onStartAsync(javax.servlet.AsyncEvent)
+		 */
+		@Override
+		public void onStartAsync(AsyncEvent event) {
+			// Nothing to do.
+		}
+	}
+
+	/**
+	 * Instantiates a new {@link BookStoreHTTPLoadSheddingHandler}.
+	 *
+	 * @param handler
+	 *            the handler of the requests served
+	 * @param maxRequests
+	 *            the maximum number of requests served at once
+	 * @param queueSize
+	 *            the maximum number of requests waiting, or 0 to reject the
+	 *            requests beyond those served at once
+	 * @param queueTimeoutMillis
+	 *            the time a request waits at most
+	 */
+	public BookStoreHTTPLoadSheddingHandler(Handler handler, int maxRequests, int queueSize,
+			long queueTimeoutMillis) {
+		setHandler(handler);
+		this.permits = new Semaphore(maxRequests);
+		this.queue = queueSize > 0 ? new ArrayBlockingQueue<QueuedRequest>(queueSize) : null;
+		this.queueTimeoutMillis = queueTimeoutMillis;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.eclipse.jetty.server.handler.HandlerWrapper#handle(java.lang.String,
+	 * org.eclipse.jetty.server.Request, javax.servlet.http.HttpServletRequest,
+	 * javax.servlet.http.HttpServletResponse)
+	 */
+	@Override
+	public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+			throws IOException, ServletException {
+		// A request taken from the queue holds the permit of the one it follows.
+		if (request.getAttribute(ADMITTED) == null && !permits.tryAcquire()) {
+			enqueue(baseRequest, request, response);
+			return;
+		}
+
+		try {
+			super.handle(target, baseRequest, request, response);
+		} finally {
+			release();
+		}
+	}
+
+	/**
+	 * Suspends a request in the queue, or rejects it if the queue is full.
+	 *
+	 * @param baseRequest
+	 *            the Jetty request
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void enqueue(Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+			throws IOException {
+		if (queue == null || queue.remainingCapacity() == 0) {
+			reject(request, response);
+			baseRequest.setHandled(true);
+			return;
+		}
+
+		AsyncContext asyncContext = request.startAsync();
+		asyncContext.setTimeout(queueTimeoutMillis);
+		QueuedRequest queuedRequest = new QueuedRequest(asyncContext);
+		asyncContext.addListener(queuedRequest);
+
+		if (!queue.offer(queuedRequest)) {
+			queuedRequest.reject();
+			return;
+		}
+
+		// The requests served may have finished before this one was queued.
+		if (permits.tryAcquire()) {
+			release();
+		}
+	}
+
+	/**
+	 * Releases the permit of a request served, handing it over to the first
+	 * request waiting, if any.
+	 */
+	private void release() {
+		QueuedRequest next;
+
+		while (queue != null && (next = queue.poll()) != null) {
+			if (!next.claim()) {
+				continue;
+			}
+
+			try {
+				next.asyncContext.getRequest().setAttribute(ADMITTED, Boolean.TRUE);
+				next.asyncContext.dispatch();
+				return;
+			} catch (IllegalStateException ex) {
+				// The request expired meanwhile.
+			}
+		}
+
+		permits.release();
+
+		// A request may have been queued after the queue was found empty.
+		if (queue != null && !queue.isEmpty() && permits.tryAcquire()) {
+			release();
+		}
+	}
+
+	/**
+	 * Answers a request with 503 Service Unavailable and the exception of an
+	 * overloaded server.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static void reject(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		BookStoreWireFormat wireFormat = BookStoreHTTPMessageHandler.wireFormatOf(request);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+		bookStoreResponse.setException(new BookStoreException(BookStoreConstants.OVERLOADED));
+
+		response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+		response.setContentType(wireFormat.getContentType());
+		wireFormat.getSerializers().get().serialize(bookStoreResponse, response.getOutputStream());
+	}
+}
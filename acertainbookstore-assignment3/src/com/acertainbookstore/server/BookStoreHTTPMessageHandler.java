@@ -3,28 +3,39 @@ package com.acertainbookstore.server;
 import java.io.IOException;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookStoreOperation;
+import com.acertainbookstore.business.BookStoreReplicationBatch;
+import com.acertainbookstore.business.BuyBooksTransaction;
 import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.CompactCertainBookStore;
+import com.acertainbookstore.business.ReplicatedCertainBookStore;
 import com.acertainbookstore.business.StockBook;
-import com.acertainbookstore.utils.BookStoreKryoSerializer;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.BookStoreParticipant;
+import com.acertainbookstore.interfaces.BookStoreReplica;
+import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
-import com.acertainbookstore.utils.BookStoreXStreamSerializer;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreMessageTag;
 import com.acertainbookstore.utils.BookStoreResponse;
 import com.acertainbookstore.utils.BookStoreUtility;
-import com.esotericsoftware.kryo.io.Input;
+import com.acertainbookstore.utils.BookStoreWireFormat;
 
 /**
  * {@link BookStoreHTTPMessageHandler} implements the message handler class
@@ -39,28 +50,62 @@ import com.esotericsoftware.kryo.io.Input;
 public class BookStoreHTTPMessageHandler extends AbstractHandler {
 
 	/** The book store. */
-	private CertainBookStore myBookStore = null;
+	private BookStore myBookStore = null;
 
-	/** The serializer. */
-	private static ThreadLocal<BookStoreSerializer> serializer;
+	/** The stock manager, backed by the same store. */
+	private StockManager myStockManager = null;
+
+	/** The participant in purchases spanning servers, or null if unsupported. */
+	private BookStoreParticipant myParticipant = null;
+
+	/** The replicated store, or null if the store is not replicated. */
+	private ReplicatedCertainBookStore myReplicatedStore = null;
 
 	/**
 	 * Instantiates a new {@link BookStoreHTTPMessageHandler}.
 	 *
+	 * @param <T>
+	 *            the type of the store, such as {@link CertainBookStore} or
+	 *            {@link CompactCertainBookStore}
 	 * @param bookStore
 	 *            the book store
 	 */
-	public BookStoreHTTPMessageHandler(CertainBookStore bookStore) {
+	public <T extends BookStore & StockManager> BookStoreHTTPMessageHandler(T bookStore) {
 		myBookStore = bookStore;
+		myStockManager = bookStore;
 
-		// Setup the type of serializer.
-		if (BookStoreConstants.BINARY_SERIALIZATION) {
-			serializer = ThreadLocal.withInitial(BookStoreKryoSerializer::new);
-		} else {
-			serializer = ThreadLocal.withInitial(BookStoreXStreamSerializer::new);
+		if (bookStore instanceof BookStoreParticipant) {
+			myParticipant = (BookStoreParticipant) bookStore;
+		}
+
+		if (bookStore instanceof ReplicatedCertainBookStore) {
+			myReplicatedStore = (ReplicatedCertainBookStore) bookStore;
 		}
 	}
 
+	/**
+	 * Gets the wire format of the response to a request: the format of the
+	 * request, or else of the responses it accepts, so clients using
+	 * different formats share the server.
+	 *
+	 * @param request
+	 *            the request
+	 * @return the wire format
+	 */
+	static BookStoreWireFormat wireFormatOf(HttpServletRequest request) {
+		BookStoreWireFormat wireFormat = BookStoreWireFormat.forContentType(request.getContentType());
+
+		if (wireFormat == null) {
+			wireFormat = BookStoreWireFormat.forContentType(request.getHeader(HttpHeader.ACCEPT.asString()));
+		}
+
+		if (wireFormat == null) {
+			wireFormat = BookStoreWireFormat.getDefault();
+		}
+
+		return wireFormat;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -76,6 +121,10 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 		response.setStatus(HttpServletResponse.SC_OK);
 		requestURI = request.getRequestURI();
 
+		BookStoreWireFormat wireFormat = wireFormatOf(request);
+		BookStoreSerializer serializer = wireFormat.getSerializers().get();
+		response.setContentType(wireFormat.getContentType());
+
 		// Need to do request multiplexing
 		if (!BookStoreUtility.isEmpty(requestURI) && requestURI.toLowerCase().startsWith("/stock")) {
 			// The request is from the store manager; more sophisticated.
@@ -91,43 +140,75 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 		} else {
 			switch (messageTag) {
 			case REMOVEBOOKS:
-				removeBooks(request, response);
+				removeBooks(request, response, serializer);
 				break;
 
 			case REMOVEALLBOOKS:
-				removeAllBooks(response);
+				removeAllBooks(response, serializer);
 				break;
 
 			case ADDBOOKS:
-				addBooks(request, response);
+				addBooks(request, response, serializer);
 				break;
 
 			case ADDCOPIES:
-				addCopies(request, response);
+				addCopies(request, response, serializer);
 				break;
 
 			case LISTBOOKS:
-				listBooks(response);
+				listBooks(response, serializer);
 				break;
 
 			case UPDATEEDITORPICKS:
-				updateEditorPicks(request, response);
+				updateEditorPicks(request, response, serializer);
 				break;
 
 			case BUYBOOKS:
-				buyBooks(request, response);
+				buyBooks(request, response, serializer);
 				break;
 
 			case GETBOOKS:
-				getBooks(request, response);
+				getBooks(request, response, serializer);
 				break;
 
 			case GETEDITORPICKS:
-				getEditorPicks(request, response);
+				getEditorPicks(request, response, serializer);
 				break;
 
 			case GETSTOCKBOOKSBYISBN:
-				getStockBooksByISBN(request, response);
+				getStockBooksByISBN(request, response, serializer);
+				break;
+
+			case GETNUMEDITORPICKS:
+				getNumEditorPicks(response, serializer);
+				break;
+
+			case PREPAREBUYBOOKS:
+				prepareBuyBooks(request, response, serializer);
+				break;
+
+			case COMMITBUYBOOKS:
+				commitBuyBooks(request, response, serializer);
+				break;
+
+			case ABORTBUYBOOKS:
+				abortBuyBooks(request, response, serializer);
+				break;
+
+			case ENDBUYBOOKS:
+				endBuyBooks(request, response, serializer);
+				break;
+
+			case REPLICATE:
+				replicate(request, response, serializer);
+				break;
+
+			case PROMOTE:
+				promote(response, serializer);
+				break;
+
+			case BATCH:
+				batch(request, response, serializer);
 				break;
 
 			default:
@@ -147,24 +228,24 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 *            the request
 	 * @param response
 	 *            the response
+	 * @param serializer
+	 *            the serializer of the request
 	 * @throws IOException
 	 *             Signals that an I/O exception has occurred.
 	 */
 	@SuppressWarnings("unchecked")
-	private void getStockBooksByISBN(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
-
-		Set<Integer> isbnSet = (Set<Integer>) serializer.get().deserialize(serializedRequestContent);
+	private void getStockBooksByISBN(HttpServletRequest request, HttpServletResponse response,
+			BookStoreSerializer serializer) throws IOException {
+		Set<Integer> isbnSet = (Set<Integer>) serializer.deserialize(request.getInputStream());
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
-			bookStoreResponse.setList(myBookStore.getBooksByISBN(isbnSet));
+			bookStoreResponse.setList(myStockManager.getBooksByISBN(isbnSet));
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		serializer.serialize(bookStoreResponse, response.getOutputStream());
 	}
 
 	/**
@@ -174,22 +255,25 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 *            the request
 	 * @param response
 	 *            the response
+	 * @param serializer
+	 *            the serializer of the request
 	 * @throws IOException
 	 *             Signals that an I/O exception has occurred.
 	 */
-	private void getEditorPicks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+	private void getEditorPicks(HttpServletRequest request, HttpServletResponse response,
+			BookStoreSerializer serializer) throws IOException {
 		String numBooksString = URLDecoder.decode(request.getParameter(BookStoreConstants.BOOK_NUM_PARAM), StandardCharsets.UTF_8);
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
 			int numBooks = BookStoreUtility.convertStringToInt(numBooksString);
+			checkStaleness(request);
 			bookStoreResponse.setList(myBookStore.getEditorPicks(numBooks));
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		serializer.serialize(bookStoreResponse, response.getOutputStream());
 	}
 
 	/**
@@ -199,24 +283,25 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 *            the request
 	 * @param response
 	 *            the response
+	 * @param serializer
+	 *            the serializer of the request
 	 * @throws IOException
 	 *             Signals that an I/O exception has occurred.
 	 */
 	@SuppressWarnings("unchecked")
-	private void getBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
-
-		Set<Integer> isbnSet = (Set<Integer>) serializer.get().deserialize(serializedRequestContent);
+	private void getBooks(HttpServletRequest request, HttpServletResponse response,
+			BookStoreSerializer serializer) throws IOException {
+		Set<Integer> isbnSet = (Set<Integer>) serializer.deserialize(request.getInputStream());
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
+			checkStaleness(request);
 			bookStoreResponse.setList(myBookStore.getBooks(isbnSet));
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		serializer.serialize(bookStoreResponse, response.getOutputStream());
 	}
 
 	/**
@@ -226,14 +311,15 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 *            the request
 	 * @param response
 	 *            the response
+	 * @param serializer
+	 *            the serializer of the request
 	 * @throws IOException
 	 *             Signals that an I/O exception has occurred.
 	 */
 	@SuppressWarnings("unchecked")
-	private void buyBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
-
-		Set<BookCopy> bookCopiesToBuy = (Set<BookCopy>) serializer.get().deserialize(serializedRequestContent);
+	private void buyBooks(HttpServletRequest request, HttpServletResponse response,
+			BookStoreSerializer serializer) throws IOException {
+		Set<BookCopy> bookCopiesToBuy = (Set<BookCopy>) serializer.deserialize(request.getInputStream());
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
@@ -242,167 +328,469 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		serializer.serialize(bookStoreResponse, response.getOutputStream());
 	}
 
 	/**
-	 * Updates editor picks.
+	 * Prepares a purchase spanning several servers.
 	 *
 	 * @param request
 	 *            the request
 	 * @param response
 	 *            the response
+	 * @param serializer
+	 *            the serializer of the request
 	 * @throws IOException
 	 *             Signals that an I/O exception has occurred.
 	 */
-	@SuppressWarnings("unchecked")
-	private void updateEditorPicks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
+	private void prepareBuyBooks(HttpServletRequest request, HttpServletResponse response,
+			BookStoreSerializer serializer) throws IOException {
+		BuyBooksTransaction transaction = (BuyBooksTransaction) serializer
+				.deserialize(request.getInputStream());
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			bookStoreResponse.setList(
+					getParticipant().prepareBuyBooks(transaction.getTransactionId(), transaction.getBookCopies()));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		serializer.serialize(bookStoreResponse, response.getOutputStream());
+	}
 
-		Set<BookEditorPick> mapEditorPicksValues = (Set<BookEditorPick>) serializer.get()
-				.deserialize(serializedRequestContent);
+	/**
+	 * Commits a purchase spanning several servers.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @param serializer
+	 *            the serializer of the request
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void commitBuyBooks(HttpServletRequest request, HttpServletResponse response,
+			BookStoreSerializer serializer) throws IOException {
+		BuyBooksTransaction transaction = (BuyBooksTransaction) serializer
+				.deserialize(request.getInputStream());
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
-			myBookStore.updateEditorPicks(mapEditorPicksValues);
+			getParticipant().commitBuyBooks(transaction.getTransactionId());
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		serializer.serialize(bookStoreResponse, response.getOutputStream());
 	}
 
 	/**
-	 * Lists the books.
+	 * Aborts a purchase spanning several servers.
 	 *
+	 * @param request
+	 *            the request
 	 * @param response
 	 *            the response
+	 * @param serializer
+	 *            the serializer of the request
 	 * @throws IOException
 	 *             Signals that an I/O exception has occurred.
 	 */
-	private void listBooks(HttpServletResponse response) throws IOException {
+	private void abortBuyBooks(HttpServletRequest request, HttpServletResponse response,
+			BookStoreSerializer serializer) throws IOException {
+		BuyBooksTransaction transaction = (BuyBooksTransaction) serializer
+				.deserialize(request.getInputStream());
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
-		bookStoreResponse.setList(myBookStore.getBooks());
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		try {
+			getParticipant().abortBuyBooks(transaction.getTransactionId(), transaction.isRecordSaleMisses());
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		serializer.serialize(bookStoreResponse, response.getOutputStream());
 	}
 
 	/**
-	 * Adds the copies.
+	 * Ends a purchase spanning several servers.
 	 *
 	 * @param request
 	 *            the request
 	 * @param response
 	 *            the response
+	 * @param serializer
+	 *            the serializer of the request
 	 * @throws IOException
 	 *             Signals that an I/O exception has occurred.
 	 */
-	@SuppressWarnings("unchecked")
-	private void addCopies(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
+	private void endBuyBooks(HttpServletRequest request, HttpServletResponse response,
+			BookStoreSerializer serializer) throws IOException {
+		BuyBooksTransaction transaction = (BuyBooksTransaction) serializer
+				.deserialize(request.getInputStream());
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			getParticipant().endBuyBooks(transaction.getTransactionId());
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		serializer.serialize(bookStoreResponse, response.getOutputStream());
+	}
 
-		Set<BookCopy> listBookCopies = (Set<BookCopy>) serializer.get().deserialize(serializedRequestContent);
+	/**
+	 * Applies the mutations shipped by the primary to the backup.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @param serializer
+	 *            the serializer of the request
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void replicate(HttpServletRequest request, HttpServletResponse response,
+			BookStoreSerializer serializer) throws IOException {
+		BookStoreReplicationBatch batch = (BookStoreReplicationBatch) serializer
+				.deserialize(request.getInputStream());
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
-			myBookStore.addCopies(listBookCopies);
+			bookStoreResponse.setList(Collections.singletonList(getReplica().replicate(batch)));
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		serializer.serialize(bookStoreResponse, response.getOutputStream());
 	}
 
 	/**
-	 * Adds the books.
+	 * Promotes the backup to a primary.
+	 *
+	 * @param response
+	 *            the response
+	 * @param serializer
+	 *            the serializer of the request
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void promote(HttpServletResponse response, BookStoreSerializer serializer) throws IOException {
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			getReplica().promote();
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		serializer.serialize(bookStoreResponse, response.getOutputStream());
+	}
+
+	/**
+	 * Executes a batch of operations in order, answering with the response of
+	 * each operation.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @param serializer
+	 *            the serializer of the request
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@SuppressWarnings("unchecked")
+	private void batch(HttpServletRequest request, HttpServletResponse response,
+			BookStoreSerializer serializer) throws IOException {
+		List<BookStoreOperation> operations = (List<BookStoreOperation>) serializer
+				.deserialize(request.getInputStream());
+		List<BookStoreResponse> operationResponses = new ArrayList<BookStoreResponse>(operations.size());
+
+		for (BookStoreOperation operation : operations) {
+			BookStoreResponse operationResponse = new BookStoreResponse();
+
+			try {
+				operationResponse.setList(execute(request, operation));
+			} catch (BookStoreException ex) {
+				operationResponse.setException(ex);
+			}
+
+			operationResponses.add(operationResponse);
+		}
+
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+		bookStoreResponse.setList(operationResponses);
+
+		serializer.serialize(bookStoreResponse, response.getOutputStream());
+	}
+
+	/**
+	 * Executes an operation of a batch.
+	 *
+	 * @param request
+	 *            the request of the batch
+	 * @param operation
+	 *            the operation
+	 * @return the result of the operation, or null if it has none
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@SuppressWarnings("unchecked")
+	private List<?> execute(HttpServletRequest request, BookStoreOperation operation) throws BookStoreException {
+		switch (operation.getMessageTag()) {
+		case BUYBOOKS:
+			myBookStore.buyBooks((Set<BookCopy>) operation.getArgument());
+			return null;
+
+		case GETBOOKS:
+			checkStaleness(request);
+			return myBookStore.getBooks((Set<Integer>) operation.getArgument());
+
+		case GETEDITORPICKS:
+			checkStaleness(request);
+			return myBookStore.getEditorPicks((Integer) operation.getArgument());
+
+		default:
+			throw new BookStoreException(
+					BookStoreConstants.OPERATION + operation.getMessageTag() + BookStoreConstants.NOT_SUPPORTED);
+		}
+	}
+
+	/**
+	 * Gets the replicated store.
+	 *
+	 * @return the replicated store
+	 * @throws BookStoreException
+	 *             if the store is not replicated
+	 */
+	private BookStoreReplica getReplica() throws BookStoreException {
+		if (myReplicatedStore == null) {
+			throw new BookStoreException(BookStoreConstants.BACKUP + BookStoreConstants.NOT_SUPPORTED);
+		}
+
+		return myReplicatedStore;
+	}
+
+	/**
+	 * Checks that a read bounding the staleness of its result is not served by
+	 * a backup that is further behind its primary.
+	 *
+	 * @param request
+	 *            the request
+	 * @throws BookStoreException
+	 *             if the backup is stale
+	 */
+	private void checkStaleness(HttpServletRequest request) throws BookStoreException {
+		String stalenessString = request.getParameter(BookStoreConstants.STALENESS_PARAM);
+
+		if (stalenessString == null || myReplicatedStore == null) {
+			return;
+		}
+
+		long maxStalenessMillis;
+
+		try {
+			maxStalenessMillis = Long.parseLong(stalenessString);
+		} catch (NumberFormatException ex) {
+			throw new BookStoreException(BookStoreConstants.STALENESS_PARAM + BookStoreConstants.INVALID, ex);
+		}
+
+		if (myReplicatedStore.getStalenessMillis() > maxStalenessMillis) {
+			throw new BookStoreException(BookStoreConstants.BACKUP + BookStoreConstants.STALE);
+		}
+	}
+
+	/**
+	 * Gets the participant in purchases spanning servers.
+	 *
+	 * @return the participant
+	 * @throws BookStoreException
+	 *             if the store cannot take part in such purchases
+	 */
+	private BookStoreParticipant getParticipant() throws BookStoreException {
+		if (myParticipant == null) {
+			throw new BookStoreException(BookStoreConstants.TRANSACTION + BookStoreConstants.NOT_SUPPORTED);
+		}
+
+		return myParticipant;
+	}
+
+	/**
+	 * Updates editor picks.
 	 *
 	 * @param request
 	 *            the request
 	 * @param response
 	 *            the response
+	 * @param serializer
+	 *            the serializer of the request
 	 * @throws IOException
 	 *             Signals that an I/O exception has occurred.
 	 */
 	@SuppressWarnings("unchecked")
-	private void addBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
+	private void updateEditorPicks(HttpServletRequest request, HttpServletResponse response,
+			BookStoreSerializer serializer) throws IOException {
+		Set<BookEditorPick> mapEditorPicksValues = (Set<BookEditorPick>) serializer
+				.deserialize(request.getInputStream());
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			myStockManager.updateEditorPicks(mapEditorPicksValues);
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		serializer.serialize(bookStoreResponse, response.getOutputStream());
+	}
 
-		Set<StockBook> newBooks = (Set<StockBook>) serializer.get().deserialize(serializedRequestContent);
+	/**
+	 * Gets the number of editor picks.
+	 *
+	 * @param response
+	 *            the response
+	 * @param serializer
+	 *            the serializer of the request
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void getNumEditorPicks(HttpServletResponse response, BookStoreSerializer serializer)
+			throws IOException {
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
-			myBookStore.addBooks(newBooks);
+			bookStoreResponse.setList(Collections.singletonList(myStockManager.getNumEditorPicks()));
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		serializer.serialize(bookStoreResponse, response.getOutputStream());
 	}
 
 	/**
-	 * Removes all books.
+	 * Lists the books.
 	 *
 	 * @param response
 	 *            the response
+	 * @param serializer
+	 *            the serializer of the request
 	 * @throws IOException
 	 *             Signals that an I/O exception has occurred.
 	 */
-	private void removeAllBooks(HttpServletResponse response) throws IOException {
+	private void listBooks(HttpServletResponse response, BookStoreSerializer serializer) throws IOException {
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
-			myBookStore.removeAllBooks();
+			bookStoreResponse.setList(myStockManager.getBooks());
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		serializer.serialize(bookStoreResponse, response.getOutputStream());
 	}
 
 	/**
-	 * Removes the books.
+	 * Adds the copies.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @param serializer
+	 *            the serializer of the request
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@SuppressWarnings("unchecked")
+	private void addCopies(HttpServletRequest request, HttpServletResponse response,
+			BookStoreSerializer serializer) throws IOException {
+		Set<BookCopy> listBookCopies = (Set<BookCopy>) serializer.deserialize(request.getInputStream());
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			myStockManager.addCopies(listBookCopies);
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		serializer.serialize(bookStoreResponse, response.getOutputStream());
+	}
+
+	/**
+	 * Adds the books.
 	 *
 	 * @param request
 	 *            the request
 	 * @param response
 	 *            the response
+	 * @param serializer
+	 *            the serializer of the request
 	 * @throws IOException
 	 *             Signals that an I/O exception has occurred.
 	 */
 	@SuppressWarnings("unchecked")
-	private void removeBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
+	private void addBooks(HttpServletRequest request, HttpServletResponse response,
+			BookStoreSerializer serializer) throws IOException {
+		Set<StockBook> newBooks = (Set<StockBook>) serializer.deserialize(request.getInputStream());
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			myStockManager.addBooks(newBooks);
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
 
-		Set<Integer> bookSet = (Set<Integer>) serializer.get().deserialize(serializedRequestContent);
+		serializer.serialize(bookStoreResponse, response.getOutputStream());
+	}
+
+	/**
+	 * Removes all books.
+	 *
+	 * @param response
+	 *            the response
+	 * @param serializer
+	 *            the serializer of the request
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void removeAllBooks(HttpServletResponse response, BookStoreSerializer serializer) throws IOException {
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
-			myBookStore.removeBooks(bookSet);
+			myStockManager.removeAllBooks();
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		serializer.serialize(bookStoreResponse, response.getOutputStream());
 	}
 
 	/**
-	 * Gets the serialized request content.
+	 * Removes the books.
 	 *
-	 * @param request the request
-	 * @return the serialized request content
-	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @param serializer
+	 *            the serializer of the request
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
 	 */
-	private byte[] getSerializedRequestContent(HttpServletRequest request) throws IOException {
-		Input in = new Input(request.getInputStream());
-		byte[] serializedRequestContent = in.readBytes(request.getContentLength());
-		in.close();
-		return serializedRequestContent;
+	@SuppressWarnings("unchecked")
+	private void removeBooks(HttpServletRequest request, HttpServletResponse response,
+			BookStoreSerializer serializer) throws IOException {
+		Set<Integer> bookSet = (Set<Integer>) serializer.deserialize(request.getInputStream());
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			myStockManager.removeBooks(bookSet);
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		serializer.serialize(bookStoreResponse, response.getOutputStream());
 	}
 }
@@ -1,9 +1,25 @@
 package com.acertainbookstore.server;
 
-import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.CompactCertainBookStore;
+import com.acertainbookstore.business.DurableCertainBookStore;
+import com.acertainbookstore.business.PartitionedCertainBookStore;
+import com.acertainbookstore.business.ReplicatedCertainBookStore;
+import com.acertainbookstore.client.StockManagerHTTPProxy;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.BookStoreLoader;
+import com.acertainbookstore.interfaces.BookStoreParticipant;
+import com.acertainbookstore.interfaces.BookStoreReplica;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreCatalog;
 import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreVirtualThreadPool;
 
 /**
  * Starts the {@link BookStoreHTTPServer} that the clients will communicate
@@ -11,10 +27,8 @@ import com.acertainbookstore.utils.BookStoreConstants;
  */
 public class BookStoreHTTPServer {
 
-	/** The Constant defaultListenOnPort. */
-	private static final int DEFAULT_PORT = 8081;
-	private static final int MIN_THREADPOOL_SIZE = 10;
-	private static final int MAX_THREADPOOL_SIZE = 100;
+	/** The Constant DEFAULT_CHECKPOINT_INTERVAL_SECS. */
+	private static final long DEFAULT_CHECKPOINT_INTERVAL_SECS = 60;
 
 	/**
 	 * Prevents the instantiation of a new {@link BookStoreHTTPServer}.
@@ -30,21 +44,144 @@ public class BookStoreHTTPServer {
 	 *            the arguments
 	 */
 	public static void main(String[] args) {
-		CertainBookStore bookStore = new CertainBookStore();
-		int listenOnPort = DEFAULT_PORT;
+		BookStoreHTTPMessageHandler handler;
+		String logFile = System.getProperty(BookStoreConstants.PROPERTY_KEY_LOG_FILE);
 
-		BookStoreHTTPMessageHandler handler = new BookStoreHTTPMessageHandler(bookStore);
-		String serverPortString = System.getProperty(BookStoreConstants.PROPERTY_KEY_SERVER_PORT);
+		try {
+			if (Integer.getInteger(BookStoreConstants.PROPERTY_KEY_PARTITIONS, 0) > 0) {
+				handler = createHandler(
+						new PartitionedCertainBookStore(Integer.getInteger(BookStoreConstants.PROPERTY_KEY_PARTITIONS)),
+						logFile);
+			} else if (Boolean.getBoolean(BookStoreConstants.PROPERTY_KEY_COMPACT_STORE)) {
+				handler = createHandler(new CompactCertainBookStore(), logFile);
+			} else {
+				handler = createHandler(new CertainBookStore(), logFile);
+			}
+		} catch (IOException ex) {
+			System.err.println("The store could not be restored: " + ex.getMessage());
+			return;
+		} catch (BookStoreException ex) {
+			System.err.println("The catalog could not be loaded: " + ex.getMessage());
+			return;
+		}
+
+		if (Boolean.getBoolean(BookStoreConstants.PROPERTY_KEY_VIRTUAL_THREADS)
+				&& !BookStoreVirtualThreadPool.isSupported()) {
+			System.err.println("Virtual threads need Java " + BookStoreVirtualThreadPool.MIN_JAVA_VERSION
+					+ ", using a pool of platform threads");
+		}
+
+		BookStoreHTTPServerUtility.createServer(handler, BookStoreHTTPServerConfiguration.fromSystemProperties());
+	}
+
+	/**
+	 * Creates the handler of the store. A backup server follows its primary
+	 * and is restored from it rather than from a log or catalog. A primary
+	 * server ships its updates to the backups given, and is otherwise created
+	 * as by {@link #createDurableHandler(BookStore, String)}.
+	 *
+	 * @param <T>
+	 *            the type of the store
+	 * @param store
+	 *            the store
+	 * @param logFile
+	 *            the log file, or null
+	 * @return the handler
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws BookStoreException
+	 *             if the catalog has invalid books
+	 */
+	private static <T extends BookStore & StockManager & BookStoreLoader & BookStoreParticipant>
+			BookStoreHTTPMessageHandler createHandler(T store, String logFile) throws IOException, BookStoreException {
+		if (Boolean.getBoolean(BookStoreConstants.PROPERTY_KEY_BACKUP)) {
+			return new BookStoreHTTPMessageHandler(new ReplicatedCertainBookStore(store));
+		}
+
+		String backupAddresses = System.getProperty(BookStoreConstants.PROPERTY_KEY_BACKUPS);
+
+		if (backupAddresses == null) {
+			return createDurableHandler(store, logFile);
+		}
 
-		if (serverPortString != null) {
+		List<BookStoreReplica> backups = new ArrayList<>();
+
+		for (String backupAddress : backupAddresses.split(",")) {
 			try {
-				listenOnPort = Integer.parseInt(serverPortString);
+				backups.add(new StockManagerHTTPProxy(backupAddress.trim() + "/stock"));
+			} catch (Exception ex) {
+				throw new IOException("The backup " + backupAddress + " could not be reached", ex);
+			}
+		}
+
+		return createDurableHandler(new ReplicatedCertainBookStore(store, backups), logFile);
+	}
+
+	/**
+	 * Creates the handler of the store, making the store durable if a log file
+	 * is given, and checkpointing it if a checkpoint file is given too. If a
+	 * catalog file is given and the store is empty once restored, the catalog
+	 * is bulk loaded into it.
+	 *
+	 * @param <T>
+	 *            the type of the store
+	 * @param store
+	 *            the store
+	 * @param logFile
+	 *            the log file, or null
+	 * @return the handler
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws BookStoreException
+	 *             if the catalog has invalid books
+	 */
+	private static <T extends BookStore & StockManager & BookStoreLoader & BookStoreParticipant>
+			BookStoreHTTPMessageHandler createDurableHandler(T store, String logFile)
+					throws IOException, BookStoreException {
+		if (logFile == null) {
+			loadCatalog(store);
+			return new BookStoreHTTPMessageHandler(store);
+		}
+
+		String checkpointFile = System.getProperty(BookStoreConstants.PROPERTY_KEY_CHECKPOINT_FILE);
+		String checkpointIntervalString = System.getProperty(BookStoreConstants.PROPERTY_KEY_CHECKPOINT_INTERVAL);
+		long checkpointIntervalSecs = DEFAULT_CHECKPOINT_INTERVAL_SECS;
+
+		if (checkpointIntervalString != null) {
+			try {
+				checkpointIntervalSecs = Long.parseLong(checkpointIntervalString);
 			} catch (NumberFormatException ex) {
-				System.err.println("Unsupported message tag");
+				System.err.println("Unsupported checkpoint interval");
 			}
 		}
 
-		QueuedThreadPool threadpool = new QueuedThreadPool(MAX_THREADPOOL_SIZE, MIN_THREADPOOL_SIZE);
-		BookStoreHTTPServerUtility.createServer(listenOnPort, handler, threadpool);
+		DurableCertainBookStore durableStore = new DurableCertainBookStore(store, Paths.get(logFile),
+				checkpointFile == null ? null : Paths.get(checkpointFile), checkpointIntervalSecs);
+		loadCatalog(durableStore);
+		return new BookStoreHTTPMessageHandler(durableStore);
+	}
+
+	/**
+	 * Bulk loads the catalog file into the store if one is given and the store
+	 * is empty.
+	 *
+	 * @param <T>
+	 *            the type of the store
+	 * @param store
+	 *            the store
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws BookStoreException
+	 *             if the catalog has invalid books
+	 */
+	private static <T extends StockManager & BookStoreLoader> void loadCatalog(T store)
+			throws IOException, BookStoreException {
+		String catalogFile = System.getProperty(BookStoreConstants.PROPERTY_KEY_CATALOG_FILE);
+
+		if (catalogFile == null || !store.getBooks().isEmpty()) {
+			return;
+		}
+
+		store.loadBooks(BookStoreCatalog.read(Paths.get(catalogFile)));
 	}
 }
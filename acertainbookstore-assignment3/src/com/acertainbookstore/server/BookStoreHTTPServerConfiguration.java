@@ -0,0 +1,293 @@
+package com.acertainbookstore.server;
+
+import com.acertainbookstore.utils.BookStoreConstants;
+
+/**
+ * {@link BookStoreHTTPServerConfiguration} configures the runtime of a
+ * bookstore server: its port, its thread pool, the acceptors and selectors of
+ * its connector and the protocols it serves, and how many requests it handles at once and queues before
+ * answering with 503 Service Unavailable. Each setting defaults to the value
+ * the server used before it could be configured, and can be set at startup by
+ * a system property.
+ */
+public class BookStoreHTTPServerConfiguration {
+
+	/** The Constant DEFAULT_PORT. */
+	public static final int DEFAULT_PORT = 8081;
+
+	/** The Constant DEFAULT_MIN_THREADS. */
+	public static final int DEFAULT_MIN_THREADS = 10;
+
+	/** The Constant DEFAULT_MAX_THREADS. */
+	public static final int DEFAULT_MAX_THREADS = 100;
+
+	/** The Constant DEFAULT_ACCEPTORS, letting Jetty pick their number. */
+	public static final int DEFAULT_ACCEPTORS = -1;
+
+	/** The Constant DEFAULT_SELECTORS, letting Jetty pick their number. */
+	public static final int DEFAULT_SELECTORS = -1;
+
+	/** The Constant DEFAULT_IDLE_TIMEOUT_MILLISECS of a connection. */
+	public static final long DEFAULT_IDLE_TIMEOUT_MILLISECS = 30000;
+
+	/** The Constant DEFAULT_MAX_REQUESTS handled at once, no limit. */
+	public static final int DEFAULT_MAX_REQUESTS = 0;
+
+	/** The Constant DEFAULT_QUEUE_SIZE of the requests waiting. */
+	public static final int DEFAULT_QUEUE_SIZE = 1000;
+
+	/** The Constant DEFAULT_QUEUE_TIMEOUT_MILLISECS a request waits at most. */
+	public static final long DEFAULT_QUEUE_TIMEOUT_MILLISECS = 2000;
+
+	/** The port, or 0 for a free port. */
+	private int port = DEFAULT_PORT;
+
+	/** The minimum number of threads. */
+	private int minThreads = DEFAULT_MIN_THREADS;
+
+	/** The maximum number of threads. */
+	private int maxThreads = DEFAULT_MAX_THREADS;
+
+	/** The number of acceptors, or -1 for the default. */
+	private int acceptors = DEFAULT_ACCEPTORS;
+
+	/** The number of selectors, or -1 for the default. */
+	private int selectors = DEFAULT_SELECTORS;
+
+	/** The idle timeout of a connection. */
+	private long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLISECS;
+
+	/** The maximum number of requests handled at once, or 0 for no limit. */
+	private int maxRequests = DEFAULT_MAX_REQUESTS;
+
+	/** The maximum number of requests waiting to be handled. */
+	private int queueSize = DEFAULT_QUEUE_SIZE;
+
+	/** The time a request waits at most to be handled. */
+	private long queueTimeoutMillis = DEFAULT_QUEUE_TIMEOUT_MILLISECS;
+
+	/** Whether cleartext HTTP/2 is served along with HTTP/1.1. */
+	private boolean http2 = false;
+
+	/**
+	 * Creates the configuration set by the system properties, with the
+	 * default of any setting not set. Requests are not shed unless the
+	 * maximum number of requests handled at once is set, or the maximum
+	 * number of threads is: the server then handles at most half as many
+	 * requests as it has threads, leaving the others free to accept, queue
+	 * and reject requests.
+	 *
+	 * @return the configuration
+	 */
+	public static BookStoreHTTPServerConfiguration fromSystemProperties() {
+		BookStoreHTTPServerConfiguration configuration = new BookStoreHTTPServerConfiguration();
+		Integer maxThreads = Integer.getInteger(BookStoreConstants.PROPERTY_KEY_MAX_THREADS);
+		configuration.setPort(Integer.getInteger(BookStoreConstants.PROPERTY_KEY_SERVER_PORT, DEFAULT_PORT));
+		configuration.setMinThreads(
+				Integer.getInteger(BookStoreConstants.PROPERTY_KEY_MIN_THREADS, DEFAULT_MIN_THREADS));
+		configuration.setMaxThreads(maxThreads == null ? DEFAULT_MAX_THREADS : maxThreads);
+		configuration.setAcceptors(Integer.getInteger(BookStoreConstants.PROPERTY_KEY_ACCEPTORS, DEFAULT_ACCEPTORS));
+		configuration.setSelectors(Integer.getInteger(BookStoreConstants.PROPERTY_KEY_SELECTORS, DEFAULT_SELECTORS));
+		configuration.setIdleTimeoutMillis(
+				Long.getLong(BookStoreConstants.PROPERTY_KEY_IDLE_TIMEOUT, DEFAULT_IDLE_TIMEOUT_MILLISECS));
+		configuration.setMaxRequests(Integer.getInteger(BookStoreConstants.PROPERTY_KEY_MAX_REQUESTS,
+				maxThreads == null ? DEFAULT_MAX_REQUESTS : Math.max(maxThreads / 2, 1)));
+		configuration.setQueueSize(
+				Integer.getInteger(BookStoreConstants.PROPERTY_KEY_QUEUE_SIZE, DEFAULT_QUEUE_SIZE));
+		configuration.setQueueTimeoutMillis(
+				Long.getLong(BookStoreConstants.PROPERTY_KEY_QUEUE_TIMEOUT, DEFAULT_QUEUE_TIMEOUT_MILLISECS));
+		configuration.setHttp2(Boolean.getBoolean(BookStoreConstants.PROPERTY_KEY_HTTP2));
+		return configuration;
+	}
+
+	/**
+	 * Gets the port.
+	 *
+	 * @return the port
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * Sets the port.
+	 *
+	 * @param port
+	 *            the port, or 0 for a free port
+	 */
+	public void setPort(int port) {
+		this.port = port;
+	}
+
+	/**
+	 * Gets the minimum number of threads.
+	 *
+	 * @return the minimum number of threads
+	 */
+	public int getMinThreads() {
+		return minThreads;
+	}
+
+	/**
+	 * Sets the minimum number of threads.
+	 *
+	 * @param minThreads
+	 *            the minimum number of threads
+	 */
+	public void setMinThreads(int minThreads) {
+		this.minThreads = minThreads;
+	}
+
+	/**
+	 * Gets the maximum number of threads.
+	 *
+	 * @return the maximum number of threads
+	 */
+	public int getMaxThreads() {
+		return maxThreads;
+	}
+
+	/**
+	 * Sets the maximum number of threads.
+	 *
+	 * @param maxThreads
+	 *            the maximum number of threads
+	 */
+	public void setMaxThreads(int maxThreads) {
+		this.maxThreads = maxThreads;
+	}
+
+	/**
+	 * Gets the number of acceptors.
+	 *
+	 * @return the number of acceptors, or -1 for the default
+	 */
+	public int getAcceptors() {
+		return acceptors;
+	}
+
+	/**
+	 * Sets the number of acceptors.
+	 *
+	 * @param acceptors
+	 *            the number of acceptors, or -1 for the default
+	 */
+	public void setAcceptors(int acceptors) {
+		this.acceptors = acceptors;
+	}
+
+	/**
+	 * Gets the number of selectors.
+	 *
+	 * @return the number of selectors, or -1 for the default
+	 */
+	public int getSelectors() {
+		return selectors;
+	}
+
+	/**
+	 * Sets the number of selectors.
+	 *
+	 * @param selectors
+	 *            the number of selectors, or -1 for the default
+	 */
+	public void setSelectors(int selectors) {
+		this.selectors = selectors;
+	}
+
+	/**
+	 * Gets the idle timeout of a connection.
+	 *
+	 * @return the idle timeout in milliseconds
+	 */
+	public long getIdleTimeoutMillis() {
+		return idleTimeoutMillis;
+	}
+
+	/**
+	 * Sets the idle timeout of a connection.
+	 *
+	 * @param idleTimeoutMillis
+	 *            the idle timeout in milliseconds
+	 */
+	public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+		this.idleTimeoutMillis = idleTimeoutMillis;
+	}
+
+	/**
+	 * Gets the maximum number of requests handled at once.
+	 *
+	 * @return the maximum number of requests, or 0 for no limit
+	 */
+	public int getMaxRequests() {
+		return maxRequests;
+	}
+
+	/**
+	 * Sets the maximum number of requests handled at once.
+	 *
+	 * @param maxRequests
+	 *            the maximum number of requests, or 0 for no limit
+	 */
+	public void setMaxRequests(int maxRequests) {
+		this.maxRequests = maxRequests;
+	}
+
+	/**
+	 * Gets the maximum number of requests waiting to be handled.
+	 *
+	 * @return the size of the queue
+	 */
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+	/**
+	 * Sets the maximum number of requests waiting to be handled.
+	 *
+	 * @param queueSize
+	 *            the size of the queue, or 0 to reject the requests beyond
+	 *            those handled at once
+	 */
+	public void setQueueSize(int queueSize) {
+		this.queueSize = queueSize;
+	}
+
+	/**
+	 * Gets the time a request waits at most to be handled.
+	 *
+	 * @return the timeout in milliseconds
+	 */
+	public long getQueueTimeoutMillis() {
+		return queueTimeoutMillis;
+	}
+
+	/**
+	 * Sets the time a request waits at most to be handled.
+	 *
+	 * @param queueTimeoutMillis
+	 *            the timeout in milliseconds
+	 */
+	public void setQueueTimeoutMillis(long queueTimeoutMillis) {
+		this.queueTimeoutMillis = queueTimeoutMillis;
+	}
+
+	/**
+	 * Checks if cleartext HTTP/2 is served along with HTTP/1.1.
+	 *
+	 * @return true, if HTTP/2 is served
+	 */
+	public boolean isHttp2() {
+		return http2;
+	}
+
+	/**
+	 * Sets whether cleartext HTTP/2 is served along with HTTP/1.1.
+	 *
+	 * @param http2
+	 *            true, to serve HTTP/2
+	 */
+	public void setHttp2(boolean http2) {
+		this.http2 = http2;
+	}
+}
@@ -4,10 +4,16 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.handler.AbstractHandler;
-import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import com.acertainbookstore.utils.BookStoreUtility;
 
 /**
  * {@link BookStoreHTTPServerUtility} creates Jetty server instances.
@@ -22,28 +28,15 @@ public class BookStoreHTTPServerUtility {
 	}
 
 	/**
-	 * Creates a server on the port and blocks the calling thread.
+	 * Creates a server as configured and blocks the calling thread.
 	 *
-	 * @param port
-	 *            the port
 	 * @param handler
 	 *            the handler
-	 * @return true, if successful
+	 * @param configuration
+	 *            the configuration of the server
 	 */
-	public static void createServer(int port, AbstractHandler handler, QueuedThreadPool threadpool) {
-		Server server = null;
-		if (threadpool != null) {
-			server = new Server(threadpool);
-			ServerConnector myConnector = new ServerConnector(server);
-			myConnector.setPort(port);
-			server.addConnector(myConnector);
-		} else {
-			server = new Server(port);
-		}
-
-		if (handler != null) {
-			server.setHandler(handler);
-		}
+	public static void createServer(AbstractHandler handler, BookStoreHTTPServerConfiguration configuration) {
+		Server server = newServer(handler, configuration);
 
 		try {
 			server.start();
@@ -51,7 +44,97 @@ public class BookStoreHTTPServerUtility {
 		} catch (Exception ex) {
 			System.err.println(ex.getStackTrace());
 		}
+	}
 
+	/**
+	 * Starts a server as configured without blocking the calling thread.
+	 *
+	 * @param handler
+	 *            the handler
+	 * @param configuration
+	 *            the configuration of the server
+	 * @return the started server
+	 * @throws Exception
+	 *             if the server could not be started
+	 */
+	public static Server startServer(AbstractHandler handler, BookStoreHTTPServerConfiguration configuration)
+			throws Exception {
+		Server server = newServer(handler, configuration);
+		server.start();
+		return server;
+	}
+
+	/**
+	 * Creates a server as configured. If HTTP/2 is configured, the connector
+	 * serves cleartext HTTP/2 along with HTTP/1.1. If the requests handled at
+	 * once are bounded, the handler is wrapped to queue the requests beyond
+	 * the bound, and reject them once the queue is full.
+	 *
+	 * @param handler
+	 *            the handler
+	 * @param configuration
+	 *            the configuration of the server
+	 * @return the server, not started
+	 */
+	private static Server newServer(AbstractHandler handler, BookStoreHTTPServerConfiguration configuration) {
+		ThreadPool threadPool = BookStoreUtility.newThreadPool(configuration.getMaxThreads(),
+				configuration.getMinThreads());
+		Server server = new Server(threadPool);
+		HttpConfiguration httpConfiguration = new HttpConfiguration();
+		ConnectionFactory[] connectionFactories;
+
+		if (configuration.isHttp2()) {
+			// HTTP/1.1 connections may switch to HTTP/2, or start with it.
+			connectionFactories = new ConnectionFactory[] { new HttpConnectionFactory(httpConfiguration),
+					new HTTP2CServerConnectionFactory(httpConfiguration) };
+		} else {
+			connectionFactories = new ConnectionFactory[] { new HttpConnectionFactory(httpConfiguration) };
+		}
+
+		ServerConnector connector = new ServerConnector(server, configuration.getAcceptors(),
+				configuration.getSelectors(), connectionFactories);
+		connector.setPort(configuration.getPort());
+		connector.setIdleTimeout(configuration.getIdleTimeoutMillis());
+		server.addConnector(connector);
+
+		if (configuration.getMaxRequests() > 0) {
+			server.setHandler(new BookStoreHTTPLoadSheddingHandler(handler, configuration.getMaxRequests(),
+					configuration.getQueueSize(), configuration.getQueueTimeoutMillis()));
+		} else if (handler != null) {
+			server.setHandler(handler);
+		}
+
+		return server;
+	}
+
+	/**
+	 * Starts a server on the port without blocking the calling thread, such as
+	 * one of several servers run by a test. The port 0 picks a free port.
+	 *
+	 * @param port
+	 *            the port
+	 * @param handler
+	 *            the handler
+	 * @return the started server
+	 * @throws Exception
+	 *             if the server could not be started
+	 */
+	public static Server startServer(int port, AbstractHandler handler) throws Exception {
+		Server server = new Server(port);
+		server.setHandler(handler);
+		server.start();
+		return server;
+	}
+
+	/**
+	 * Gets the port a started server listens on.
+	 *
+	 * @param server
+	 *            the server
+	 * @return the port
+	 */
+	public static int getPort(Server server) {
+		return ((ServerConnector) server.getConnectors()[0]).getLocalPort();
 	}
 
 	/**
@@ -0,0 +1,662 @@
+package com.acertainbookstore.utils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.BookStoreMutation;
+import com.acertainbookstore.business.BookStoreOperation;
+import com.acertainbookstore.business.BookStoreReplicationBatch;
+import com.acertainbookstore.business.BuyBooksTransaction;
+import com.acertainbookstore.business.ImmutableBook;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+
+/**
+ * {@link BookStoreBinarySerializer} serializes the messages of the bookstore
+ * with a fixed schema, without reflection. Every value starts with a one byte
+ * tag naming its type among those of the messages, followed by its fields in
+ * a fixed order: integers, such as ISBNs, are zig-zag variable length, prices
+ * are four bytes, and strings are UTF-8 after their length.
+ *
+ * Books are read as {@link ImmutableBook} and {@link ImmutableStockBook},
+ * sets as {@link HashSet}, and lists as {@link ArrayList}. Exceptions keep
+ * their message only.
+ *
+ * @see BookStoreSerializer
+ */
+public final class BookStoreBinarySerializer implements BookStoreSerializer {
+
+	/** The Constant BUFFER_SIZE of the buffer. */
+	private static final int BUFFER_SIZE = 8192;
+
+	/** The Constant NULL tag. */
+	private static final int NULL = 0;
+
+	/** The Constant INTEGER tag. */
+	private static final int INTEGER = 1;
+
+	/** The Constant LONG tag. */
+	private static final int LONG = 2;
+
+	/** The Constant STRING tag. */
+	private static final int STRING = 3;
+
+	/** The Constant LIST tag. */
+	private static final int LIST = 4;
+
+	/** The Constant SET tag. */
+	private static final int SET = 5;
+
+	/** The Constant BOOK_COPY tag. */
+	private static final int BOOK_COPY = 6;
+
+	/** The Constant BOOK_RATING tag. */
+	private static final int BOOK_RATING = 7;
+
+	/** The Constant BOOK_EDITOR_PICK tag. */
+	private static final int BOOK_EDITOR_PICK = 8;
+
+	/** The Constant BOOK tag. */
+	private static final int BOOK = 9;
+
+	/** The Constant STOCK_BOOK tag. */
+	private static final int STOCK_BOOK = 10;
+
+	/** The Constant RESPONSE tag. */
+	private static final int RESPONSE = 11;
+
+	/** The Constant EXCEPTION tag. */
+	private static final int EXCEPTION = 12;
+
+	/** The Constant TRANSACTION tag. */
+	private static final int TRANSACTION = 13;
+
+	/** The Constant OPERATION tag. */
+	private static final int OPERATION = 14;
+
+	/** The Constant MUTATION tag. */
+	private static final int MUTATION = 15;
+
+	/** The Constant REPLICATION_BATCH tag. */
+	private static final int REPLICATION_BATCH = 16;
+
+	/** The message tags, by ordinal. */
+	private static final BookStoreMessageTag[] MESSAGE_TAGS = BookStoreMessageTag.values();
+
+	/** The buffer, reused by every object. */
+	private byte[] buffer = new byte[BUFFER_SIZE];
+
+	/** The number of bytes written to the buffer. */
+	private int position = 0;
+
+	/** The stream the buffer is flushed to, or null if it grows instead. */
+	private OutputStream out = null;
+
+	/** The stream read from. */
+	private InputStream in = null;
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#serialize(java.lang.
+	 * Object)
+	 */
+	@Override
+	public byte[] serialize(Object object) throws IOException {
+		out = null;
+		position = 0;
+		writeValue(object);
+		return Arrays.copyOf(buffer, position);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#deserialize(byte[])
+	 */
+	@Override
+	public Object deserialize(byte[] bytes) throws IOException {
+		in = new ByteArrayInputStream(bytes);
+
+		try {
+			return readValue();
+		} finally {
+			in = null;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#serialize(java.lang.
+	 * Object, java.io.OutputStream)
+	 */
+	@Override
+	public void serialize(Object object, OutputStream out) throws IOException {
+		this.out = out;
+		position = 0;
+
+		try {
+			writeValue(object);
+			out.write(buffer, 0, position);
+			out.flush();
+		} finally {
+			this.out = null;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#deserialize(java.io.
+	 * InputStream)
+	 */
+	@Override
+	public Object deserialize(InputStream in) throws IOException {
+		this.in = new BufferedInputStream(in, BUFFER_SIZE);
+
+		try {
+			return readValue();
+		} finally {
+			this.in = null;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStoreSerializer#getContentType()
+	 */
+	@Override
+	public String getContentType() {
+		return BookStoreConstants.CONTENT_TYPE_BINARY;
+	}
+
+	/**
+	 * Writes a value with its tag.
+	 *
+	 * @param value
+	 *            the value
+	 * @throws IOException
+	 *             if the type of the value is not part of the schema
+	 */
+	private void writeValue(Object value) throws IOException {
+		if (value == null) {
+			writeByte(NULL);
+		} else if (value instanceof Integer) {
+			writeByte(INTEGER);
+			writeInt((Integer) value);
+		} else if (value instanceof Long) {
+			writeByte(LONG);
+			writeLong((Long) value);
+		} else if (value instanceof String) {
+			writeByte(STRING);
+			writeString((String) value);
+		} else if (value instanceof Set) {
+			writeByte(SET);
+			writeValues((Set<?>) value);
+		} else if (value instanceof List) {
+			writeByte(LIST);
+			writeValues((List<?>) value);
+		} else if (value instanceof BookCopy) {
+			BookCopy bookCopy = (BookCopy) value;
+			writeByte(BOOK_COPY);
+			writeInt(bookCopy.getISBN());
+			writeInt(bookCopy.getNumCopies());
+		} else if (value instanceof BookRating) {
+			BookRating bookRating = (BookRating) value;
+			writeByte(BOOK_RATING);
+			writeInt(bookRating.getISBN());
+			writeInt(bookRating.getRating());
+		} else if (value instanceof BookEditorPick) {
+			BookEditorPick editorPick = (BookEditorPick) value;
+			writeByte(BOOK_EDITOR_PICK);
+			writeInt(editorPick.getISBN());
+			writeBoolean(editorPick.isEditorPick());
+		} else if (value instanceof StockBook) {
+			StockBook book = (StockBook) value;
+			writeByte(STOCK_BOOK);
+			writeBook(book);
+			writeInt(book.getNumCopies());
+			writeLong(book.getNumSaleMisses());
+			writeLong(book.getNumTimesRated());
+			writeLong(book.getTotalRating());
+			writeBoolean(book.isEditorPick());
+		} else if (value instanceof Book) {
+			writeByte(BOOK);
+			writeBook((Book) value);
+		} else if (value instanceof BookStoreResponse) {
+			BookStoreResponse response = (BookStoreResponse) value;
+			writeByte(RESPONSE);
+			writeValue(response.getException());
+			writeValue(response.getList());
+		} else if (value instanceof BookStoreException) {
+			writeByte(EXCEPTION);
+			writeString(((BookStoreException) value).getMessage());
+		} else if (value instanceof BuyBooksTransaction) {
+			BuyBooksTransaction transaction = (BuyBooksTransaction) value;
+			writeByte(TRANSACTION);
+			writeString(transaction.getTransactionId());
+			writeValue(transaction.getBookCopies());
+			writeBoolean(transaction.isRecordSaleMisses());
+		} else if (value instanceof BookStoreOperation) {
+			BookStoreOperation operation = (BookStoreOperation) value;
+			writeByte(OPERATION);
+			writeInt(operation.getMessageTag().ordinal());
+			writeValue(operation.getArgument());
+		} else if (value instanceof BookStoreMutation) {
+			BookStoreMutation mutation = (BookStoreMutation) value;
+			writeByte(MUTATION);
+			writeLong(mutation.getSequence());
+			writeInt(mutation.getMessageTag().ordinal());
+			writeValue(mutation.getArgument());
+			writeBoolean(mutation.isSnapshot());
+		} else if (value instanceof BookStoreReplicationBatch) {
+			BookStoreReplicationBatch batch = (BookStoreReplicationBatch) value;
+			writeByte(REPLICATION_BATCH);
+			writeLong(batch.getPrimaryIncarnation());
+			writeLong(batch.getPrimarySequence());
+			writeValue(batch.getMutations());
+		} else {
+			throw new IOException("Serialization of " + value.getClass().getName() + BookStoreConstants.NOT_SUPPORTED);
+		}
+	}
+
+	/**
+	 * Writes the values of a collection after their number.
+	 *
+	 * @param values
+	 *            the values
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void writeValues(Collection<?> values) throws IOException {
+		writeInt(values.size());
+
+		for (Object value : values) {
+			writeValue(value);
+		}
+	}
+
+	/**
+	 * Writes the fields of a book.
+	 *
+	 * @param book
+	 *            the book
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void writeBook(Book book) throws IOException {
+		writeInt(book.getISBN());
+		writeString(book.getTitle());
+		writeString(book.getAuthor());
+
+		int bits = Float.floatToIntBits(book.getPrice());
+		require(4);
+		buffer[position++] = (byte) (bits >>> 24);
+		buffer[position++] = (byte) (bits >>> 16);
+		buffer[position++] = (byte) (bits >>> 8);
+		buffer[position++] = (byte) bits;
+	}
+
+	/**
+	 * Writes a string as its length plus one, zero for null, and its UTF-8
+	 * bytes.
+	 *
+	 * @param string
+	 *            the string
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void writeString(String string) throws IOException {
+		if (string == null) {
+			writeInt(0);
+			return;
+		}
+
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		writeInt(bytes.length + 1);
+		require(bytes.length);
+		System.arraycopy(bytes, 0, buffer, position, bytes.length);
+		position += bytes.length;
+	}
+
+	/**
+	 * Writes a boolean.
+	 *
+	 * @param value
+	 *            the value
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void writeBoolean(boolean value) throws IOException {
+		writeByte(value ? 1 : 0);
+	}
+
+	/**
+	 * Writes an integer in zig-zag variable length.
+	 *
+	 * @param value
+	 *            the value
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void writeInt(int value) throws IOException {
+		writeLong(value);
+	}
+
+	/**
+	 * Writes a long in zig-zag variable length, seven bits per byte.
+	 *
+	 * @param value
+	 *            the value
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void writeLong(long value) throws IOException {
+		long zigZag = (value << 1) ^ (value >> 63);
+		require(10);
+
+		while ((zigZag & ~0x7FL) != 0) {
+			buffer[position++] = (byte) ((zigZag & 0x7F) | 0x80);
+			zigZag >>>= 7;
+		}
+
+		buffer[position++] = (byte) zigZag;
+	}
+
+	/**
+	 * Writes a byte.
+	 *
+	 * @param value
+	 *            the value
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void writeByte(int value) throws IOException {
+		require(1);
+		buffer[position++] = (byte) value;
+	}
+
+	/**
+	 * Makes room for bytes in the buffer, flushing it to the stream if any,
+	 * or else growing it.
+	 *
+	 * @param numBytes
+	 *            the number of bytes
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void require(int numBytes) throws IOException {
+		if (buffer.length - position >= numBytes) {
+			return;
+		}
+
+		if (out != null) {
+			out.write(buffer, 0, position);
+			position = 0;
+
+			if (buffer.length >= numBytes) {
+				return;
+			}
+		}
+
+		buffer = Arrays.copyOf(buffer, Math.max(2 * buffer.length, position + numBytes));
+	}
+
+	/**
+	 * Reads a value with its tag.
+	 *
+	 * @return the value
+	 * @throws IOException
+	 *             if the input is not a value of the schema
+	 */
+	private Object readValue() throws IOException {
+		int tag = readByte();
+
+		switch (tag) {
+		case NULL:
+			return null;
+
+		case INTEGER:
+			return readInt();
+
+		case LONG:
+			return readLong();
+
+		case STRING:
+			return readString();
+
+		case SET:
+			return readValues(new HashSet<Object>());
+
+		case LIST:
+			return readValues(new ArrayList<Object>());
+
+		case BOOK_COPY:
+			return new BookCopy(readInt(), readInt());
+
+		case BOOK_RATING:
+			return new BookRating(readInt(), readInt());
+
+		case BOOK_EDITOR_PICK:
+			return new BookEditorPick(readInt(), readBoolean());
+
+		case BOOK:
+			return new ImmutableBook(readInt(), readString(), readString(), readFloat());
+
+		case STOCK_BOOK:
+			int isbn = readInt();
+			String title = readString();
+			String author = readString();
+			float price = readFloat();
+			int numCopies = readInt();
+			long numSaleMisses = readLong();
+			long numTimesRated = readLong();
+			long totalRating = readLong();
+			return new ImmutableStockBook(isbn, title, author, price, numCopies, numSaleMisses, numTimesRated,
+					totalRating, readBoolean());
+
+		case RESPONSE:
+			BookStoreResponse response = new BookStoreResponse();
+			response.setException((BookStoreException) readValue());
+			response.setList((List<?>) readValue());
+			return response;
+
+		case EXCEPTION:
+			return new BookStoreException(readString());
+
+		case TRANSACTION:
+			String transactionId = readString();
+			@SuppressWarnings("unchecked")
+			Set<BookCopy> bookCopies = (Set<BookCopy>) readValue();
+			return new BuyBooksTransaction(transactionId, bookCopies, readBoolean());
+
+		case OPERATION:
+			return new BookStoreOperation(readMessageTag(), readValue());
+
+		case MUTATION:
+			long sequence = readLong();
+			BookStoreMessageTag messageTag = readMessageTag();
+			Object argument = readValue();
+			return new BookStoreMutation(sequence, messageTag, argument, readBoolean());
+
+		case REPLICATION_BATCH:
+			long primaryIncarnation = readLong();
+			long primarySequence = readLong();
+			@SuppressWarnings("unchecked")
+			List<BookStoreMutation> mutations = (List<BookStoreMutation>) readValue();
+			return new BookStoreReplicationBatch(primaryIncarnation, primarySequence, mutations);
+
+		default:
+			throw new IOException("Tag " + tag + BookStoreConstants.INVALID);
+		}
+	}
+
+	/**
+	 * Reads the values of a collection after their number.
+	 *
+	 * @param values
+	 *            the empty collection
+	 * @return the collection
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private Collection<Object> readValues(Collection<Object> values) throws IOException {
+		int numValues = readInt();
+
+		for (int i = 0; i < numValues; i++) {
+			values.add(readValue());
+		}
+
+		return values;
+	}
+
+	/**
+	 * Reads a message tag from its ordinal.
+	 *
+	 * @return the message tag
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private BookStoreMessageTag readMessageTag() throws IOException {
+		int ordinal = readInt();
+
+		if (ordinal < 0 || ordinal >= MESSAGE_TAGS.length) {
+			throw new IOException("Message tag " + ordinal + BookStoreConstants.INVALID);
+		}
+
+		return MESSAGE_TAGS[ordinal];
+	}
+
+	/**
+	 * Reads a string written by {@link #writeString(String)}.
+	 *
+	 * @return the string
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private String readString() throws IOException {
+		int length = readInt() - 1;
+
+		if (length == -1) {
+			return null;
+		} else if (length < 0) {
+			throw new IOException("String length " + length + BookStoreConstants.INVALID);
+		}
+
+		// The length is not trusted: the array grows only as the bytes arrive,
+		// so a forged length ends the stream early instead of exhausting memory.
+		byte[] bytes = new byte[Math.min(length, BUFFER_SIZE)];
+		int numRead = 0;
+
+		while (numRead < length) {
+			if (numRead == bytes.length) {
+				bytes = Arrays.copyOf(bytes, (int) Math.min(length, 2L * bytes.length));
+			}
+
+			int count = in.read(bytes, numRead, bytes.length - numRead);
+
+			if (count < 0) {
+				throw new EOFException();
+			}
+
+			numRead += count;
+		}
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Reads a float of four bytes.
+	 *
+	 * @return the float
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private float readFloat() throws IOException {
+		int bits = (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+		return Float.intBitsToFloat(bits);
+	}
+
+	/**
+	 * Reads a boolean.
+	 *
+	 * @return the boolean
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private boolean readBoolean() throws IOException {
+		return readByte() != 0;
+	}
+
+	/**
+	 * Reads an integer in zig-zag variable length.
+	 *
+	 * @return the integer
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private int readInt() throws IOException {
+		return (int) readLong();
+	}
+
+	/**
+	 * Reads a long in zig-zag variable length.
+	 *
+	 * @return the long
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private long readLong() throws IOException {
+		long zigZag = 0;
+
+		for (int shift = 0; shift < 64; shift += 7) {
+			int value = readByte();
+			zigZag |= (long) (value & 0x7F) << shift;
+
+			if ((value & 0x80) == 0) {
+				return (zigZag >>> 1) ^ -(zigZag & 1);
+			}
+		}
+
+		throw new IOException("Varint" + BookStoreConstants.INVALID);
+	}
+
+	/**
+	 * Reads a byte.
+	 *
+	 * @return the byte, from 0 to 255
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private int readByte() throws IOException {
+		int value = in.read();
+
+		if (value < 0) {
+			throw new EOFException();
+		}
+
+		return value;
+	}
+}
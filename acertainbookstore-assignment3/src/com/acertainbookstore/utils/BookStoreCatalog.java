@@ -0,0 +1,319 @@
+package com.acertainbookstore.utils;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.zip.CRC32;
+
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+
+/**
+ * {@link BookStoreCatalog} reads and writes catalog files, which hold the
+ * initial books of a store so that they can be bulk loaded at startup instead
+ * of being sent through {@link com.acertainbookstore.interfaces.StockManager}.
+ *
+ * A catalog is a binary file laid out in columns: a header with the number of
+ * books, one column per fixed-size field of the books, the end offsets of the
+ * titles and authors, the UTF-8 titles and authors one after the other, and a
+ * CRC32 checksum of it all. Since every field of a book is found from its
+ * index alone, the file is read through a memory mapping and each book is
+ * decoded only when it is got, so that a store loading the catalog copies the
+ * books into its own form in parallel without the whole catalog being decoded
+ * first.
+ *
+ * The mapping is only used through {@link ByteBuffer} and {@link Buffer}
+ * methods, since the overrides {@link MappedByteBuffer} has from Java 13 on
+ * would not be found by older runtimes.
+ */
+public final class BookStoreCatalog {
+
+	/** The Constant MAGIC identifying catalog files. */
+	private static final int MAGIC = 0x43415431;
+
+	/** The size of the magic and number of books. */
+	private static final int HEADER_SIZE = Integer.BYTES + Integer.BYTES;
+
+	/** The size of the columns of a book, without its title and author. */
+	private static final int BOOK_SIZE = Integer.BYTES + Float.BYTES + Integer.BYTES + Long.BYTES * 3 + Byte.BYTES
+			+ Integer.BYTES * 2;
+
+	/**
+	 * Prevents the instantiation of a new {@link BookStoreCatalog}.
+	 */
+	private BookStoreCatalog() {
+		// Prevent instances from being created.
+	}
+
+	/**
+	 * Writes the books to a catalog file, replacing it if it exists.
+	 *
+	 * @param catalogFile
+	 *            the catalog file
+	 * @param books
+	 *            the books
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static void write(Path catalogFile, Collection<StockBook> books) throws IOException {
+		int numBooks = books.size();
+		List<byte[]> strings = new ArrayList<>(numBooks * 2);
+		long stringsSize = 0;
+
+		for (StockBook book : books) {
+			byte[] title = book.getTitle().getBytes(StandardCharsets.UTF_8);
+			byte[] author = book.getAuthor().getBytes(StandardCharsets.UTF_8);
+			strings.add(title);
+			strings.add(author);
+			stringsSize += title.length + author.length;
+		}
+
+		long size = HEADER_SIZE + (long) BOOK_SIZE * numBooks + stringsSize + Long.BYTES;
+
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("The catalog is too large to be mapped: " + size + " bytes");
+		}
+
+		try (FileChannel channel = FileChannel.open(catalogFile, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			buffer.putInt(MAGIC);
+			buffer.putInt(numBooks);
+
+			for (StockBook book : books) {
+				buffer.putInt(book.getISBN());
+			}
+
+			for (StockBook book : books) {
+				buffer.putFloat(book.getPrice());
+			}
+
+			for (StockBook book : books) {
+				buffer.putInt(book.getNumCopies());
+			}
+
+			for (StockBook book : books) {
+				buffer.putLong(book.getNumSaleMisses());
+			}
+
+			for (StockBook book : books) {
+				buffer.putLong(book.getNumTimesRated());
+			}
+
+			for (StockBook book : books) {
+				buffer.putLong(book.getTotalRating());
+			}
+
+			for (StockBook book : books) {
+				buffer.put((byte) (book.isEditorPick() ? 1 : 0));
+			}
+
+			int stringEnd = 0;
+
+			for (byte[] string : strings) {
+				stringEnd += string.length;
+				buffer.putInt(stringEnd);
+			}
+
+			for (byte[] string : strings) {
+				buffer.put(string);
+			}
+
+			buffer.putLong(checksum(buffer, buffer.position()));
+			buffer.force();
+		}
+	}
+
+	/**
+	 * Reads the books of a catalog file. The books are decoded from the
+	 * mapping of the file as they are got from the list returned, which holds
+	 * the mapping until it is dropped.
+	 *
+	 * @param catalogFile
+	 *            the catalog file
+	 * @return the books
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred, or the catalog
+	 *             is corrupt.
+	 */
+	public static List<StockBook> read(Path catalogFile) throws IOException {
+		try (FileChannel channel = FileChannel.open(catalogFile, StandardOpenOption.READ)) {
+			long size = channel.size();
+
+			if (size < HEADER_SIZE + Long.BYTES || size > Integer.MAX_VALUE) {
+				throw new IOException("The catalog is corrupt: " + catalogFile);
+			}
+
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			int end = (int) size - Long.BYTES;
+			int numBooks = buffer.getInt(Integer.BYTES);
+
+			if (buffer.getInt(0) != MAGIC || numBooks < 0 || HEADER_SIZE + (long) BOOK_SIZE * numBooks > end
+					|| buffer.getLong(end) != checksum(buffer, end)) {
+				throw new IOException("The catalog is corrupt: " + catalogFile);
+			}
+
+			Columns columns = new Columns(numBooks);
+
+			if (columns.strings + (numBooks == 0 ? 0 : buffer.getInt(columns.stringEnds + (numBooks * 2 - 1)
+					* Integer.BYTES)) != end) {
+				throw new IOException("The catalog is corrupt: " + catalogFile);
+			}
+
+			return new CatalogBooks(buffer, columns, numBooks);
+		}
+	}
+
+	/**
+	 * {@link CatalogBooks} is the list of the books of a catalog, decoding each
+	 * book from the mapping when it is got.
+	 */
+	private static final class CatalogBooks extends AbstractList<StockBook> implements RandomAccess {
+
+		/** The offsets of the columns. */
+		private final Columns columns;
+
+		/** The number of books. */
+		private final int numBooks;
+
+		/** The views of the mapping, one per thread decoding books. */
+		private final ThreadLocal<ByteBuffer> views;
+
+		/**
+		 * Instantiates a new {@link CatalogBooks}.
+		 *
+		 * @param buffer
+		 *            the mapping of the catalog
+		 * @param columns
+		 *            the offsets of the columns
+		 * @param numBooks
+		 *            the number of books
+		 */
+		private CatalogBooks(ByteBuffer buffer, Columns columns, int numBooks) {
+			this.columns = columns;
+			this.numBooks = numBooks;
+			views = ThreadLocal.withInitial(buffer::duplicate);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.AbstractList#get(int)
+		 */
+		@Override
+		public StockBook get(int index) {
+			if (index < 0 || index >= numBooks) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + numBooks);
+			}
+
+			return columns.book(views.get(), index);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.AbstractCollection#size()
+		 */
+		@Override
+		public int size() {
+			return numBooks;
+		}
+	}
+
+	/**
+	 * {@link Columns} holds the offsets of the columns of a catalog.
+	 */
+	private static final class Columns {
+
+		/** The offsets of the columns. */
+		private final int isbns, prices, numCopies, numSaleMisses, numTimesRated, totalRatings, editorPicks,
+				stringEnds, strings;
+
+		/**
+		 * Computes the offsets of the columns of a catalog.
+		 *
+		 * @param numBooks
+		 *            the number of books of the catalog
+		 */
+		private Columns(int numBooks) {
+			isbns = HEADER_SIZE;
+			prices = isbns + Integer.BYTES * numBooks;
+			numCopies = prices + Float.BYTES * numBooks;
+			numSaleMisses = numCopies + Integer.BYTES * numBooks;
+			numTimesRated = numSaleMisses + Long.BYTES * numBooks;
+			totalRatings = numTimesRated + Long.BYTES * numBooks;
+			editorPicks = totalRatings + Long.BYTES * numBooks;
+			stringEnds = editorPicks + Byte.BYTES * numBooks;
+			strings = stringEnds + Integer.BYTES * 2 * numBooks;
+		}
+
+		/**
+		 * Decodes a book.
+		 *
+		 * @param buffer
+		 *            the view of the catalog
+		 * @param index
+		 *            the index of the book
+		 * @return the book
+		 */
+		private StockBook book(ByteBuffer buffer, int index) {
+			int titleStart = index == 0 ? 0 : buffer.getInt(stringEnds + (index * 2 - 1) * Integer.BYTES);
+			int titleEnd = buffer.getInt(stringEnds + index * 2 * Integer.BYTES);
+			int authorEnd = buffer.getInt(stringEnds + (index * 2 + 1) * Integer.BYTES);
+
+			return new ImmutableStockBook(buffer.getInt(isbns + index * Integer.BYTES),
+					string(buffer, titleStart, titleEnd), string(buffer, titleEnd, authorEnd),
+					buffer.getFloat(prices + index * Float.BYTES), buffer.getInt(numCopies + index * Integer.BYTES),
+					buffer.getLong(numSaleMisses + index * Long.BYTES),
+					buffer.getLong(numTimesRated + index * Long.BYTES),
+					buffer.getLong(totalRatings + index * Long.BYTES), buffer.get(editorPicks + index) != 0);
+		}
+
+		/**
+		 * Decodes a title or an author.
+		 *
+		 * @param buffer
+		 *            the view of the catalog
+		 * @param start
+		 *            the offset of the string among the strings
+		 * @param end
+		 *            the offset after the string among the strings
+		 * @return the string
+		 */
+		private String string(ByteBuffer buffer, int start, int end) {
+			byte[] bytes = new byte[end - start];
+			((Buffer) buffer).position(strings + start);
+			buffer.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Computes the checksum of the start of the buffer.
+	 *
+	 * @param buffer
+	 *            the buffer
+	 * @param length
+	 *            the number of bytes to check
+	 * @return the checksum
+	 */
+	private static long checksum(ByteBuffer buffer, int length) {
+		ByteBuffer content = buffer.duplicate();
+		((Buffer) content).position(0);
+		((Buffer) content).limit(length);
+
+		CRC32 crc = new CRC32();
+		crc.update(content);
+		return crc.getValue();
+	}
+}
@@ -0,0 +1,364 @@
+package com.acertainbookstore.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BuyBooksTransaction;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStoreLoader;
+
+/**
+ * {@link BookStoreCheckpoint} is a snapshot of every book of a store, of the
+ * prepared purchases holding reserved copies and of the outcomes of the
+ * finished purchases that were not ended yet, together with the offset in
+ * the {@link BookStoreLog} of the first update it does not contain. A restart
+ * loads the checkpoint and only replays the log from that offset. The books
+ * include the copies the purchases reserved, so that preparing the purchases
+ * again once the books are loaded reserves them anew.
+ *
+ * The checkpoint is a binary file written as a stream straight from the store
+ * and read through a memory mapping: a header with the offset and the number of books, the fixed-size fields and
+ * the UTF-8 title and author of each book, the number of purchases, the UTF-8
+ * transaction identifier and the reserved copies of each purchase, the number
+ * of outcomes, the UTF-8 transaction identifier and whether it was committed
+ * for each outcome, and a CRC32 checksum of it all. It is written to a temporary file that replaces
+ * the previous checkpoint only once it is complete and forced to disk. Only
+ * the stream needs the store to hold still; the checksum is computed over a
+ * mapping of the file afterwards.
+ */
+public final class BookStoreCheckpoint {
+
+	/** The Constant MAGIC identifying checkpoint files. */
+	private static final int MAGIC = 0x43424B33;
+
+	/** The size of the magic, log offset and number of books. */
+	private static final int HEADER_SIZE = Integer.BYTES + Long.BYTES + Integer.BYTES;
+
+	/** The Constant BUFFER_SIZE of the stream writing a checkpoint. */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/** The books. */
+	private final Set<StockBook> books;
+
+	/** The prepared purchases holding reserved copies. */
+	private final List<BuyBooksTransaction> purchases;
+
+	/** Whether each finished purchase that was not ended was committed. */
+	private final Map<String, Boolean> outcomes;
+
+	/** The offset in the log of the first update after the checkpoint. */
+	private final long logOffset;
+
+	/**
+	 * Instantiates a new {@link BookStoreCheckpoint}.
+	 *
+	 * @param books
+	 *            the books, with the copies the purchases reserved
+	 * @param purchases
+	 *            the prepared purchases holding reserved copies
+	 * @param outcomes
+	 *            whether each finished purchase that was not ended was
+	 *            committed
+	 * @param logOffset
+	 *            the offset in the log of the first update after the
+	 *            checkpoint
+	 */
+	public BookStoreCheckpoint(Set<StockBook> books, List<BuyBooksTransaction> purchases,
+			Map<String, Boolean> outcomes, long logOffset) {
+		this.books = books;
+		this.purchases = purchases;
+		this.outcomes = outcomes;
+		this.logOffset = logOffset;
+	}
+
+	/**
+	 * Gets the books, with the copies the purchases reserved.
+	 *
+	 * @return the books
+	 */
+	public Set<StockBook> getBooks() {
+		return books;
+	}
+
+	/**
+	 * Gets the prepared purchases holding reserved copies, in the order they
+	 * were prepared.
+	 *
+	 * @return the purchases
+	 */
+	public List<BuyBooksTransaction> getPurchases() {
+		return purchases;
+	}
+
+	/**
+	 * Gets the outcomes of the finished purchases that were not ended yet.
+	 *
+	 * @return whether each purchase was committed, by transaction identifier
+	 */
+	public Map<String, Boolean> getOutcomes() {
+		return outcomes;
+	}
+
+	/**
+	 * Gets the offset in the log of the first update after the checkpoint.
+	 *
+	 * @return the log offset
+	 */
+	public long getLogOffset() {
+		return logOffset;
+	}
+
+	/**
+	 * Writes a checkpoint of a store into a temporary file, streaming the
+	 * books straight from the store. The caller keeps updates out of the store
+	 * meanwhile, so that the books and the purchases are those at the log
+	 * offset, and then calls {@link #publish(Path)}, which does not need the
+	 * store.
+	 *
+	 * @param checkpointFile
+	 *            the checkpoint file
+	 * @param store
+	 *            the store
+	 * @param logOffset
+	 *            the offset in the log of the first update after the
+	 *            checkpoint
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static void write(Path checkpointFile, BookStoreLoader store, long logOffset) throws IOException {
+		List<BuyBooksTransaction> purchases = store.getReservingPurchases();
+		Map<String, Boolean> outcomes = store.getOutcomes();
+		Map<Integer, Integer> reservedCopies = new HashMap<>();
+
+		for (BuyBooksTransaction purchase : purchases) {
+			for (BookCopy reservedCopy : purchase.getBookCopies()) {
+				reservedCopies.merge(reservedCopy.getISBN(), reservedCopy.getNumCopies(), Integer::sum);
+			}
+		}
+
+		try (FileChannel channel = FileChannel.open(temporaryFile(checkpointFile), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+			int[] numBooks = new int[1];
+
+			out.writeInt(MAGIC);
+			out.writeLong(logOffset);
+			out.writeInt(0);
+
+			store.visitBooks(book -> {
+				byte[] title = book.getTitle().getBytes(StandardCharsets.UTF_8);
+				byte[] author = book.getAuthor().getBytes(StandardCharsets.UTF_8);
+
+				out.writeInt(book.getISBN());
+				out.writeFloat(book.getPrice());
+				out.writeInt(book.getNumCopies() + reservedCopies.getOrDefault(book.getISBN(), 0));
+				out.writeLong(book.getNumSaleMisses());
+				out.writeLong(book.getNumTimesRated());
+				out.writeLong(book.getTotalRating());
+				out.writeByte(book.isEditorPick() ? 1 : 0);
+				out.writeInt(title.length);
+				out.writeInt(author.length);
+				out.write(title);
+				out.write(author);
+				numBooks[0]++;
+			});
+
+			out.writeInt(purchases.size());
+
+			for (BuyBooksTransaction purchase : purchases) {
+				byte[] transactionId = purchase.getTransactionId().getBytes(StandardCharsets.UTF_8);
+
+				out.writeInt(transactionId.length);
+				out.writeInt(purchase.getBookCopies().size());
+				out.write(transactionId);
+
+				for (BookCopy reservedCopy : purchase.getBookCopies()) {
+					out.writeInt(reservedCopy.getISBN());
+					out.writeInt(reservedCopy.getNumCopies());
+				}
+			}
+
+			out.writeInt(outcomes.size());
+
+			for (Map.Entry<String, Boolean> outcome : outcomes.entrySet()) {
+				byte[] transactionId = outcome.getKey().getBytes(StandardCharsets.UTF_8);
+
+				out.writeInt(transactionId.length);
+				out.writeByte(outcome.getValue() ? 1 : 0);
+				out.write(transactionId);
+			}
+
+			out.flush();
+
+			// The number of books is only known once they are all written.
+			ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+			header.putInt(0, numBooks[0]);
+			channel.write(header, HEADER_SIZE - Integer.BYTES);
+		}
+	}
+
+	/**
+	 * Appends the checksum to the temporary file written by
+	 * {@link #write(Path, BookStoreLoader, long)}, forces it to disk, and
+	 * replaces the previous checkpoint with it atomically.
+	 *
+	 * @param checkpointFile
+	 *            the checkpoint file
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static void publish(Path checkpointFile) throws IOException {
+		Path tempFile = temporaryFile(checkpointFile);
+
+		try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			long size = channel.size() + Long.BYTES;
+
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("The checkpoint is too large to be mapped: " + size + " bytes");
+			}
+
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			int end = (int) size - Long.BYTES;
+			buffer.putLong(end, checksum(buffer, end));
+			buffer.force();
+		}
+
+		Files.move(tempFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Gets the temporary file a checkpoint is written into before it replaces
+	 * the previous one.
+	 *
+	 * @param checkpointFile
+	 *            the checkpoint file
+	 * @return the temporary file
+	 */
+	private static Path temporaryFile(Path checkpointFile) {
+		return checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+	}
+
+	/**
+	 * Reads the checkpoint.
+	 *
+	 * @param checkpointFile
+	 *            the checkpoint file
+	 * @return the checkpoint, or null if there is no checkpoint yet
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred, or the
+	 *             checkpoint is corrupt.
+	 */
+	public static BookStoreCheckpoint read(Path checkpointFile) throws IOException {
+		if (!Files.exists(checkpointFile)) {
+			return null;
+		}
+
+		try (FileChannel channel = FileChannel.open(checkpointFile, StandardOpenOption.READ)) {
+			long size = channel.size();
+
+			if (size < HEADER_SIZE + 2 * Integer.BYTES + Long.BYTES || size > Integer.MAX_VALUE) {
+				throw new IOException("The checkpoint is corrupt: " + checkpointFile);
+			}
+
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			int end = (int) size - Long.BYTES;
+
+			if (buffer.getInt() != MAGIC || buffer.getLong(end) != checksum(buffer, end)) {
+				throw new IOException("The checkpoint is corrupt: " + checkpointFile);
+			}
+
+			long logOffset = buffer.getLong();
+			int numBooks = buffer.getInt();
+			Set<StockBook> books = new HashSet<>(Math.max(16, (int) (numBooks / 0.75f) + 1));
+
+			for (int i = 0; i < numBooks; i++) {
+				int isbn = buffer.getInt();
+				float price = buffer.getFloat();
+				int numCopies = buffer.getInt();
+				long numSaleMisses = buffer.getLong();
+				long numTimesRated = buffer.getLong();
+				long totalRating = buffer.getLong();
+				boolean editorPick = buffer.get() != 0;
+				byte[] title = new byte[buffer.getInt()];
+				byte[] author = new byte[buffer.getInt()];
+				buffer.get(title);
+				buffer.get(author);
+
+				books.add(new ImmutableStockBook(isbn, new String(title, StandardCharsets.UTF_8),
+						new String(author, StandardCharsets.UTF_8), price, numCopies, numSaleMisses, numTimesRated,
+						totalRating, editorPick));
+			}
+
+			int numPurchases = buffer.getInt();
+			List<BuyBooksTransaction> purchases = new ArrayList<>(numPurchases);
+
+			for (int i = 0; i < numPurchases; i++) {
+				byte[] transactionId = new byte[buffer.getInt()];
+				int numReservedCopies = buffer.getInt();
+				buffer.get(transactionId);
+				Set<BookCopy> reservedCopies = new HashSet<>();
+
+				for (int j = 0; j < numReservedCopies; j++) {
+					reservedCopies.add(new BookCopy(buffer.getInt(), buffer.getInt()));
+				}
+
+				purchases.add(new BuyBooksTransaction(new String(transactionId, StandardCharsets.UTF_8),
+						Collections.unmodifiableSet(reservedCopies), false));
+			}
+
+			int numOutcomes = buffer.getInt();
+			Map<String, Boolean> outcomes = new LinkedHashMap<>();
+
+			for (int i = 0; i < numOutcomes; i++) {
+				byte[] transactionId = new byte[buffer.getInt()];
+				boolean committed = buffer.get() != 0;
+				buffer.get(transactionId);
+				outcomes.put(new String(transactionId, StandardCharsets.UTF_8), committed);
+			}
+
+			return new BookStoreCheckpoint(books, purchases, outcomes, logOffset);
+		}
+	}
+
+	/**
+	 * Computes the checksum of the start of the buffer.
+	 *
+	 * @param buffer
+	 *            the buffer
+	 * @param length
+	 *            the number of bytes to check
+	 * @return the checksum
+	 */
+	private static long checksum(ByteBuffer buffer, int length) {
+		ByteBuffer content = buffer.duplicate();
+		((Buffer) content).position(0);
+		((Buffer) content).limit(length);
+
+		CRC32 crc = new CRC32();
+		crc.update(content);
+		return crc.getValue();
+	}
+}
@@ -7,9 +7,25 @@ package com.acertainbookstore.utils;
 public final class BookStoreConstants {
 
 	/**
-	 * The Constant BINARY_SERIALIZATION decides whether we use Kryo or XStream.
+	 * The Constant BINARY_SERIALIZATION decides whether we use Kryo or XStream,
+	 * set at startup by the property {@link #PROPERTY_KEY_BINARY_SERIALIZATION}.
 	 */
-	public static final boolean BINARY_SERIALIZATION = false;
+	public static final boolean BINARY_SERIALIZATION = Boolean.getBoolean(
+			BookStoreConstants.PROPERTY_KEY_BINARY_SERIALIZATION);
+
+	// Content types naming the serializer of a message
+
+	/** The Constant CONTENT_TYPE_XML of {@link BookStoreStaxSerializer}. */
+	public static final String CONTENT_TYPE_XML = "application/xml";
+
+	/** The Constant CONTENT_TYPE_KRYO of {@link BookStoreKryoSerializer}. */
+	public static final String CONTENT_TYPE_KRYO = "application/x-kryo";
+
+	/** The Constant CONTENT_TYPE_KRYO_UNSAFE of unsafe Kryo buffers. */
+	public static final String CONTENT_TYPE_KRYO_UNSAFE = "application/x-kryo-unsafe";
+
+	/** The Constant CONTENT_TYPE_BINARY of {@link BookStoreBinarySerializer}. */
+	public static final String CONTENT_TYPE_BINARY = "application/x-bookstore";
 
 	// Constants used when creating URLs
 
@@ -19,6 +35,9 @@ public final class BookStoreConstants {
 	/** The Constant BOOK_NUM_PARAM. */
 	public static final String BOOK_NUM_PARAM = "number_of_books";
 
+	/** The Constant STALENESS_PARAM bounding the staleness of a read. */
+	public static final String STALENESS_PARAM = "staleness";
+
 	/** The Constant XMLSTRINGLEN_PARAM. */
 	public static final String XMLSTRINGLEN_PARAM = "len";
 
@@ -51,6 +70,51 @@ public final class BookStoreConstants {
 	/** The Constant RATING. */
 	public static final String RATING = "The rating: ";
 
+	/** The Constant TRANSACTION when a purchase spanning stores fails. */
+	public static final String TRANSACTION = "The purchase: ";
+
+	/** The Constant NOT_PREPARED when a purchase is unknown to a participant. */
+	public static final String NOT_PREPARED = " is not prepared";
+
+	/** The Constant NOT_DECIDED when a coordinator did not decide a purchase yet. */
+	public static final String NOT_DECIDED = " is not decided yet";
+
+	/** The Constant NOT_SUPPORTED when a store cannot take part in a purchase. */
+	public static final String NOT_SUPPORTED = " is not supported";
+
+	/** The Constant ABORTED when a purchase was aborted. */
+	public static final String ABORTED = " was aborted";
+
+	/** The Constant COMMITTED when a purchase was committed. */
+	public static final String COMMITTED = " was committed";
+
+	/** The Constant TIMED_OUT when a participant did not prepare in time. */
+	public static final String TIMED_OUT = " timed out";
+
+	/** The Constant OVERLOADED when a server sheds a request. */
+	public static final String OVERLOADED = "The server is overloaded, retry later";
+
+	/** The Constant BACKUP. */
+	public static final String BACKUP = "The backup";
+
+	/** The Constant READ_ONLY when a backup is sent an update. */
+	public static final String READ_ONLY = " is read-only";
+
+	/** The Constant STALE when a backup is too far behind its primary. */
+	public static final String STALE = " is stale";
+
+	/** The Constant PROMOTED when a promoted backup is sent mutations. */
+	public static final String PROMOTED = " was promoted";
+
+	/**
+	 * The Constant NOT_REPLICATED when a backup did not apply the update of a
+	 * purchase spanning servers in time.
+	 */
+	public static final String NOT_REPLICATED = " did not apply the update in time";
+
+	/** The Constant OPERATION. */
+	public static final String OPERATION = "The operation: ";
+
 	/** The Constant NULL_INPUT. */
 	public static final String NULL_INPUT = "null input parameters";
 
@@ -60,6 +124,103 @@ public final class BookStoreConstants {
 	/** The Constant PROPERTY_KEY_SERVER_PORT. */
 	public static final String PROPERTY_KEY_SERVER_PORT = "port";
 
+	/** The Constant PROPERTY_KEY_COMPACT_STORE. */
+	public static final String PROPERTY_KEY_COMPACT_STORE = "compactstore";
+
+	/** The Constant PROPERTY_KEY_PARTITIONS. */
+	public static final String PROPERTY_KEY_PARTITIONS = "partitions";
+
+	/** The Constant PROPERTY_KEY_LOG_FILE. */
+	public static final String PROPERTY_KEY_LOG_FILE = "logfile";
+
+	/** The Constant PROPERTY_KEY_CHECKPOINT_FILE. */
+	public static final String PROPERTY_KEY_CHECKPOINT_FILE = "checkpointfile";
+
+	/** The Constant PROPERTY_KEY_CHECKPOINT_INTERVAL in seconds. */
+	public static final String PROPERTY_KEY_CHECKPOINT_INTERVAL = "checkpointinterval";
+
+	/** The Constant PROPERTY_KEY_BINARY_SERIALIZATION. */
+	public static final String PROPERTY_KEY_BINARY_SERIALIZATION = "binaryserialization";
+
+	/**
+	 * The Constant PROPERTY_KEY_WIRE_FORMAT naming the default
+	 * {@link BookStoreWireFormat}, overriding
+	 * {@link #PROPERTY_KEY_BINARY_SERIALIZATION}.
+	 */
+	public static final String PROPERTY_KEY_WIRE_FORMAT = "wireformat";
+
+	/** The Constant PROPERTY_KEY_CATALOG_FILE. */
+	public static final String PROPERTY_KEY_CATALOG_FILE = "catalogfile";
+
+	/**
+	 * The Constant TRANSACTION_TIMEOUT_MILLISECS after which a participant
+	 * releases a purchase that is neither committed nor aborted.
+	 */
+	public static final long TRANSACTION_TIMEOUT_MILLISECS = 30000;
+
+	/**
+	 * The Constant PROPERTY_KEY_BACKUPS with the comma separated addresses of
+	 * the backups of a primary server.
+	 */
+	public static final String PROPERTY_KEY_BACKUPS = "backups";
+
+	/**
+	 * The Constant PROPERTY_KEY_BACKUP making a server the backup of a
+	 * primary.
+	 */
+	public static final String PROPERTY_KEY_BACKUP = "backup";
+
+	/**
+	 * The Constant PROPERTY_KEY_VIRTUAL_THREADS running the requests of the
+	 * servers and clients on virtual threads, where the JVM supports them.
+	 */
+	public static final String PROPERTY_KEY_VIRTUAL_THREADS = "virtualthreads";
+
+	/** The Constant PROPERTY_KEY_MIN_THREADS of a server. */
+	public static final String PROPERTY_KEY_MIN_THREADS = "minthreads";
+
+	/** The Constant PROPERTY_KEY_MAX_THREADS of a server. */
+	public static final String PROPERTY_KEY_MAX_THREADS = "maxthreads";
+
+	/** The Constant PROPERTY_KEY_ACCEPTORS of a server. */
+	public static final String PROPERTY_KEY_ACCEPTORS = "acceptors";
+
+	/** The Constant PROPERTY_KEY_SELECTORS of a server. */
+	public static final String PROPERTY_KEY_SELECTORS = "selectors";
+
+	/** The Constant PROPERTY_KEY_IDLE_TIMEOUT of a connection in milliseconds. */
+	public static final String PROPERTY_KEY_IDLE_TIMEOUT = "idletimeout";
+
+	/** The Constant PROPERTY_KEY_MAX_REQUESTS a server handles at once. */
+	public static final String PROPERTY_KEY_MAX_REQUESTS = "maxrequests";
+
+	/** The Constant PROPERTY_KEY_QUEUE_SIZE of the requests a server queues. */
+	public static final String PROPERTY_KEY_QUEUE_SIZE = "queuesize";
+
+	/** The Constant PROPERTY_KEY_QUEUE_TIMEOUT of a queued request in milliseconds. */
+	public static final String PROPERTY_KEY_QUEUE_TIMEOUT = "queuetimeout";
+
+	/**
+	 * The Constant PROPERTY_KEY_HTTP2 multiplexing the requests between the
+	 * proxies and the servers over cleartext HTTP/2 connections.
+	 */
+	public static final String PROPERTY_KEY_HTTP2 = "http2";
+
+	/** The Constant PROPERTY_KEY_WORKLOAD_THREADS, the number of workload clients. */
+	public static final String PROPERTY_KEY_WORKLOAD_THREADS = "workloadthreads";
+
+	/**
+	 * The Constant REPLICATION_HEARTBEAT_MILLISECS after which a primary tells
+	 * an idle backup it is still up to date.
+	 */
+	public static final long REPLICATION_HEARTBEAT_MILLISECS = 100;
+
+	/**
+	 * The Constant REPLICATION_SYNC_TIMEOUT_MILLISECS within which every
+	 * backup must apply the update of a purchase spanning servers.
+	 */
+	public static final long REPLICATION_SYNC_TIMEOUT_MILLISECS = 5000;
+
 	/** The Constant EPSILON used for floating point number comparison */
 	public static final float EPSILON = 0.000001F;
 
@@ -0,0 +1,500 @@
+package com.acertainbookstore.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpURI;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.http.MetaData;
+import org.eclipse.jetty.http2.ErrorCode;
+import org.eclipse.jetty.http2.api.Session;
+import org.eclipse.jetty.http2.api.Stream;
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.frames.DataFrame;
+import org.eclipse.jetty.http2.frames.GoAwayFrame;
+import org.eclipse.jetty.http2.frames.HeadersFrame;
+import org.eclipse.jetty.http2.frames.ResetFrame;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.Promise;
+import org.eclipse.jetty.util.component.ContainerLifeCycle;
+
+import com.acertainbookstore.client.BookStoreClientConstants;
+
+/**
+ * {@link BookStoreHTTP2Client} sends the requests of a proxy as the streams of
+ * a cleartext HTTP/2 (h2c) connection to each server, so that many concurrent
+ * requests share a single connection instead of one connection each. Requests
+ * beyond the streams a connection carries at once wait for a stream to finish.
+ *
+ * The client closes a connection left idle before the server would, so a
+ * request is never sent on a connection the server is closing; the next
+ * request opens a new connection. A connection with requests in flight is
+ * kept open, and its requests fail if it is closed all the same.
+ */
+public final class BookStoreHTTP2Client extends ContainerLifeCycle {
+
+	/** The client of the connections. */
+	private final HTTP2Client client = new HTTP2Client();
+
+	/** The destinations by address. */
+	private final ConcurrentMap<String, Destination> destinations = new ConcurrentHashMap<>();
+
+	/**
+	 * An exchange of a request and its response over a stream.
+	 */
+	private final class Exchange extends Stream.Listener.Adapter {
+
+		/** The destination. */
+		private final Destination destination;
+
+		/** The metadata of the request. */
+		private final MetaData.Request request;
+
+		/** The content of the request, or null. */
+		private final byte[] content;
+
+		/** The future content of the response. */
+		private final CompletableFuture<byte[]> future;
+
+		/** The content of the response received so far. */
+		private final ByteArrayOutputStream responseContent = new ByteArrayOutputStream();
+
+		/** Whether the exchange finished. */
+		private final AtomicBoolean finished = new AtomicBoolean();
+
+		/** The session of the stream, once the exchange started. */
+		private volatile Session session;
+
+		/**
+		 * Instantiates a new {@link Exchange}.
+		 *
+		 * @param destination
+		 *            the destination
+		 * @param request
+		 *            the metadata of the request
+		 * @param content
+		 *            the content of the request, or null
+		 * @param future
+		 *            the future content of the response
+		 */
+		private Exchange(Destination destination, MetaData.Request request, byte[] content,
+				CompletableFuture<byte[]> future) {
+			this.destination = destination;
+			this.request = request;
+			this.content = content;
+			this.future = future;
+		}
+
+		/**
+		 * Starts the exchange on a new stream of the session.
+		 *
+		 * @param session
+		 *            the session
+		 */
+		private void start(Session session) {
+			this.session = session;
+
+			session.newStream(new HeadersFrame(request, null, content == null), new Promise<Stream>() {
+
+				@Override
+				public void succeeded(Stream stream) {
+					if (content != null) {
+						stream.data(new DataFrame(stream.getId(), ByteBuffer.wrap(content), true), new Callback() {
+
+							@Override
+							public void failed(Throwable failure) {
+								fail(failure);
+							}
+						});
+					}
+				}
+
+				@Override
+				public void failed(Throwable failure) {
+					fail(failure);
+				}
+			}, this);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see org.eclipse.jetty.http2.api.Stream.Listener.Adapter#onHeaders(
+		 * org.eclipse.jetty.http2.api.Stream,
+		 * org.eclipse.jetty.http2.frames.HeadersFrame)
+		 */
+		@Override
+		public void onHeaders(Stream stream, HeadersFrame frame) {
+			if (frame.isEndStream()) {
+				succeed();
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see org.eclipse.jetty.http2.api.Stream.Listener.Adapter#onData(org.
+		 * eclipse.jetty.http2.api.Stream,
+		 * org.eclipse.jetty.http2.frames.DataFrame,
+		 * org.eclipse.jetty.util.Callback)
+		 */
+		@Override
+		public void onData(Stream stream, DataFrame frame, Callback callback) {
+			ByteBuffer data = frame.getData();
+
+			if (responseContent.size() + data.remaining() > BookStoreClientConstants.CLIENT_MAX_RESPONSE_BYTES) {
+				callback.succeeded();
+				stream.reset(new ResetFrame(stream.getId(), ErrorCode.CANCEL_STREAM_ERROR.code), Callback.NOOP);
+				fail(new IOException("Response too large"));
+				return;
+			}
+
+			byte[] bytes = new byte[data.remaining()];
+			data.get(bytes);
+			responseContent.write(bytes, 0, bytes.length);
+
+			callback.succeeded();
+
+			if (frame.isEndStream()) {
+				succeed();
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see org.eclipse.jetty.http2.api.Stream.Listener.Adapter#onReset(org.
+		 * eclipse.jetty.http2.api.Stream,
+		 * org.eclipse.jetty.http2.frames.ResetFrame)
+		 */
+		@Override
+		public void onReset(Stream stream, ResetFrame frame) {
+			fail(new IOException("Stream reset with error " + frame.getError()));
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see
+		 * org.eclipse.jetty.http2.api.Stream.Listener.Adapter#onIdleTimeout(org
+		 * .eclipse.jetty.http2.api.Stream, java.lang.Throwable)
+		 */
+		@Override
+		public boolean onIdleTimeout(Stream stream, Throwable failure) {
+			fail(failure);
+			return true;
+		}
+
+		/**
+		 * Completes the future with the content of the response.
+		 */
+		private void succeed() {
+			if (finish()) {
+				future.complete(responseContent.toByteArray());
+			}
+		}
+
+		/**
+		 * Fails the future.
+		 *
+		 * @param failure
+		 *            the failure
+		 */
+		private void fail(Throwable failure) {
+			if (finish()) {
+				future.completeExceptionally(failure);
+			}
+		}
+
+		/**
+		 * Finishes the exchange, freeing its stream for a request waiting.
+		 *
+		 * @return true, if the exchange was not finished yet
+		 */
+		private boolean finish() {
+			if (!finished.compareAndSet(false, true)) {
+				return false;
+			}
+
+			destination.finish(this);
+			return true;
+		}
+	}
+
+	/**
+	 * A server, with its connection and the requests sent to it.
+	 */
+	private final class Destination extends Session.Listener.Adapter {
+
+		/** The address. */
+		private final InetSocketAddress address;
+
+		/** The requests waiting for a stream. */
+		private final Queue<Exchange> waiting = new ConcurrentLinkedQueue<>();
+
+		/** The requests in flight. */
+		private final Set<Exchange> inFlight = ConcurrentHashMap.newKeySet();
+
+		/** The number of streams in use. */
+		private final AtomicInteger numStreams = new AtomicInteger();
+
+		/** The number of times the waiting requests were asked to be started. */
+		private final AtomicInteger numStarts = new AtomicInteger();
+
+		/** The future session, or null before the first request. */
+		private CompletableFuture<Session> session = null;
+
+		/**
+		 * Instantiates a new {@link Destination}.
+		 *
+		 * @param address
+		 *            the address
+		 */
+		private Destination(InetSocketAddress address) {
+			this.address = address;
+		}
+
+		/**
+		 * Sends a request, once a stream is free.
+		 *
+		 * @param exchange
+		 *            the exchange of the request
+		 */
+		private void send(Exchange exchange) {
+			waiting.add(exchange);
+			startWaiting();
+		}
+
+		/**
+		 * Starts the requests waiting while streams are free. A call made while
+		 * another runs, such as by a request failing at once, makes that one
+		 * loop again instead of nesting.
+		 */
+		private void startWaiting() {
+			if (numStarts.getAndIncrement() != 0) {
+				return;
+			}
+
+			int starts = 1;
+
+			do {
+				while (!waiting.isEmpty()) {
+					int streams = numStreams.get();
+
+					if (streams >= BookStoreClientConstants.CLIENT_MAX_HTTP2_STREAMS) {
+						break;
+					}
+
+					if (!numStreams.compareAndSet(streams, streams + 1)) {
+						continue;
+					}
+
+					Exchange exchange = waiting.poll();
+
+					if (exchange == null) {
+						numStreams.decrementAndGet();
+						continue;
+					}
+
+					start(exchange);
+				}
+
+				starts = numStarts.addAndGet(-starts);
+			} while (starts != 0);
+		}
+
+		/**
+		 * Starts a request on the session, once connected.
+		 *
+		 * @param exchange
+		 *            the exchange of the request
+		 */
+		private void start(Exchange exchange) {
+			inFlight.add(exchange);
+			getSession().whenComplete((connected, failure) -> {
+				if (failure != null) {
+					exchange.fail(failure);
+				} else {
+					exchange.start(connected);
+				}
+			});
+		}
+
+		/**
+		 * Frees the stream of a finished request for a request waiting.
+		 *
+		 * @param exchange
+		 *            the exchange of the request
+		 */
+		private void finish(Exchange exchange) {
+			inFlight.remove(exchange);
+			numStreams.decrementAndGet();
+			startWaiting();
+		}
+
+		/**
+		 * Gets the session, connecting again if the connection failed or was
+		 * closed.
+		 *
+		 * @return the future session
+		 */
+		private synchronized CompletableFuture<Session> getSession() {
+			if (session == null || session.isCompletedExceptionally()
+					|| (session.isDone() && session.join().isClosed())) {
+				session = new CompletableFuture<>();
+				client.connect(address, this, Promise.from(session));
+			}
+
+			return session;
+		}
+
+		/**
+		 * Fails the requests in flight on a session.
+		 *
+		 * @param closed
+		 *            the session
+		 * @param failure
+		 *            the failure
+		 */
+		private void fail(Session closed, Throwable failure) {
+			for (Exchange exchange : inFlight) {
+				if (exchange.session == closed) {
+					exchange.fail(failure);
+				}
+			}
+		}
+
+		/**
+		 * Fails the requests waiting and in flight, once the client stopped.
+		 *
+		 * @param failure
+		 *            the failure
+		 */
+		private void stop(Throwable failure) {
+			Exchange exchange;
+
+			while ((exchange = waiting.poll()) != null) {
+				exchange.future.completeExceptionally(failure);
+			}
+
+			for (Exchange started : inFlight) {
+				started.fail(failure);
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see org.eclipse.jetty.http2.api.Session.Listener.Adapter#onClose(org.
+		 * eclipse.jetty.http2.api.Session,
+		 * org.eclipse.jetty.http2.frames.GoAwayFrame)
+		 */
+		@Override
+		public void onClose(Session closed, GoAwayFrame frame) {
+			fail(closed, new IOException("Connection closed: " + frame.tryConvertPayload()));
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see
+		 * org.eclipse.jetty.http2.api.Session.Listener.Adapter#onFailure(org.
+		 * eclipse.jetty.http2.api.Session, java.lang.Throwable)
+		 */
+		@Override
+		public void onFailure(Session failed, Throwable failure) {
+			fail(failed, failure);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see
+		 * org.eclipse.jetty.http2.api.Session.Listener.Adapter#onIdleTimeout(
+		 * org.eclipse.jetty.http2.api.Session)
+		 */
+		@Override
+		public boolean onIdleTimeout(Session idle) {
+			// Only a connection without requests in flight is idle.
+			return idle.getStreams().isEmpty();
+		}
+	}
+
+	/**
+	 * Instantiates a new {@link BookStoreHTTP2Client}, to be started.
+	 */
+	public BookStoreHTTP2Client() {
+		// Max number of threads, unless requests run on virtual threads.
+		client.setExecutor(BookStoreUtility.newThreadPool(BookStoreClientConstants.CLIENT_MAX_THREADSPOOL_THREADS,
+				BookStoreClientConstants.CLIENT_MIN_THREADSPOOL_THREADS));
+
+		// Seconds timeout; if no server reply, the connection attempt fails.
+		client.setConnectTimeout(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS);
+
+		// Close idle connections before the server does.
+		client.setIdleTimeout(BookStoreClientConstants.CLIENT_IDLE_TIMEOUT_MILLISECS);
+
+		addBean(client);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.eclipse.jetty.util.component.ContainerLifeCycle#doStop()
+	 */
+	@Override
+	protected void doStop() throws Exception {
+		super.doStop();
+		IOException stopped = new IOException("Client stopped");
+
+		for (Destination destination : destinations.values()) {
+			destination.stop(stopped);
+		}
+	}
+
+	/**
+	 * Sends a request, naming the format of its content and of the response
+	 * by the content type.
+	 *
+	 * @param method
+	 *            the method
+	 * @param urlString
+	 *            the URL
+	 * @param contentType
+	 *            the content type
+	 * @param content
+	 *            the content of the request, or null
+	 * @return the future content of the response
+	 */
+	public CompletableFuture<byte[]> send(HttpMethod method, String urlString, String contentType, byte[] content) {
+		HttpURI uri = new HttpURI(urlString);
+		HttpFields fields = new HttpFields();
+		fields.put(HttpHeader.ACCEPT, contentType);
+
+		if (content != null) {
+			fields.put(HttpHeader.CONTENT_TYPE, contentType);
+			fields.put(HttpHeader.CONTENT_LENGTH, Integer.toString(content.length));
+		}
+
+		int port = uri.getPort() > 0 ? uri.getPort() : 80;
+		Destination destination = destinations.computeIfAbsent(uri.getHost() + ":" + port,
+				key -> new Destination(new InetSocketAddress(uri.getHost(), port)));
+		CompletableFuture<byte[]> future = new CompletableFuture<>();
+		destination.send(new Exchange(destination,
+				new MetaData.Request(method.asString(), uri, HttpVersion.HTTP_2, fields), content, future));
+		return future;
+	}
+}
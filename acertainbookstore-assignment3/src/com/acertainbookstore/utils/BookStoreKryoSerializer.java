@@ -1,35 +1,178 @@
 package com.acertainbookstore.utils;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.BookStoreMutation;
+import com.acertainbookstore.business.BookStoreOperation;
+import com.acertainbookstore.business.BookStoreReplicationBatch;
+import com.acertainbookstore.business.BuyBooksTransaction;
+import com.acertainbookstore.business.ImmutableBook;
 import com.acertainbookstore.business.ImmutableStockBook;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Serializer;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.io.UnsafeInput;
+import com.esotericsoftware.kryo.io.UnsafeOutput;
+import com.esotericsoftware.kryo.serializers.CollectionSerializer;
 import org.objenesis.strategy.StdInstantiatorStrategy;
 
 /**
  * {@link BookStoreKryoSerializer} serializes objects to arrays of bytes
  * representing strings using the Kryo library.
  * 
+ * Every class of the messages is registered with a fixed identifier, shared by
+ * clients and servers, so no class name is written and a class missing from
+ * the table fails its message with an {@link IOException}. Exceptions keep their message only.
+ * 
+ * A serializer is used by one thread at a time, so it keeps its buffers
+ * between objects: streamed objects go through a buffer of fixed size, and
+ * arrays are written into a buffer that grows to the largest object and is
+ * then copied once. The buffers may use unsafe memory accesses, which write
+ * fixed length numbers in the native byte order; such messages are only read
+ * by serializers using unsafe accesses too.
+ * 
  * @see BookStoreSerializer
  */
 public final class BookStoreKryoSerializer implements BookStoreSerializer {
 
+	/** The Constant BUFFER_SIZE of the buffers. */
+	private static final int BUFFER_SIZE = 8192;
+
+	/** The Constant FIRST_REGISTRATION_ID, after those of the primitives. */
+	private static final int FIRST_REGISTRATION_ID = 10;
+
 	/** The binary stream. */
 	private final Kryo binaryStream;
 
+	/** True if the buffers use unsafe memory accesses. */
+	private final boolean unsafe;
+
+	/** The output, reused by every object. */
+	private final Output output;
+
+	/** The buffer of the input. */
+	private final byte[] inputBuffer = new byte[BUFFER_SIZE];
+
+	/** The input, reused by every object. */
+	private final Input input;
+
 	/**
-	 * Instantiates a new {@link BookStoreKryoSerializer}.
+	 * {@link ExceptionSerializer} writes the message of a
+	 * {@link BookStoreException}, leaving out its stack trace and cause.
+	 */
+	private static final class ExceptionSerializer extends Serializer<BookStoreException> {
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see com.esotericsoftware.kryo.Serializer#write(com.esotericsoftware.
+		 * kryo.Kryo, com.esotericsoftware.kryo.io.Output, java.lang.Object)
+		 */
+		@Override
+		public void write(Kryo kryo, Output output, BookStoreException exception) {
+			output.writeString(exception.getMessage());
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see com.esotericsoftware.kryo.Serializer#read(com.esotericsoftware.
+		 * kryo.Kryo, com.esotericsoftware.kryo.io.Input, java.lang.Class)
+		 */
+		@Override
+		public BookStoreException read(Kryo kryo, Input input, Class<BookStoreException> type) {
+			return new BookStoreException(input.readString());
+		}
+	}
+
+	/**
+	 * {@link FixedListSerializer} reads the lists of {@link Arrays#asList},
+	 * which cannot grow, as {@link ArrayList}.
+	 */
+	private static final class FixedListSerializer extends CollectionSerializer {
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see com.esotericsoftware.kryo.serializers.CollectionSerializer#create(
+		 * com.esotericsoftware.kryo.Kryo, com.esotericsoftware.kryo.io.Input,
+		 * java.lang.Class)
+		 */
+		@Override
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		protected Collection create(Kryo kryo, Input input, Class<Collection> type) {
+			return new ArrayList();
+		}
+	}
+
+	/**
+	 * Instantiates a new {@link BookStoreKryoSerializer} with safe buffers.
 	 */
 	public BookStoreKryoSerializer() {
+		this(false);
+	}
+
+	/**
+	 * Instantiates a new {@link BookStoreKryoSerializer}.
+	 *
+	 * @param unsafe
+	 *            true if the buffers use unsafe memory accesses
+	 */
+	public BookStoreKryoSerializer(boolean unsafe) {
+		this.unsafe = unsafe;
+		output = unsafe ? new UnsafeOutput(BUFFER_SIZE, -1) : new Output(BUFFER_SIZE, -1);
+		input = unsafe ? new UnsafeInput(inputBuffer) : new Input(inputBuffer);
+
 		binaryStream = new Kryo();
 		binaryStream.setInstantiatorStrategy(new Kryo.DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
-		binaryStream.register(ImmutableStockBook.class);
+		binaryStream.setRegistrationRequired(true);
+		register(binaryStream);
+	}
+
+	/**
+	 * Registers the classes of the messages. Identifiers are never reused, so
+	 * new classes are added at the end.
+	 *
+	 * @param kryo
+	 *            the kryo
+	 */
+	private static void register(Kryo kryo) {
+		int id = FIRST_REGISTRATION_ID;
+
+		kryo.register(ImmutableStockBook.class, id++);
+		kryo.register(ImmutableBook.class, id++);
+		kryo.register(BookCopy.class, id++);
+		kryo.register(BookRating.class, id++);
+		kryo.register(BookEditorPick.class, id++);
+		kryo.register(BookStoreResponse.class, id++);
+		kryo.register(BookStoreException.class, new ExceptionSerializer(), id++);
+		kryo.register(ArrayList.class, id++);
+		kryo.register(HashSet.class, id++);
+		kryo.register(LinkedHashSet.class, id++);
+		kryo.register(Arrays.asList().getClass(), new FixedListSerializer(), id++);
+		kryo.register(Collections.emptyList().getClass(), id++);
+		kryo.register(Collections.emptySet().getClass(), id++);
+		kryo.register(Collections.singletonList(null).getClass(), id++);
+		kryo.register(Collections.singleton(null).getClass(), id++);
+		kryo.register(BookStoreMessageTag.class, id++);
+		kryo.register(BuyBooksTransaction.class, id++);
+		kryo.register(BookStoreOperation.class, id++);
+		kryo.register(BookStoreMutation.class, id++);
+		kryo.register(BookStoreReplicationBatch.class, id++);
 	}
 
 	/*
@@ -41,10 +184,13 @@ public final class BookStoreKryoSerializer implements BookStoreSerializer {
 	 */
 	@Override
 	public byte[] serialize(Object object) throws IOException {
-		try (ByteArrayOutputStream outStream = new ByteArrayOutputStream(); Output out = new Output(outStream)) {
-			binaryStream.writeClassAndObject(out, object);
-			out.flush();
-			return outStream.toByteArray();
+		output.setOutputStream(null);
+
+		try {
+			binaryStream.writeClassAndObject(output, object);
+			return output.toBytes();
+		} catch (KryoException | IllegalArgumentException ex) {
+			throw new IOException(ex);
 		}
 	}
 
@@ -55,8 +201,66 @@ public final class BookStoreKryoSerializer implements BookStoreSerializer {
 	 */
 	@Override
 	public Object deserialize(byte[] bytes) throws IOException {
-		try (InputStream inStream = new ByteArrayInputStream(bytes); Input in = new Input(inStream)) {
-			return binaryStream.readClassAndObject(in);
+		input.setBuffer(bytes);
+
+		try {
+			return binaryStream.readClassAndObject(input);
+		} catch (KryoException | IllegalArgumentException ex) {
+			throw new IOException(ex);
+		} finally {
+			// Streams are read into the buffer of the input, not the bytes.
+			input.setBuffer(inputBuffer);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#serialize(java.lang.
+	 * Object, java.io.OutputStream)
+	 */
+	@Override
+	public void serialize(Object object, OutputStream out) throws IOException {
+		output.setOutputStream(out);
+
+		try {
+			binaryStream.writeClassAndObject(output, object);
+			output.flush();
+		} catch (KryoException | IllegalArgumentException ex) {
+			throw new IOException(ex);
+		} finally {
+			output.setOutputStream(null);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#deserialize(java.io.
+	 * InputStream)
+	 */
+	@Override
+	public Object deserialize(InputStream in) throws IOException {
+		input.setInputStream(in);
+
+		try {
+			return binaryStream.readClassAndObject(input);
+		} catch (KryoException | IllegalArgumentException ex) {
+			throw new IOException(ex);
+		} finally {
+			input.setInputStream(null);
 		}
 	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStoreSerializer#getContentType()
+	 */
+	@Override
+	public String getContentType() {
+		return unsafe ? BookStoreConstants.CONTENT_TYPE_KRYO_UNSAFE : BookStoreConstants.CONTENT_TYPE_KRYO;
+	}
 }
@@ -0,0 +1,642 @@
+package com.acertainbookstore.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+
+/**
+ * {@link BookStoreLog} is an append-only write-ahead log of the updates made
+ * to a book store. Every record holds the message tag and the serialized
+ * argument of one update, preceded by the length of the argument and a CRC32
+ * checksum of the tag and argument.
+ *
+ * Records are first appended to a buffer in memory. A thread waiting for its
+ * record to be durable writes the buffer of every thread to the file and
+ * forces it to disk once for all of them, while the threads that append in the
+ * meantime wait for the next force (group commit).
+ *
+ * When the log is replayed, a record that is cut short or whose checksum does
+ * not match marks the end of the log, such as a write interrupted by a crash;
+ * the log is truncated there.
+ *
+ * Offsets in the log count the bytes of every record ever appended, so they
+ * stay valid once {@link #truncate(long)} dropped the records before a
+ * checkpoint. The file starts with the offset of its first record, written
+ * along with the first records.
+ */
+public final class BookStoreLog {
+
+	/** The Constant MAGIC identifying log files. */
+	private static final int MAGIC = 0x424C4F47;
+
+	/** The size of the magic and offset of the first record of the file. */
+	private static final int FILE_HEADER_SIZE = Integer.BYTES + Long.BYTES;
+
+	/** The size of the length, checksum and tag preceding each argument. */
+	private static final int HEADER_SIZE = Integer.BYTES + Integer.BYTES + Byte.BYTES;
+
+	/** The Constant INITIAL_BUFFER_SIZE. */
+	private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * {@link Replayer} applies a record read back from the log.
+	 */
+	@FunctionalInterface
+	public interface Replayer {
+
+		/**
+		 * Applies the update.
+		 *
+		 * @param messageTag
+		 *            the message tag of the update
+		 * @param argument
+		 *            the argument of the update
+		 * @throws BookStoreException
+		 *             the book store exception
+		 */
+		void apply(BookStoreMessageTag messageTag, Object argument) throws BookStoreException;
+	}
+
+	/** The path of the log file. */
+	private final Path logFile;
+
+	/** The log file, replaced when the log is truncated. */
+	private volatile FileChannel channel;
+
+	/** The offset of the first record of the file. */
+	private volatile long baseOffset = 0;
+
+	/** The serializer of the arguments appended. */
+	private final BookStoreSerializer serializer = new BookStoreKryoSerializer();
+
+	/**
+	 * The lock guarding the records appended and the state of the syncing
+	 * thread, so that a virtual thread waiting to append does not pin its
+	 * carrier.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/** Signalled when the syncing thread is done. */
+	private final Condition syncDone = lock.newCondition();
+
+	/** The records appended but not written yet. */
+	private final ByteArrayOutputStream pendingBytes = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+
+	/** The stream writing into {@link #pendingBytes}. */
+	private final DataOutputStream pendingRecords = new DataOutputStream(pendingBytes);
+
+	/** The sequence number of the last record appended. */
+	private long appendedSequence = 0;
+
+	/** The offset in the file after the last record appended. */
+	private long appendedOffset = 0;
+
+	/** The sequence number of the last record forced to disk. */
+	private long durableSequence = 0;
+
+	/** True while a thread writes and forces the pending records. */
+	private boolean syncing = false;
+
+	/** The failure of a previous write, after which the log is unusable. */
+	private IOException failure = null;
+
+	/**
+	 * Opens the log, creating the file if it does not exist.
+	 *
+	 * @param logFile
+	 *            the log file
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public BookStoreLog(Path logFile) throws IOException {
+		this.logFile = logFile;
+		channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+
+		try {
+			if (channel.size() < FILE_HEADER_SIZE) {
+				// No record was written, or the first write was torn.
+				channel.truncate(0);
+			} else {
+				ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+				readFully(header, 0);
+				header.flip();
+
+				if (header.getInt() != MAGIC) {
+					throw new IOException("The log is corrupt: " + logFile);
+				}
+
+				baseOffset = header.getLong();
+				appendedOffset = baseOffset;
+				channel.position(channel.size());
+			}
+		} catch (IOException ex) {
+			channel.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Reads back every record of the log and positions the log after the last
+	 * valid record. Updates that fail are ignored, since they failed the same
+	 * way when they were logged.
+	 *
+	 * @param replayer
+	 *            the replayer applying the records
+	 * @return the number of records replayed
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public long replay(Replayer replayer) throws IOException {
+		return replay(replayer, baseOffset);
+	}
+
+	/**
+	 * Reads back the records of the log from an offset, such as the offset
+	 * saved by a {@link BookStoreCheckpoint}, and positions the log after the
+	 * last valid record.
+	 *
+	 * @param replayer
+	 *            the replayer applying the records
+	 * @param offset
+	 *            the offset of the first record to replay
+	 * @return the number of records replayed
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public long replay(Replayer replayer, long offset) throws IOException {
+		lock.lock();
+
+		try {
+			long size = channel.size();
+
+			if (offset < baseOffset) {
+				throw new IOException("The log was truncated after offset " + offset);
+			} else if (size == 0 ? offset > baseOffset : toPosition(offset) > size) {
+				throw new IOException("The log ends before offset " + offset);
+			}
+
+			long[] end = { offset };
+			long numRecords = read(replayer, offset, toOffset(size), end);
+
+			// Drop a torn record at the end, so that new records follow valid ones.
+			if (size > 0) {
+				channel.truncate(toPosition(end[0]));
+				channel.position(toPosition(end[0]));
+			}
+
+			appendedOffset = end[0];
+			return numRecords;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Reads back the records forced to disk between two offsets, such as to
+	 * roll a copy of the store forward from a checkpoint, without changing the
+	 * log. It must not run concurrently with {@link #truncate(long)}.
+	 *
+	 * @param replayer
+	 *            the replayer applying the records
+	 * @param fromOffset
+	 *            the offset of the first record to replay
+	 * @param toOffset
+	 *            the offset after the last record to replay
+	 * @return the number of records replayed
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred, or the records
+	 *             are not all on disk.
+	 */
+	public long replay(Replayer replayer, long fromOffset, long toOffset) throws IOException {
+		if (fromOffset < baseOffset) {
+			throw new IOException("The log was truncated after offset " + fromOffset);
+		}
+
+		long[] end = { fromOffset };
+		long numRecords = read(replayer, fromOffset, toOffset, end);
+
+		if (end[0] != toOffset) {
+			throw new IOException("The log is corrupt before offset " + toOffset);
+		}
+
+		return numRecords;
+	}
+
+	/**
+	 * Reads back the valid records between two offsets.
+	 *
+	 * @param replayer
+	 *            the replayer applying the records
+	 * @param fromOffset
+	 *            the offset of the first record to replay
+	 * @param toOffset
+	 *            the offset after which no record is replayed
+	 * @param end
+	 *            receives the offset after the last record replayed
+	 * @return the number of records replayed
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private long read(Replayer replayer, long fromOffset, long toOffset, long[] end) throws IOException {
+		// Records can be appended meanwhile, so they are read with another serializer.
+		BookStoreSerializer reader = new BookStoreKryoSerializer();
+		BookStoreMessageTag[] messageTags = BookStoreMessageTag.values();
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		long size = Math.min(channel.size(), toPosition(toOffset));
+		long position = toPosition(fromOffset);
+		long numRecords = 0;
+
+		while (position + HEADER_SIZE <= size) {
+			header.clear();
+			readFully(header, position);
+			header.flip();
+
+			int length = header.getInt();
+			int checksum = header.getInt();
+			int ordinal = header.get();
+
+			if (length < 0 || position + HEADER_SIZE + length > size || ordinal < 0
+					|| ordinal >= messageTags.length) {
+				break;
+			}
+
+			ByteBuffer payload = ByteBuffer.allocate(length);
+			readFully(payload, position + HEADER_SIZE);
+
+			if (checksum(ordinal, payload.array()) != checksum) {
+				break;
+			}
+
+			try {
+				replayer.apply(messageTags[ordinal], reader.deserialize(payload.array()));
+			} catch (BookStoreException ex) {
+				;
+			}
+
+			position += HEADER_SIZE + length;
+			numRecords++;
+		}
+
+		end[0] = toOffset(position);
+		return numRecords;
+	}
+
+	/**
+	 * Appends a record to the log. The record is durable once
+	 * {@link #awaitDurable(long)} returns for its sequence number.
+	 *
+	 * @param messageTag
+	 *            the message tag of the update
+	 * @param argument
+	 *            the argument of the update
+	 * @return the sequence number of the record
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public long append(BookStoreMessageTag messageTag, Object argument) throws IOException {
+		lock.lock();
+
+		try {
+			if (failure != null) {
+				throw failure;
+			}
+
+			byte[] payload = serializer.serialize(argument);
+			pendingRecords.writeInt(payload.length);
+			pendingRecords.writeInt(checksum(messageTag.ordinal(), payload));
+			pendingRecords.writeByte(messageTag.ordinal());
+			pendingRecords.write(payload);
+			appendedOffset += HEADER_SIZE + payload.length;
+			return ++appendedSequence;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the sequence number of the last record appended.
+	 *
+	 * @return the sequence number
+	 */
+	public long getAppendedSequence() {
+		lock.lock();
+
+		try {
+			return appendedSequence;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the offset in the log after the last record appended, where the
+	 * next record will be written.
+	 *
+	 * @return the offset
+	 */
+	public long getAppendedOffset() {
+		lock.lock();
+
+		try {
+			return appendedOffset;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Forces every record appended so far to disk.
+	 *
+	 * @return the offset after the records forced
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public long force() throws IOException {
+		long sequence;
+		long offset;
+
+		lock.lock();
+
+		try {
+			sequence = appendedSequence;
+			offset = appendedOffset;
+		} finally {
+			lock.unlock();
+		}
+
+		awaitDurable(sequence);
+		return offset;
+	}
+
+	/**
+	 * Waits until the record with the sequence number is forced to disk,
+	 * forcing it and every record appended before it if no other thread is
+	 * doing so.
+	 *
+	 * @param sequence
+	 *            the sequence number of the record
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void awaitDurable(long sequence) throws IOException {
+		byte[] batch;
+		long batchSequence;
+
+		lock.lock();
+
+		try {
+			while (durableSequence < sequence && syncing) {
+				try {
+					syncDone.await();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				}
+			}
+
+			if (failure != null) {
+				throw failure;
+			}
+
+			if (durableSequence >= sequence) {
+				return;
+			}
+
+			// No thread is syncing, so this thread syncs for everyone.
+			syncing = true;
+			batch = pendingBytes.toByteArray();
+			batchSequence = appendedSequence;
+			pendingBytes.reset();
+		} finally {
+			lock.unlock();
+		}
+
+		IOException batchFailure = null;
+
+		try {
+			if (channel.position() == 0) {
+				writeFully(channel, fileHeader(baseOffset));
+			}
+
+			writeFully(channel, ByteBuffer.wrap(batch));
+			channel.force(false);
+		} catch (IOException ex) {
+			batchFailure = ex;
+		} finally {
+			lock.lock();
+
+			try {
+				syncing = false;
+
+				if (batchFailure == null) {
+					durableSequence = batchSequence;
+				} else {
+					failure = batchFailure;
+				}
+
+				syncDone.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		if (batchFailure != null) {
+			throw batchFailure;
+		}
+	}
+
+	/**
+	 * Drops the records before an offset, such as those a checkpoint holds,
+	 * by copying the records after it to a new file that replaces the log.
+	 * Records can be appended meanwhile, and are written once the new file
+	 * is in place.
+	 *
+	 * @param offset
+	 *            the offset of the first record to keep, forced to disk
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void truncate(long offset) throws IOException {
+		lock.lock();
+
+		try {
+			// Take the place of the syncing thread, so that nothing is written.
+			while (syncing) {
+				try {
+					syncDone.await();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				}
+			}
+
+			if (failure != null) {
+				throw failure;
+			}
+
+			syncing = true;
+		} finally {
+			lock.unlock();
+		}
+
+		FileChannel newChannel = null;
+
+		try {
+			if (offset < baseOffset || toPosition(offset) > Math.max(channel.size(), FILE_HEADER_SIZE)) {
+				throw new IOException("The log has no record at offset " + offset);
+			}
+
+			Path tempFile = logFile.resolveSibling(logFile.getFileName() + ".tmp");
+
+			try (FileChannel tempChannel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+					StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+				writeFully(tempChannel, fileHeader(offset));
+				long position = toPosition(offset);
+				long size = channel.size();
+
+				while (position < size) {
+					position += channel.transferTo(position, size - position, tempChannel);
+				}
+
+				tempChannel.force(false);
+			}
+
+			Files.move(tempFile, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			newChannel = FileChannel.open(logFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			newChannel.position(newChannel.size());
+		} finally {
+			lock.lock();
+
+			try {
+				if (newChannel != null) {
+					channel.close();
+					channel = newChannel;
+					baseOffset = offset;
+				}
+
+				syncing = false;
+				syncDone.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Forces every appended record to disk and closes the log.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void close() throws IOException {
+		try {
+			awaitDurable(getAppendedSequence());
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Reads bytes from the log until the buffer is full.
+	 *
+	 * @param buffer
+	 *            the buffer
+	 * @param position
+	 *            the position in the log
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+
+			if (read < 0) {
+				throw new IOException("Unexpected end of the log");
+			}
+
+			position += read;
+		}
+	}
+
+	/**
+	 * Gets the position in the file of the record at an offset.
+	 *
+	 * @param offset
+	 *            the offset
+	 * @return the position
+	 */
+	private long toPosition(long offset) {
+		return FILE_HEADER_SIZE + offset - baseOffset;
+	}
+
+	/**
+	 * Gets the offset of the record at a position in the file.
+	 *
+	 * @param position
+	 *            the position
+	 * @return the offset
+	 */
+	private long toOffset(long position) {
+		return Math.max(position, FILE_HEADER_SIZE) - FILE_HEADER_SIZE + baseOffset;
+	}
+
+	/**
+	 * Creates the header of a log file.
+	 *
+	 * @param offset
+	 *            the offset of the first record of the file
+	 * @return the header
+	 */
+	private static ByteBuffer fileHeader(long offset) {
+		ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+		header.putInt(MAGIC);
+		header.putLong(offset);
+		header.flip();
+		return header;
+	}
+
+	/**
+	 * Writes every byte of the buffer to a file.
+	 *
+	 * @param channel
+	 *            the file
+	 * @param buffer
+	 *            the buffer
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Computes the checksum of a record.
+	 *
+	 * @param ordinal
+	 *            the ordinal of the message tag
+	 * @param payload
+	 *            the serialized argument
+	 * @return the checksum
+	 */
+	private static int checksum(int ordinal, byte[] payload) {
+		CRC32 crc = new CRC32();
+		crc.update(ordinal);
+		crc.update(payload, 0, payload.length);
+		return (int) crc.getValue();
+	}
+}
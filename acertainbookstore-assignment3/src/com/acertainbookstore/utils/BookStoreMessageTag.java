@@ -34,5 +34,39 @@ public enum BookStoreMessageTag {
 	REMOVEBOOKS,
 
 	/** The tag for the get stock books by ISBN message. */
-	GETSTOCKBOOKSBYISBN;
+	GETSTOCKBOOKSBYISBN,
+
+	/** The tag for the rate books message. */
+	RATEBOOKS,
+
+	/** The tag for the load books message. */
+	LOADBOOKS,
+
+	/** The tag for the prepare purchase message. */
+	PREPAREBUYBOOKS,
+
+	/** The tag for the commit purchase message. */
+	COMMITBUYBOOKS,
+
+	/** The tag for the abort purchase message. */
+	ABORTBUYBOOKS,
+
+	/** The tag for the replicate message. */
+	REPLICATE,
+
+	/** The tag for the promote message. */
+	PROMOTE,
+
+	/** The tag for the batch of operations message. */
+	BATCH,
+
+	/**
+	 * The tag for the end of a purchase, logged by the coordinator once every
+	 * participant acknowledged the decision, and then sent to them so that
+	 * they forget its outcome.
+	 */
+	ENDBUYBOOKS,
+
+	/** The tag for the number of editor picks message. */
+	GETNUMEDITORPICKS;
 }
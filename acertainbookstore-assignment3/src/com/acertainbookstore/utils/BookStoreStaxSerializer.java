@@ -0,0 +1,1084 @@
+package com.acertainbookstore.utils;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.BookStoreMutation;
+import com.acertainbookstore.business.BookStoreOperation;
+import com.acertainbookstore.business.BookStoreReplicationBatch;
+import com.acertainbookstore.business.BuyBooksTransaction;
+import com.acertainbookstore.business.ImmutableBook;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+
+/**
+ * {@link BookStoreStaxSerializer} serializes the messages of the bookstore to
+ * the XML trees of {@link BookStoreXStreamSerializer}, with a hand-written
+ * StAX reader and writer instead of reflection, so clients of either
+ * serializer understand each other. Every value is an element named after the
+ * XStream alias of its class, holding an element per field, and a field whose
+ * value is not of its declared type names the type in a class attribute. An
+ * object XStream writes more than once in a tree is a reference to the path
+ * of its first element, and is read as the same object.
+ *
+ * The XML is UTF-8 encoded and streamed, with no intermediate string. Books
+ * are read as {@link ImmutableBook} and {@link ImmutableStockBook}, sets as
+ * {@link HashSet}, and lists as {@link ArrayList}. Exceptions keep their
+ * message only.
+ *
+ * @see BookStoreSerializer
+ */
+public final class BookStoreStaxSerializer implements BookStoreSerializer {
+
+	/** The Constant BUFFER_SIZE of the buffer. */
+	private static final int BUFFER_SIZE = 8192;
+
+	/** The Constant ENCODING of the XML. */
+	private static final String ENCODING = "UTF-8";
+
+	/** The Constant CLASS attribute, naming the type of a field. */
+	private static final String CLASS = "class";
+
+	/** The Constant REFERENCE attribute, naming the path of a shared object. */
+	private static final String REFERENCE = "reference";
+
+	/** The Constant NULL type. */
+	private static final String NULL = "null";
+
+	/** The Constant INTEGER type. */
+	private static final String INTEGER = "int";
+
+	/** The Constant LONG type. */
+	private static final String LONG = "long";
+
+	/** The Constant FLOAT type. */
+	private static final String FLOAT = "float";
+
+	/** The Constant BOOLEAN type. */
+	private static final String BOOLEAN = "boolean";
+
+	/** The Constant STRING type. */
+	private static final String STRING = "string";
+
+	/** The Constant SET type. */
+	private static final String SET = "set";
+
+	/** The Constant LIST type. */
+	private static final String LIST = "list";
+
+	/** The Constant ARRAY_LIST type, of Arrays.asList, holding an array. */
+	private static final String ARRAY_LIST = "java.util.Arrays$ArrayList";
+
+	/** The Constant ARRAY_LIST_ELEMENT, the element name of ARRAY_LIST. */
+	private static final String ARRAY_LIST_ELEMENT = "java.util.Arrays_-ArrayList";
+
+	/** The Constant BOOK_COPY type. */
+	private static final String BOOK_COPY = "com.acertainbookstore.business.BookCopy";
+
+	/** The Constant BOOK_RATING type. */
+	private static final String BOOK_RATING = "com.acertainbookstore.business.BookRating";
+
+	/** The Constant BOOK_EDITOR_PICK type. */
+	private static final String BOOK_EDITOR_PICK = "com.acertainbookstore.business.BookEditorPick";
+
+	/** The Constant BOOK type. */
+	private static final String BOOK = "com.acertainbookstore.business.ImmutableBook";
+
+	/** The Constant STOCK_BOOK type. */
+	private static final String STOCK_BOOK = "com.acertainbookstore.business.ImmutableStockBook";
+
+	/** The Constant RESPONSE type. */
+	private static final String RESPONSE = "com.acertainbookstore.utils.BookStoreResponse";
+
+	/** The Constant EXCEPTION type. */
+	private static final String EXCEPTION = "com.acertainbookstore.utils.BookStoreException";
+
+	/** The Constant MESSAGE_TAG type. */
+	private static final String MESSAGE_TAG = "com.acertainbookstore.utils.BookStoreMessageTag";
+
+	/** The Constant TRANSACTION type. */
+	private static final String TRANSACTION = "com.acertainbookstore.business.BuyBooksTransaction";
+
+	/** The Constant OPERATION type. */
+	private static final String OPERATION = "com.acertainbookstore.business.BookStoreOperation";
+
+	/** The Constant MUTATION type. */
+	private static final String MUTATION = "com.acertainbookstore.business.BookStoreMutation";
+
+	/** The Constant REPLICATION_BATCH type. */
+	private static final String REPLICATION_BATCH = "com.acertainbookstore.business.BookStoreReplicationBatch";
+
+	/** The Constant SET_TYPES, the aliases of the sets read as a set. */
+	private static final Set<String> SET_TYPES = new HashSet<String>(
+			Arrays.asList(SET, "linked-hash-set", "sorted-set", "tree-set", "singleton-set", "empty-set"));
+
+	/** The Constant LIST_TYPES, the aliases of the lists read as a list. */
+	private static final Set<String> LIST_TYPES = new HashSet<String>(
+			Arrays.asList(LIST, "linked-list", "singleton-list", "empty-list"));
+
+	/** The factory of the writers. */
+	private final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+
+	/** The factory of the readers. */
+	private final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+
+	/** The buffer of the arrays, reused by every object. */
+	private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(BUFFER_SIZE);
+
+	/** The writer of the object being serialized. */
+	private XMLStreamWriter writer = null;
+
+	/** The reader of the object being deserialized. */
+	private XMLStreamReader reader = null;
+
+	/** The path of the element read, as XStream references name it. */
+	private final StringBuilder path = new StringBuilder();
+
+	/** The length of the path before each element entered. */
+	private int[] pathLengths = new int[16];
+
+	/** The number of elements entered. */
+	private int depth = 0;
+
+	/** The number of children of each name of each element entered. */
+	private final List<Map<String, Integer>> childCounts = new ArrayList<Map<String, Integer>>();
+
+	/** The objects read, by the path of their element. */
+	private final Map<String, Object> objects = new HashMap<String, Object>();
+
+	/**
+	 * Instantiates a new {@link BookStoreStaxSerializer}, whose readers reject
+	 * document type declarations and external entities.
+	 */
+	public BookStoreStaxSerializer() {
+		inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#serialize(java.lang.
+	 * Object)
+	 */
+	@Override
+	public byte[] serialize(Object object) throws IOException {
+		bytes.reset();
+		serialize(object, bytes);
+		return bytes.toByteArray();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#deserialize(byte[])
+	 */
+	@Override
+	public Object deserialize(byte[] bytes) throws IOException {
+		return deserialize(new ByteArrayInputStream(bytes));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#serialize(java.lang.
+	 * Object, java.io.OutputStream)
+	 */
+	@Override
+	public void serialize(Object object, OutputStream out) throws IOException {
+		try {
+			Writer textWriter = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+			writer = outputFactory.createXMLStreamWriter(textWriter);
+			writer.writeStartDocument(ENCODING, "1.0");
+			writeValue(object);
+			writer.writeEndDocument();
+			writer.close();
+			textWriter.flush();
+		} catch (XMLStreamException ex) {
+			throw new IOException(ex);
+		} finally {
+			writer = null;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#deserialize(java.io.
+	 * InputStream)
+	 */
+	@Override
+	public Object deserialize(InputStream in) throws IOException {
+		try {
+			reader = inputFactory.createXMLStreamReader(in, ENCODING);
+			reader.nextTag();
+			enter();
+			return readValue(reader.getLocalName());
+		} catch (XMLStreamException | IllegalArgumentException | ClassCastException ex) {
+			throw new IOException(ex);
+		} finally {
+			close();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStoreSerializer#getContentType()
+	 */
+	@Override
+	public String getContentType() {
+		return BookStoreConstants.CONTENT_TYPE_XML;
+	}
+
+	/**
+	 * Gets the type of a value, as XStream names it.
+	 *
+	 * @param value
+	 *            the value
+	 * @return the type
+	 * @throws IOException
+	 *             if the type of the value is not part of the messages
+	 */
+	private static String typeOf(Object value) throws IOException {
+		if (value == null) {
+			return NULL;
+		} else if (value instanceof Integer) {
+			return INTEGER;
+		} else if (value instanceof Long) {
+			return LONG;
+		} else if (value instanceof Float) {
+			return FLOAT;
+		} else if (value instanceof Boolean) {
+			return BOOLEAN;
+		} else if (value instanceof String) {
+			return STRING;
+		} else if (value instanceof Set) {
+			return SET;
+		} else if (value instanceof List) {
+			return LIST;
+		} else if (value instanceof BookCopy) {
+			return BOOK_COPY;
+		} else if (value instanceof BookRating) {
+			return BOOK_RATING;
+		} else if (value instanceof BookEditorPick) {
+			return BOOK_EDITOR_PICK;
+		} else if (value instanceof StockBook) {
+			return STOCK_BOOK;
+		} else if (value instanceof Book) {
+			return BOOK;
+		} else if (value instanceof BookStoreResponse) {
+			return RESPONSE;
+		} else if (value instanceof BookStoreException) {
+			return EXCEPTION;
+		} else if (value instanceof BookStoreMessageTag) {
+			return MESSAGE_TAG;
+		} else if (value instanceof BuyBooksTransaction) {
+			return TRANSACTION;
+		} else if (value instanceof BookStoreOperation) {
+			return OPERATION;
+		} else if (value instanceof BookStoreMutation) {
+			return MUTATION;
+		} else if (value instanceof BookStoreReplicationBatch) {
+			return REPLICATION_BATCH;
+		}
+
+		throw new IOException("Serialization of " + value.getClass().getName() + BookStoreConstants.NOT_SUPPORTED);
+	}
+
+	/**
+	 * Writes a value as an element named after its type.
+	 *
+	 * @param value
+	 *            the value
+	 * @throws IOException
+	 *             if the type of the value is not part of the messages
+	 * @throws XMLStreamException
+	 *             the XML stream exception
+	 */
+	private void writeValue(Object value) throws IOException, XMLStreamException {
+		String type = typeOf(value);
+		writer.writeStartElement(type);
+		writeContent(type, value);
+		writer.writeEndElement();
+	}
+
+	/**
+	 * Writes a field unless it is null, naming the type of its value if it is
+	 * not the declared one.
+	 *
+	 * @param name
+	 *            the name of the field
+	 * @param declaredType
+	 *            the declared type of the field, or null if it is any object
+	 * @param value
+	 *            the value
+	 * @throws IOException
+	 *             if the type of the value is not part of the messages
+	 * @throws XMLStreamException
+	 *             the XML stream exception
+	 */
+	private void writeField(String name, String declaredType, Object value) throws IOException, XMLStreamException {
+		if (value == null) {
+			return;
+		}
+
+		String type = typeOf(value);
+		writer.writeStartElement(name);
+
+		if (!type.equals(declaredType)) {
+			writer.writeAttribute(CLASS, type);
+		}
+
+		writeContent(type, value);
+		writer.writeEndElement();
+	}
+
+	/**
+	 * Writes a field of text unless it is null.
+	 *
+	 * @param name
+	 *            the name of the field
+	 * @param text
+	 *            the text
+	 * @throws XMLStreamException
+	 *             the XML stream exception
+	 */
+	private void writeText(String name, String text) throws XMLStreamException {
+		if (text == null) {
+			return;
+		}
+
+		writer.writeStartElement(name);
+		writer.writeCharacters(text);
+		writer.writeEndElement();
+	}
+
+	/**
+	 * Writes the content of the element of a value.
+	 *
+	 * @param type
+	 *            the type of the value
+	 * @param value
+	 *            the value
+	 * @throws IOException
+	 *             if the type of a field is not part of the messages
+	 * @throws XMLStreamException
+	 *             the XML stream exception
+	 */
+	private void writeContent(String type, Object value) throws IOException, XMLStreamException {
+		switch (type) {
+		case NULL:
+			break;
+
+		case INTEGER:
+		case LONG:
+		case FLOAT:
+		case BOOLEAN:
+		case STRING:
+			writer.writeCharacters(value.toString());
+			break;
+
+		case MESSAGE_TAG:
+			writer.writeCharacters(((BookStoreMessageTag) value).name());
+			break;
+
+		case SET:
+		case LIST:
+			for (Object item : (Collection<?>) value) {
+				writeValue(item);
+			}
+			break;
+
+		case BOOK_COPY:
+			BookCopy bookCopy = (BookCopy) value;
+			writeText("isbn", Integer.toString(bookCopy.getISBN()));
+			writeText("numCopies", Integer.toString(bookCopy.getNumCopies()));
+			break;
+
+		case BOOK_RATING:
+			BookRating bookRating = (BookRating) value;
+			writeText("isbn", Integer.toString(bookRating.getISBN()));
+			writeText("rating", Integer.toString(bookRating.getRating()));
+			break;
+
+		case BOOK_EDITOR_PICK:
+			BookEditorPick editorPick = (BookEditorPick) value;
+			writeText("isbn", Integer.toString(editorPick.getISBN()));
+			writeText("editorPick", Boolean.toString(editorPick.isEditorPick()));
+			break;
+
+		case STOCK_BOOK:
+			StockBook book = (StockBook) value;
+			writeBook(book);
+			writeText("totalRating", Long.toString(book.getTotalRating()));
+			writeText("numTimesRated", Long.toString(book.getNumTimesRated()));
+			writeText("numCopies", Integer.toString(book.getNumCopies()));
+			writeText("numSaleMisses", Long.toString(book.getNumSaleMisses()));
+			writeText("editorPick", Boolean.toString(book.isEditorPick()));
+			break;
+
+		case BOOK:
+			writeBook((Book) value);
+			break;
+
+		case RESPONSE:
+			BookStoreResponse response = (BookStoreResponse) value;
+			writeField("exception", EXCEPTION, response.getException());
+			writeField("list", LIST, response.getList());
+			break;
+
+		case EXCEPTION:
+			writeText("detailMessage", ((BookStoreException) value).getMessage());
+			break;
+
+		case TRANSACTION:
+			BuyBooksTransaction transaction = (BuyBooksTransaction) value;
+			writeText("transactionId", transaction.getTransactionId());
+			writeField("bookCopies", SET, transaction.getBookCopies());
+			writeText("recordSaleMisses", Boolean.toString(transaction.isRecordSaleMisses()));
+			break;
+
+		case OPERATION:
+			BookStoreOperation operation = (BookStoreOperation) value;
+			writeField("messageTag", MESSAGE_TAG, operation.getMessageTag());
+			writeField("argument", null, operation.getArgument());
+			break;
+
+		case MUTATION:
+			BookStoreMutation mutation = (BookStoreMutation) value;
+			writeText("sequence", Long.toString(mutation.getSequence()));
+			writeField("messageTag", MESSAGE_TAG, mutation.getMessageTag());
+			writeField("argument", null, mutation.getArgument());
+			writeText("snapshot", Boolean.toString(mutation.isSnapshot()));
+			break;
+
+		case REPLICATION_BATCH:
+			BookStoreReplicationBatch batch = (BookStoreReplicationBatch) value;
+			writeText("primaryIncarnation", Long.toString(batch.getPrimaryIncarnation()));
+			writeText("primarySequence", Long.toString(batch.getPrimarySequence()));
+			writeField("mutations", LIST, batch.getMutations());
+			break;
+
+		default:
+			throw new IOException("Serialization of " + type + BookStoreConstants.NOT_SUPPORTED);
+		}
+	}
+
+	/**
+	 * Writes the fields of a book.
+	 *
+	 * @param book
+	 *            the book
+	 * @throws XMLStreamException
+	 *             the XML stream exception
+	 */
+	private void writeBook(Book book) throws XMLStreamException {
+		writeText("isbn", Integer.toString(book.getISBN()));
+		writeText("title", book.getTitle());
+		writeText("author", book.getAuthor());
+		writeText("price", Float.toString(book.getPrice()));
+	}
+
+	/**
+	 * Enters the element the reader is at the start of, appending it to the
+	 * path. Like XStream, the path numbers an element from its second sibling
+	 * of the same name on.
+	 */
+	private void enter() {
+		String name = reader.getLocalName();
+		int index = childCountsOf(depth).merge(name, 1, Integer::sum);
+
+		if (depth == pathLengths.length) {
+			pathLengths = Arrays.copyOf(pathLengths, 2 * depth);
+		}
+
+		pathLengths[depth] = path.length();
+		path.append('/').append(name);
+
+		if (index > 1) {
+			path.append('[').append(index).append(']');
+		}
+
+		depth++;
+		childCountsOf(depth).clear();
+	}
+
+	/**
+	 * Leaves the element the reader is at the end of, removing it from the
+	 * path.
+	 */
+	private void leave() {
+		depth--;
+		path.setLength(pathLengths[depth]);
+	}
+
+	/**
+	 * Gets the number of children of each name of an element entered.
+	 *
+	 * @param elementDepth
+	 *            the depth of the element
+	 * @return the number of children of each name
+	 */
+	private Map<String, Integer> childCountsOf(int elementDepth) {
+		while (childCounts.size() <= elementDepth) {
+			childCounts.add(new HashMap<String, Integer>());
+		}
+
+		return childCounts.get(elementDepth);
+	}
+
+	/**
+	 * Closes the reader and forgets the objects read.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void close() throws IOException {
+		objects.clear();
+		path.setLength(0);
+		depth = 0;
+		childCountsOf(0).clear();
+
+		if (reader == null) {
+			return;
+		}
+
+		try {
+			reader.close();
+		} catch (XMLStreamException ex) {
+			throw new IOException(ex);
+		} finally {
+			reader = null;
+		}
+	}
+
+	/**
+	 * Moves to the start of the next child of the current element, entering
+	 * it, or else to the end of the current element.
+	 *
+	 * @return true, if there is a child
+	 * @throws XMLStreamException
+	 *             the XML stream exception
+	 */
+	private boolean nextChild() throws XMLStreamException {
+		if (reader.nextTag() == XMLStreamConstants.END_ELEMENT) {
+			return false;
+		}
+
+		enter();
+		return true;
+	}
+
+	/**
+	 * Skips the element entered, up to its end, and leaves it.
+	 *
+	 * @throws XMLStreamException
+	 *             the XML stream exception
+	 */
+	private void skip() throws XMLStreamException {
+		for (int level = 1; level > 0;) {
+			int event = reader.next();
+
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				level++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				level--;
+			}
+		}
+
+		leave();
+	}
+
+	/**
+	 * Reads the text of the element entered, and leaves it.
+	 *
+	 * @return the text
+	 * @throws XMLStreamException
+	 *             the XML stream exception
+	 */
+	private String readText() throws XMLStreamException {
+		String text = reader.getElementText();
+		leave();
+		return text;
+	}
+
+	/**
+	 * Reads a field, of the type named by its class attribute, if any, or
+	 * else of its declared type.
+	 *
+	 * @param declaredType
+	 *            the declared type of the field, or null if it is any object
+	 * @return the value of the field
+	 * @throws IOException
+	 *             if the field is not a value of the messages
+	 * @throws XMLStreamException
+	 *             the XML stream exception
+	 */
+	private Object readField(String declaredType) throws IOException, XMLStreamException {
+		String type = reader.getAttributeValue(null, CLASS);
+
+		if (type == null) {
+			type = declaredType;
+		}
+
+		if (type == null) {
+			throw new IOException("The type of " + path + BookStoreConstants.INVALID);
+		}
+
+		return readValue(type);
+	}
+
+	/**
+	 * Reads the value of the element entered, and leaves it. An object that
+	 * is not a number, string or message tag is remembered by its path, to be
+	 * the value of the elements referencing it.
+	 *
+	 * @param type
+	 *            the type of the value
+	 * @return the value
+	 * @throws IOException
+	 *             if the element is not a value of the messages
+	 * @throws XMLStreamException
+	 *             the XML stream exception
+	 */
+	private Object readValue(String type) throws IOException, XMLStreamException {
+		String reference = reader.getAttributeValue(null, REFERENCE);
+
+		if (reference != null) {
+			Object value = resolve(reference);
+			skip();
+			return value;
+		}
+
+		switch (type) {
+		case NULL:
+			skip();
+			return null;
+
+		case INTEGER:
+			return Integer.valueOf(readText());
+
+		case LONG:
+			return Long.valueOf(readText());
+
+		case FLOAT:
+			return Float.valueOf(readText());
+
+		case BOOLEAN:
+			return Boolean.valueOf(readText());
+
+		case STRING:
+			return readText();
+
+		case MESSAGE_TAG:
+			return BookStoreMessageTag.valueOf(readText());
+
+		default:
+			Object value = readObject(type);
+			objects.put(path.toString(), value);
+			leave();
+			return value;
+		}
+	}
+
+	/**
+	 * Reads the fields or items of the element entered, up to its end.
+	 *
+	 * @param type
+	 *            the type of the object
+	 * @return the object
+	 * @throws IOException
+	 *             if the element is not an object of the messages
+	 * @throws XMLStreamException
+	 *             the XML stream exception
+	 */
+	private Object readObject(String type) throws IOException, XMLStreamException {
+		if (SET_TYPES.contains(type)) {
+			return readItems(new HashSet<Object>());
+		} else if (LIST_TYPES.contains(type)) {
+			return readItems(new ArrayList<Object>());
+		}
+
+		switch (type) {
+		case ARRAY_LIST:
+		case ARRAY_LIST_ELEMENT:
+			List<Object> items = new ArrayList<Object>();
+
+			while (nextChild()) {
+				readItems(items);
+				leave();
+			}
+
+			return items;
+
+		case BOOK_COPY:
+			int isbn = 0;
+			int numCopies = 0;
+
+			while (nextChild()) {
+				switch (reader.getLocalName()) {
+				case "isbn":
+					isbn = Integer.parseInt(readText());
+					break;
+
+				case "numCopies":
+					numCopies = Integer.parseInt(readText());
+					break;
+
+				default:
+					skip();
+				}
+			}
+
+			return new BookCopy(isbn, numCopies);
+
+		case BOOK_RATING:
+			int ratedIsbn = 0;
+			int rating = 0;
+
+			while (nextChild()) {
+				switch (reader.getLocalName()) {
+				case "isbn":
+					ratedIsbn = Integer.parseInt(readText());
+					break;
+
+				case "rating":
+					rating = Integer.parseInt(readText());
+					break;
+
+				default:
+					skip();
+				}
+			}
+
+			return new BookRating(ratedIsbn, rating);
+
+		case BOOK_EDITOR_PICK:
+			int pickedIsbn = 0;
+			boolean editorPick = false;
+
+			while (nextChild()) {
+				switch (reader.getLocalName()) {
+				case "isbn":
+					pickedIsbn = Integer.parseInt(readText());
+					break;
+
+				case "editorPick":
+					editorPick = Boolean.parseBoolean(readText());
+					break;
+
+				default:
+					skip();
+				}
+			}
+
+			return new BookEditorPick(pickedIsbn, editorPick);
+
+		case BOOK:
+			return readBook(false);
+
+		case STOCK_BOOK:
+			return readBook(true);
+
+		case RESPONSE:
+			BookStoreResponse response = new BookStoreResponse();
+
+			while (nextChild()) {
+				switch (reader.getLocalName()) {
+				case "exception":
+					response.setException((BookStoreException) readField(EXCEPTION));
+					break;
+
+				case "list":
+					response.setList((List<?>) readField(LIST));
+					break;
+
+				default:
+					skip();
+				}
+			}
+
+			return response;
+
+		case EXCEPTION:
+			String message = null;
+
+			while (nextChild()) {
+				if (reader.getLocalName().equals("detailMessage")) {
+					message = readText();
+				} else {
+					skip();
+				}
+			}
+
+			return new BookStoreException(message);
+
+		case TRANSACTION:
+			String transactionId = null;
+			Set<BookCopy> bookCopies = null;
+			boolean recordSaleMisses = false;
+
+			while (nextChild()) {
+				switch (reader.getLocalName()) {
+				case "transactionId":
+					transactionId = readText();
+					break;
+
+				case "bookCopies":
+					@SuppressWarnings("unchecked")
+					Set<BookCopy> copies = (Set<BookCopy>) readField(SET);
+					bookCopies = copies;
+					break;
+
+				case "recordSaleMisses":
+					recordSaleMisses = Boolean.parseBoolean(readText());
+					break;
+
+				default:
+					skip();
+				}
+			}
+
+			return new BuyBooksTransaction(transactionId, bookCopies, recordSaleMisses);
+
+		case OPERATION:
+			BookStoreMessageTag operationTag = null;
+			Object operationArgument = null;
+
+			while (nextChild()) {
+				switch (reader.getLocalName()) {
+				case "messageTag":
+					operationTag = (BookStoreMessageTag) readField(MESSAGE_TAG);
+					break;
+
+				case "argument":
+					operationArgument = readField(null);
+					break;
+
+				default:
+					skip();
+				}
+			}
+
+			return new BookStoreOperation(operationTag, operationArgument);
+
+		case MUTATION:
+			long sequence = 0;
+			BookStoreMessageTag mutationTag = null;
+			Object mutationArgument = null;
+			boolean snapshot = false;
+
+			while (nextChild()) {
+				switch (reader.getLocalName()) {
+				case "sequence":
+					sequence = Long.parseLong(readText());
+					break;
+
+				case "messageTag":
+					mutationTag = (BookStoreMessageTag) readField(MESSAGE_TAG);
+					break;
+
+				case "argument":
+					mutationArgument = readField(null);
+					break;
+
+				case "snapshot":
+					snapshot = Boolean.parseBoolean(readText());
+					break;
+
+				default:
+					skip();
+				}
+			}
+
+			return new BookStoreMutation(sequence, mutationTag, mutationArgument, snapshot);
+
+		case REPLICATION_BATCH:
+			long primaryIncarnation = 0;
+			long primarySequence = 0;
+			List<BookStoreMutation> mutations = null;
+
+			while (nextChild()) {
+				switch (reader.getLocalName()) {
+				case "primaryIncarnation":
+					primaryIncarnation = Long.parseLong(readText());
+					break;
+
+				case "primarySequence":
+					primarySequence = Long.parseLong(readText());
+					break;
+
+				case "mutations":
+					@SuppressWarnings("unchecked")
+					List<BookStoreMutation> list = (List<BookStoreMutation>) readField(LIST);
+					mutations = list;
+					break;
+
+				default:
+					skip();
+				}
+			}
+
+			return new BookStoreReplicationBatch(primaryIncarnation, primarySequence, mutations);
+
+		default:
+			throw new IOException("Deserialization of " + type + BookStoreConstants.NOT_SUPPORTED);
+		}
+	}
+
+	/**
+	 * Reads the children of the element entered as items of a collection, up
+	 * to its end.
+	 *
+	 * @param items
+	 *            the collection
+	 * @return the collection
+	 * @throws IOException
+	 *             if an item is not a value of the messages
+	 * @throws XMLStreamException
+	 *             the XML stream exception
+	 */
+	private Collection<Object> readItems(Collection<Object> items) throws IOException, XMLStreamException {
+		while (nextChild()) {
+			String type = reader.getAttributeValue(null, CLASS);
+			items.add(readValue(type == null ? reader.getLocalName() : type));
+		}
+
+		return items;
+	}
+
+	/**
+	 * Reads the fields of a book, up to the end of its element.
+	 *
+	 * @param stock
+	 *            true, if the book is a stock book
+	 * @return the book
+	 * @throws XMLStreamException
+	 *             the XML stream exception
+	 */
+	private Book readBook(boolean stock) throws XMLStreamException {
+		int isbn = 0;
+		String title = null;
+		String author = null;
+		float price = 0;
+		int numCopies = 0;
+		long numSaleMisses = 0;
+		long numTimesRated = 0;
+		long totalRating = 0;
+		boolean editorPick = false;
+
+		while (nextChild()) {
+			switch (reader.getLocalName()) {
+			case "isbn":
+				isbn = Integer.parseInt(readText());
+				break;
+
+			case "title":
+				title = readText();
+				break;
+
+			case "author":
+				author = readText();
+				break;
+
+			case "price":
+				price = Float.parseFloat(readText());
+				break;
+
+			case "numCopies":
+				numCopies = Integer.parseInt(readText());
+				break;
+
+			case "numSaleMisses":
+				numSaleMisses = Long.parseLong(readText());
+				break;
+
+			case "numTimesRated":
+				numTimesRated = Long.parseLong(readText());
+				break;
+
+			case "totalRating":
+				totalRating = Long.parseLong(readText());
+				break;
+
+			case "editorPick":
+				editorPick = Boolean.parseBoolean(readText());
+				break;
+
+			default:
+				skip();
+			}
+		}
+
+		if (!stock) {
+			return new ImmutableBook(isbn, title, author, price);
+		}
+
+		return new ImmutableStockBook(isbn, title, author, price, numCopies, numSaleMisses, numTimesRated,
+				totalRating, editorPick);
+	}
+
+	/**
+	 * Resolves a reference, relative to the path of the element entered or
+	 * absolute, to the object read at its path.
+	 *
+	 * @param reference
+	 *            the reference
+	 * @return the object
+	 * @throws IOException
+	 *             if no object was read at the path
+	 */
+	private Object resolve(String reference) throws IOException {
+		StringBuilder target = new StringBuilder(reference.startsWith("/") ? "" : path);
+
+		for (String step : reference.split("/")) {
+			if (step.isEmpty() || step.equals(".")) {
+				continue;
+			} else if (step.equals("..")) {
+				target.setLength(Math.max(target.lastIndexOf("/"), 0));
+			} else {
+				target.append('/').append(step.endsWith("[1]") ? step.substring(0, step.length() - 3) : step);
+			}
+		}
+
+		Object value = objects.get(target.toString());
+
+		if (value == null) {
+			throw new IOException("The reference " + reference + BookStoreConstants.INVALID);
+		}
+
+		return value;
+	}
+}
@@ -1,20 +1,31 @@
 package com.acertainbookstore.utils;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 
 import org.eclipse.jetty.client.HttpClient;
 import org.eclipse.jetty.client.api.ContentProvider;
 import org.eclipse.jetty.client.api.ContentResponse;
 import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
 import org.eclipse.jetty.client.util.BytesContentProvider;
+import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
 
+import com.acertainbookstore.business.StockBook;
 import com.acertainbookstore.client.BookStoreClientConstants;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
-import com.thoughtworks.xstream.XStream;
-import com.thoughtworks.xstream.io.xml.StaxDriver;
 
 /**
  * {@link BookStoreUtility} implements utility methods used by the bookstore
@@ -22,16 +33,6 @@ import com.thoughtworks.xstream.io.xml.StaxDriver;
  */
 public final class BookStoreUtility {
 
-	/** The Constant XmlStreams. */
-	// We use pooling because creating an XStream object is expensive.
-	public static final ThreadLocal<XStream> XML_STREAMS = new ThreadLocal<XStream>() {
-
-		@Override
-		protected XStream initialValue() {
-			return new XStream(new StaxDriver());
-		}
-	};
-
 	/**
 	 * Prevents the instantiation of a new {@link BookStoreUtility}.
 	 */
@@ -39,6 +40,27 @@ public final class BookStoreUtility {
 		// Prevent instantiation.
 	}
 
+	/**
+	 * Creates the thread pool of a Jetty client or server. If the property
+	 * {@link BookStoreConstants#PROPERTY_KEY_VIRTUAL_THREADS} is set and the
+	 * JVM supports virtual threads, each task runs on a virtual thread of its
+	 * own, or else on a bounded pool of platform threads.
+	 *
+	 * @param maxThreads
+	 *            the maximum number of platform threads
+	 * @param minThreads
+	 *            the minimum number of platform threads
+	 * @return the thread pool
+	 */
+	public static ThreadPool newThreadPool(int maxThreads, int minThreads) {
+		if (Boolean.getBoolean(BookStoreConstants.PROPERTY_KEY_VIRTUAL_THREADS)
+				&& BookStoreVirtualThreadPool.isSupported()) {
+			return new BookStoreVirtualThreadPool();
+		}
+
+		return new QueuedThreadPool(maxThreads, minThreads);
+	}
+
 	/**
 	 * Checks if is invalid ISBN.
 	 *
@@ -50,6 +72,20 @@ public final class BookStoreUtility {
 		return isbn < 1;
 	}
 
+	/**
+	 * Hashes an ISBN to one of a number of slots, such as the partitions of a
+	 * store or the shards of a bookstore. Sequential ISBNs spread evenly.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param numSlots
+	 *            the number of slots
+	 * @return the slot, from 0 to the number of slots minus one
+	 */
+	public static int slotOf(int isbn, int numSlots) {
+		return Math.floorMod(isbn ^ (isbn >>> 16), numSlots);
+	}
+
 	/**
 	 * Checks if is invalid rating.
 	 *
@@ -72,6 +108,64 @@ public final class BookStoreUtility {
 		return copies < 1;
 	}
 
+	/**
+	 * Checks if a book loaded with its stock state is invalid. Unlike a book
+	 * added by the stock manager, a loaded book may have no copies left.
+	 *
+	 * @param book
+	 *            the book
+	 * @return true, if the book is invalid
+	 */
+	public static boolean isInvalidLoadedBook(StockBook book) {
+		return isInvalidISBN(book.getISBN()) || isEmpty(book.getTitle()) || isEmpty(book.getAuthor())
+				|| book.getPrice() < 0.0 || book.getNumCopies() < 0 || book.getNumSaleMisses() < 0
+				|| book.getNumTimesRated() < 0 || book.getTotalRating() < 0;
+	}
+
+	/**
+	 * Validates books to be loaded with their stock state and copies them, in
+	 * parallel, so that a large catalog is checked before the lock of the store
+	 * is taken. The ISBNs of the books must be distinct.
+	 *
+	 * @param <T>
+	 *            the type of the copies
+	 * @param books
+	 *            the books
+	 * @param copy
+	 *            the function copying a book into the representation of the
+	 *            store
+	 * @return the copies of the books by ISBN
+	 * @throws BookStoreException
+	 *             if a book is invalid or an ISBN is duplicated
+	 */
+	public static <T> ConcurrentMap<Integer, T> validateLoadedBooks(Collection<StockBook> books,
+			Function<StockBook, T> copy) throws BookStoreException {
+		if (books == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// One pass over the books, which may be decoded as they are got.
+		ConcurrentMap<Integer, T> copies = new ConcurrentHashMap<>(Math.max(16, (int) (books.size() / 0.75f) + 1));
+		Optional<Optional<StockBook>> rejected = books.parallelStream()
+				.filter(book -> book == null || isInvalidLoadedBook(book)
+						|| copies.putIfAbsent(book.getISBN(), copy.apply(book)) != null)
+				.map(Optional::ofNullable)
+				.findAny();
+
+		if (rejected.isPresent()) {
+			StockBook book = rejected.get()
+					.orElseThrow(() -> new BookStoreException(BookStoreConstants.NULL_INPUT));
+
+			if (isInvalidLoadedBook(book)) {
+				throw new BookStoreException(BookStoreConstants.BOOK + book + BookStoreConstants.INVALID);
+			}
+
+			throw new BookStoreException(BookStoreConstants.ISBN + book.getISBN() + BookStoreConstants.DUPLICATED);
+		}
+
+		return copies;
+	}
+
 	/**
 	 * Checks if a string is empty or null.
 	 *
@@ -163,44 +257,221 @@ public final class BookStoreUtility {
 	 */
 	public static BookStoreResponse performHttpExchange(HttpClient client, BookStoreRequest bookStoreRequest,
 			BookStoreSerializer serializer) throws BookStoreException {
+		Request request = newHttpRequest(client, bookStoreRequest, serializer);
+		ContentResponse response;
+
+		try {
+			response = request.send();
+		} catch (InterruptedException ex) {
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_SENDING, ex);
+		} catch (TimeoutException ex) {
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_TIMEOUT, ex);
+		} catch (ExecutionException ex) {
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION, ex);
+		}
+
+		return readHttpResponse(response.getContent(), serializer);
+	}
+
+	/**
+	 * Perform HTTP exchange without blocking. The request is serialized by the
+	 * calling thread, and the response is deserialized by a thread of the
+	 * client, which also runs the actions chained to the future without an
+	 * executor; such actions must not block.
+	 *
+	 * @param client
+	 *            the client
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @param serializer
+	 *            the serializer of the calling thread
+	 * @return the future book store response, failing with the book store
+	 *         exception
+	 */
+	public static CompletableFuture<BookStoreResponse> performHttpExchangeAsync(HttpClient client,
+			BookStoreRequest bookStoreRequest, ThreadLocal<BookStoreSerializer> serializer) {
+		CompletableFuture<BookStoreResponse> future = new CompletableFuture<>();
 		Request request;
 
+		try {
+			request = newHttpRequest(client, bookStoreRequest, serializer.get());
+		} catch (BookStoreException ex) {
+			future.completeExceptionally(ex);
+			return future;
+		}
+
+		request.send(new BufferingResponseListener(BookStoreClientConstants.CLIENT_MAX_RESPONSE_BYTES) {
+
+			@Override
+			public void onComplete(Result result) {
+				if (result.isFailed()) {
+					future.completeExceptionally(new BookStoreException(
+							BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION, result.getFailure()));
+					return;
+				}
+
+				try {
+					future.complete(readHttpResponse(getContent(), serializer.get()));
+				} catch (BookStoreException ex) {
+					future.completeExceptionally(ex);
+				}
+			}
+		});
+
+		return future;
+	}
+
+	/**
+	 * Perform HTTP exchange over a stream of an HTTP/2 connection.
+	 *
+	 * @param client
+	 *            the HTTP/2 client
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @param serializer
+	 *            the serializer
+	 * @return the book store response
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public static BookStoreResponse performHttpExchange(BookStoreHTTP2Client client,
+			BookStoreRequest bookStoreRequest, BookStoreSerializer serializer) throws BookStoreException {
+		byte[] content;
+
+		try {
+			content = client.send(bookStoreRequest.getMethod(), bookStoreRequest.getURLString(),
+					serializer.getContentType(), serializeContent(bookStoreRequest, serializer))
+					.get(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ex) {
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_SENDING, ex);
+		} catch (TimeoutException ex) {
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_TIMEOUT, ex);
+		} catch (ExecutionException ex) {
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION, ex);
+		}
+
+		return readHttpResponse(content, serializer);
+	}
+
+	/**
+	 * Perform HTTP exchange over a stream of an HTTP/2 connection without
+	 * blocking, as
+	 * {@link #performHttpExchangeAsync(HttpClient, BookStoreRequest, ThreadLocal)}
+	 * does over HTTP/1.1.
+	 *
+	 * @param client
+	 *            the HTTP/2 client
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @param serializer
+	 *            the serializer of the calling thread
+	 * @return the future book store response, failing with the book store
+	 *         exception
+	 */
+	public static CompletableFuture<BookStoreResponse> performHttpExchangeAsync(BookStoreHTTP2Client client,
+			BookStoreRequest bookStoreRequest, ThreadLocal<BookStoreSerializer> serializer) {
+		CompletableFuture<BookStoreResponse> future = new CompletableFuture<>();
+		CompletableFuture<byte[]> content;
+
+		try {
+			content = client.send(bookStoreRequest.getMethod(), bookStoreRequest.getURLString(),
+					serializer.get().getContentType(), serializeContent(bookStoreRequest, serializer.get()));
+		} catch (BookStoreException ex) {
+			future.completeExceptionally(ex);
+			return future;
+		}
+
+		content.whenComplete((bytes, failure) -> {
+			if (failure != null) {
+				future.completeExceptionally(
+						new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION, failure));
+				return;
+			}
+
+			try {
+				future.complete(readHttpResponse(bytes, serializer.get()));
+			} catch (BookStoreException ex) {
+				future.completeExceptionally(ex);
+			}
+		});
+
+		return future;
+	}
+
+	/**
+	 * Serializes the content of a book store request.
+	 *
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @param serializer
+	 *            the serializer
+	 * @return the content, or null if the request has none
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private static byte[] serializeContent(BookStoreRequest bookStoreRequest, BookStoreSerializer serializer)
+			throws BookStoreException {
 		switch (bookStoreRequest.getMethod()) {
 		case GET:
-			request = client.newRequest(bookStoreRequest.getURLString()).method(HttpMethod.GET);
-			break;
+			return null;
 
 		case POST:
 			try {
-				byte[] serializedValue = serializer.serialize(bookStoreRequest.getInputValue());
-				ContentProvider contentProvider = new BytesContentProvider(serializedValue);
-				request = client.POST(bookStoreRequest.getURLString()).content(contentProvider);
+				return serializer.serialize(bookStoreRequest.getInputValue());
 			} catch (IOException ex) {
 				throw new BookStoreException("Serialization error", ex);
 			}
 
-			break;
-
 		default:
 			throw new IllegalArgumentException("HTTP Method not supported.");
 		}
+	}
 
-		ContentResponse response;
+	/**
+	 * Creates the HTTP request of a book store request, naming the format of
+	 * its content and of the response by the content type of the serializer.
+	 *
+	 * @param client
+	 *            the client
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @param serializer
+	 *            the serializer
+	 * @return the HTTP request
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private static Request newHttpRequest(HttpClient client, BookStoreRequest bookStoreRequest,
+			BookStoreSerializer serializer) throws BookStoreException {
+		byte[] serializedValue = serializeContent(bookStoreRequest, serializer);
 
-		try {
-			response = request.send();
-		} catch (InterruptedException ex) {
-			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_SENDING, ex);
-		} catch (TimeoutException ex) {
-			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_TIMEOUT, ex);
-		} catch (ExecutionException ex) {
-			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION, ex);
+		if (serializedValue == null) {
+			return client.newRequest(bookStoreRequest.getURLString()).method(HttpMethod.GET)
+					.header(HttpHeader.ACCEPT, serializer.getContentType());
 		}
 
+		ContentProvider contentProvider = new BytesContentProvider(serializer.getContentType(), serializedValue);
+		return client.POST(bookStoreRequest.getURLString()).content(contentProvider)
+				.header(HttpHeader.ACCEPT, serializer.getContentType());
+	}
+
+	/**
+	 * Deserializes the content of an HTTP response.
+	 *
+	 * @param content
+	 *            the content
+	 * @param serializer
+	 *            the serializer
+	 * @return the book store response
+	 * @throws BookStoreException
+	 *             the exception of the response
+	 */
+	private static BookStoreResponse readHttpResponse(byte[] content, BookStoreSerializer serializer)
+			throws BookStoreException {
 		BookStoreResponse bookStoreResponse;
 
 		try {
-			bookStoreResponse = (BookStoreResponse) serializer.deserialize(response.getContent());
+			bookStoreResponse = (BookStoreResponse) serializer.deserialize(content);
 		} catch (IOException ex) {
 			throw new BookStoreException("Deserialization error", ex);
 		}
@@ -0,0 +1,205 @@
+package com.acertainbookstore.utils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+/**
+ * {@link BookStoreVirtualThreadPool} runs each task of a Jetty server or
+ * client on a virtual thread of its own, so a task blocked on the store or
+ * the network holds no platform thread. Virtual threads are looked up by
+ * reflection, since the bookstore also builds for JVMs without them; the
+ * pool can only be started where {@link #isSupported()}.
+ *
+ * The stores and their log guard their state with a
+ * {@link java.util.concurrent.locks.ReentrantLock} rather than a monitor,
+ * since before Java 24 a virtual thread holding or waiting for a monitor pins
+ * its carrier thread, so a few requests queued on a store would hold every
+ * carrier. A virtual thread waiting for a lock is unmounted instead, so
+ * virtual threads are supported from Java {@link #MIN_JAVA_VERSION} on, where
+ * they were introduced, and older JVMs keep the pool of platform threads.
+ *
+ * @see ThreadPool
+ */
+public final class BookStoreVirtualThreadPool extends AbstractLifeCycle implements ThreadPool {
+
+	/** The Constant STOP_TIMEOUT_MILLISECS for the tasks to finish. */
+	private static final long STOP_TIMEOUT_MILLISECS = 5000;
+
+	/** The Constant MIN_JAVA_VERSION introducing virtual threads. */
+	public static final int MIN_JAVA_VERSION = 21;
+
+	/** The Constant NEW_EXECUTOR, the factory of the executor, or null. */
+	private static final Method NEW_EXECUTOR = findNewExecutor();
+
+	/** The executor, while the pool is started. */
+	private volatile ExecutorService executor = null;
+
+	/** The number of tasks running. */
+	private final AtomicInteger numRunning = new AtomicInteger();
+
+	/**
+	 * Checks if the JVM supports virtual threads.
+	 *
+	 * @return true, if virtual threads are supported
+	 */
+	public static boolean isSupported() {
+		return NEW_EXECUTOR != null;
+	}
+
+	/**
+	 * Creates an executor starting a virtual thread per task.
+	 *
+	 * @return the executor
+	 * @throws UnsupportedOperationException
+	 *             if virtual threads are not supported
+	 */
+	public static ExecutorService newExecutor() {
+		if (!isSupported()) {
+			throw new UnsupportedOperationException("Virtual threads" + BookStoreConstants.NOT_SUPPORTED);
+		}
+
+		try {
+			return (ExecutorService) NEW_EXECUTOR.invoke(null);
+		} catch (ReflectiveOperationException ex) {
+			throw new UnsupportedOperationException("Virtual threads" + BookStoreConstants.NOT_SUPPORTED, ex);
+		}
+	}
+
+	/**
+	 * Finds the factory of an executor starting a virtual thread per task.
+	 *
+	 * @return the factory, or null if virtual threads are not supported
+	 */
+	private static Method findNewExecutor() {
+		if (getJavaVersion() < MIN_JAVA_VERSION) {
+			return null;
+		}
+
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Gets the feature version of the JVM, such as 8 for "1.8" or 24 for "24".
+	 *
+	 * @return the version, or 0 if it cannot be read
+	 */
+	private static int getJavaVersion() {
+		String version = System.getProperty("java.specification.version", "0");
+
+		if (version.startsWith("1.")) {
+			version = version.substring(2);
+		}
+
+		try {
+			return Integer.parseInt(version);
+		} catch (NumberFormatException ex) {
+			return 0;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.eclipse.jetty.util.component.AbstractLifeCycle#doStart()
+	 */
+	@Override
+	protected void doStart() throws Exception {
+		executor = newExecutor();
+		super.doStart();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.eclipse.jetty.util.component.AbstractLifeCycle#doStop()
+	 */
+	@Override
+	protected void doStop() throws Exception {
+		super.doStop();
+		ExecutorService stopped = executor;
+		stopped.shutdown();
+
+		if (!stopped.awaitTermination(STOP_TIMEOUT_MILLISECS, TimeUnit.MILLISECONDS)) {
+			stopped.shutdownNow();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.concurrent.Executor#execute(java.lang.Runnable)
+	 */
+	@Override
+	public void execute(Runnable task) {
+		ExecutorService running = executor;
+
+		if (running == null) {
+			throw new RejectedExecutionException(toString() + " is not started");
+		}
+
+		running.execute(() -> {
+			numRunning.incrementAndGet();
+
+			try {
+				task.run();
+			} finally {
+				numRunning.decrementAndGet();
+			}
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.eclipse.jetty.util.thread.ThreadPool#join()
+	 */
+	@Override
+	public void join() throws InterruptedException {
+		ExecutorService running = executor;
+
+		while (running != null && !running.awaitTermination(STOP_TIMEOUT_MILLISECS, TimeUnit.MILLISECONDS)) {
+			// Wait for the pool to stop.
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.eclipse.jetty.util.thread.ThreadPool#getThreads()
+	 */
+	@Override
+	public int getThreads() {
+		return numRunning.get();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.eclipse.jetty.util.thread.ThreadPool#getIdleThreads()
+	 */
+	@Override
+	public int getIdleThreads() {
+		return 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.eclipse.jetty.util.thread.ThreadPool#isLowOnThreads()
+	 */
+	@Override
+	public boolean isLowOnThreads() {
+		return false;
+	}
+}
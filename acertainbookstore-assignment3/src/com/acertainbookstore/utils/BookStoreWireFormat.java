@@ -0,0 +1,110 @@
+package com.acertainbookstore.utils;
+
+import java.util.Locale;
+import java.util.function.Supplier;
+
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+
+/**
+ * {@link BookStoreWireFormat} enumerates the serializers of the HTTP messages.
+ * A client names the format of its requests, and the one it accepts for the
+ * responses, by their content type; the server answers in the same format, so
+ * clients using different formats share a server.
+ *
+ * Each format keeps a serializer per thread, since creating one is expensive.
+ */
+public enum BookStoreWireFormat {
+
+	/** The XStream XML trees, streamed by {@link BookStoreStaxSerializer}. */
+	XML(BookStoreConstants.CONTENT_TYPE_XML, BookStoreStaxSerializer::new),
+
+	/** The Kryo objects of {@link BookStoreKryoSerializer}. */
+	KRYO(BookStoreConstants.CONTENT_TYPE_KRYO, BookStoreKryoSerializer::new),
+
+	/** The Kryo objects of {@link BookStoreKryoSerializer} with unsafe buffers. */
+	KRYO_UNSAFE(BookStoreConstants.CONTENT_TYPE_KRYO_UNSAFE, () -> new BookStoreKryoSerializer(true)),
+
+	/** The fixed schema of {@link BookStoreBinarySerializer}. */
+	BINARY(BookStoreConstants.CONTENT_TYPE_BINARY, BookStoreBinarySerializer::new);
+
+	/** The content type. */
+	private final String contentType;
+
+	/** The serializer of each thread. */
+	private final ThreadLocal<BookStoreSerializer> serializers;
+
+	/**
+	 * Instantiates a new {@link BookStoreWireFormat}.
+	 *
+	 * @param contentType
+	 *            the content type
+	 * @param newSerializer
+	 *            the constructor of the serializer
+	 */
+	private BookStoreWireFormat(String contentType, Supplier<BookStoreSerializer> newSerializer) {
+		this.contentType = contentType;
+		this.serializers = ThreadLocal.withInitial(newSerializer);
+	}
+
+	/**
+	 * Gets the content type.
+	 *
+	 * @return the content type
+	 */
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * Gets the serializer of each thread.
+	 *
+	 * @return the serializers
+	 */
+	public ThreadLocal<BookStoreSerializer> getSerializers() {
+		return serializers;
+	}
+
+	/**
+	 * Gets the default format, used when a message does not name one. It is
+	 * named at startup by the property
+	 * {@link BookStoreConstants#PROPERTY_KEY_WIRE_FORMAT}, or else is Kryo or
+	 * XML as decided by {@link BookStoreConstants#BINARY_SERIALIZATION}.
+	 *
+	 * @return the default format
+	 * @throws IllegalArgumentException
+	 *             if the property names no format
+	 */
+	public static BookStoreWireFormat getDefault() {
+		String name = System.getProperty(BookStoreConstants.PROPERTY_KEY_WIRE_FORMAT);
+
+		if (name != null) {
+			return valueOf(name.trim().toUpperCase(Locale.ROOT));
+		}
+
+		return BookStoreConstants.BINARY_SERIALIZATION ? KRYO : XML;
+	}
+
+	/**
+	 * Gets the format of a content type, ignoring its parameters.
+	 *
+	 * @param contentType
+	 *            the content type, such as a Content-Type header
+	 * @return the format, or null if the content type names none
+	 */
+	public static BookStoreWireFormat forContentType(String contentType) {
+		if (contentType == null) {
+			return null;
+		}
+
+		int parameters = contentType.indexOf(';');
+		String mimeType = (parameters < 0 ? contentType : contentType.substring(0, parameters)).trim();
+
+		for (BookStoreWireFormat format : values()) {
+			if (format.contentType.equalsIgnoreCase(mimeType)) {
+				return format;
+			}
+		}
+
+		return null;
+	}
+}
@@ -1,12 +1,21 @@
 package com.acertainbookstore.utils;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
 import com.acertainbookstore.interfaces.BookStoreSerializer;
 import com.thoughtworks.xstream.XStream;
 import com.thoughtworks.xstream.io.xml.StaxDriver;
 
 /**
  * {@link BookStoreXStreamSerializer} serializes objects to arrays of bytes
- * representing XML trees using the XStream library.
+ * representing XML trees using the XStream library. The XML is encoded in
+ * UTF-8, whether written to an array or to a stream.
  * 
  * @see BookStoreSerializer
  */
@@ -25,7 +34,7 @@ public final class BookStoreXStreamSerializer implements BookStoreSerializer {
 	@Override
 	public byte[] serialize(Object object) {
 		String xml = xmlStream.toXML(object);
-		return xml.getBytes();
+		return xml.getBytes(StandardCharsets.UTF_8);
 	}
 
 	/*
@@ -36,7 +45,43 @@ public final class BookStoreXStreamSerializer implements BookStoreSerializer {
 	 */
 	@Override
 	public Object deserialize(byte[] bytes) {
-		String xml = new String(bytes);
+		String xml = new String(bytes, StandardCharsets.UTF_8);
 		return xmlStream.fromXML(xml);
 	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#serialize(java.lang.
+	 * Object, java.io.OutputStream)
+	 */
+	@Override
+	public void serialize(Object object, OutputStream out) throws IOException {
+		Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+		xmlStream.toXML(object, writer);
+		writer.flush();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#deserialize(java.io.
+	 * InputStream)
+	 */
+	@Override
+	public Object deserialize(InputStream in) {
+		return xmlStream.fromXML(new InputStreamReader(in, StandardCharsets.UTF_8));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStoreSerializer#getContentType()
+	 */
+	@Override
+	public String getContentType() {
+		return BookStoreConstants.CONTENT_TYPE_XML;
+	}
 }